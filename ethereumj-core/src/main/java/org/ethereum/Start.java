@@ -19,11 +19,13 @@ package org.ethereum;
 
 import org.ethereum.cli.CLIInterface;
 import org.ethereum.config.SystemProperties;
+import org.ethereum.manager.BlockLoader;
 import org.ethereum.mine.Ethash;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Optional;
 import java.util.regex.Matcher;
@@ -89,6 +91,7 @@ public class Start {
     /**
      * Loads single or multiple block dumps from specified path, and terminate program execution.<br>
      * Exit code is 0 in case of successfully dumps loading, 1 otherwise.
+     * Binary dumps (<code>.rlp</code> files) are bulk imported, see {@link BlockLoader#loadBlocksBulk(Path...)}
      *
      * @param config {@link SystemProperties} config instance;
      * @param path   file system path to dump file or directory that contains dumps;
@@ -110,7 +113,9 @@ public class Start {
                             .toArray(Path[]::new)
                     : new Path[]{path};
 
-            loaded = createEthereum().getBlockLoader().loadBlocks(paths);
+            BlockLoader loader = createEthereum().getBlockLoader();
+            boolean bulk = Arrays.stream(paths).allMatch(p -> p.getFileName().toString().endsWith(".rlp"));
+            loaded = bulk ? loader.loadBlocksBulk(paths) : loader.loadBlocks(paths);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -83,12 +83,12 @@ public class CommonConfig {
 
     @Bean
     public Repository defaultRepository() {
-        return new RepositoryRoot(stateSource(), null);
+        return new RepositoryRoot(stateSource(), null, stateSnapshot());
     }
 
     @Bean @Scope("prototype")
     public Repository repository(byte[] stateRoot) {
-        return new RepositoryRoot(stateSource(), stateRoot);
+        return new RepositoryRoot(stateSource(), stateRoot, stateSnapshot());
     }
 
     /**
@@ -116,13 +116,23 @@ public class CommonConfig {
     public StateSource stateSource() {
         fastSyncCleanUp();
         StateSource stateSource = new StateSource(blockchainSource("state"),
-                systemProperties().databasePruneDepth() >= 0);
+                systemProperties().databasePruneDepth() >= 0, dbFlushManager().getWriteAheadLog());
 
         dbFlushManager().addCache(stateSource.getWriteCache());
 
         return stateSource;
     }
 
+    /**
+     * Flat state snapshot serving the state reads of {@link RepositoryRoot}
+     */
+    @Bean
+    public StateSnapshot stateSnapshot() {
+        int layers = systemProperties().databaseSnapshotLayers();
+        if (layers < 0) return new StateSnapshot();
+        return new StateSnapshot(cachedDbSource("snapshot"), stateSource(), layers);
+    }
+
     @Bean
     @Scope("prototype")
     public Source<byte[], byte[]> cachedDbSource(String name) {
@@ -136,7 +146,7 @@ public class CommonConfig {
             }
         }.withName(name);
         dbFlushManager().addCache(writeCache);
-        return writeCache;
+        return dbFlushManager().withWriteAheadLog(name, writeCache);
     }
 
     @Bean
@@ -147,8 +157,9 @@ public class CommonConfig {
 
     @Bean
     public AbstractCachedSource<byte[], byte[]> blockchainDbCache() {
-        WriteCache.BytesKey<byte[]> ret = new WriteCache.BytesKey<>(
-                new BatchSourceWriter<>(blockchainDB()), WriteCache.CacheType.SIMPLE);
+        BatchSourceWriter<byte[], byte[]> batchWriter = new BatchSourceWriter<>(blockchainDB())
+                .withMaxBatchSize(systemProperties().getConfig().getInt("cache.flush.maxBatchSize"));
+        WriteCache.BytesKey<byte[]> ret = new WriteCache.BytesKey<>(batchWriter, WriteCache.CacheType.SIMPLE);
         ret.setFlushSource(true);
         return ret;
     }
@@ -242,9 +253,10 @@ public class CommonConfig {
         cache.setFlushSource(true);
         dbFlushManager().addCache(cache);
 
+        Source<byte[], byte[]> logged = dbFlushManager().withWriteAheadLog("headers", cache);
         HeaderStore headerStore = new HeaderStore();
-        Source<byte[], byte[]> headers = new XorDataSource<>(cache, HashUtil.sha3("header".getBytes()));
-        Source<byte[], byte[]> index = new XorDataSource<>(cache, HashUtil.sha3("index".getBytes()));
+        Source<byte[], byte[]> headers = new XorDataSource<>(logged, HashUtil.sha3("header".getBytes()));
+        Source<byte[], byte[]> index = new XorDataSource<>(logged, HashUtil.sha3("index".getBytes()));
         headerStore.init(index, headers);
 
         return headerStore;
@@ -285,7 +297,10 @@ public class CommonConfig {
 
     @Bean
     public DbFlushManager dbFlushManager() {
-        return new DbFlushManager(systemProperties(), dbSources, blockchainDbCache());
+        DbFlushManager ret = new DbFlushManager(systemProperties(), dbSources, blockchainDbCache());
+        // caches are backed by blockchain DB sources with the same names, see cachedDbSource() and stateSource()
+        ret.setWalBackingSources(name -> "headers".equals(name) ? headerSource() : blockchainSource(name));
+        return ret;
     }
 
     @Bean
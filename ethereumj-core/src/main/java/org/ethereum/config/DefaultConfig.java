@@ -87,7 +87,9 @@ public class DefaultConfig {
     public PruneManager pruneManager() {
         if (config.databasePruneDepth() >= 0) {
             return new PruneManager((IndexedBlockStore) blockStore(), commonConfig.stateSource().getJournalSource(),
-                    commonConfig.stateSource().getNoJournalSource(), config.databasePruneDepth());
+                    commonConfig.stateSource().getNoJournalSource(), config.databasePruneDepth())
+                    .withFlushLock(commonConfig.dbFlushManager().getFlipLock())
+                    .withBackgroundWorker(config.databasePruneBacklog(), config.databasePruneMaxDeletesPerSecond());
         } else {
             return new PruneManager(null, null, null, -1); // dummy
         }
@@ -483,6 +483,28 @@ public class SystemProperties {
         return config.getBoolean("database.prune.enabled") ? config.getInt("database.prune.maxDepth") : -1;
     }
 
+    @ValidateMe
+    public int databasePruneBacklog() {
+        return config.getInt("database.prune.backlog");
+    }
+
+    @ValidateMe
+    public int databasePruneMaxDeletesPerSecond() {
+        return config.getInt("database.prune.maxDeletesPerSecond");
+    }
+
+    /**
+     * @return number of the state snapshot diff layers, less than the prune depth, or -1 if disabled
+     */
+    @ValidateMe
+    public int databaseSnapshotLayers() {
+        if (!config.getBoolean("database.snapshot.enabled")) return -1;
+        int layers = config.getInt("database.snapshot.layers");
+        // destructed contracts storage is read from the trie of the base state, so it shouldn't be pruned
+        int pruneDepth = databasePruneDepth();
+        return pruneDepth >= 0 ? Math.min(layers, pruneDepth - 1) : layers;
+    }
+
     @ValidateMe
     public List<Node> peerActive() {
         if (!config.hasPath("peer.active")) {
@@ -547,6 +569,15 @@ public class SystemProperties {
         return config.getInt("cache.blockQueueSize") * 1024 * 1024;
     }
     @ValidateMe
+    public int statePrefetchThreads() {
+        return config.getInt("cache.statePrefetchThreads");
+    }
+
+    @ValidateMe
+    public boolean journaledTracking() {
+        return config.getBoolean("cache.journaledTracking");
+    }
+    @ValidateMe
     public Integer headerQueueSize() {
         return config.getInt("cache.headerQueueSize") * 1024 * 1024;
     }
@@ -23,7 +23,7 @@ import org.ethereum.crypto.HashUtil;
 import org.ethereum.util.ByteUtil;
 import org.ethereum.util.FastByteComparisons;
 import org.ethereum.util.RLP;
-import org.ethereum.util.RLPList;
+import org.ethereum.util.RLPWriter;
 
 import java.math.BigInteger;
 
@@ -31,17 +31,26 @@ import static org.ethereum.crypto.HashUtil.*;
 import static org.ethereum.util.FastByteComparisons.equal;
 import static org.ethereum.util.ByteUtil.toHexString;
 
+/**
+ * Account state kept in a compact form: the nonce and balance which fit into non-negative long
+ * are stored as primitives (the {@link BigInteger} is created on the getter call only) and
+ * the empty storage root and code hash are interned.
+ * The RLP encoding is not retained and the decoding doesn't create intermediate RLP objects
+ * so the account caches hold more entries for the same memory
+ */
 public class AccountState {
 
-    private byte[] rlpEncoded;
-
     /* A value equal to the number of transactions sent
      * from this address, or, in the case of contract accounts,
-     * the number of contract-creations made by this account */
-    private final BigInteger nonce;
+     * the number of contract-creations made by this account.
+     * The bigNonce is set only when the value doesn't fit into the nonce */
+    private final long nonce;
+    private final BigInteger bigNonce;
 
-    /* A scalar value equal to the number of Wei owned by this address */
-    private final BigInteger balance;
+    /* A scalar value equal to the number of Wei owned by this address.
+     * The bigBalance is set only when the value doesn't fit into the balance */
+    private final long balance;
+    private final BigInteger bigBalance;
 
     /* A 256-bit hash of the root node of a trie structure
      * that encodes the storage contents of the contract,
@@ -72,28 +81,56 @@ public class AccountState {
     }
 
     public AccountState(BigInteger nonce, BigInteger balance, byte[] stateRoot, byte[] codeHash) {
+        this(isCompact(nonce) ? nonce.longValue() : 0, isCompact(nonce) ? null : nonce,
+                isCompact(balance) ? balance.longValue() : 0, isCompact(balance) ? null : balance,
+                stateRoot, codeHash);
+    }
+
+    public AccountState(byte[] rlpData) {
+        RLP.LList items = RLP.decodeLazyList(rlpData);
+        if (items.getLength(0) < 8) {
+            this.nonce = items.getLong(0);
+            this.bigNonce = null;
+        } else {
+            this.nonce = 0;
+            this.bigNonce = items.getBigInteger(0);
+        }
+        if (items.getLength(1) < 8) {
+            this.balance = items.getLong(1);
+            this.bigBalance = null;
+        } else {
+            this.balance = 0;
+            this.bigBalance = items.getBigInteger(1);
+        }
+        this.stateRoot = isEmptyHash(items, 2, EMPTY_TRIE_HASH) ? EMPTY_TRIE_HASH : items.getRLPData(2);
+        this.codeHash = isEmptyHash(items, 3, EMPTY_DATA_HASH) ? EMPTY_DATA_HASH : items.getRLPData(3);
+    }
+
+    private AccountState(long nonce, BigInteger bigNonce, long balance, BigInteger bigBalance,
+                         byte[] stateRoot, byte[] codeHash) {
         this.nonce = nonce;
+        this.bigNonce = bigNonce;
         this.balance = balance;
+        this.bigBalance = bigBalance;
         this.stateRoot = stateRoot == EMPTY_TRIE_HASH || equal(stateRoot, EMPTY_TRIE_HASH) ? EMPTY_TRIE_HASH : stateRoot;
         this.codeHash = codeHash == EMPTY_DATA_HASH || equal(codeHash, EMPTY_DATA_HASH) ? EMPTY_DATA_HASH : codeHash;
     }
 
-    public AccountState(byte[] rlpData) {
-        this.rlpEncoded = rlpData;
+    private static boolean isCompact(BigInteger value) {
+        return value.signum() >= 0 && value.bitLength() < 64;
+    }
 
-        RLPList items = (RLPList) RLP.decode2(rlpEncoded).get(0);
-        this.nonce = ByteUtil.bytesToBigInteger(items.get(0).getRLPData());
-        this.balance = ByteUtil.bytesToBigInteger(items.get(1).getRLPData());
-        this.stateRoot = items.get(2).getRLPData();
-        this.codeHash = items.get(3).getRLPData();
+    private static boolean isEmptyHash(RLP.LList items, int idx, byte[] emptyHash) {
+        return FastByteComparisons.compareTo(items.getData(), items.getOffset(idx), items.getLength(idx),
+                emptyHash, 0, emptyHash.length) == 0;
     }
 
     public BigInteger getNonce() {
-        return nonce;
+        return bigNonce != null ? bigNonce : BigInteger.valueOf(nonce);
     }
 
     public AccountState withNonce(BigInteger nonce) {
-        return new AccountState(nonce, balance, stateRoot, codeHash);
+        return new AccountState(nonce, getBalance(), stateRoot, codeHash);
     }
 
     public byte[] getStateRoot() {
@@ -101,11 +138,14 @@ public class AccountState {
     }
 
     public AccountState withStateRoot(byte[] stateRoot) {
-        return new AccountState(nonce, balance, stateRoot, codeHash);
+        return new AccountState(nonce, bigNonce, balance, bigBalance, stateRoot, codeHash);
     }
 
     public AccountState withIncrementedNonce() {
-        return new AccountState(nonce.add(BigInteger.ONE), balance, stateRoot, codeHash);
+        if (bigNonce == null && nonce < Long.MAX_VALUE) {
+            return new AccountState(nonce + 1, null, balance, bigBalance, stateRoot, codeHash);
+        }
+        return withNonce(getNonce().add(BigInteger.ONE));
     }
 
     public byte[] getCodeHash() {
@@ -113,37 +153,46 @@ public class AccountState {
     }
 
     public AccountState withCodeHash(byte[] codeHash) {
-        return new AccountState(nonce, balance, stateRoot, codeHash);
+        return new AccountState(nonce, bigNonce, balance, bigBalance, stateRoot, codeHash);
     }
 
     public BigInteger getBalance() {
-        return balance;
+        return bigBalance != null ? bigBalance : BigInteger.valueOf(balance);
     }
 
     public AccountState withBalanceIncrement(BigInteger value) {
-        return new AccountState(nonce, balance.add(value), stateRoot, codeHash);
+        if (bigBalance == null && isCompact(value)) {
+            long sum = balance + value.longValue();
+            // both are non-negative so the overflow turns the sum negative
+            if (sum >= 0) {
+                return new AccountState(nonce, bigNonce, sum, null, stateRoot, codeHash);
+            }
+        }
+        BigInteger newBalance = getBalance().add(value);
+        return isCompact(newBalance) ?
+                new AccountState(nonce, bigNonce, newBalance.longValue(), null, stateRoot, codeHash) :
+                new AccountState(nonce, bigNonce, 0, newBalance, stateRoot, codeHash);
     }
 
     public byte[] getEncoded() {
-        if (rlpEncoded == null) {
-            byte[] nonce = RLP.encodeBigInteger(this.nonce);
-            byte[] balance = RLP.encodeBigInteger(this.balance);
-            byte[] stateRoot = RLP.encodeElement(this.stateRoot);
-            byte[] codeHash = RLP.encodeElement(this.codeHash);
-            this.rlpEncoded = RLP.encodeList(nonce, balance, stateRoot, codeHash);
-        }
-        return rlpEncoded;
+        RLPWriter writer = new RLPWriter().startList();
+        if (bigNonce != null) writer.writeBigInteger(bigNonce); else writer.writeLong(nonce);
+        if (bigBalance != null) writer.writeBigInteger(bigBalance); else writer.writeLong(balance);
+        return writer
+                .writeElement(stateRoot)
+                .writeElement(codeHash)
+                .endList().toByteArray();
     }
 
     public boolean isContractExist(BlockchainConfig blockchainConfig) {
-        return !FastByteComparisons.equal(codeHash, EMPTY_DATA_HASH) ||
-                !blockchainConfig.getConstants().getInitialNonce().equals(nonce);
+        return codeHash != EMPTY_DATA_HASH ||
+                !blockchainConfig.getConstants().getInitialNonce().equals(getNonce());
     }
 
     public boolean isEmpty() {
-        return FastByteComparisons.equal(codeHash, EMPTY_DATA_HASH) &&
-                BigInteger.ZERO.equals(balance) &&
-                BigInteger.ZERO.equals(nonce);
+        return codeHash == EMPTY_DATA_HASH &&
+                bigBalance == null && balance == 0 &&
+                bigNonce == null && nonce == 0;
     }
 
 
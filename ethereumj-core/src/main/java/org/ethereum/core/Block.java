@@ -19,8 +19,7 @@ package org.ethereum.core;
 
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.MemSizeEstimator;
-import org.ethereum.trie.Trie;
-import org.ethereum.trie.TrieImpl;
+import org.ethereum.trie.ListTrieRoot;
 import org.ethereum.util.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,8 +60,11 @@ public class Block {
 
     /* Private */
 
-    private byte[] rlpEncoded;
-    private boolean parsed = false;
+    private volatile byte[] rlpEncoded;
+    // the volatile write after parsing publishes the parsed header and lists to the threads checking the flag
+    private volatile boolean parsed = false;
+    // the transactions and uncles are known to match the header
+    private volatile boolean bodyValid = false;
 
     /* Constructors */
 
@@ -137,26 +139,29 @@ public class Block {
         this.parsed = true;
     }
 
-    private synchronized void parseRLP() {
+    /**
+     * Parses the encoded block once, subsequent calls don't take the lock
+     */
+    private void parseRLP() {
         if (parsed) return;
+        synchronized (this) {
+            if (!parsed) parseEncoded();
+        }
+    }
 
-        RLPList params = RLP.decode2(rlpEncoded);
-        RLPList block = (RLPList) params.get(0);
+    private void parseEncoded() {
+        RLP.LList block = RLP.decodeLazyList(rlpEncoded);
 
         // Parse Header
-        RLPList header = (RLPList) block.get(0);
-        this.header = new BlockHeader(header);
+        this.header = new BlockHeader(block.getList(0));
 
         // Parse Transactions
-        RLPList txTransactions = (RLPList) block.get(1);
-        this.parseTxs(this.header.getTxTrieRoot(), txTransactions, false);
+        this.parseTxs(this.header.getTxTrieRoot(), block.getList(1), false);
 
         // Parse Uncles
-        RLPList uncleBlocks = (RLPList) block.get(2);
-        for (RLPElement rawUncle : uncleBlocks) {
-
-            RLPList uncleHeader = (RLPList) rawUncle;
-            BlockHeader blockData = new BlockHeader(uncleHeader);
+        RLP.LList uncleBlocks = block.getList(2);
+        for (int i = 0; i < uncleBlocks.size(); i++) {
+            BlockHeader blockData = new BlockHeader(uncleBlocks.getList(i));
             this.uncleList.add(blockData);
         }
         this.parsed = true;
@@ -195,6 +200,7 @@ public class Block {
     public void setStateRoot(byte[] stateRoot) {
         parseRLP();
         this.header.setStateRoot(stateRoot);
+        rlpEncoded = null;
     }
 
     public byte[] getTxTrieRoot() {
@@ -295,7 +301,6 @@ public class Block {
         return uncleList;
     }
 
-    private StringBuffer toStringBuff = new StringBuffer();
     // [parent_hash, uncles_hash, coinbase, state_root, tx_trie_root,
     // difficulty, number, minGasPrice, gasLimit, gasUsed, timestamp,
     // extradata, nonce]
@@ -304,7 +309,7 @@ public class Block {
     public String toString() {
         parseRLP();
 
-        toStringBuff.setLength(0);
+        StringBuilder toStringBuff = new StringBuilder();
         toStringBuff.append(toHexString(this.getEncoded())).append("\n");
         toStringBuff.append("BlockData [ ");
         toStringBuff.append(header.toString());
@@ -337,7 +342,7 @@ public class Block {
     public String toFlatString() {
         parseRLP();
 
-        toStringBuff.setLength(0);
+        StringBuilder toStringBuff = new StringBuilder();
         toStringBuff.append("BlockData [");
         toStringBuff.append(header.toFlatString());
 
@@ -350,21 +355,21 @@ public class Block {
         return toStringBuff.toString();
     }
 
-    private byte[] parseTxs(RLPList txTransactions, boolean validate) {
+    private byte[] parseTxs(RLP.LList txTransactions, boolean validate) {
 
-        Trie<byte[]> txsState = new TrieImpl();
+        ListTrieRoot txsRoot = new ListTrieRoot();
         for (int i = 0; i < txTransactions.size(); i++) {
-            RLPElement transactionRaw = txTransactions.get(i);
-            Transaction tx = new Transaction(transactionRaw.getRLPData());
+            byte[] transactionRaw = txTransactions.getRLPData(i);
+            Transaction tx = new Transaction(transactionRaw);
             if (validate) tx.verify();
             this.transactionsList.add(tx);
-            txsState.put(RLP.encodeInt(i), transactionRaw.getRLPData());
+            txsRoot.add(transactionRaw);
         }
-        return txsState.getRootHash();
+        return txsRoot.getRootHash();
     }
 
 
-    private boolean parseTxs(byte[] expectedRoot, RLPList txTransactions, boolean validate) {
+    private boolean parseTxs(byte[] expectedRoot, RLP.LList txTransactions, boolean validate) {
 
         byte[] rootHash = parseTxs(txTransactions, validate);
         String calculatedRoot = Hex.toHexString(rootHash);
@@ -376,6 +381,37 @@ public class Block {
         return true;
     }
 
+    /**
+     * Checks the transactions trie root and the uncles hash of the header against the block body.
+     * The check doesn't depend on the state or other blocks, so it may be done on any thread ahead of
+     * the block import. The positive result is cached
+     */
+    public boolean isBodyValid() {
+        if (bodyValid) return true;
+        parseRLP();
+
+        byte[] txTrieRoot = BlockchainImpl.calcTxTrie(getTransactionsList());
+        if (!FastByteComparisons.equal(header.getTxTrieRoot(), txTrieRoot)) {
+            logger.warn("Block's given Trie Hash doesn't match: {} != {}",
+                    toHexString(header.getTxTrieRoot()), toHexString(txTrieRoot));
+            return false;
+        }
+
+        // the received uncles list is hashed as is, the same way Builder does,
+        // the parsed uncles are not guaranteed to encode back to the same bytes
+        byte[] encoded = rlpEncoded;
+        byte[] unclesHash = encoded != null ? sha3(RLP.decodeLazyList(encoded).getRLPData(2)) :
+                sha3(header.getUnclesEncoded(getUncleList()));
+        if (!FastByteComparisons.equal(header.getUnclesHash(), unclesHash)) {
+            logger.warn("Block's given Uncle Hash doesn't match: {} != {}",
+                    toHexString(header.getUnclesHash()), toHexString(unclesHash));
+            return false;
+        }
+
+        bodyValid = true;
+        return true;
+    }
+
     /**
      * check if param block is son of this block
      *
@@ -394,26 +430,26 @@ public class Block {
         return Arrays.areEqual(this.getHash(), block.getHash());
     }
 
-    private byte[] getTransactionsEncoded() {
-
-        byte[][] transactionsEncoded = new byte[transactionsList.size()][];
-        int i = 0;
+    private void encodeTransactions(RLPWriter writer) {
+        writer.startList();
         for (Transaction tx : transactionsList) {
-            transactionsEncoded[i] = tx.getEncoded();
-            ++i;
+            writer.writeEncoded(tx.getEncoded());
         }
-        return RLP.encodeList(transactionsEncoded);
+        writer.endList();
     }
 
-    private byte[] getUnclesEncoded() {
-
-        byte[][] unclesEncoded = new byte[uncleList.size()][];
-        int i = 0;
+    private void encodeUncles(RLPWriter writer) {
+        writer.startList();
         for (BlockHeader uncle : uncleList) {
-            unclesEncoded[i] = uncle.getEncoded();
-            ++i;
+            uncle.encodeTo(writer, true);
         }
-        return RLP.encodeList(unclesEncoded);
+        writer.endList();
+    }
+
+    private byte[] getUnclesEncoded() {
+        RLPWriter writer = new RLPWriter();
+        encodeUncles(writer);
+        return writer.toByteArray();
     }
 
     public void addUncle(BlockHeader uncle) {
@@ -423,16 +459,14 @@ public class Block {
     }
 
     public byte[] getEncoded() {
-        if (rlpEncoded == null) {
-            byte[] header = this.header.getEncoded();
-
-            List<byte[]> block = getBodyElements();
-            block.add(0, header);
-            byte[][] elements = block.toArray(new byte[block.size()][]);
-
-            this.rlpEncoded = RLP.encodeList(elements);
+        byte[] ret = rlpEncoded;
+        if (ret == null) {
+            RLPWriter writer = new RLPWriter().startList();
+            this.header.encodeTo(writer, true);
+            encodeBody(writer);
+            this.rlpEncoded = ret = writer.endList().toByteArray();
         }
-        return rlpEncoded;
+        return ret;
     }
 
     public byte[] getEncodedWithoutNonce() {
@@ -441,22 +475,16 @@ public class Block {
     }
 
     public byte[] getEncodedBody() {
-        List<byte[]> body = getBodyElements();
-        byte[][] elements = body.toArray(new byte[body.size()][]);
-        return RLP.encodeList(elements);
+        RLPWriter writer = new RLPWriter().startList();
+        encodeBody(writer);
+        return writer.endList().toByteArray();
     }
 
-    private List<byte[]> getBodyElements() {
+    private void encodeBody(RLPWriter writer) {
         parseRLP();
 
-        byte[] transactions = getTransactionsEncoded();
-        byte[] uncles = getUnclesEncoded();
-
-        List<byte[]> body = new ArrayList<>();
-        body.add(transactions);
-        body.add(uncles);
-
-        return body;
+        encodeTransactions(writer);
+        encodeUncles(writer);
     }
 
     public String getShortHash() {
@@ -492,28 +520,25 @@ public class Block {
 
             Block block = new Block();
             block.header = header;
-            block.parsed = true;
-
-            RLPList items = (RLPList) RLP.decode2(body).get(0);
 
-            RLPList transactions = (RLPList) items.get(0);
-            RLPList uncles = (RLPList) items.get(1);
+            RLP.LList items = RLP.decodeLazyList(body);
 
-            if (!block.parseTxs(header.getTxTrieRoot(), transactions, false)) {
+            if (!block.parseTxs(header.getTxTrieRoot(), items.getList(0), false)) {
                 return null;
             }
 
-            byte[] unclesHash = HashUtil.sha3(uncles.getRLPData());
+            byte[] unclesHash = HashUtil.sha3(items.getRLPData(1));
             if (!java.util.Arrays.equals(header.getUnclesHash(), unclesHash)) {
                 return null;
             }
 
-            for (RLPElement rawUncle : uncles) {
-
-                RLPList uncleHeader = (RLPList) rawUncle;
-                BlockHeader blockData = new BlockHeader(uncleHeader);
+            RLP.LList uncles = items.getList(1);
+            for (int i = 0; i < uncles.size(); i++) {
+                BlockHeader blockData = new BlockHeader(uncles.getList(i));
                 block.uncleList.add(blockData);
             }
+            block.bodyValid = true;
+            block.parsed = true;
 
             return block;
         }
@@ -91,10 +91,42 @@ public class BlockHeader {
      * of computation has been carried out on this block */
     private byte[] nonce;
 
-    private byte[] hashCache;
+    /* Encoding and hash are computed once and published without locking,
+     * setters reset them (headers are only modified before sharing) */
+    private volatile byte[] rlpEncoded;
+    private volatile byte[] hashCache;
 
     public BlockHeader(byte[] encoded) {
-        this((RLPList) RLP.decode2(encoded).get(0));
+        this(RLP.decodeLazyList(encoded));
+    }
+
+    public BlockHeader(RLP.LList rlpHeader) {
+
+        this.parentHash = rlpHeader.getRLPData(0);
+        this.unclesHash = rlpHeader.getRLPData(1);
+        this.coinbase = rlpHeader.getRLPData(2);
+        this.stateRoot = rlpHeader.getRLPData(3);
+
+        this.txTrieRoot = rlpHeader.getRLPData(4);
+        if (this.txTrieRoot == null)
+            this.txTrieRoot = EMPTY_TRIE_HASH;
+
+        this.receiptTrieRoot = rlpHeader.getRLPData(5);
+        if (this.receiptTrieRoot == null)
+            this.receiptTrieRoot = EMPTY_TRIE_HASH;
+
+        this.logsBloom = rlpHeader.getRLPData(6);
+        this.difficulty = rlpHeader.getRLPData(7);
+
+        this.number = rlpHeader.getLong(8);
+
+        this.gasLimit = rlpHeader.getRLPData(9);
+        this.gasUsed = rlpHeader.getLong(10);
+        this.timestamp = rlpHeader.getLong(11);
+
+        this.extraData = rlpHeader.getRLPData(12);
+        this.mixHash = rlpHeader.getRLPData(13);
+        this.nonce = rlpHeader.getRLPData(14);
     }
 
     public BlockHeader(RLPList rlpHeader) {
@@ -164,7 +196,7 @@ public class BlockHeader {
 
     public void setUnclesHash(byte[] unclesHash) {
         this.unclesHash = unclesHash;
-        hashCache = null;
+        resetCache();
     }
 
     public byte[] getCoinbase() {
@@ -173,7 +205,7 @@ public class BlockHeader {
 
     public void setCoinbase(byte[] coinbase) {
         this.coinbase = coinbase;
-        hashCache = null;
+        resetCache();
     }
 
     public byte[] getStateRoot() {
@@ -182,7 +214,7 @@ public class BlockHeader {
 
     public void setStateRoot(byte[] stateRoot) {
         this.stateRoot = stateRoot;
-        hashCache = null;
+        resetCache();
     }
 
     public byte[] getTxTrieRoot() {
@@ -191,7 +223,7 @@ public class BlockHeader {
 
     public void setReceiptsRoot(byte[] receiptTrieRoot) {
         this.receiptTrieRoot = receiptTrieRoot;
-        hashCache = null;
+        resetCache();
     }
 
     public byte[] getReceiptsRoot() {
@@ -200,7 +232,7 @@ public class BlockHeader {
 
     public void setTransactionsRoot(byte[] stateRoot) {
         this.txTrieRoot = stateRoot;
-        hashCache = null;
+        resetCache();
     }
 
 
@@ -219,7 +251,7 @@ public class BlockHeader {
 
     public void setDifficulty(byte[] difficulty) {
         this.difficulty = difficulty;
-        hashCache = null;
+        resetCache();
     }
 
     public long getTimestamp() {
@@ -228,7 +260,7 @@ public class BlockHeader {
 
     public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
-        hashCache = null;
+        resetCache();
     }
 
     public long getNumber() {
@@ -237,7 +269,7 @@ public class BlockHeader {
 
     public void setNumber(long number) {
         this.number = number;
-        hashCache = null;
+        resetCache();
     }
 
     public byte[] getGasLimit() {
@@ -246,7 +278,7 @@ public class BlockHeader {
 
     public void setGasLimit(byte[] gasLimit) {
         this.gasLimit = gasLimit;
-        hashCache = null;
+        resetCache();
     }
 
     public long getGasUsed() {
@@ -255,7 +287,7 @@ public class BlockHeader {
 
     public void setGasUsed(long gasUsed) {
         this.gasUsed = gasUsed;
-        hashCache = null;
+        resetCache();
     }
 
     public byte[] getMixHash() {
@@ -264,7 +296,7 @@ public class BlockHeader {
 
     public void setMixHash(byte[] mixHash) {
         this.mixHash = mixHash;
-        hashCache = null;
+        resetCache();
     }
 
     public byte[] getExtraData() {
@@ -277,28 +309,38 @@ public class BlockHeader {
 
     public void setNonce(byte[] nonce) {
         this.nonce = nonce;
-        hashCache = null;
+        resetCache();
     }
 
     public void setLogsBloom(byte[] logsBloom) {
         this.logsBloom = logsBloom;
-        hashCache = null;
+        resetCache();
     }
 
     public void setExtraData(byte[] extraData) {
         this.extraData = extraData;
-        hashCache = null;
+        resetCache();
     }
 
     public byte[] getHash() {
-        if (hashCache == null) {
-            hashCache = HashUtil.sha3(getEncoded());
+        byte[] ret = hashCache;
+        if (ret == null) {
+            hashCache = ret = HashUtil.sha3(getEncoded());
         }
-        return hashCache;
+        return ret;
     }
 
     public byte[] getEncoded() {
-        return this.getEncoded(true); // with nonce
+        byte[] ret = rlpEncoded;
+        if (ret == null) {
+            rlpEncoded = ret = this.getEncoded(true); // with nonce
+        }
+        return ret;
+    }
+
+    private void resetCache() {
+        rlpEncoded = null;
+        hashCache = null;
     }
 
     public byte[] getEncodedWithoutNonce() {
@@ -306,49 +348,51 @@ public class BlockHeader {
     }
 
     public byte[] getEncoded(boolean withNonce) {
-        byte[] parentHash = RLP.encodeElement(this.parentHash);
-
-        byte[] unclesHash = RLP.encodeElement(this.unclesHash);
-        byte[] coinbase = RLP.encodeElement(this.coinbase);
-
-        byte[] stateRoot = RLP.encodeElement(this.stateRoot);
-
+        RLPWriter writer = new RLPWriter();
+        encodeTo(writer, withNonce);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Adds the header encoding to the writer which may hold an enclosing structure
+     */
+    public void encodeTo(RLPWriter writer, boolean withNonce) {
+        byte[] encoded = rlpEncoded;
+        if (withNonce && encoded != null) {
+            writer.writeEncoded(encoded);
+            return;
+        }
         if (txTrieRoot == null) this.txTrieRoot = EMPTY_TRIE_HASH;
-        byte[] txTrieRoot = RLP.encodeElement(this.txTrieRoot);
-
         if (receiptTrieRoot == null) this.receiptTrieRoot = EMPTY_TRIE_HASH;
-        byte[] receiptTrieRoot = RLP.encodeElement(this.receiptTrieRoot);
-
-        byte[] logsBloom = RLP.encodeElement(this.logsBloom);
-        byte[] difficulty = RLP.encodeBigInteger(new BigInteger(1, this.difficulty));
-        byte[] number = RLP.encodeBigInteger(BigInteger.valueOf(this.number));
-        byte[] gasLimit = RLP.encodeElement(this.gasLimit);
-        byte[] gasUsed = RLP.encodeBigInteger(BigInteger.valueOf(this.gasUsed));
-        byte[] timestamp = RLP.encodeBigInteger(BigInteger.valueOf(this.timestamp));
 
-        byte[] extraData = RLP.encodeElement(this.extraData);
+        writer.startList()
+                .writeElement(this.parentHash)
+                .writeElement(this.unclesHash)
+                .writeElement(this.coinbase)
+                .writeElement(this.stateRoot)
+                .writeElement(this.txTrieRoot)
+                .writeElement(this.receiptTrieRoot)
+                .writeElement(this.logsBloom)
+                .writeBigInteger(new BigInteger(1, this.difficulty))
+                .writeLong(this.number)
+                .writeElement(this.gasLimit)
+                .writeLong(this.gasUsed)
+                .writeLong(this.timestamp)
+                .writeElement(this.extraData);
         if (withNonce) {
-            byte[] mixHash = RLP.encodeElement(this.mixHash);
-            byte[] nonce = RLP.encodeElement(this.nonce);
-            return RLP.encodeList(parentHash, unclesHash, coinbase,
-                    stateRoot, txTrieRoot, receiptTrieRoot, logsBloom, difficulty, number,
-                    gasLimit, gasUsed, timestamp, extraData, mixHash, nonce);
-        } else {
-            return RLP.encodeList(parentHash, unclesHash, coinbase,
-                    stateRoot, txTrieRoot, receiptTrieRoot, logsBloom, difficulty, number,
-                    gasLimit, gasUsed, timestamp, extraData);
+            writer.writeElement(this.mixHash)
+                    .writeElement(this.nonce);
         }
+        writer.endList();
     }
 
     public byte[] getUnclesEncoded(List<BlockHeader> uncleList) {
 
-        byte[][] unclesEncoded = new byte[uncleList.size()][];
-        int i = 0;
+        RLPWriter writer = new RLPWriter().startList();
         for (BlockHeader uncle : uncleList) {
-            unclesEncoded[i] = uncle.getEncoded();
-            ++i;
+            uncle.encodeTo(writer, true);
         }
-        return RLP.encodeList(unclesEncoded);
+        return writer.endList().toByteArray();
     }
 
     public byte[] getPowBoundary() {
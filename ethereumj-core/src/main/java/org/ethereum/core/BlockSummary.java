@@ -38,6 +38,9 @@ public class BlockSummary {
     private final List<TransactionReceipt> receipts;
     private final List<TransactionExecutionSummary> summaries;
     private BigInteger totalDifficulty = BigInteger.ZERO;
+    // calculated from the receipts if not provided
+    private byte[] receiptsRoot;
+    private byte[] logBloom;
 
     public BlockSummary(byte[] rlp) {
         RLPList rlpList = RLP.unwrapList(rlp);
@@ -57,10 +60,21 @@ public class BlockSummary {
     }
 
     public BlockSummary(Block block, Map<byte[], BigInteger> rewards, List<TransactionReceipt> receipts, List<TransactionExecutionSummary> summaries) {
+        this(block, rewards, receipts, summaries, null, null);
+    }
+
+    /**
+     * @param receiptsRoot  receipts trie root calculated while the block was applied
+     * @param logBloom  aggregate bloom of the receipts
+     */
+    public BlockSummary(Block block, Map<byte[], BigInteger> rewards, List<TransactionReceipt> receipts,
+                        List<TransactionExecutionSummary> summaries, byte[] receiptsRoot, byte[] logBloom) {
         this.block = block;
         this.rewards = rewards;
         this.receipts = receipts;
         this.summaries = summaries;
+        this.receiptsRoot = receiptsRoot;
+        this.logBloom = logBloom;
     }
 
     public Block getBlock() {
@@ -75,6 +89,20 @@ public class BlockSummary {
         return summaries;
     }
 
+    public byte[] getReceiptsRoot() {
+        if (receiptsRoot == null) {
+            receiptsRoot = BlockchainImpl.calcReceiptsTrie(receipts);
+        }
+        return receiptsRoot;
+    }
+
+    public byte[] getLogBloom() {
+        if (logBloom == null) {
+            logBloom = BlockchainImpl.calcLogBloom(receipts);
+        }
+        return logBloom;
+    }
+
     /**
      * All the mining rewards paid out for this block, including the main block rewards, uncle rewards, and transaction fees.
      */
@@ -29,8 +29,23 @@ public interface Blockchain {
 
     ImportResult tryToConnect(Block block);
 
+    /**
+     * Imports the block of a trusted linear chain (e.g. read from a local dump) on top of the best block.
+     * No fork choice is done and the pending state is not updated.
+     *
+     * @param indexReceipts if false the receipts are not put to the transaction store,
+     *                      the caller is expected to do it later with {@link #indexReceipts}
+     * @return the block summary or null if the block is invalid or doesn't extend the best block
+     */
+    BlockSummary connectTrusted(Block block, boolean indexReceipts);
+
     void storeBlock(Block block, List<TransactionReceipt> receipts);
 
+    /**
+     * Puts the receipts of the stored block to the transaction store
+     */
+    void indexReceipts(Block block, List<TransactionReceipt> receipts);
+
     Block getBlockByNumber(long blockNr);
 
     void setBestBlock(Block block);
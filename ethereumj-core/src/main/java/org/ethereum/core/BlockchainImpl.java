@@ -24,8 +24,7 @@ import org.ethereum.config.SystemProperties;
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.inmem.HashMapDB;
 import org.ethereum.db.*;
-import org.ethereum.trie.Trie;
-import org.ethereum.trie.TrieImpl;
+import org.ethereum.trie.ListTrieRoot;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.listener.EthereumListenerAdapter;
 import org.ethereum.manager.AdminInfo;
@@ -325,15 +324,14 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
     public static byte[] calcTxTrie(List<Transaction> transactions) {
 
-        Trie txsState = new TrieImpl();
-
         if (transactions == null || transactions.isEmpty())
             return HashUtil.EMPTY_TRIE_HASH;
 
-        for (int i = 0; i < transactions.size(); i++) {
-            txsState.put(RLP.encodeInt(i), transactions.get(i).getEncoded());
+        ListTrieRoot txsRoot = new ListTrieRoot();
+        for (Transaction tx : transactions) {
+            txsRoot.add(tx.getEncoded());
         }
-        return txsState.getRootHash();
+        return txsRoot.getRootHash();
     }
 
     public Repository getRepository() {
@@ -476,6 +474,21 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         return ret;
     }
 
+    @Override
+    public synchronized BlockSummary connectTrusted(final Block block, boolean indexReceipts) {
+        if (!bestBlock.isParentOf(block)) {
+            logger.warn("Block {} doesn't extend the best block {}", block.getShortDescr(), bestBlock.getShortDescr());
+            return null;
+        }
+
+        BlockSummary summary = addImpl(repository, block, indexReceipts);
+        if (summary != null) {
+            listener.onBlock(summary, true);
+        }
+
+        return summary;
+    }
+
     public synchronized Block createNewBlock(Block parent, List<Transaction> txs, List<BlockHeader> uncles) {
         long time = System.currentTimeMillis() / 1000;
         // adjust time to parent block this may happen due to system clocks difference
@@ -519,13 +532,9 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         List<TransactionReceipt> receipts = summary.getReceipts();
         block.setStateRoot(track.getRoot());
 
-        Bloom logBloom = new Bloom();
-        for (TransactionReceipt receipt : receipts) {
-            logBloom.or(receipt.getBloomFilter());
-        }
-        block.getHeader().setLogsBloom(logBloom.getData());
+        block.getHeader().setLogsBloom(summary.getLogBloom());
         block.getHeader().setGasUsed(receipts.size() > 0 ? receipts.get(receipts.size() - 1).getCumulativeGasLong() : 0);
-        block.getHeader().setReceiptsRoot(calcReceiptsTrie(receipts));
+        block.getHeader().setReceiptsRoot(summary.getReceiptsRoot());
 
         return block;
     }
@@ -560,6 +569,10 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
     }
 
     public synchronized BlockSummary addImpl(Repository repo, final Block block) {
+        return addImpl(repo, block, true);
+    }
+
+    private synchronized BlockSummary addImpl(Repository repo, final Block block, boolean indexReceipts) {
 
         if (exitOn < block.getNumber()) {
             String msg = String.format("Exiting after block.number: %d", bestBlock.getNumber());
@@ -591,18 +604,21 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
         BlockSummary summary = processBlock(repo, block);
         final List<TransactionReceipt> receipts = summary.getReceipts();
+        final List<TransactionReceipt> indexed = indexReceipts ? receipts : Collections.emptyList();
+        final byte[] receiptsRoot = summary.getReceiptsRoot();
+        final byte[] logBloom = summary.getLogBloom();
 
         // Sanity checks
 
-        if (!FastByteComparisons.equal(block.getReceiptsRoot(), calcReceiptsTrie(receipts))) {
-            logger.warn("Block's given Receipt Hash doesn't match: {} != {}", toHexString(block.getReceiptsRoot()), toHexString(calcReceiptsTrie(receipts)));
+        if (!FastByteComparisons.equal(block.getReceiptsRoot(), receiptsRoot)) {
+            logger.warn("Block's given Receipt Hash doesn't match: {} != {}", toHexString(block.getReceiptsRoot()), toHexString(receiptsRoot));
             logger.warn("Calculated receipts: " + receipts);
             repo.rollback();
             summary = null;
         }
 
-        if (!FastByteComparisons.equal(block.getLogBloom(), calcLogBloom(receipts))) {
-            logger.warn("Block's given logBloom Hash doesn't match: {} != {}", toHexString(block.getLogBloom()), toHexString(calcLogBloom(receipts)));
+        if (!FastByteComparisons.equal(block.getLogBloom(), logBloom)) {
+            logger.warn("Block's given logBloom Hash doesn't match: {} != {}", toHexString(block.getLogBloom()), toHexString(logBloom));
             repo.rollback();
             summary = null;
         }
@@ -639,11 +655,11 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
             if (!byTest) {
                 dbFlushManager.commit(() -> {
-                    storeBlock(block, receipts);
+                    storeBlock(block, indexed);
                     repository.commit();
                 });
             } else {
-                storeBlock(block, receipts);
+                storeBlock(block, indexed);
             }
         }
 
@@ -669,18 +685,18 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
     }
 
     public static byte[] calcReceiptsTrie(List<TransactionReceipt> receipts) {
-        Trie receiptsTrie = new TrieImpl();
 
         if (receipts == null || receipts.isEmpty())
             return HashUtil.EMPTY_TRIE_HASH;
 
-        for (int i = 0; i < receipts.size(); i++) {
-            receiptsTrie.put(RLP.encodeInt(i), receipts.get(i).getReceiptTrieEncoded());
+        ListTrieRoot receiptsRoot = new ListTrieRoot();
+        for (TransactionReceipt receipt : receipts) {
+            receiptsRoot.add(receipt.getReceiptTrieEncoded());
         }
-        return receiptsTrie.getRootHash();
+        return receiptsRoot.getRootHash();
     }
 
-    private byte[] calcLogBloom(List<TransactionReceipt> receipts) {
+    public static byte[] calcLogBloom(List<TransactionReceipt> receipts) {
 
         Bloom retBloomFilter = new Bloom();
 
@@ -703,7 +719,10 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
     public boolean isValid(BlockHeader header) {
         if (parentHeaderValidator == null) return true;
 
-        Block parentBlock = getParent(header);
+        // the parent is usually the best block which saves the block store lookup
+        Block best = bestBlock;
+        Block parentBlock = FastByteComparisons.equal(best.getHash(), header.getParentHash()) ?
+                best : getParent(header);
 
         if (!parentHeaderValidator.validate(header, parentBlock.getHeader())) {
 
@@ -730,13 +749,8 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         if (!block.isGenesis()) {
             isValid = isValid(block.getHeader());
 
-            // Sanity checks
-            String trieHash = toHexString(block.getTxTrieRoot());
-            String trieListHash = toHexString(calcTxTrie(block.getTransactionsList()));
-
-
-            if (!trieHash.equals(trieListHash)) {
-                logger.warn("Block's given Trie Hash doesn't match: {} != {}", trieHash, trieListHash);
+            // Sanity checks, usually done ahead of the import
+            if (!block.isBodyValid()) {
                 return false;
             }
 
@@ -882,11 +896,15 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         long totalGasUsed = 0;
         List<TransactionReceipt> receipts = new ArrayList<>();
         List<TransactionExecutionSummary> summaries = new ArrayList<>();
+        // receipts trie and bloom are calculated as the receipts are produced
+        ListTrieRoot receiptsRoot = new ListTrieRoot();
+        Bloom logBloom = new Bloom();
 
         for (Transaction tx : block.getTransactionsList()) {
             stateLogger.debug("apply block: [{}] tx: [{}] ", block.getNumber(), i);
 
-            Repository txTrack = track.startTracking();
+            Repository txTrack = config.journaledTracking() && track instanceof RepositoryImpl ?
+                    new JournaledRepository((RepositoryImpl) track) : track.startTracking();
             TransactionExecutor executor = new TransactionExecutor(
                     tx, block.getCoinbase(),
                     txTrack, blockStore, programInvokeFactory, block, listener, totalGasUsed, vmHook)
@@ -922,6 +940,8 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 //                repository.dumpState(block, totalGasUsed, i++, tx.getHash());
 
             receipts.add(receipt);
+            receiptsRoot.add(receipt.getReceiptTrieEncoded());
+            logBloom.or(receipt.getBloomFilter());
             if (summary != null) {
                 summaries.add(summary);
             }
@@ -943,7 +963,8 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         adminInfo.addBlockExecTime(totalTime);
         logger.debug("block: num: [{}] hash: [{}], executed after: [{}]nano", block.getNumber(), block.getShortHash(), totalTime);
 
-        return new BlockSummary(block, rewards, receipts, summaries);
+        return new BlockSummary(block, rewards, receipts, summaries,
+                receiptsRoot.getRootHash(), logBloom.getData());
     }
 
     /**
@@ -996,9 +1017,7 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         else
             blockStore.saveBlock(block, totalDifficulty, true);
 
-        for (int i = 0; i < receipts.size(); i++) {
-            transactionStore.put(new TransactionInfo(receipts.get(i), block.getHash(), i));
-        }
+        indexReceipts(block, receipts);
 
         if (pruneManager != null) {
             pruneManager.blockCommitted(block.getHeader());
@@ -1016,6 +1035,12 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
     }
 
+    @Override
+    public void indexReceipts(Block block, List<TransactionReceipt> receipts) {
+        for (int i = 0; i < receipts.size(); i++) {
+            transactionStore.put(new TransactionInfo(receipts.get(i), block.getHash(), i));
+        }
+    }
 
     public boolean hasParentOnTheChain(Block block) {
         return getParent(block.getHeader()) != null;
@@ -1050,6 +1075,7 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
     @Override
     public synchronized void close() {
+        if (pruneManager != null) pruneManager.close();
         blockStore.close();
     }
 
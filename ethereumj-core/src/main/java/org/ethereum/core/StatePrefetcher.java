@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.core;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.collections4.map.LRUMap;
+import org.ethereum.config.CommonConfig;
+import org.ethereum.config.SystemProperties;
+import org.ethereum.db.BlockStore;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.db.RepositoryRoot;
+import org.ethereum.db.StateSource;
+import org.ethereum.vm.program.invoke.ProgramInvokeFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warms up the state DB read cache with the trie nodes a block is going to read
+ * while the block is waiting for import or is being imported.
+ *
+ * <p>
+ *     The block transactions are split between the prefetch threads and each part is speculatively
+ *     executed (as a local call, without nonce and balance checks) against the best state via the trie
+ *     in a throwaway repository. The accounts, contract code and storage paths touched this way are
+ *     mostly the same the import is going to touch since the best state is the parent
+ *     or a close ancestor of the block state. The accounts of the senders, receivers and the coinbase
+ *     are read upfront as they are needed even when the speculative execution fails.
+ *
+ * <p>
+ *     The prefetching of a block is stopped once the block (or any other block with the same
+ *     or greater number) is imported.
+ */
+@Component
+public class StatePrefetcher {
+
+    private static final Logger logger = LoggerFactory.getLogger("blockchain");
+
+    // blocks which are queued or prefetched are not prefetched again
+    private static final int RECENT_BLOCKS = 64;
+
+    @Autowired
+    private CommonConfig commonConfig;
+
+    @Autowired
+    private StateSource stateSource;
+
+    @Autowired
+    private Blockchain blockchain;
+
+    @Autowired
+    private BlockStore blockStore;
+
+    @Autowired
+    private ProgramInvokeFactory programInvokeFactory;
+
+    private final int threads;
+    // null when the prefetching is disabled
+    private final ExecutorService executor;
+    private final Map<ByteArrayWrapper, Object> recentBlocks = new LRUMap<>(RECENT_BLOCKS);
+
+    @Autowired
+    public StatePrefetcher(SystemProperties config) {
+        threads = config.statePrefetchThreads();
+        executor = threads <= 0 ? null : new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("StatePrefetcher-%d").build());
+    }
+
+    /**
+     * Starts prefetching the block state reads in background.
+     * Does nothing if the prefetching is disabled, the block is already imported or was already submitted
+     */
+    public void prefetch(final Block block) {
+        if (executor == null || block.getTransactionsList().isEmpty()) return;
+
+        Block best = blockchain.getBestBlock();
+        if (best.getNumber() >= block.getNumber()) return;
+        synchronized (recentBlocks) {
+            if (recentBlocks.put(new ByteArrayWrapper(block.getHash()), Boolean.TRUE) != null) return;
+        }
+
+        byte[] stateRoot = best.getStateRoot();
+        List<Transaction> txs = block.getTransactionsList();
+        int parts = Math.min(threads, txs.size());
+        for (int i = 0; i < parts; i++) {
+            List<Transaction> part = new ArrayList<>();
+            for (int j = i; j < txs.size(); j += parts) {
+                part.add(txs.get(j));
+            }
+            executor.submit(() -> prefetch(block, stateRoot, part));
+        }
+    }
+
+    private void prefetch(Block block, byte[] stateRoot, List<Transaction> txs) {
+        try {
+            // reading from the trie without the state snapshot to load the nodes which are to be updated
+            Repository track = new RepositoryRoot(stateSource, stateRoot).startTracking();
+            track.getAccountState(block.getCoinbase());
+            for (Transaction tx : txs) {
+                track.getAccountState(tx.getSender());
+                if (!tx.isContractCreation()) {
+                    track.getCode(tx.getReceiveAddress());
+                }
+            }
+
+            for (Transaction tx : txs) {
+                if (isImported(block)) return;
+                TransactionExecutor executor = new TransactionExecutor(tx, block.getCoinbase(), track,
+                        blockStore, programInvokeFactory, block)
+                        .withCommonConfig(commonConfig)
+                        .setLocalCall(true);
+                executor.init();
+                executor.execute();
+                executor.go();
+            }
+        } catch (Throwable t) {
+            // the prefetching failure doesn't affect the import
+            logger.debug("Error prefetching block state " + block.getShortDescr(), t);
+        }
+    }
+
+    private boolean isImported(Block block) {
+        return blockchain.getBestBlock().getNumber() >= block.getNumber();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -17,7 +17,6 @@
  */
 package org.ethereum.core;
 
-import static org.apache.commons.lang3.ArrayUtils.isEmpty;
 import static org.ethereum.datasource.MemSizeEstimator.ByteArrayEstimator;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
 import static org.ethereum.util.ByteUtil.ZERO_BYTE_ARRAY;
@@ -34,9 +33,7 @@ import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.MemSizeEstimator;
 import org.ethereum.util.ByteUtil;
 import org.ethereum.util.RLP;
-import org.ethereum.util.RLPElement;
-import org.ethereum.util.RLPItem;
-import org.ethereum.util.RLPList;
+import org.ethereum.util.RLPWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.BigIntegers;
@@ -60,7 +57,7 @@ public class Transaction {
     public static final int ADDRESS_LENGTH = 20;
 
     /* SHA3 hash of the RLP encoded transaction */
-    private byte[] hash;
+    private volatile byte[] hash;
 
     /* a counter used to make sure each transaction can only be processed once */
     private byte[] nonce;
@@ -98,14 +95,17 @@ public class Transaction {
      * (including public key recovery bits) */
     private ECDSASignature signature;
 
-    protected byte[] sendAddress;
+    /* The fields below are computed at most once per tx content and published
+     * without locking: the values are the same whichever thread computes them */
+    protected volatile byte[] sendAddress;
 
     /* Tx in encoded form */
-    protected byte[] rlpEncoded;
-    private byte[] rawHash;
+    protected volatile byte[] rlpEncoded;
+    private volatile byte[] rawHash;
     /* Indicates if this transaction has been parsed
-     * from the RLP-encoded data */
-    protected boolean parsed = false;
+     * from the RLP-encoded data. The volatile write after parsing
+     * publishes the parsed fields to the threads checking the flag */
+    protected volatile boolean parsed = false;
 
     public Transaction(byte[] rawData) {
         this.rlpEncoded = rawData;
@@ -185,36 +185,45 @@ public class Transaction {
                 getTransactionCost(this);
     }
 
-    public synchronized void verify() {
+    public void verify() {
         rlpParse();
         validate();
     }
 
-    public synchronized void rlpParse() {
+    /**
+     * Parses the encoded tx once, subsequent calls don't take the lock
+     */
+    public void rlpParse() {
         if (parsed) return;
+        synchronized (this) {
+            if (parsed) return;
+            parseRLP();
+            parsed = true;
+        }
+    }
+
+    protected void parseRLP() {
         try {
-            RLPList decodedTxList = RLP.decode2(rlpEncoded);
-            RLPList transaction = (RLPList) decodedTxList.get(0);
+            RLP.LList transaction = RLP.decodeLazyList(rlpEncoded);
 
             // Basic verification
             if (transaction.size() > 9 ) throw new RuntimeException("Too many RLP elements");
-            for (RLPElement rlpElement : transaction) {
-                if (!(rlpElement instanceof RLPItem))
+            for (int i = 0; i < transaction.size(); i++) {
+                if (transaction.isList(i))
                     throw new RuntimeException("Transaction RLP elements shouldn't be lists");
             }
 
-            this.nonce = transaction.get(0).getRLPData();
-            this.gasPrice = transaction.get(1).getRLPData();
-            this.gasLimit = transaction.get(2).getRLPData();
-            this.receiveAddress = transaction.get(3).getRLPData();
-            this.value = transaction.get(4).getRLPData();
-            this.data = transaction.get(5).getRLPData();
+            this.nonce = transaction.getRLPData(0);
+            this.gasPrice = transaction.getRLPData(1);
+            this.gasLimit = transaction.getRLPData(2);
+            this.receiveAddress = transaction.getRLPData(3);
+            this.value = transaction.getRLPData(4);
+            this.data = transaction.getRLPData(5);
             // only parse signature in case tx is signed
-            if (transaction.get(6).getRLPData() != null) {
-                byte[] vData =  transaction.get(6).getRLPData();
-                BigInteger v = ByteUtil.bytesToBigInteger(vData);
-                byte[] r = transaction.get(7).getRLPData();
-                byte[] s = transaction.get(8).getRLPData();
+            if (!transaction.isEmpty(6)) {
+                BigInteger v = transaction.getBigInteger(6);
+                byte[] r = transaction.getRLPData(7);
+                byte[] s = transaction.getRLPData(8);
                 this.chainId = extractChainIdFromRawSignature(v, r, s);
                 if (r != null && s != null) {
                     this.signature = ECDSASignature.fromComponents(r, s, getRealV(v));
@@ -222,8 +231,6 @@ public class Transaction {
             } else {
                 logger.debug("RLP encoded tx is not signed!");
             }
-            this.hash = HashUtil.sha3(rlpEncoded);
-            this.parsed = true;
         } catch (Exception e) {
             throw new RuntimeException("Error on parsing RLP", e);
         }
@@ -254,17 +261,19 @@ public class Transaction {
     }
 
     public byte[] getHash() {
-        if (!isEmpty(hash)) return hash;
-        rlpParse();
-        getEncoded();
-        return hash;
+        byte[] ret = hash;
+        if (ret == null) {
+            hash = ret = HashUtil.sha3(getEncoded());
+        }
+        return ret;
     }
 
     public byte[] getRawHash() {
-        rlpParse();
-        if (rawHash != null) return rawHash;
-        byte[] plainMsg = this.getEncodedRaw();
-        return rawHash = HashUtil.sha3(plainMsg);
+        byte[] ret = rawHash;
+        if (ret == null) {
+            rawHash = ret = HashUtil.sha3(getEncodedRaw());
+        }
+        return ret;
     }
 
 
@@ -276,7 +285,6 @@ public class Transaction {
 
     protected void setNonce(byte[] nonce) {
         this.nonce = nonce;
-        parsed = true;
     }
 
     public boolean isValueTx() {
@@ -291,7 +299,6 @@ public class Transaction {
 
     protected void setValue(byte[] value) {
         this.value = value;
-        parsed = true;
     }
 
     public byte[] getReceiveAddress() {
@@ -301,7 +308,6 @@ public class Transaction {
 
     protected void setReceiveAddress(byte[] receiveAddress) {
         this.receiveAddress = receiveAddress;
-        parsed = true;
     }
 
     public byte[] getGasPrice() {
@@ -311,7 +317,6 @@ public class Transaction {
 
     protected void setGasPrice(byte[] gasPrice) {
         this.gasPrice = gasPrice;
-        parsed = true;
     }
 
     public byte[] getGasLimit() {
@@ -321,7 +326,6 @@ public class Transaction {
 
     protected void setGasLimit(byte[] gasLimit) {
         this.gasLimit = gasLimit;
-        parsed = true;
     }
 
     public long nonZeroDataBytes() {
@@ -350,7 +354,6 @@ public class Transaction {
 
     protected void setData(byte[] data) {
         this.data = data;
-        parsed = true;
     }
 
     public ECDSASignature getSignature() {
@@ -377,12 +380,13 @@ public class Transaction {
         return ECKey.recoverFromSignature(signature.v, signature, hash);
     }
 
-    public synchronized byte[] getSender() {
+    public byte[] getSender() {
         try {
-            if (sendAddress == null && getSignature() != null) {
-                sendAddress = ECKey.signatureToAddress(getRawHash(), getSignature());
+            byte[] ret = sendAddress;
+            if (ret == null && getSignature() != null) {
+                sendAddress = ret = ECKey.signatureToAddress(getRawHash(), getSignature());
             }
-            return sendAddress;
+            return ret;
         } catch (SignatureException e) {
             logger.error(e.getMessage(), e);
         }
@@ -403,6 +407,9 @@ public class Transaction {
 
     public void sign(ECKey key) throws MissingPrivateKeyException {
         this.signature = key.sign(this.getRawHash());
+        // the encoding, hash and sender depend on the signature
+        this.sendAddress = null;
+        this.hash = null;
         this.rlpEncoded = null;
     }
 
@@ -422,7 +429,7 @@ public class Transaction {
             dataS = ByteUtil.toHexString(Arrays.copyOfRange(data, 0, maxDataSize)) +
                     "... (" + data.length + " bytes)";
         }
-        return "TransactionData [" + "hash=" + ByteUtil.toHexString(hash) +
+        return "TransactionData [" + "hash=" + ByteUtil.toHexString(getHash()) +
                 "  nonce=" + ByteUtil.toHexString(nonce) +
                 ", gasPrice=" + ByteUtil.toHexString(gasPrice) +
                 ", gas=" + ByteUtil.toHexString(gasLimit) +
@@ -443,54 +450,41 @@ public class Transaction {
     public byte[] getEncodedRaw() {
 
         rlpParse();
-        byte[] rlpRaw;
 
-        // parse null as 0 for nonce
-        byte[] nonce = null;
-        if (this.nonce == null || this.nonce.length == 1 && this.nonce[0] == 0) {
-            nonce = RLP.encodeElement(null);
-        } else {
-            nonce = RLP.encodeElement(this.nonce);
-        }
-        byte[] gasPrice = RLP.encodeElement(this.gasPrice);
-        byte[] gasLimit = RLP.encodeElement(this.gasLimit);
-        byte[] receiveAddress = RLP.encodeElement(this.receiveAddress);
-        byte[] value = RLP.encodeElement(this.value);
-        byte[] data = RLP.encodeElement(this.data);
+        RLPWriter writer = new RLPWriter().startList();
+        encodeFields(writer);
 
         // Since EIP-155 use chainId for v
-        if (chainId == null) {
-            rlpRaw = RLP.encodeList(nonce, gasPrice, gasLimit, receiveAddress,
-                    value, data);
-        } else {
-            byte[] v, r, s;
-            v = RLP.encodeInt(chainId);
-            r = RLP.encodeElement(EMPTY_BYTE_ARRAY);
-            s = RLP.encodeElement(EMPTY_BYTE_ARRAY);
-            rlpRaw = RLP.encodeList(nonce, gasPrice, gasLimit, receiveAddress,
-                    value, data, v, r, s);
+        if (chainId != null) {
+            writer.writeInt(chainId)
+                    .writeElement(EMPTY_BYTE_ARRAY)
+                    .writeElement(EMPTY_BYTE_ARRAY);
         }
-        return rlpRaw;
+        return writer.endList().toByteArray();
     }
 
-    public synchronized byte[] getEncoded() {
-
-        if (rlpEncoded != null) return rlpEncoded;
-
+    private void encodeFields(RLPWriter writer) {
         // parse null as 0 for nonce
-        byte[] nonce = null;
         if (this.nonce == null || this.nonce.length == 1 && this.nonce[0] == 0) {
-            nonce = RLP.encodeElement(null);
+            writer.writeElement(null);
         } else {
-            nonce = RLP.encodeElement(this.nonce);
+            writer.writeElement(this.nonce);
         }
-        byte[] gasPrice = RLP.encodeElement(this.gasPrice);
-        byte[] gasLimit = RLP.encodeElement(this.gasLimit);
-        byte[] receiveAddress = RLP.encodeElement(this.receiveAddress);
-        byte[] value = RLP.encodeElement(this.value);
-        byte[] data = RLP.encodeElement(this.data);
+        writer.writeElement(this.gasPrice)
+                .writeElement(this.gasLimit)
+                .writeElement(this.receiveAddress)
+                .writeElement(this.value)
+                .writeElement(this.data);
+    }
 
-        byte[] v, r, s;
+    public byte[] getEncoded() {
+
+        byte[] ret = rlpEncoded;
+        if (ret != null) return ret;
+
+        rlpParse();
+        RLPWriter writer = new RLPWriter().startList();
+        encodeFields(writer);
 
         if (signature != null) {
             int encodeV;
@@ -500,22 +494,23 @@ public class Transaction {
                 encodeV = signature.v - LOWER_REAL_V;
                 encodeV += chainId * 2 + CHAIN_ID_INC;
             }
-            v = RLP.encodeInt(encodeV);
-            r = RLP.encodeElement(BigIntegers.asUnsignedByteArray(signature.r));
-            s = RLP.encodeElement(BigIntegers.asUnsignedByteArray(signature.s));
+            writer.writeInt(encodeV)
+                    .writeElement(BigIntegers.asUnsignedByteArray(signature.r))
+                    .writeElement(BigIntegers.asUnsignedByteArray(signature.s));
         } else {
             // Since EIP-155 use chainId for v
-            v = chainId == null ? RLP.encodeElement(EMPTY_BYTE_ARRAY) : RLP.encodeInt(chainId);
-            r = RLP.encodeElement(EMPTY_BYTE_ARRAY);
-            s = RLP.encodeElement(EMPTY_BYTE_ARRAY);
+            if (chainId == null) {
+                writer.writeElement(EMPTY_BYTE_ARRAY);
+            } else {
+                writer.writeInt(chainId);
+            }
+            writer.writeElement(EMPTY_BYTE_ARRAY)
+                    .writeElement(EMPTY_BYTE_ARRAY);
         }
 
-        this.rlpEncoded = RLP.encodeList(nonce, gasPrice, gasLimit,
-                receiveAddress, value, data, v, r, s);
-
-        this.hash = HashUtil.sha3(rlpEncoded);
+        this.rlpEncoded = ret = writer.endList().toByteArray();
 
-        return rlpEncoded;
+        return ret;
     }
 
     @Override
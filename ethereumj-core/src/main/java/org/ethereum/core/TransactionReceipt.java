@@ -21,8 +21,8 @@ import org.ethereum.datasource.MemSizeEstimator;
 import org.ethereum.util.ByteUtil;
 import org.ethereum.util.RLP;
 import org.ethereum.util.RLPElement;
-import org.ethereum.util.RLPItem;
 import org.ethereum.util.RLPList;
+import org.ethereum.util.RLPWriter;
 import org.ethereum.vm.LogInfo;
 import org.spongycastle.util.BigIntegers;
 
@@ -63,29 +63,22 @@ public class TransactionReceipt {
 
     public TransactionReceipt(byte[] rlp) {
 
-        RLPList params = RLP.decode2(rlp);
-        RLPList receipt = (RLPList) params.get(0);
+        RLP.LList receipt = RLP.decodeLazyList(rlp);
 
-        RLPItem postTxStateRLP = (RLPItem) receipt.get(0);
-        RLPItem cumulativeGasRLP = (RLPItem) receipt.get(1);
-        RLPItem bloomRLP = (RLPItem) receipt.get(2);
-        RLPList logs = (RLPList) receipt.get(3);
-        RLPItem gasUsedRLP = (RLPItem) receipt.get(4);
-        RLPItem result = (RLPItem) receipt.get(5);
-
-        postTxState = nullToEmpty(postTxStateRLP.getRLPData());
-        cumulativeGas = cumulativeGasRLP.getRLPData();
-        bloomFilter = new Bloom(bloomRLP.getRLPData());
-        gasUsed = gasUsedRLP.getRLPData();
-        executionResult = (executionResult = result.getRLPData()) == null ? EMPTY_BYTE_ARRAY : executionResult;
+        postTxState = nullToEmpty(receipt.getRLPData(0));
+        cumulativeGas = receipt.getRLPData(1);
+        bloomFilter = new Bloom(receipt.getRLPData(2));
+        gasUsed = receipt.getRLPData(4);
+        executionResult = (executionResult = receipt.getRLPData(5)) == null ? EMPTY_BYTE_ARRAY : executionResult;
 
         if (receipt.size() > 6) {
-            byte[] errBytes = receipt.get(6).getRLPData();
+            byte[] errBytes = receipt.getRLPData(6);
             error = errBytes != null ? new String(errBytes, StandardCharsets.UTF_8) : "";
         }
 
-        for (RLPElement log : logs) {
-            LogInfo logInfo = new LogInfo(log.getRLPData());
+        RLP.LList logs = receipt.getList(3);
+        for (int i = 0; i < logs.size(); i++) {
+            LogInfo logInfo = new LogInfo(logs.getRLPData(i));
             logInfoList.add(logInfo);
         }
 
@@ -179,29 +172,25 @@ public class TransactionReceipt {
 
     public byte[] getEncoded(boolean receiptTrie) {
 
-        byte[] postTxStateRLP = RLP.encodeElement(this.postTxState);
-        byte[] cumulativeGasRLP = RLP.encodeElement(this.cumulativeGas);
-        byte[] bloomRLP = RLP.encodeElement(this.bloomFilter.data);
+        RLPWriter writer = new RLPWriter().startList()
+                .writeElement(this.postTxState)
+                .writeElement(this.cumulativeGas)
+                .writeElement(this.bloomFilter.data);
 
-        final byte[] logInfoListRLP;
+        writer.startList();
         if (logInfoList != null) {
-            byte[][] logInfoListE = new byte[logInfoList.size()][];
-
-            int i = 0;
             for (LogInfo logInfo : logInfoList) {
-                logInfoListE[i] = logInfo.getEncoded();
-                ++i;
+                writer.writeEncoded(logInfo.getEncoded());
             }
-            logInfoListRLP = RLP.encodeList(logInfoListE);
-        } else {
-            logInfoListRLP = RLP.encodeList();
         }
+        writer.endList();
 
-        return receiptTrie ?
-                RLP.encodeList(postTxStateRLP, cumulativeGasRLP, bloomRLP, logInfoListRLP):
-                RLP.encodeList(postTxStateRLP, cumulativeGasRLP, bloomRLP, logInfoListRLP,
-                        RLP.encodeElement(gasUsed), RLP.encodeElement(executionResult),
-                        RLP.encodeElement(error.getBytes(StandardCharsets.UTF_8)));
+        if (!receiptTrie) {
+            writer.writeElement(gasUsed)
+                    .writeElement(executionResult)
+                    .writeElement(error.getBytes(StandardCharsets.UTF_8));
+        }
+        return writer.endList().toByteArray();
 
     }
 
@@ -17,23 +17,54 @@
  */
 package org.ethereum.datasource;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Clue class between Source and BatchSource
  *
+ * When the max batch size is set the collected updates are written in several
+ * bounded batches: the next batch is assembled while the previous one is being
+ * written to the underlying source by a separate thread. Note that in this case
+ * the flush is no more atomic from the underlying DB perspective
+ *
  * Created by Anton Nashatyrev on 29.11.2016.
  */
 public class BatchSourceWriter<Key, Value> extends AbstractChainedSource<Key, Value, Key, Value> {
 
+    private static final ListeningExecutorService batchWriter = MoreExecutors.listeningDecorator(
+            Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("BatchSourceWriterThread-%d").build()));
+
     Map<Key, Value> buf = new HashMap<>();
 
+    private int maxBatchSize = 0;
+
+    private final AtomicLong batchesWritten = new AtomicLong();
+    private final AtomicLong entriesWritten = new AtomicLong();
+
     public BatchSourceWriter(BatchSource<Key, Value> src) {
         super(src);
     }
 
+    /**
+     * Sets the max number of entries written to the underlying source with a single batch
+     * @param maxBatchSize  max batch size, value <= 0 means the whole buffer is written with a single batch
+     */
+    public BatchSourceWriter<Key, Value> withMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
     private BatchSource<Key, Value> getBatchSource() {
         return (BatchSource<Key, Value>) getSource();
     }
@@ -55,12 +86,59 @@ public class BatchSourceWriter<Key, Value> extends AbstractChainedSource<Key, Va
 
     @Override
     public synchronized boolean flushImpl() {
-        if (!buf.isEmpty()) {
-            getBatchSource().updateBatch(buf);
-            buf.clear();
-            return true;
+        if (buf.isEmpty()) return false;
+
+        if (maxBatchSize <= 0 || buf.size() <= maxBatchSize) {
+            writeBatch(buf);
         } else {
-            return false;
+            ListenableFuture<?> lastWrite = Futures.immediateFuture(null);
+            Map<Key, Value> batch = new HashMap<>();
+            for (Map.Entry<Key, Value> entry : buf.entrySet()) {
+                batch.put(entry.getKey(), entry.getValue());
+                if (batch.size() >= maxBatchSize) {
+                    waitFor(lastWrite);
+                    final Map<Key, Value> toWrite = batch;
+                    lastWrite = batchWriter.submit(() -> writeBatch(toWrite));
+                    batch = new HashMap<>();
+                }
+            }
+            waitFor(lastWrite);
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+            }
         }
+        buf.clear();
+        return true;
+    }
+
+    private void writeBatch(Map<Key, Value> batch) {
+        getBatchSource().updateBatch(batch);
+        batchesWritten.incrementAndGet();
+        entriesWritten.addAndGet(batch.size());
+    }
+
+    private static void waitFor(ListenableFuture<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * @return number of batches written to the underlying source
+     */
+    public long getBatchesWritten() {
+        return batchesWritten.get();
+    }
+
+    /**
+     * @return number of entries written to the underlying source
+     */
+    public long getEntriesWritten() {
+        return entriesWritten.get();
     }
 }
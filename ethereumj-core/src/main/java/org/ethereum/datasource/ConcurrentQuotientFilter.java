@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.datasource;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Thread safe {@link CountingQuotientFilter} split into a number of independent shards.
+ *
+ * <p>
+ *     The shard is picked by the highest bits of the element hash which are never used
+ *     by the shard fingerprint, each shard is guarded by its own monitor. Thus inserts, removes
+ *     and lookups issued from different threads contend only when they hit the same shard.
+ *
+ * <p>
+ *     Each shard starts with a fraction of the expected capacity and doubles itself
+ *     when its load limit is reached, the fingerprint size (and false positive rate)
+ *     is determined by the largest number of elements only.
+ *
+ * <p>
+ *     The filter can be checkpointed to a file with {@link #writeTo(Path)} and loaded back with
+ *     {@link #readFrom(Path)} which maps the file to memory. File format:
+ *     {@code [int MAGIC][int shardsCnt]([int shardLen][shard])*}, see
+ *     {@link CountingQuotientFilter#writeTo(ByteBuffer)} for the shard format
+ */
+public class ConcurrentQuotientFilter {
+
+    private static final int MAGIC = 0x51463031; // "QF01"
+
+    public static final int DEFAULT_SHARDS = 16;
+
+    private final CountingQuotientFilter[] shards;
+    private final int shardShift;
+
+    private ConcurrentQuotientFilter(CountingQuotientFilter[] shards) {
+        Preconditions.checkArgument(Integer.bitCount(shards.length) == 1, "Shards number should be a power of 2");
+        this.shards = shards;
+        this.shardShift = 64 - Integer.numberOfTrailingZeros(shards.length);
+    }
+
+    public static ConcurrentQuotientFilter create(long largestNumberOfElements, long startingElements) {
+        return create(largestNumberOfElements, startingElements, DEFAULT_SHARDS);
+    }
+
+    public static ConcurrentQuotientFilter create(long largestNumberOfElements, long startingElements, int shardsCnt) {
+        CountingQuotientFilter[] shards = new CountingQuotientFilter[shardsCnt];
+        for (int i = 0; i < shardsCnt; i++) {
+            shards[i] = CountingQuotientFilter.create(Math.max(1, largestNumberOfElements / shardsCnt),
+                    Math.max(1, startingElements / shardsCnt));
+        }
+        return new ConcurrentQuotientFilter(shards);
+    }
+
+    public void insert(byte[] key) {
+        insert(shards[0].hash(key));
+    }
+
+    public void insert(long hash) {
+        shard(hash).insert(hash);
+    }
+
+    public void remove(byte[] key) {
+        remove(shards[0].hash(key));
+    }
+
+    public void remove(long hash) {
+        shard(hash).remove(hash);
+    }
+
+    public boolean maybeContains(byte[] key) {
+        return maybeContains(shards[0].hash(key));
+    }
+
+    public boolean maybeContains(long hash) {
+        return shard(hash).maybeContains(hash);
+    }
+
+    public long getEntryNumber() {
+        long ret = 0;
+        for (CountingQuotientFilter shard : shards) ret += shard.getEntryNumber();
+        return ret;
+    }
+
+    public long getMaxInsertions() {
+        long ret = 0;
+        for (CountingQuotientFilter shard : shards) ret += shard.getMaxInsertions();
+        return ret;
+    }
+
+    public int getCollisionNumber() {
+        int ret = 0;
+        for (CountingQuotientFilter shard : shards) ret += shard.getCollisionNumber();
+        return ret;
+    }
+
+    public long getAllocatedBytes() {
+        long ret = 0;
+        for (CountingQuotientFilter shard : shards) ret += shard.getAllocatedBytes();
+        return ret;
+    }
+
+    private CountingQuotientFilter shard(long hash) {
+        return shards.length == 1 ? shards[0] : shards[(int) (hash >>> shardShift)];
+    }
+
+    /**
+     * Writes the filter to the file. Shards are written one by one,
+     * so the filter is not required to be quiescent, though updates done
+     * during this call may or may not get to the file
+     *
+     * The file is written to a temporary location first and then moved to the target path
+     */
+    public void writeTo(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(shards.length);
+            header.flip();
+            writeFully(ch, header);
+            for (CountingQuotientFilter shard : shards) {
+                ByteBuffer buf;
+                synchronized (shard) {
+                    int size = shard.serializedSize();
+                    buf = ByteBuffer.allocate(4 + size).putInt(size);
+                    shard.writeTo(buf);
+                }
+                buf.flip();
+                writeFully(ch, buf);
+            }
+            ch.force(false);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the filter written by {@link #writeTo(Path)}
+     */
+    public static ConcurrentQuotientFilter readFrom(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt() != MAGIC) {
+                throw new IOException("Not a quotient filter file: " + path);
+            }
+            CountingQuotientFilter[] shards = new CountingQuotientFilter[buf.getInt()];
+            for (int i = 0; i < shards.length; i++) {
+                int size = buf.getInt();
+                ByteBuffer shardBuf = buf.slice();
+                shardBuf.limit(size);
+                shards[i] = CountingQuotientFilter.readFrom(shardBuf);
+                buf.position(buf.position() + size);
+            }
+            return new ConcurrentQuotientFilter(shards);
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+}
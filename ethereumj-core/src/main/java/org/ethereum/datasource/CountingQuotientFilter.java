@@ -1,5 +1,6 @@
 package org.ethereum.datasource;
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -92,6 +93,53 @@ public class CountingQuotientFilter extends QuotientFilter {
         return hash & FINGERPRINT_MASK;
     }
 
+    /**
+     * @return size in bytes of the data written by {@link #writeTo(ByteBuffer)}
+     */
+    synchronized int serializedSize() {
+        return 1 + 1 + 8 + 4 + table.length * 8 + 4 + counters.size() * (8 + 4);
+    }
+
+    /**
+     * Writes the filter content to the buffer:
+     * {@code [byte quotientBits][byte remainderBits][long entries][int tableLen][long]*
+     * [int countersCnt]([long fingerprint][int refs])*}
+     */
+    synchronized void writeTo(ByteBuffer buf) {
+        if (overflowed) throw new OverflowedError();
+        buf.put(QUOTIENT_BITS).put(REMAINDER_BITS).putLong(entries).putInt(table.length);
+        buf.asLongBuffer().put(table);
+        buf.position(buf.position() + table.length * 8);
+        buf.putInt(counters.size());
+        for (Map.Entry<Long, Counter> e : counters.entrySet()) {
+            buf.putLong(e.getKey()).putInt(e.getValue().refs);
+        }
+    }
+
+    /**
+     * Reads the filter written by {@link #writeTo(ByteBuffer)}
+     */
+    static CountingQuotientFilter readFrom(ByteBuffer buf) {
+        byte quotientBits = buf.get();
+        byte remainderBits = buf.get();
+        CountingQuotientFilter ret = new CountingQuotientFilter(quotientBits, remainderBits);
+        ret.entries = buf.getLong();
+        int tableLen = buf.getInt();
+        if (tableLen != ret.table.length) {
+            throw new IllegalArgumentException("Wrong filter table size: " + tableLen + " != " + ret.table.length);
+        }
+        buf.asLongBuffer().get(ret.table);
+        buf.position(buf.position() + tableLen * 8);
+        int countersCnt = buf.getInt();
+        for (int i = 0; i < countersCnt; i++) {
+            long fp = buf.getLong();
+            Counter cnt = new Counter();
+            cnt.refs = buf.getInt();
+            ret.counters.put(fp, cnt);
+        }
+        return ret;
+    }
+
     private static class Counter {
         int refs = 1;
     }
@@ -25,6 +25,7 @@ import org.ethereum.util.RLPList;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * The JournalSource records all the changes which were made before each commitUpdate
@@ -93,6 +94,8 @@ public class JournalSource<V> extends AbstractChainedSource<byte[], V, byte[], V
 
     private Update currentUpdate = new Update();
 
+    private Consumer<byte[]> insertListener;
+
     Source<byte[], Update> journal = new HashMapDB<>();
 
     /**
@@ -110,6 +113,15 @@ public class JournalSource<V> extends AbstractChainedSource<byte[], V, byte[], V
                 });
     }
 
+    /**
+     * Sets the listener which is notified of each inserted key
+     * before the insert is propagated to the backing Source.
+     * The listener is called while this source lock is held
+     */
+    public synchronized void setInsertListener(Consumer<byte[]> insertListener) {
+        this.insertListener = insertListener;
+    }
+
     /**
      * Inserts are immediately propagated to the backing Source
      * though are still recorded to the current update
@@ -122,6 +134,7 @@ public class JournalSource<V> extends AbstractChainedSource<byte[], V, byte[], V
             return;
         }
 
+        if (insertListener != null) insertListener.accept(key);
         getSource().put(key, val);
         currentUpdate.insertedKeys.add(key);
     }
@@ -155,6 +168,13 @@ public class JournalSource<V> extends AbstractChainedSource<byte[], V, byte[], V
         return committed;
     }
 
+    /**
+     * @return keys inserted since the last {@link #commitUpdates(byte[])}
+     */
+    public synchronized List<byte[]> getUncommittedInserts() {
+        return new ArrayList<>(currentUpdate.insertedKeys);
+    }
+
     public Source<byte[], Update> getJournal() {
         return journal;
     }
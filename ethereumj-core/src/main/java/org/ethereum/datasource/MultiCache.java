@@ -17,6 +17,8 @@
  */
 package org.ethereum.datasource;
 
+import org.ethereum.util.CompactByteArrayMap;
+
 /**
  * Cache of Caches (child caches)
  * When a child cache is not found in the local cache it is looked up in the backing Source
@@ -33,7 +35,7 @@ package org.ethereum.datasource;
 public abstract class MultiCache<V extends CachedSource> extends ReadWriteCache.BytesKey<V> {
 
     public MultiCache(Source<byte[], V> src) {
-        super(src, WriteCache.CacheType.SIMPLE);
+        super(src, WriteCache.CacheType.SIMPLE, CompactByteArrayMap.ADDRESS_KEY_LENGTH);
     }
 
     /**
@@ -20,6 +20,7 @@ package org.ethereum.datasource;
 import org.apache.commons.collections4.map.LRUMap;
 import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.util.ByteArrayMap;
+import org.ethereum.util.CompactByteArrayMap;
 
 import java.util.Collection;
 import java.util.Collections;
@@ -56,7 +57,7 @@ public class ReadCache<Key, Value> extends AbstractCachedSource<Key, Value> {
      * Installs the specific cache Map implementation
      */
     public ReadCache<Key, Value> withCache(Map<Key, Value> cache) {
-        byteKeyMap = cache instanceof ByteArrayMap;
+        byteKeyMap = cache instanceof ByteArrayMap || cache instanceof CompactByteArrayMap;
         this.cache = Collections.synchronizedMap(cache);
         return this;
     }
@@ -149,8 +150,12 @@ public class ReadCache<Key, Value> extends AbstractCachedSource<Key, Value> {
     public static class BytesKey<V> extends ReadCache<byte[], V> implements CachedSource.BytesKey<V> {
 
         public BytesKey(Source<byte[], V> src) {
+            this(src, CompactByteArrayMap.HASH_KEY_LENGTH);
+        }
+
+        public BytesKey(Source<byte[], V> src, int keyLength) {
             super(src);
-            withCache(new ByteArrayMap<V>());
+            withCache(new CompactByteArrayMap<V>(keyLength));
         }
 
         public ReadCache.BytesKey<V> withMaxCapacity(int maxCapacity) {
@@ -17,6 +17,8 @@
  */
 package org.ethereum.datasource;
 
+import org.ethereum.util.CompactByteArrayMap;
+
 import java.util.Collection;
 
 /**
@@ -67,9 +69,13 @@ public class ReadWriteCache<Key, Value>
 
     public static class BytesKey<V> extends ReadWriteCache<byte[], V> {
         public BytesKey(Source<byte[], V> src, WriteCache.CacheType cacheType) {
+            this(src, cacheType, CompactByteArrayMap.HASH_KEY_LENGTH);
+        }
+
+        public BytesKey(Source<byte[], V> src, WriteCache.CacheType cacheType, int keyLength) {
             super(src);
-            add(this.writeCache = new WriteCache.BytesKey<>(src, cacheType));
-            add(this.readCache = new ReadCache.BytesKey<>(writeCache));
+            add(this.writeCache = new WriteCache.BytesKey<>(src, cacheType, keyLength));
+            add(this.readCache = new ReadCache.BytesKey<>(writeCache, keyLength));
             readCache.setFlushSource(true);
         }
     }
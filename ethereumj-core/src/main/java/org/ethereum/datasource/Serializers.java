@@ -45,6 +45,7 @@ public class Serializers {
 
     /**
      * Serializes/Deserializes AccountState instances from the State Trie (part of Ethereum spec)
+     * The decoding reads the RLP in place without building the intermediate RLP objects
      */
     public final static Serializer<AccountState, byte[]> AccountStateSerializer = new Serializer<AccountState, byte[]>() {
         @Override
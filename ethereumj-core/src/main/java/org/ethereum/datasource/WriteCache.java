@@ -21,6 +21,7 @@ import com.googlecode.concurentlocks.ReadWriteUpdateLock;
 import com.googlecode.concurentlocks.ReentrantReadWriteUpdateLock;
 import org.ethereum.util.ALock;
 import org.ethereum.util.ByteArrayMap;
+import org.ethereum.util.CompactByteArrayMap;
 
 import java.util.Collection;
 import java.util.HashMap;
@@ -286,7 +287,7 @@ public class WriteCache<Key, Value> extends AbstractCachedSource<Key, Value> {
         if (checked) return;
 
         if (key instanceof byte[]) {
-            if (!(cache instanceof ByteArrayMap)) {
+            if (!(cache instanceof ByteArrayMap || cache instanceof CompactByteArrayMap)) {
                 throw new RuntimeException("Wrong map/set for byte[] key");
             }
         }
@@ -309,8 +310,16 @@ public class WriteCache<Key, Value> extends AbstractCachedSource<Key, Value> {
     public static class BytesKey<V> extends WriteCache<byte[], V> implements CachedSource.BytesKey<V> {
 
         public BytesKey(Source<byte[], V> src, CacheType cacheType) {
+            this(src, cacheType, CompactByteArrayMap.HASH_KEY_LENGTH);
+        }
+
+        /**
+         * @param keyLength the length of the most keys, other keys are accepted
+         *                  but stored less compactly (see {@link CompactByteArrayMap})
+         */
+        public BytesKey(Source<byte[], V> src, CacheType cacheType, int keyLength) {
             super(src, cacheType);
-            withCache(new ByteArrayMap<CacheEntry<V>>());
+            withCache(new CompactByteArrayMap<CacheEntry<V>>(keyLength));
         }
     }
 }
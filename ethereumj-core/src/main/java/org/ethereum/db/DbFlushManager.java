@@ -20,6 +20,8 @@ package org.ethereum.db;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.JdkFutureAdapters;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.ethereum.config.CommonConfig;
 import org.ethereum.config.SystemProperties;
@@ -35,6 +37,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 /**
  * Created by Anton Nashatyrev on 01.12.2016.
@@ -51,23 +55,45 @@ public class DbFlushManager {
     int commitsCountThreshold;
     boolean syncDone = false;
     boolean flushAfterSyncDone;
+    long bulkSizeThreshold;
+    boolean bulkMode = false;
 
     SystemProperties config;
 
     int commitCount = 0;
 
+    WriteAheadLog wal;
+    // held while the caches are flipped for the flush
+    private final Object flipLock = new Object();
+    Function<String, Source<byte[], byte[]>> walBackingSources = name -> null;
+
     private final BlockingQueue<Runnable> executorQueue = new ArrayBlockingQueue<>(1);
     private final ExecutorService flushThread = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
             executorQueue, new ThreadFactoryBuilder().setNameFormat("DbFlushManagerThread-%d").build());
+    // flushes non-async write caches concurrently with the async ones
+    private final ListeningExecutorService cacheFlushExecutor = MoreExecutors.listeningDecorator(
+            Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("DbFlushManagerWorker-%d").build()));
     Future<Boolean> lastFlush = Futures.immediateFuture(false);
 
+    // flush metrics
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushTotalTime = new AtomicLong();
+    private final AtomicLong flushTotalBytes = new AtomicLong();
+    private volatile long lastFlushTime = 0;
+    private volatile long lastFlushBytes = 0;
+
     public DbFlushManager(SystemProperties config, Set<DbSource> dbSources, AbstractCachedSource<byte[], byte[]> stateDbCache) {
         this.config = config;
         this.dbSources = dbSources;
         sizeThreshold = config.getConfig().getInt("cache.flush.writeCacheSize") * 1024 * 1024;
         commitsCountThreshold = config.getConfig().getInt("cache.flush.blocks");
         flushAfterSyncDone = config.getConfig().getBoolean("cache.flush.shortSyncFlush");
+        bulkSizeThreshold = config.getConfig().getLong("cache.flush.bulkWriteCacheSize") * 1024 * 1024;
         this.stateDbCache = stateDbCache;
+        if (config.getConfig().getBoolean("cache.flush.wal.enabled")) {
+            wal = new WriteAheadLog(config.databaseDir() + "/wal", config.getConfig().getInt("cache.flush.wal.syncCommits"));
+        }
     }
 
     @Autowired
@@ -88,6 +114,16 @@ public class DbFlushManager {
         this.sizeThreshold = sizeThreshold;
     }
 
+    /**
+     * Switches to the flush policy of the bulk import (e.g. from a local dump):
+     * the DB is flushed only when the write caches reach the bulk size threshold,
+     * flushing each N blocks or each block after the sync is done is suspended
+     */
+    public synchronized void setBulkMode(boolean bulkMode) {
+        this.bulkMode = bulkMode;
+        logger.info("DbFlushManager: bulk mode " + (bulkMode ? "on" : "off"));
+    }
+
     public void addCache(AbstractCachedSource<byte[], ?> cache) {
         writeCaches.add(cache);
     }
@@ -96,6 +132,48 @@ public class DbFlushManager {
         sources.add(src);
     }
 
+    /**
+     * Returns the write-ahead log or null if it is disabled
+     */
+    public WriteAheadLog getWriteAheadLog() {
+        return wal;
+    }
+
+    /**
+     * Wraps the write cache to record its changes to the write-ahead log (if enabled)
+     * @param name unique and persistent name of the cache
+     */
+    public Source<byte[], byte[]> withWriteAheadLog(String name, Source<byte[], byte[]> cache) {
+        return wal == null ? cache : wal.wrap(name, cache);
+    }
+
+    /**
+     * Sets the sources which the write caches with the specified names are flushed to,
+     * the recovered write-ahead log changes for the caches which are not created
+     * on startup are replayed directly to these sources
+     * @see #replayWriteAheadLog()
+     */
+    public void setWalBackingSources(Function<String, Source<byte[], byte[]>> walBackingSources) {
+        this.walBackingSources = walBackingSources;
+    }
+
+    /**
+     * Should be called on startup when all the write caches created eagerly are wrapped
+     * with {@link #withWriteAheadLog(String, Source)}.
+     * Replays the recovered changes for the rest of the caches to their backing sources
+     */
+    public synchronized void replayWriteAheadLog() {
+        if (wal != null) wal.replayUnwrapped(walBackingSources);
+    }
+
+    /**
+     * The caches are flipped for the flush under this lock, thus all the updates done
+     * by another thread under this lock get to the same flush
+     */
+    public Object getFlipLock() {
+        return flipLock;
+    }
+
     public long getCacheSize() {
         long ret = 0;
         for (AbstractCachedSource<byte[], ?> writeCache : writeCaches) {
@@ -110,10 +188,14 @@ public class DbFlushManager {
     }
 
     public synchronized void commit() {
+        if (wal != null) wal.commit();
         long cacheSize = getCacheSize();
-        if (sizeThreshold >= 0 && cacheSize >= sizeThreshold) {
-            logger.info("DbFlushManager: flushing db due to write cache size (" + cacheSize + ") reached threshold (" + sizeThreshold + ")");
+        long threshold = bulkMode ? bulkSizeThreshold : sizeThreshold;
+        if (threshold >= 0 && cacheSize >= threshold) {
+            logger.info("DbFlushManager: flushing db due to write cache size (" + cacheSize + ") reached threshold (" + threshold + ")");
             flush();
+        } else if (bulkMode) {
+            // only the size threshold is applied
         } else if (commitsCountThreshold > 0 && commitCount >= commitsCountThreshold) {
             logger.info("DbFlushManager: flushing db due to commits (" + commitCount + ") reached threshold (" + commitsCountThreshold + ")");
             flush();
@@ -142,14 +224,20 @@ public class DbFlushManager {
                 logger.error("Error during last flush", e);
             }
         }
-        logger.debug("Flipping async storages");
-        for (AbstractCachedSource<byte[], ?> writeCache : writeCaches) {
-            try {
-                if (writeCache instanceof AsyncFlushable) {
-                    ((AsyncFlushable) writeCache).flipStorage();
+        // estimate the amount of data to be flushed before storages are flipped
+        final long flushBytes = getCacheSize();
+        synchronized (flipLock) {
+            // the new log segment should be started prior to flipping
+            if (wal != null) wal.flushStarted();
+            logger.debug("Flipping async storages");
+            for (AbstractCachedSource<byte[], ?> writeCache : writeCaches) {
+                try {
+                    if (writeCache instanceof AsyncFlushable) {
+                        ((AsyncFlushable) writeCache).flipStorage();
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
                 }
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
             }
         }
 
@@ -161,27 +249,84 @@ public class DbFlushManager {
 
             sources.forEach(Source::flush);
 
+            // write caches are independent of each other and only share the downstream
+            // stateDbCache which is thread-safe, so they are flushed concurrently
+            // and the resulting DB batch is written when all of them are complete
+            List<ListenableFuture<Boolean>> cacheFlushes = new ArrayList<>();
             for (AbstractCachedSource<byte[], ?> writeCache : writeCaches) {
                 if (writeCache instanceof AsyncFlushable) {
                     try {
-                        ret |= ((AsyncFlushable) writeCache).flushAsync().get();
+                        cacheFlushes.add(((AsyncFlushable) writeCache).flushAsync());
                     } catch (InterruptedException e) {
                         throw new RuntimeException(e);
                     }
                 } else {
-                    ret |= writeCache.flush();
+                    cacheFlushes.add(cacheFlushExecutor.submit(writeCache::flush));
+                }
+            }
+            for (ListenableFuture<Boolean> cacheFlush : cacheFlushes) {
+                try {
+                    ret |= cacheFlush.get();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
                 }
             }
             if (stateDbCache != null) {
                 logger.debug("Flushing to DB");
                 stateDbCache.flush();
             }
-            logger.info("Flush completed in " + (System.nanoTime() - s) / 1000000 + " ms");
+            if (wal != null) wal.flushCompleted();
+            long time = System.nanoTime() - s;
+            updateFlushStats(time, flushBytes);
+            logger.info("Flush completed in " + time / 1000000 + " ms (~" + flushBytes / 1024 + " Kb)");
 
             return ret;
         });
     }
 
+    private void updateFlushStats(long timeNanos, long bytes) {
+        flushCount.incrementAndGet();
+        flushTotalTime.addAndGet(timeNanos);
+        flushTotalBytes.addAndGet(bytes);
+        lastFlushTime = timeNanos;
+        lastFlushBytes = bytes;
+    }
+
+    /**
+     * @return number of flushes completed so far
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * @return duration of the last completed flush in milliseconds
+     */
+    public long getLastFlushTime() {
+        return lastFlushTime / 1_000_000;
+    }
+
+    /**
+     * @return estimated size in bytes of the data written by the last completed flush
+     */
+    public long getLastFlushBytes() {
+        return lastFlushBytes;
+    }
+
+    /**
+     * @return total time in milliseconds spent in flushes
+     */
+    public long getFlushTotalTime() {
+        return flushTotalTime.get() / 1_000_000;
+    }
+
+    /**
+     * @return total estimated size in bytes of the data written by all flushes
+     */
+    public long getFlushTotalBytes() {
+        return flushTotalBytes.get();
+    }
+
     /**
      * Flushes all caches and closes all databases
      */
@@ -189,6 +334,7 @@ public class DbFlushManager {
         logger.info("Flushing DBs...");
         flushSync();
         logger.info("Flush done.");
+        if (wal != null) wal.close();
         for (DbSource dbSource : dbSources) {
             logger.info("Closing DB: {}", dbSource.getName());
             try {
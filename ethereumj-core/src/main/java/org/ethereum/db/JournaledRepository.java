@@ -0,0 +1,512 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import org.ethereum.core.AccountState;
+import org.ethereum.core.Repository;
+import org.ethereum.datasource.Source;
+import org.ethereum.vm.DataWord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Repository track which nested tracks are checkpoints of a single change journal
+ * instead of the cache layers created by {@link RepositoryImpl#startTracking()}
+ *
+ * <p>
+ *     Each account, code and storage entry is kept in a single slot shared by all the nested tracks.
+ *     The slot holds the current value and, for each nested level which modified the entry,
+ *     the value before the first modification on that level. Thus a lookup is a single map access
+ *     regardless of the nesting depth, starting a nested track is O(1), commit merges
+ *     the level records into the parent level and rollback restores the recorded values
+ *     of the entries modified on the level only.
+ *
+ * <p>
+ *     The semantics is the same as of the layered tracks: a track sees the state as of its level,
+ *     the changes made via a parent track while the nested one is open are kept when the nested is rolled back.
+ *     Committing or rolling back a track discards the nested tracks which were not closed,
+ *     closed tracks can't be modified. Unlike layered tracks a track can have a single open nested track,
+ *     starting a new one while the nested track is open fails, {@link #clone()} should be used for a side track.
+ *
+ * <p>
+ *     The changes are written to the backing repository on the commit of this (root) track.
+ *     The class is not thread safe, a track and its nested tracks are expected to be used by a single thread
+ */
+public class JournaledRepository extends RepositoryImpl {
+
+    // the value wasn't read from the backing repository yet
+    private static final Object UNKNOWN = new Object();
+
+    private final Journal journal;
+    private final int level;
+    private boolean closed;
+
+    public JournaledRepository(RepositoryImpl backing) {
+        this(new Journal(backing), 0);
+        this.parent = backing;
+        journal.open(this);
+    }
+
+    private JournaledRepository(Journal journal, int level) {
+        this.journal = journal;
+        this.level = level;
+        init(new LevelSource<>(journal.accounts, this), new LevelSource<>(journal.codes, this), new StorageSource(this));
+    }
+
+    @Override
+    public synchronized JournaledRepository startTracking() {
+        checkOpen();
+        if (journal.depth() > level) {
+            // the nested track abandoned by the caller, e.g. on an early return,
+            // silently discarding it would hide the state divergence from layered tracks
+            throw new IllegalStateException("The nested track is still open");
+        }
+        JournaledRepository ret = new JournaledRepository(journal, level + 1);
+        ret.parent = this;
+        journal.open(ret);
+        return ret;
+    }
+
+    @Override
+    public synchronized void commit() {
+        if (closed) return;
+        journal.close(level, true);
+        if (level == 0) {
+            journal.flush();
+        }
+    }
+
+    @Override
+    public synchronized void rollback() {
+        if (closed) return;
+        journal.close(level, false);
+        if (level == 0) {
+            journal.clear();
+        }
+    }
+
+    /**
+     * @return a separate track on top of the state as of this track level
+     */
+    @Override
+    public Repository clone() {
+        return new JournaledRepository(this);
+    }
+
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("The track is already committed or rolled back");
+    }
+
+    /**
+     * A closed track reads the state as of the level it was merged to
+     */
+    private int readLevel() {
+        return closed ? Math.min(level - 1, journal.depth()) : level;
+    }
+
+    private static class Journal {
+        final RepositoryImpl backing;
+        final JournalMap<byte[], AccountState> accounts;
+        final JournalMap<byte[], byte[]> codes;
+        final JournalMap<byte[], AccountStorage> storages;
+
+        // open tracks by level
+        final List<JournaledRepository> tracks = new ArrayList<>();
+        // slots having a record for the level, the slots to be flushed for the root level
+        final List<List<Slot>> modified = new ArrayList<>();
+
+        Journal(RepositoryImpl backing) {
+            this.backing = backing;
+            accounts = new JournalMap<>(this, ByteArrayWrapper::new, backing.accountStateCache::get);
+            codes = new JournalMap<>(this, ByteArrayWrapper::new, backing.codeCache::get);
+            storages = new JournalMap<>(this, ByteArrayWrapper::new, addr -> new AccountStorage(this, addr, false));
+        }
+
+        int depth() {
+            return tracks.size() - 1;
+        }
+
+        void open(JournaledRepository track) {
+            tracks.add(track);
+            if (modified.size() < tracks.size()) {
+                modified.add(new ArrayList<>());
+            }
+        }
+
+        /**
+         * Closes the track of the level and all the nested tracks, the nested tracks are rolled back
+         */
+        void close(int level, boolean commit) {
+            rollbackNested(level);
+            if (level > 0) {
+                closeTop(commit);
+            }
+        }
+
+        /**
+         * Rolls back the tracks nested to the track of the level
+         */
+        void rollbackNested(int level) {
+            while (depth() > level) {
+                closeTop(false);
+            }
+        }
+
+        private void closeTop(boolean commit) {
+            int level = depth();
+            List<Slot> slots = modified.get(level);
+            if (commit) {
+                for (Slot slot : slots) {
+                    slot.mergeTop(level);
+                }
+            } else {
+                for (int i = slots.size() - 1; i >= 0; i--) {
+                    slots.get(i).revertTop();
+                }
+            }
+            slots.clear();
+            tracks.remove(level).closed = true;
+        }
+
+        /**
+         * Writes the root level changes to the backing repository
+         */
+        void flush() {
+            List<Slot> slots = modified.get(0);
+            // the same order as of the layered track commit: storage, code and then accounts
+            for (Slot slot : slots) {
+                if (slot.map == storages) {
+                    // the contract storage was wiped
+                    backing.storageCache.delete(slot.getKey());
+                }
+            }
+            for (Slot slot : slots) {
+                if (slot.map.owner instanceof AccountStorage) {
+                    AccountStorage storage = (AccountStorage) slot.map.owner;
+                    // skipping the changes of the storage wiped afterwards
+                    if (storages.get(storage.address, 0) == storage) {
+                        backing.storageCache.get(storage.address).put((DataWord) slot.key, (DataWord) slot.value);
+                    }
+                }
+            }
+            for (Slot slot : slots) {
+                if (slot.map == codes) {
+                    backing.codeCache.put(slot.getKey(), (byte[]) slot.value);
+                }
+            }
+            for (Slot slot : slots) {
+                if (slot.map == accounts) {
+                    if (slot.value == null) {
+                        backing.accountStateCache.delete(slot.getKey());
+                    } else {
+                        backing.accountStateCache.put(slot.getKey(), (AccountState) slot.value);
+                    }
+                }
+            }
+            for (Slot slot : slots) {
+                slot.dirty = false;
+            }
+            slots.clear();
+        }
+
+        void clear() {
+            accounts.slots.clear();
+            codes.slots.clear();
+            storages.slots.clear();
+            modified.get(0).clear();
+        }
+
+        void markDirty(Slot slot) {
+            if (!slot.dirty) {
+                slot.dirty = true;
+                modified.get(0).add(slot);
+            }
+        }
+    }
+
+    /**
+     * Entries of the same kind (accounts, code, storage of a contract) keyed by the wrapped key
+     */
+    private static class JournalMap<K, V> {
+        final Journal journal;
+        final Object owner;
+        final Function<K, Object> wrapper;
+        final Function<K, V> loader;
+        final Map<Object, Slot> slots = new HashMap<>();
+
+        JournalMap(Journal journal, Function<K, Object> wrapper, Function<K, V> loader) {
+            this(journal, null, wrapper, loader);
+        }
+
+        JournalMap(Journal journal, Object owner, Function<K, Object> wrapper, Function<K, V> loader) {
+            this.journal = journal;
+            this.owner = owner;
+            this.wrapper = wrapper;
+            this.loader = loader;
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(K key, int level) {
+            return (V) slot(key).get(level);
+        }
+
+        @SuppressWarnings("unchecked")
+        Object load(Object key) {
+            return loader.apply((K) key);
+        }
+
+        void put(K key, V val, int level) {
+            slot(key).set(val, level);
+        }
+
+        private Slot slot(K key) {
+            Object wrapped = wrapper.apply(key);
+            Slot slot = slots.get(wrapped);
+            if (slot == null) {
+                slot = new Slot(this, key);
+                slots.put(wrapped, slot);
+            }
+            return slot;
+        }
+    }
+
+    private static class Slot {
+        final JournalMap<?, ?> map;
+        final Object key;
+        Object value = UNKNOWN;
+
+        // levels (ascending) where the value was modified and the value before the first modification on the level
+        int[] levels;
+        Object[] prevs;
+        int records;
+
+        // modified on the root level (or merged to it) and not flushed yet
+        boolean dirty;
+
+        Slot(JournalMap<?, ?> map, Object key) {
+            this.map = map;
+            this.key = key;
+        }
+
+        byte[] getKey() {
+            return (byte[]) key;
+        }
+
+        /**
+         * @return the index of the first record of a level deeper than the specified one
+         */
+        private int deeperRecord(int level) {
+            int i = records;
+            while (i > 0 && levels[i - 1] > level) i--;
+            return i;
+        }
+
+        Object get(int level) {
+            int i = deeperRecord(level);
+            Object ret = i == records ? value : prevs[i];
+            if (ret == UNKNOWN) {
+                ret = load();
+            }
+            return ret;
+        }
+
+        void set(Object val, int level) {
+            int i = deeperRecord(level);
+            if (level == 0) {
+                map.journal.markDirty(this);
+            } else if (i == 0 || levels[i - 1] != level) {
+                insertRecord(i, level, i == records ? value : prevs[i]);
+                map.journal.modified.get(level).add(this);
+                i++;
+            }
+            // when the entry is modified on the deeper levels
+            // the value as of this level is the one to be restored on their rollback
+            if (i == records) {
+                value = val;
+            } else {
+                prevs[i] = val;
+            }
+        }
+
+        /**
+         * Merges the top level record into the parent level
+         */
+        void mergeTop(int level) {
+            Object prev = prevs[--records];
+            prevs[records] = null;
+            if (level == 1) {
+                map.journal.markDirty(this);
+            } else if (records == 0 || levels[records - 1] != level - 1) {
+                insertRecord(records, level - 1, prev);
+                map.journal.modified.get(level - 1).add(this);
+            }
+        }
+
+        void revertTop() {
+            value = prevs[--records];
+            prevs[records] = null;
+        }
+
+        private void insertRecord(int idx, int level, Object prev) {
+            if (levels == null) {
+                levels = new int[2];
+                prevs = new Object[2];
+            } else if (records == levels.length) {
+                levels = Arrays.copyOf(levels, records * 2);
+                prevs = Arrays.copyOf(prevs, records * 2);
+            }
+            System.arraycopy(levels, idx, levels, idx + 1, records - idx);
+            System.arraycopy(prevs, idx, prevs, idx + 1, records - idx);
+            levels[idx] = level;
+            prevs[idx] = prev;
+            records++;
+        }
+
+        /**
+         * Reads the backing value, all the unknown values are the backing one
+         */
+        private Object load() {
+            Object ret = map.load(key);
+            if (value == UNKNOWN) value = ret;
+            for (int i = 0; i < records; i++) {
+                if (prevs[i] == UNKNOWN) prevs[i] = ret;
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * The storage of a contract, replaced with an empty wiped instance when the contract is deleted
+     */
+    private static class AccountStorage {
+        final byte[] address;
+        final boolean wiped;
+        final JournalMap<DataWord, DataWord> rows;
+
+        AccountStorage(Journal journal, byte[] address, boolean wiped) {
+            this.address = address;
+            this.wiped = wiped;
+            this.rows = new JournalMap<>(journal, this, key -> key,
+                    key -> wiped ? null : journal.backing.storageCache.get(address).get(key));
+        }
+    }
+
+    /**
+     * Account and code source of the track level
+     */
+    private static class LevelSource<V> implements Source<byte[], V> {
+        final JournalMap<byte[], V> map;
+        final JournaledRepository track;
+
+        LevelSource(JournalMap<byte[], V> map, JournaledRepository track) {
+            this.map = map;
+            this.track = track;
+        }
+
+        @Override
+        public void put(byte[] key, V val) {
+            track.checkOpen();
+            map.put(key, val, track.level);
+        }
+
+        @Override
+        public V get(byte[] key) {
+            return map.get(key, track.readLevel());
+        }
+
+        @Override
+        public void delete(byte[] key) {
+            put(key, null);
+        }
+
+        @Override
+        public boolean flush() {
+            return false;
+        }
+    }
+
+    /**
+     * Contracts storage source of the track level
+     */
+    private static class StorageSource implements Source<byte[], Source<DataWord, DataWord>> {
+        final JournaledRepository track;
+
+        StorageSource(JournaledRepository track) {
+            this.track = track;
+        }
+
+        @Override
+        public void put(byte[] key, Source<DataWord, DataWord> val) {
+            throw new RuntimeException("Not supported");
+        }
+
+        @Override
+        public Source<DataWord, DataWord> get(byte[] address) {
+            return new ContractStorageSource(track, address);
+        }
+
+        @Override
+        public void delete(byte[] address) {
+            track.checkOpen();
+            Journal journal = track.journal;
+            journal.storages.put(address, new AccountStorage(journal, address, true), track.level);
+        }
+
+        @Override
+        public boolean flush() {
+            return false;
+        }
+    }
+
+    private static class ContractStorageSource implements Source<DataWord, DataWord> {
+        final JournaledRepository track;
+        final byte[] address;
+
+        ContractStorageSource(JournaledRepository track, byte[] address) {
+            this.track = track;
+            this.address = address;
+        }
+
+        @Override
+        public void put(DataWord key, DataWord val) {
+            track.checkOpen();
+            track.journal.storages.get(address, track.level).rows.put(key, val, track.level);
+        }
+
+        @Override
+        public DataWord get(DataWord key) {
+            int level = track.readLevel();
+            return track.journal.storages.get(address, level).rows.get(key, level);
+        }
+
+        @Override
+        public void delete(DataWord key) {
+            put(key, null);
+        }
+
+        @Override
+        public boolean flush() {
+            return false;
+        }
+    }
+}
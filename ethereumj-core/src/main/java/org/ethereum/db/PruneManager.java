@@ -17,17 +17,23 @@
  */
 package org.ethereum.db;
 
+import com.google.common.util.concurrent.RateLimiter;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.Block;
 import org.ethereum.core.BlockHeader;
+import org.ethereum.datasource.AbstractChainedSource;
 import org.ethereum.datasource.JournalSource;
 import org.ethereum.datasource.Source;
 import org.ethereum.db.prune.Segment;
 import org.ethereum.db.prune.Pruner;
+import org.ethereum.util.ExecutorPipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -36,6 +42,16 @@ import java.util.stream.Collectors;
  * <p>
  *     Constructs chain segments and prune them when they are complete
  *
+ * <p>
+ *     When background worker is set with {@link #withBackgroundWorker(int, int)} the pruning itself
+ *     is done on a dedicated thread while the caller thread only commits journal updates.
+ *     The pruner filter is fed by {@link JournalSource} with each key before it's inserted, and the pruner
+ *     deletes nodes under the {@link JournalSource} lock, so nodes inserted by recent blocks are protected from
+ *     deletion even if the prune tasks of older blocks are still waiting in the backlog.
+ *     When the backlog is full {@link #blockCommitted(BlockHeader)} blocks until the worker catches up.
+ *     Each prune and persist step is done under the flush lock set with {@link #withFlushLock(Object)},
+ *     so a DB flush never gets a part of the step deletions only
+ *
  * Created by Anton Nashatyrev on 10.11.2016.
  *
  * @see Segment
@@ -43,6 +59,8 @@ import java.util.stream.Collectors;
  */
 public class PruneManager {
 
+    private static final Logger logger = LoggerFactory.getLogger("prune");
+
     private static final int LONGEST_CHAIN = 192;
 
     private JournalSource<?> journalSource;
@@ -55,6 +73,11 @@ public class PruneManager {
     private Segment segment;
     private Pruner pruner;
 
+    private ExecutorPipeline<BlockHeader, Void> worker;
+    private Object flushLock = new Object();
+    private DeleteTracker<?> storageTracker;
+    private final AtomicLong blocksProcessed = new AtomicLong();
+
     @Autowired
     private PruneManager(SystemProperties config) {
         pruneBlocksCnt = config.databasePruneDepth();
@@ -67,21 +90,68 @@ public class PruneManager {
         this.pruneBlocksCnt = pruneBlocksCnt;
 
         if (journalSource != null && pruneStorage != null)
-            this.pruner = new Pruner(journalSource.getJournal(), pruneStorage);
+            this.pruner = createPruner(pruneStorage);
     }
 
     @Autowired
     public void setStateSource(StateSource stateSource) {
         journalSource = stateSource.getJournalSource();
         if (journalSource != null)
-            pruner = new Pruner(journalSource.getJournal(), stateSource.getNoJournalSource());
+            pruner = createPruner(stateSource.getNoJournalSource());
+    }
+
+    /**
+     * Moves pruning to a dedicated thread
+     * @param backlogSize max number of blocks waiting for pruning
+     * @param maxDeletesPerSecond max rate of node deletions, 0 means unlimited
+     */
+    public PruneManager withBackgroundWorker(int backlogSize, int maxDeletesPerSecond) {
+        if (pruneBlocksCnt < 0 || backlogSize <= 0) return this;
+
+        worker = new ExecutorPipeline<BlockHeader, Void>(1, backlogSize, false, block -> {
+            prune(block);
+            return null;
+        }, e -> logger.error("Pruning failed", e)).setThreadPoolName("PruneManagerThread");
+        if (maxDeletesPerSecond > 0 && pruner != null) {
+            pruner.withDeleteRate(RateLimiter.create(maxDeletesPerSecond));
+        }
+        return this;
+    }
+
+    /**
+     * @param flushLock the lock the write caches are flipped under for the flush
+     * @see DbFlushManager#getFlipLock()
+     */
+    public PruneManager withFlushLock(Object flushLock) {
+        this.flushLock = flushLock;
+        return this;
+    }
+
+    private <V> Pruner createPruner(Source<byte[], V> pruneStorage) {
+        RateLimiter deleteRate = pruner == null ? null : pruner.getDeleteRate();
+        storageTracker = new DeleteTracker<>(pruneStorage);
+        Pruner created = new Pruner(journalSource.getJournal(), storageTracker)
+                .withStorageLock(journalSource)
+                .withDeleteRate(deleteRate);
+        journalSource.setInsertListener(created::feed);
+        return created;
     }
 
     public void blockCommitted(BlockHeader block) {
         if (pruneBlocksCnt < 0) return; // pruning disabled
 
-        JournalSource.Update update = journalSource.commitUpdates(block.getHash());
-        pruner.feed(update);
+        // inserted keys have already been fed to the pruner by the journal
+        journalSource.commitUpdates(block.getHash());
+
+        if (worker != null) {
+            worker.push(block);
+        } else {
+            prune(block);
+        }
+    }
+
+    private void prune(BlockHeader block) {
+        blocksProcessed.incrementAndGet();
 
         long forkBlockNum = block.getNumber() - getForkBlocksCnt();
         if (forkBlockNum < 0) return;
@@ -109,17 +179,24 @@ public class PruneManager {
 
         if (segment.isComplete()) {
             if (!pruner.isReady()) {
-                List<byte[]> forkWindow = getAllChainsHashes(segment.getRootNumber() + 1, blockStore.getMaxNumber());
-                pruner.init(forkWindow, getForkBlocksCnt());
-
-                int mainChainWindowSize = pruneBlocksCnt - getForkBlocksCnt();
-                if (mainChainWindowSize > 0) {
-                    List<byte[]> mainChainWindow = getMainChainHashes(Math.max(1, segment.getRootNumber() - mainChainWindowSize + 1),
-                            segment.getRootNumber());
-                    pruner.withSecondStep(mainChainWindow, mainChainWindowSize);
+                // no keys should be inserted while the pruner is initialized with the current window
+                synchronized (journalSource) {
+                    List<byte[]> forkWindow = getAllChainsHashes(segment.getRootNumber() + 1, blockStore.getMaxNumber());
+                    if (pruner.init(forkWindow, getForkBlocksCnt())) {
+                        journalSource.getUncommittedInserts().forEach(pruner::feed);
+                    }
+
+                    int mainChainWindowSize = pruneBlocksCnt - getForkBlocksCnt();
+                    if (mainChainWindowSize > 0) {
+                        List<byte[]> mainChainWindow = getMainChainHashes(Math.max(1, segment.getRootNumber() - mainChainWindowSize + 1),
+                                segment.getRootNumber());
+                        pruner.withSecondStep(mainChainWindow, mainChainWindowSize);
+                    }
                 }
             }
-            pruner.prune(segment);
+            synchronized (flushLock) {
+                pruner.prune(segment);
+            }
             segment = new Segment(chainBlock);
         }
 
@@ -127,7 +204,43 @@ public class PruneManager {
         if (mainBlockNum < 0) return;
 
         byte[] hash = blockStore.getBlockHashByNumber(mainBlockNum);
-        pruner.persist(hash);
+        synchronized (flushLock) {
+            pruner.persist(hash);
+        }
+    }
+
+    /**
+     * Waits for the background worker to complete all the scheduled pruning
+     */
+    public void close() {
+        if (worker == null) return;
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("PruneManager closed: blocks processed {}, nodes deleted {}", getBlocksProcessed(), getNodesDeleted());
+    }
+
+    /**
+     * @return number of blocks waiting in the background worker backlog
+     */
+    public int getBacklogSize() {
+        return worker == null ? 0 : worker.getQueue().size();
+    }
+
+    /**
+     * @return number of blocks processed by the pruner
+     */
+    public long getBlocksProcessed() {
+        return blocksProcessed.get();
+    }
+
+    /**
+     * @return number of nodes deleted by the pruner
+     */
+    public long getNodesDeleted() {
+        return storageTracker == null ? 0 : storageTracker.deleted.get();
     }
 
     private int getForkBlocksCnt() {
@@ -160,4 +273,36 @@ public class PruneManager {
         }
         return ret;
     }
+
+    /**
+     * Counts deletions done by the pruner
+     */
+    private static class DeleteTracker<V> extends AbstractChainedSource<byte[], V, byte[], V> {
+        final AtomicLong deleted = new AtomicLong();
+
+        DeleteTracker(Source<byte[], V> src) {
+            super(src);
+        }
+
+        @Override
+        public void put(byte[] key, V val) {
+            getSource().put(key, val);
+        }
+
+        @Override
+        public V get(byte[] key) {
+            return getSource().get(key);
+        }
+
+        @Override
+        public void delete(byte[] key) {
+            getSource().delete(key);
+            deleted.incrementAndGet();
+        }
+
+        @Override
+        protected boolean flushImpl() {
+            return false;
+        }
+    }
 }
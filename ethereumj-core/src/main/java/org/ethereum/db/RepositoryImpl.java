@@ -24,6 +24,7 @@ import org.ethereum.core.Repository;
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.*;
 import org.ethereum.util.ByteUtil;
+import org.ethereum.util.CompactByteArrayMap;
 import org.ethereum.util.FastByteComparisons;
 import org.ethereum.vm.DataWord;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -41,7 +42,7 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
 
     protected Source<byte[], AccountState> accountStateCache;
     protected Source<byte[], byte[]> codeCache;
-    protected MultiCache<? extends CachedSource<DataWord, DataWord>> storageCache;
+    protected Source<byte[], ? extends Source<DataWord, DataWord>> storageCache;
 
     @Autowired
     protected SystemProperties config = SystemProperties.getDefault();
@@ -50,12 +51,12 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     }
 
     public RepositoryImpl(Source<byte[], AccountState> accountStateCache, Source<byte[], byte[]> codeCache,
-                          MultiCache<? extends CachedSource<DataWord, DataWord>> storageCache) {
+                          Source<byte[], ? extends Source<DataWord, DataWord>> storageCache) {
         init(accountStateCache, codeCache, storageCache);
     }
 
     protected void init(Source<byte[], AccountState> accountStateCache, Source<byte[], byte[]> codeCache,
-                        MultiCache<? extends CachedSource<DataWord, DataWord>> storageCache) {
+                        Source<byte[], ? extends Source<DataWord, DataWord>> storageCache) {
         this.accountStateCache = accountStateCache;
         this.codeCache = codeCache;
         this.storageCache = storageCache;
@@ -180,7 +181,7 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     @Override
     public synchronized RepositoryImpl startTracking() {
         Source<byte[], AccountState> trackAccountStateCache = new WriteCache.BytesKey<>(accountStateCache,
-                WriteCache.CacheType.SIMPLE);
+                WriteCache.CacheType.SIMPLE, CompactByteArrayMap.ADDRESS_KEY_LENGTH);
         Source<byte[], byte[]> trackCodeCache = new WriteCache.BytesKey<>(codeCache, WriteCache.CacheType.SIMPLE);
         MultiCache<CachedSource<DataWord, DataWord>> trackStorageCache = new MultiCache(storageCache) {
             @Override
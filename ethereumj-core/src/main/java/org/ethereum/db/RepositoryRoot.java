@@ -21,18 +21,40 @@ import org.ethereum.core.AccountState;
 import org.ethereum.core.Repository;
 import org.ethereum.datasource.*;
 import org.ethereum.trie.*;
+import org.ethereum.util.CompactByteArrayMap;
 import org.ethereum.vm.DataWord;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.crypto.HashUtil.sha3;
+
 /**
  * Created by Anton Nashatyrev on 07.10.2016.
  */
 public class RepositoryRoot extends RepositoryImpl {
 
+    private static class AccountStateCache extends ReadWriteCache.BytesKey<AccountState> {
+        public AccountStateCache(Source<byte[], byte[]> trieSource) {
+            super(new SourceCodec.BytesKey<>(trieSource, Serializers.AccountStateSerializer),
+                    WriteCache.CacheType.SIMPLE, CompactByteArrayMap.ADDRESS_KEY_LENGTH);
+            // modified accounts are written to the trie with a single batch update on flush
+            writeCache.setFlushSource(true);
+        }
+    }
+
     private static class StorageCache extends ReadWriteCache<DataWord, DataWord> {
         Trie<byte[]> trie;
 
-        public StorageCache(Trie<byte[]> trie) {
-            super(new SourceCodec<>(trie, Serializers.StorageKeySerializer, Serializers.StorageValueSerializer), WriteCache.CacheType.SIMPLE);
+        public StorageCache(Trie<byte[]> trie, Source<byte[], byte[]> trieSource) {
+            super(new SourceCodec<>(trieSource, Serializers.StorageKeySerializer,
+                    Serializers.StorageValueSerializer), WriteCache.CacheType.SIMPLE);
+            // modified slots are written to the trie with a single batch update on flush
+            writeCache.setFlushSource(true);
             this.trie = trie;
         }
     }
@@ -47,27 +69,149 @@ public class RepositoryRoot extends RepositoryImpl {
             Serializer<byte[], byte[]> keyCompositor = new NodeKeyCompositor(key);
             Source<byte[], byte[]> composingSrc = new SourceCodec.KeyOnly<>(trieCache, keyCompositor);
             TrieImpl storageTrie = createTrie(composingSrc, accountState == null ? null : accountState.getStateRoot());
-            return new StorageCache(storageTrie);
+            Source<byte[], byte[]> trieSource = new BatchSourceWriter<>(storageTrie);
+            if (snapshot != null) {
+                byte[] addrHash = sha3(key);
+                if (accountState == null) {
+                    // the account is new or deleted, its storage below shouldn't be visible
+                    pending.wipeStorage(addrHash);
+                }
+                trieSource = new SnapshotStorageSource(trieSource, addrHash);
+            }
+            return new StorageCache(storageTrie, trieSource);
         }
 
+        /**
+         * Storages of the modified contracts are flushed to their tries and the tries are
+         * hashed concurrently in the {@link TrieImpl#getExecutor()} pool,
+         * then the account storage roots are updated
+         */
         @Override
-        protected synchronized boolean flushChild(byte[] key, StorageCache childCache) {
-            if (super.flushChild(key, childCache)) {
-                if (childCache != null) {
-                    AccountState storageOwnerAcct = accountStateCache.get(key);
-                    // need to update account storage root
-                    childCache.trie.flush();
-                    byte[] rootHash = childCache.trie.getRootHash();
-                    accountStateCache.put(key, storageOwnerAcct.withStateRoot(rootHash));
-                    return true;
-                } else {
-                    // account was deleted
-                    return true;
+        public synchronized boolean flushImpl() {
+            List<byte[]> keys = new ArrayList<>(writeCache.getModified());
+            List<StorageCache> children = new ArrayList<>(keys.size());
+            List<Callable<Boolean>> tasks = new ArrayList<>(keys.size());
+            for (byte[] key : keys) {
+                StorageCache childCache = writeCache.get(key);
+                children.add(childCache);
+                tasks.add(() -> flushStorage(childCache));
+            }
+
+            List<Boolean> flushed = new ArrayList<>(keys.size());
+            if (tasks.size() > 1) {
+                for (Future<Boolean> f : TrieImpl.getExecutor().invokeAll(tasks)) {
+                    try {
+                        flushed.add(f.get());
+                    } catch (InterruptedException | ExecutionException e) {
+                        throw new RuntimeException("Error flushing contract storage", e);
+                    }
                 }
             } else {
-                // no storage changes
+                for (StorageCache childCache : children) {
+                    flushed.add(flushStorage(childCache));
+                }
+            }
+
+            boolean ret = false;
+            for (int i = 0; i < keys.size(); i++) {
+                StorageCache childCache = children.get(i);
+                if (childCache == null) {
+                    // account was deleted
+                    if (snapshot != null) pending.wipeStorage(sha3(keys.get(i)));
+                    ret = true;
+                } else if (flushed.get(i)) {
+                    // need to update account storage root
+                    AccountState storageOwnerAcct = accountStateCache.get(keys.get(i));
+                    accountStateCache.put(keys.get(i), storageOwnerAcct.withStateRoot(childCache.trie.getRootHash()));
+                    ret = true;
+                }
+            }
+            return ret;
+        }
+
+        private boolean flushStorage(StorageCache childCache) {
+            if (childCache == null || !childCache.flush()) {
+                // deleted or no storage changes
                 return false;
             }
+            childCache.trie.flush();
+            return true;
+        }
+    }
+
+    /**
+     * Records the accounts written to the state trie for the {@link StateSnapshot}
+     * and reads them from the snapshot when it covers the current state
+     */
+    private class SnapshotAccountSource extends AbstractChainedSource<byte[], byte[], byte[], byte[]> {
+        public SnapshotAccountSource(Source<byte[], byte[]> trieSource) {
+            super(trieSource);
+            setFlushSource(true);
+        }
+
+        @Override
+        public void put(byte[] key, byte[] val) {
+            pending.putAccount(sha3(key), val);
+            getSource().put(key, val);
+        }
+
+        @Override
+        public void delete(byte[] key) {
+            pending.putAccount(sha3(key), null);
+            getSource().delete(key);
+        }
+
+        @Override
+        public byte[] get(byte[] key) {
+            byte[] addrHash = sha3(key);
+            byte[] ret = pending.getAccount(addrHash);
+            if (ret == null) ret = snapshot.getAccount(snapshotRoot, addrHash);
+            if (ret == null) return getSource().get(key);
+            return ret.length == 0 ? null : ret;
+        }
+
+        @Override
+        protected boolean flushImpl() {
+            return false;
+        }
+    }
+
+    /**
+     * Same as {@link SnapshotAccountSource} for the contract storage
+     */
+    private class SnapshotStorageSource extends AbstractChainedSource<byte[], byte[], byte[], byte[]> {
+        private final byte[] addrHash;
+
+        public SnapshotStorageSource(Source<byte[], byte[]> trieSource, byte[] addrHash) {
+            super(trieSource);
+            this.addrHash = addrHash;
+            setFlushSource(true);
+        }
+
+        @Override
+        public void put(byte[] key, byte[] val) {
+            pending.putStorage(addrHash, sha3(key), val);
+            getSource().put(key, val);
+        }
+
+        @Override
+        public void delete(byte[] key) {
+            pending.putStorage(addrHash, sha3(key), null);
+            getSource().delete(key);
+        }
+
+        @Override
+        public byte[] get(byte[] key) {
+            byte[] keyHash = sha3(key);
+            byte[] ret = pending.getStorage(addrHash, keyHash);
+            if (ret == null) ret = snapshot.getStorage(snapshotRoot, addrHash, keyHash);
+            if (ret == null) return getSource().get(key);
+            return ret.length == 0 ? null : ret;
+        }
+
+        @Override
+        protected boolean flushImpl() {
+            return false;
         }
     }
 
@@ -75,30 +219,46 @@ public class RepositoryRoot extends RepositoryImpl {
     private CachedSource.BytesKey<byte[]> trieCache;
     private Trie<byte[]> stateTrie;
 
+    // null when the snapshot is not used
+    private final StateSnapshot snapshot;
+    // the state the snapshot reads are done from and the changes written to the tries since that state
+    private volatile byte[] snapshotRoot;
+    private volatile StateSnapshot.Diff pending = new StateSnapshot.Diff();
+
     public RepositoryRoot(Source<byte[], byte[]> stateDS) {
         this(stateDS, null);
     }
 
+    public RepositoryRoot(final Source<byte[], byte[]> stateDS, byte[] root) {
+        this(stateDS, root, null);
+    }
+
     /**
      * Building the following structure for snapshot Repository:
      *
-     * stateDS --> trieCache --> stateTrie --> accountStateCodec --> accountStateCache
+     * stateDS --> trieCache --> stateTrie --> batchWriter --> [snapshotSource] --> accountStateCodec --> accountStateCache
      *  \                 \
-     *   \                 \-->>> storageKeyCompositor --> contractStorageTrie --> storageCodec --> storageCache
+     *   \                 \-->>> storageKeyCompositor --> contractStorageTrie --> batchWriter --> [snapshotSource] --> storageCodec --> storageCache
      *    \--> codeCache
      *
      *
      * @param stateDS
      * @param root
+     * @param snapshot  flat state snapshot for the state reads or null
      */
-    public RepositoryRoot(final Source<byte[], byte[]> stateDS, byte[] root) {
+    public RepositoryRoot(final Source<byte[], byte[]> stateDS, byte[] root, StateSnapshot snapshot) {
         this.stateDS = stateDS;
+        this.snapshot = snapshot != null && snapshot.isEnabled() ? snapshot : null;
+        this.snapshotRoot = root == null ? EMPTY_TRIE_HASH : root;
 
         trieCache = new WriteCache.BytesKey<>(stateDS, WriteCache.CacheType.COUNTING);
         stateTrie = new SecureTrie(trieCache, root);
 
-        SourceCodec.BytesKey<AccountState, byte[]> accountStateCodec = new SourceCodec.BytesKey<>(stateTrie, Serializers.AccountStateSerializer);
-        final ReadWriteCache.BytesKey<AccountState> accountStateCache = new ReadWriteCache.BytesKey<>(accountStateCodec, WriteCache.CacheType.SIMPLE);
+        Source<byte[], byte[]> accountTrieSource = new BatchSourceWriter<>(stateTrie);
+        if (this.snapshot != null) {
+            accountTrieSource = new SnapshotAccountSource(accountTrieSource);
+        }
+        final ReadWriteCache.BytesKey<AccountState> accountStateCache = new AccountStateCache(accountTrieSource);
 
         final MultiCache<StorageCache> storageCache = new MultiStorageCache();
 
@@ -114,6 +274,13 @@ public class RepositoryRoot extends RepositoryImpl {
 
         stateTrie.flush();
         trieCache.flush();
+
+        if (snapshot != null) {
+            byte[] root = stateTrie.getRootHash();
+            snapshot.update(snapshotRoot, root, pending);
+            snapshotRoot = root;
+            pending = new StateSnapshot.Diff();
+        }
     }
 
     @Override
@@ -131,7 +298,7 @@ public class RepositoryRoot extends RepositoryImpl {
 
     @Override
     public Repository getSnapshotTo(byte[] root) {
-        return new RepositoryRoot(stateDS, root);
+        return new RepositoryRoot(stateDS, root, snapshot);
     }
 
     @Override
@@ -147,6 +314,8 @@ public class RepositoryRoot extends RepositoryImpl {
     @Override
     public synchronized void syncToRoot(byte[] root) {
         stateTrie.setRoot(root);
+        snapshotRoot = root == null ? EMPTY_TRIE_HASH : root;
+        pending = new StateSnapshot.Diff();
     }
 
     protected TrieImpl createTrie(Source<byte[], byte[]> trieCache, byte[] root) {
@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import org.ethereum.core.AccountState;
+import org.ethereum.datasource.NodeKeyCompositor;
+import org.ethereum.datasource.Source;
+import org.ethereum.datasource.SourceCodec;
+import org.ethereum.trie.SecureTrie;
+import org.ethereum.trie.TrieImpl;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.CompactByteArrayMap;
+import org.ethereum.util.FastByteComparisons;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
+import static org.ethereum.util.ByteUtil.toHexString;
+
+/**
+ * Flat key-value snapshot of the world state which serves account and storage reads
+ * with a single lookup instead of walking the state trie from the root.
+ *
+ * <p>
+ *     The persistent base keeps the state at a single root as
+ *     {@code sha3(address) -> account} and {@code sha3(address) ++ sha3(key) -> storage value}
+ *     entries encoded the same way as in the tries. Changes of the recent blocks are kept in memory
+ *     as diff layers keyed by the state root, each layer refers to the layer of the parent state,
+ *     so fork blocks states are served as well. When a chain of layers grows over {@code maxLayers}
+ *     the bottom layers are merged into the base and the layers not descending from the new base
+ *     are dropped. On {@link #close(byte[])} the layers of the best state are merged into the base
+ *
+ * <p>
+ *     Layers are added by {@link RepositoryRoot#commit()} from the same changes which are written
+ *     to the tries. The snapshot doesn't cover states which are not descendants of the base
+ *     (e.g. downloaded by Fast Sync or imported before the snapshot was enabled),
+ *     reads of such states fall back to the trie
+ */
+public class StateSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    // the length differs from the accounts and storage keys
+    private static final byte[] BASE_ROOT_KEY = "snapshotBaseRoot".getBytes();
+
+    /**
+     * State changes between two roots, the keys are hashed the same way as in the state tries.
+     * Deleted entries have empty values. The class is thread safe
+     */
+    public static class Diff {
+        private final Map<byte[], byte[]> accounts = new CompactByteArrayMap<>();
+        private final Map<byte[], StorageDiff> storages = new CompactByteArrayMap<>();
+
+        public synchronized void putAccount(byte[] addrHash, byte[] value) {
+            accounts.put(addrHash, value == null ? EMPTY_BYTE_ARRAY : value);
+        }
+
+        public synchronized void putStorage(byte[] addrHash, byte[] keyHash, byte[] value) {
+            StorageDiff storage = storages.get(addrHash);
+            if (storage == null) {
+                storages.put(addrHash, storage = new StorageDiff());
+            }
+            storage.values.put(keyHash, value == null ? EMPTY_BYTE_ARRAY : value);
+        }
+
+        /**
+         * Discards the account storage as the account is deleted or created anew,
+         * the storage values put after this call are kept
+         */
+        public synchronized void wipeStorage(byte[] addrHash) {
+            StorageDiff storage = new StorageDiff();
+            storage.wiped = true;
+            storages.put(addrHash, storage);
+        }
+
+        /**
+         * @return the account value, empty if it is deleted or null if it is not changed
+         */
+        public synchronized byte[] getAccount(byte[] addrHash) {
+            return accounts.get(addrHash);
+        }
+
+        /**
+         * @return the storage value, empty if it is deleted or null if it is not changed
+         */
+        public synchronized byte[] getStorage(byte[] addrHash, byte[] keyHash) {
+            return lookupStorage(addrHash, keyHash);
+        }
+
+        public synchronized boolean isEmpty() {
+            return accounts.isEmpty() && storages.isEmpty();
+        }
+
+        private byte[] lookupStorage(byte[] addrHash, byte[] keyHash) {
+            StorageDiff storage = storages.get(addrHash);
+            if (storage == null) return null;
+            byte[] ret = storage.values.get(keyHash);
+            return ret == null && storage.wiped ? EMPTY_BYTE_ARRAY : ret;
+        }
+    }
+
+    private static class StorageDiff {
+        final Map<byte[], byte[]> values = new CompactByteArrayMap<>();
+        boolean wiped;
+    }
+
+    private static class Layer {
+        final byte[] root;
+        final byte[] parentRoot;
+        final Diff diff;
+        // null when the parent is the base
+        Layer parent;
+        boolean merged;
+
+        Layer(byte[] root, byte[] parentRoot, Layer parent, Diff diff) {
+            this.root = root;
+            this.parentRoot = parentRoot;
+            this.parent = parent;
+            this.diff = diff;
+        }
+    }
+
+    private final Source<byte[], byte[]> baseSource;
+    private final Source<byte[], byte[]> stateDS;
+    private final int maxLayers;
+
+    private final Map<byte[], Layer> layers = new CompactByteArrayMap<>();
+    // null when the snapshot is disabled
+    private byte[] baseRoot;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Creates disabled snapshot
+     */
+    public StateSnapshot() {
+        this(null, null, -1);
+    }
+
+    /**
+     * @param baseSource  persistent flat state storage
+     * @param stateDS  trie nodes source, is used to wipe the storage of deleted contracts from the base
+     * @param maxLayers  number of the last states kept in memory, negative value disables the snapshot
+     */
+    public StateSnapshot(Source<byte[], byte[]> baseSource, Source<byte[], byte[]> stateDS, int maxLayers) {
+        this.baseSource = baseSource;
+        this.stateDS = stateDS;
+        this.maxLayers = maxLayers;
+
+        if (maxLayers >= 0) {
+            byte[] root = baseSource.get(BASE_ROOT_KEY);
+            if (root == null) {
+                // new snapshot starts from the empty state
+                baseRoot = EMPTY_TRIE_HASH;
+            } else if (root.length > 0) {
+                baseRoot = root;
+            } else {
+                logger.warn("State snapshot was disabled due to an error, reset the database to enable it");
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return baseRoot != null;
+    }
+
+    /**
+     * @return the account value at the state root, empty array if the account doesn't exist
+     * or null if the state is not covered by the snapshot
+     */
+    public byte[] getAccount(byte[] root, byte[] addrHash) {
+        lock.readLock().lock();
+        try {
+            if (!covers(root)) return null;
+            for (Layer layer = layers.get(root); layer != null; layer = layer.parent) {
+                byte[] ret = layer.diff.accounts.get(addrHash);
+                if (ret != null) return ret;
+            }
+            byte[] ret = baseSource.get(addrHash);
+            return ret == null ? EMPTY_BYTE_ARRAY : ret;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the contract storage value at the state root, empty array if the value doesn't exist
+     * or null if the state is not covered by the snapshot
+     */
+    public byte[] getStorage(byte[] root, byte[] addrHash, byte[] keyHash) {
+        lock.readLock().lock();
+        try {
+            if (!covers(root)) return null;
+            for (Layer layer = layers.get(root); layer != null; layer = layer.parent) {
+                byte[] ret = layer.diff.lookupStorage(addrHash, keyHash);
+                if (ret != null) return ret;
+            }
+            byte[] ret = baseSource.get(ByteUtil.merge(addrHash, keyHash));
+            return ret == null ? EMPTY_BYTE_ARRAY : ret;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the state produced by applying the diff to the parent state.
+     * The diff shouldn't be modified afterwards.
+     * Does nothing if the parent state is not covered by the snapshot
+     */
+    public void update(byte[] parentRoot, byte[] root, Diff diff) {
+        lock.writeLock().lock();
+        try {
+            if (!isEnabled() || covers(root)) return;
+
+            Layer parent = layers.get(parentRoot);
+            if (parent == null && !FastByteComparisons.equal(parentRoot, baseRoot)) {
+                logger.debug("State snapshot doesn't cover parent state {}, skipping {}",
+                        toHexString(parentRoot), toHexString(root));
+                return;
+            }
+            Layer layer = new Layer(root, parentRoot, parent, diff);
+            layers.put(root, layer);
+            merge(layer, maxLayers);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Merges all the layers of the best state into the base,
+     * so the snapshot covers this state after restart
+     */
+    public void close(byte[] bestRoot) {
+        lock.writeLock().lock();
+        try {
+            Layer layer = layers.get(bestRoot);
+            if (layer != null) {
+                merge(layer, 0);
+                logger.info("State snapshot base is moved to " + toHexString(baseRoot));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean covers(byte[] root) {
+        return isEnabled() && (layers.containsKey(root) || FastByteComparisons.equal(root, baseRoot));
+    }
+
+    /**
+     * Keeps {@code depth} layers starting from the top one and merges the older ones into the base
+     */
+    private void merge(Layer top, int depth) {
+        Layer first = top;
+        if (depth > 0) {
+            for (int i = 0; i < depth; i++) {
+                // the chain is not longer than depth
+                if (first.parent == null) return;
+                first = first.parent;
+            }
+        }
+
+        List<Layer> toMerge = new ArrayList<>();
+        for (Layer layer = first; layer != null; layer = layer.parent) {
+            toMerge.add(layer);
+        }
+
+        try {
+            for (int i = toMerge.size() - 1; i >= 0; i--) {
+                Layer layer = toMerge.get(i);
+                writeToBase(layer.diff);
+                layer.merged = true;
+                baseRoot = layer.root;
+            }
+            baseSource.put(BASE_ROOT_KEY, baseRoot);
+        } catch (RuntimeException e) {
+            logger.error("Error merging diff layer into the state snapshot, the snapshot is disabled", e);
+            baseRoot = null;
+            layers.clear();
+            baseSource.put(BASE_ROOT_KEY, EMPTY_BYTE_ARRAY);
+            return;
+        }
+
+        // drop merged layers and the layers of the forks which are not descendants of the base anymore
+        for (Iterator<Map.Entry<byte[], Layer>> it = layers.entrySet().iterator(); it.hasNext(); ) {
+            Layer layer = it.next().getValue();
+            if (layer.merged) {
+                it.remove();
+                continue;
+            }
+            Layer bottom = layer;
+            while (bottom.parent != null && !bottom.parent.merged) {
+                bottom = bottom.parent;
+            }
+            if (bottom.parent != null && FastByteComparisons.equal(bottom.parent.root, baseRoot)) {
+                bottom.parent = null;
+            } else if (bottom.parent != null || !FastByteComparisons.equal(bottom.parentRoot, baseRoot)) {
+                it.remove();
+            }
+        }
+    }
+
+    private void writeToBase(Diff diff) {
+        // storages first since wiping needs the storage root of the base account
+        for (Map.Entry<byte[], StorageDiff> storage : diff.storages.entrySet()) {
+            byte[] addrHash = storage.getKey();
+            if (storage.getValue().wiped) {
+                wipeBaseStorage(addrHash);
+            }
+            for (Map.Entry<byte[], byte[]> entry : storage.getValue().values.entrySet()) {
+                write(ByteUtil.merge(addrHash, entry.getKey()), entry.getValue());
+            }
+        }
+        for (Map.Entry<byte[], byte[]> entry : diff.accounts.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void write(byte[] key, byte[] value) {
+        if (value.length == 0) {
+            baseSource.delete(key);
+        } else {
+            baseSource.put(key, value);
+        }
+    }
+
+    /**
+     * The base storage keys can't be enumerated, so they are taken from the account storage trie
+     */
+    private void wipeBaseStorage(final byte[] addrHash) {
+        byte[] account = baseSource.get(addrHash);
+        if (account == null) return;
+        byte[] storageRoot = new AccountState(account).getStateRoot();
+        if (FastByteComparisons.equal(storageRoot, EMPTY_TRIE_HASH)) return;
+
+        TrieImpl storageTrie = new SecureTrie(
+                new SourceCodec.KeyOnly<>(stateDS, new NodeKeyCompositor(addrHash)), storageRoot);
+        storageTrie.scanTree(new TrieImpl.ScanAction() {
+            @Override
+            public void doOnNode(byte[] hash, TrieImpl.Node node) {
+            }
+
+            @Override
+            public void doOnValue(byte[] nodeHash, TrieImpl.Node node, byte[] key, byte[] value) {
+                baseSource.delete(ByteUtil.merge(addrHash, key));
+            }
+        });
+    }
+}
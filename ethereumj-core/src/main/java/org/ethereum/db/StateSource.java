@@ -36,8 +36,16 @@ public class StateSource extends SourceChainBox<byte[], byte[], byte[], byte[]>
 
     ReadCache<byte[], byte[]> readCache;
     AbstractCachedSource<byte[], byte[]> writeCache;
+    Source<byte[], byte[]> loggedWriteCache;
 
     public StateSource(Source<byte[], byte[]> src, boolean pruningEnabled) {
+        this(src, pruningEnabled, null);
+    }
+
+    /**
+     * @param wal if not null the changes to the write cache are recorded to this log
+     */
+    public StateSource(Source<byte[], byte[]> src, boolean pruningEnabled, WriteAheadLog wal) {
         super(src);
         INST = this;
         add(readCache = new ReadCache.BytesKey<>(src).withMaxCapacity(16 * 1024 * 1024 / 512)); // 512 - approx size of a node
@@ -54,10 +62,12 @@ public class StateSource extends SourceChainBox<byte[], byte[], byte[], byte[]>
 
         add(writeCache);
 
+        loggedWriteCache = wal == null ? writeCache : wal.wrap("state", writeCache);
+
         if (pruningEnabled) {
-            add(journalSource = new JournalSource<>(writeCache));
+            add(journalSource = new JournalSource<>(loggedWriteCache));
         } else {
-            add(noDeleteSource = new NoDeleteSource<>(writeCache));
+            add(noDeleteSource = new NoDeleteSource<>(loggedWriteCache));
         }
     }
 
@@ -82,7 +92,7 @@ public class StateSource extends SourceChainBox<byte[], byte[], byte[], byte[]>
      * Returns the source behind JournalSource
      */
     public Source<byte[], byte[]> getNoJournalSource() {
-        return writeCache;
+        return loggedWriteCache;
     }
 
     public AbstractCachedSource<byte[], byte[]> getWriteCache() {
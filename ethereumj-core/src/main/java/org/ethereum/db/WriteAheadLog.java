@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import org.ethereum.datasource.AbstractChainedSource;
+import org.ethereum.datasource.Source;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Sequential log of the changes collected by write caches between two DB flushes.
+ *
+ * <p>
+ *     Changes are recorded by the {@link LoggedSource} wrappers installed on top of the
+ *     write caches and are appended to the log as a single group on each
+ *     {@link DbFlushManager#commit()}. The log file is fsync'ed each {@code syncCommits} groups.
+ *
+ * <p>
+ *     The log is split into segments: a new segment is started right before the caches are
+ *     flipped for the flush and the older segments are removed once that flush is complete.
+ *     On startup the changes from the remaining segments are replayed into the caches
+ *     when the cache with the corresponding name is wrapped, the changes for the names
+ *     which are not wrapped are replayed directly to their backing sources by
+ *     {@link #replayUnwrapped(Function)}. Recovered changes are released per name: once
+ *     a flush started after the name replay is complete the name is removed from the
+ *     recovered segments, so it is never replayed again. A torn or corrupted group
+ *     at the tail of a segment is ignored.
+ *
+ * <p>
+ *     Segment format: sequence of groups {@code [int length][long crc32][payload]}, payload:
+ *     {@code [short namesCount][UTF name]* [int recordsCount]
+ *     [short nameIdx][int keyLen][key][int valueLen (-1 for delete)][value]*}
+ *
+ * @see DbFlushManager
+ */
+public class WriteAheadLog {
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private static final class Record {
+        final String name;
+        final byte[] key;
+        final byte[] value;
+
+        Record(String name, byte[] key, byte[] value) {
+            this.name = name;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final Path dir;
+    private final int syncCommits;
+
+    private List<Record> pending = new ArrayList<>();
+
+    private long segmentSeq;
+    private FileChannel segment;
+    private int unsyncedCommits = 0;
+
+    // segments left from the previous run, the names recorded to them
+    // and the names which are not replayed from them yet
+    private final List<Path> recoveredSegments = new ArrayList<>();
+    private final Set<String> recoveredNames = new HashSet<>();
+    private final Set<String> notReplayed = new HashSet<>();
+    // replayed names which are released when the current flush completes
+    private final Set<String> releasingNames = new HashSet<>();
+    private final Set<String> names = new HashSet<>();
+    // segments which are safe to delete when the current flush completes
+    private final List<Path> flushingSegments = new ArrayList<>();
+
+    public WriteAheadLog(String dir, int syncCommits) {
+        this.dir = Paths.get(dir);
+        this.syncCommits = Math.max(1, syncCommits);
+        try {
+            Files.createDirectories(this.dir);
+            List<Path> existing = listSegments();
+            for (Path s : existing) {
+                recoveredSegments.add(s);
+                recoveredNames.addAll(readNames(s));
+            }
+            notReplayed.addAll(recoveredNames);
+            segmentSeq = existing.isEmpty() ? 0 : segmentSeq(existing.get(existing.size() - 1)) + 1;
+            if (!recoveredSegments.isEmpty()) {
+                logger.info("WriteAheadLog: found " + recoveredSegments.size() + " segment(s) to replay for " + notReplayed);
+            }
+            openSegment();
+        } catch (IOException e) {
+            throw new RuntimeException("Can't open write-ahead log at " + dir, e);
+        }
+    }
+
+    /**
+     * Wraps the write cache so all the changes to it are recorded to the log.
+     * The changes logged for this name by the previous run are replayed to the cache.
+     * @param name unique and persistent (across restarts) name of the cache
+     */
+    public synchronized Source<byte[], byte[]> wrap(String name, Source<byte[], byte[]> cache) {
+        if (!names.add(name)) throw new IllegalArgumentException("Duplicate WAL source name: " + name);
+        if (notReplayed.remove(name)) {
+            replay(name, cache);
+        }
+        return new LoggedSource(name, cache);
+    }
+
+    /**
+     * Replays the recovered changes for the names which are not wrapped so far
+     * directly to the sources backing the caches with these names.
+     * Should be called on startup when all the caches created eagerly are wrapped.
+     * The caches wrapped after this call get nothing replayed
+     * @param backing returns the source the cache with the name is flushed to
+     *                or null if there is no such cache anymore (the changes are dropped then)
+     */
+    public synchronized void replayUnwrapped(Function<String, Source<byte[], byte[]>> backing) {
+        for (String name : new ArrayList<>(notReplayed)) {
+            Source<byte[], byte[]> src = backing.apply(name);
+            if (src == null) {
+                logger.warn("WriteAheadLog: no source for '" + name + "', dropping its recovered changes");
+            } else {
+                replay(name, src);
+            }
+            notReplayed.remove(name);
+        }
+    }
+
+    /**
+     * Appends the changes recorded since the last call as a single group
+     * The log is fsync'ed when {@code syncCommits} groups are written
+     */
+    public synchronized void commit() {
+        if (pending.isEmpty()) return;
+        try {
+            writeGroup(segment, pending);
+            pending = new ArrayList<>();
+            if (++unsyncedCommits >= syncCommits) {
+                segment.force(false);
+                unsyncedCommits = 0;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Can't write to write-ahead log", e);
+        }
+    }
+
+    /**
+     * Should be called before the caches are flipped for the flush.
+     * Writes all the pending changes and starts a new segment. The changes recorded after
+     * this call are logged to the new segment
+     */
+    public synchronized void flushStarted() {
+        commit();
+        try {
+            segment.force(false);
+            segment.close();
+            unsyncedCommits = 0;
+            flushingSegments.add(segmentPath(segmentSeq));
+            segmentSeq++;
+            openSegment();
+        } catch (IOException e) {
+            throw new RuntimeException("Can't rotate write-ahead log", e);
+        }
+        // the replayed changes get to the DB with this flush
+        if (notReplayed.isEmpty()) {
+            flushingSegments.addAll(recoveredSegments);
+            recoveredSegments.clear();
+            recoveredNames.clear();
+        } else {
+            for (String name : recoveredNames) {
+                if (!notReplayed.contains(name)) releasingNames.add(name);
+            }
+        }
+    }
+
+    /**
+     * Should be called when the flush started by the last {@link #flushStarted()} is complete.
+     * Removes the segments which changes are in the DB now
+     */
+    public synchronized void flushCompleted() {
+        for (Path s : flushingSegments) {
+            try {
+                Files.deleteIfExists(s);
+            } catch (IOException e) {
+                logger.warn("WriteAheadLog: can't remove segment " + s, e);
+            }
+        }
+        flushingSegments.clear();
+        if (!releasingNames.isEmpty()) {
+            releaseRecovered(releasingNames);
+            recoveredNames.removeAll(releasingNames);
+            releasingNames.clear();
+        }
+    }
+
+    /**
+     * Rewrites the recovered segments without the changes for the specified names
+     */
+    private void releaseRecovered(Set<String> released) {
+        for (Iterator<Path> it = recoveredSegments.iterator(); it.hasNext(); ) {
+            Path s = it.next();
+            Path tmp = s.resolveSibling(s.getFileName() + ".tmp");
+            try {
+                int left = 0;
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(s)));
+                     FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                             StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    byte[] payload;
+                    while ((payload = readGroup(in)) != null) {
+                        List<Record> records = new ArrayList<>();
+                        for (Record r : readRecords(payload)) {
+                            if (!released.contains(r.name)) records.add(r);
+                        }
+                        if (!records.isEmpty()) {
+                            writeGroup(out, records);
+                            left += records.size();
+                        }
+                    }
+                    out.force(false);
+                }
+                if (left == 0) {
+                    Files.delete(tmp);
+                    Files.delete(s);
+                    it.remove();
+                } else {
+                    Files.move(tmp, s, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (IOException e) {
+                logger.warn("WriteAheadLog: can't release " + released + " from segment " + s, e);
+            }
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            commit();
+            segment.force(false);
+            segment.close();
+        } catch (IOException e) {
+            logger.warn("WriteAheadLog: error while closing", e);
+        }
+    }
+
+    private synchronized void record(String name, byte[] key, byte[] value) {
+        pending.add(new Record(name, key, value));
+    }
+
+    private static void writeGroup(FileChannel ch, List<Record> records) throws IOException {
+        Map<String, Integer> names = new LinkedHashMap<>();
+        for (Record r : records) {
+            if (!names.containsKey(r.name)) names.put(r.name, names.size());
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeShort(names.size());
+        for (String name : names.keySet()) {
+            out.writeUTF(name);
+        }
+        out.writeInt(records.size());
+        for (Record r : records) {
+            out.writeShort(names.get(r.name));
+            out.writeInt(r.key.length);
+            out.write(r.key);
+            if (r.value == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(r.value.length);
+                out.write(r.value);
+            }
+        }
+        out.flush();
+        byte[] payload = baos.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buf = ByteBuffer.allocate(12 + payload.length);
+        buf.putInt(payload.length).putLong(crc.getValue()).put(payload).flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    private void replay(String name, Source<byte[], byte[]> cache) {
+        int cnt = 0;
+        for (Path s : recoveredSegments) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(s)))) {
+                byte[] payload;
+                while ((payload = readGroup(in)) != null) {
+                    for (Record r : readRecords(payload)) {
+                        if (!name.equals(r.name)) continue;
+                        if (r.value == null) {
+                            cache.delete(r.key);
+                        } else {
+                            cache.put(r.key, r.value);
+                        }
+                        cnt++;
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Can't replay write-ahead log segment " + s, e);
+            }
+        }
+        logger.info("WriteAheadLog: replayed " + cnt + " changes to '" + name + "'");
+    }
+
+    private Set<String> readNames(Path segmentPath) throws IOException {
+        Set<String> ret = new HashSet<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentPath)))) {
+            byte[] payload;
+            while ((payload = readGroup(in)) != null) {
+                ret.addAll(Arrays.asList(readGroupNames(new DataInputStream(new ByteArrayInputStream(payload)))));
+            }
+        }
+        return ret;
+    }
+
+    private static List<Record> readRecords(byte[] payload) throws IOException {
+        DataInputStream group = new DataInputStream(new ByteArrayInputStream(payload));
+        String[] names = readGroupNames(group);
+        int recordsCount = group.readInt();
+        List<Record> ret = new ArrayList<>(recordsCount);
+        for (int i = 0; i < recordsCount; i++) {
+            String name = names[group.readShort()];
+            byte[] key = new byte[group.readInt()];
+            group.readFully(key);
+            int valueLen = group.readInt();
+            byte[] value = null;
+            if (valueLen >= 0) {
+                value = new byte[valueLen];
+                group.readFully(value);
+            }
+            ret.add(new Record(name, key, value));
+        }
+        return ret;
+    }
+
+    private static String[] readGroupNames(DataInputStream group) throws IOException {
+        String[] names = new String[group.readShort()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = group.readUTF();
+        }
+        return names;
+    }
+
+    /**
+     * @return the group payload or null if end of the segment or torn/corrupted group reached
+     */
+    private static byte[] readGroup(DataInputStream in) throws IOException {
+        try {
+            int len = in.readInt();
+            long crc = in.readLong();
+            if (len < 0) return null;
+            byte[] payload = new byte[len];
+            in.readFully(payload);
+            CRC32 crc32 = new CRC32();
+            crc32.update(payload);
+            if (crc32.getValue() != crc) {
+                logger.warn("WriteAheadLog: corrupted group found, ignoring the rest of the segment");
+                return null;
+            }
+            return payload;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private void openSegment() throws IOException {
+        segment = FileChannel.open(segmentPath(segmentSeq),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve(String.format("%016d", seq) + SEGMENT_SUFFIX);
+    }
+
+    private static long segmentSeq(Path segmentPath) {
+        String fileName = segmentPath.getFileName().toString();
+        return Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> ret = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            for (Path p : stream) ret.add(p);
+        }
+        ret.sort(Comparator.comparingLong(WriteAheadLog::segmentSeq));
+        return ret;
+    }
+
+    /**
+     * Passes all the calls to the backing write cache recording the changes to the log.
+     * The change is recorded after it is applied to the cache: since the new segment is started
+     * before the caches are flipped, a change which gets to the fresh cache after the flip
+     * is never recorded to the segment removed on that flush completion
+     */
+    private class LoggedSource extends AbstractChainedSource<byte[], byte[], byte[], byte[]> {
+        private final String name;
+
+        LoggedSource(String name, Source<byte[], byte[]> src) {
+            super(src);
+            this.name = name;
+            setFlushSource(true);
+        }
+
+        @Override
+        public void put(byte[] key, byte[] val) {
+            if (val == null) {
+                delete(key);
+                return;
+            }
+            getSource().put(key, val);
+            record(name, key, val);
+        }
+
+        @Override
+        public byte[] get(byte[] key) {
+            return getSource().get(key);
+        }
+
+        @Override
+        public void delete(byte[] key) {
+            getSource().delete(key);
+            record(name, key, null);
+        }
+
+        @Override
+        protected boolean flushImpl() {
+            return false;
+        }
+    }
+}
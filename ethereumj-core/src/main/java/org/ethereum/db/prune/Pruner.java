@@ -1,11 +1,11 @@
 package org.ethereum.db.prune;
 
+import com.google.common.util.concurrent.RateLimiter;
 import org.ethereum.crypto.HashUtil;
-import org.ethereum.datasource.CountingQuotientFilter;
+import org.ethereum.datasource.ConcurrentQuotientFilter;
 import org.ethereum.datasource.JournalSource;
-import org.ethereum.datasource.QuotientFilter;
 import org.ethereum.datasource.Source;
-import org.ethereum.util.ByteArraySet;
+import org.ethereum.util.CompactByteArrayMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,6 +13,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static org.ethereum.util.ByteUtil.toHexString;
@@ -32,16 +33,22 @@ import static org.ethereum.util.ByteUtil.toHexString;
  *     which is going to be 'pruned'. To be confident that live nodes won't be removed,
  *     pruner must be initialized with the top of the chain, see {@link #init(List, int)}}.
  *     And after that it must be fed with each newly processed block, see {@link #feed(JournalSource.Update)}.
- *     {@link QuotientFilter} ({@link CountingQuotientFilter} implementation in particular) instance is used to
+ *     {@link ConcurrentQuotientFilter} instance is used to
  *     efficiently keep upcoming inserts in memory and protect newly inserted nodes from being deleted during
  *     prune session. The filter is constantly recycled in {@link #prune(Segment)} method.
  *
  * <p>
+ *     When pruning runs concurrently with block import the inserted keys should rather be fed
+ *     one by one with {@link #feed(byte[])} before they become visible in the {@link #storage}.
+ *     In that case the writer and the pruner must share a lock, see {@link #withStorageLock(Object)},
+ *     so a node can't be checked against the filter and deleted while it is being inserted again.
+ *
+ * <p>
  *     When 'prune.maxDepth' param is quite big, it becomes not efficient to keep reverted nodes until prune block number has come.
  *     Hence Pruner has two step mode to mitigate memory consumption, second step is initiated by {@link #withSecondStep(List, int)}.
  *     In that mode nodes from not accepted forks are deleted from storage immediately but main chain deletions are
  *     postponed for the second step.
- *     Second step uses another one instance of QuotientFilter with less memory impact, check {@link #instantiateFilter(int, int)}.
+ *     Second step uses another one instance of the filter with less memory impact, check {@link #instantiateFilter(int, int)}.
  *
  * <p>
  *     Basically, prune session initiated by {@link #prune(Segment)} method
@@ -58,9 +65,11 @@ public class Pruner {
 
     Source<byte[], JournalSource.Update> journal;
     Source<byte[], ?> storage;
-    QuotientFilter filter;
-    QuotientFilter distantFilter;
-    boolean ready = false;
+    volatile ConcurrentQuotientFilter filter;
+    volatile ConcurrentQuotientFilter distantFilter;
+    volatile boolean ready = false;
+    Object storageLock = new Object();
+    RateLimiter deleteRate;
 
     private static class Stats {
         int collisions = 0;
@@ -84,6 +93,27 @@ public class Pruner {
         this.journal = journal;
     }
 
+    /**
+     * Sets the lock held by the writer while it feeds and inserts nodes,
+     * pruner holds it while checking a node against the filters and deleting it
+     */
+    public Pruner withStorageLock(Object storageLock) {
+        this.storageLock = storageLock;
+        return this;
+    }
+
+    /**
+     * Limits the rate of node deletions, the limiter is never acquired while {@link #storageLock} is held
+     */
+    public Pruner withDeleteRate(RateLimiter deleteRate) {
+        this.deleteRate = deleteRate;
+        return this;
+    }
+
+    public RateLimiter getDeleteRate() {
+        return deleteRate;
+    }
+
     public boolean isReady() {
         return ready;
     }
@@ -96,7 +126,7 @@ public class Pruner {
             return false;
         }
 
-        QuotientFilter filter = instantiateFilter(sizeInBlocks, FILTER_ENTRIES_FORK);
+        ConcurrentQuotientFilter filter = instantiateFilter(sizeInBlocks, FILTER_ENTRIES_FORK);
         for (byte[] hash : forkWindow) {
             JournalSource.Update update = journal.get(hash);
             if (update == null) {
@@ -117,7 +147,7 @@ public class Pruner {
     public void withSecondStep(List<byte[]> mainChainWindow, int sizeInBlocks) {
         if (!ready) return;
 
-        QuotientFilter filter = instantiateFilter(sizeInBlocks, FILTER_ENTRIES_DISTANT);
+        ConcurrentQuotientFilter filter = instantiateFilter(sizeInBlocks, FILTER_ENTRIES_DISTANT);
 
         if (!mainChainWindow.isEmpty()) {
             int i = mainChainWindow.size() - 1;
@@ -141,9 +171,11 @@ public class Pruner {
     private static final int FILTER_ENTRIES_FORK = 1 << 13; // approximate number of nodes per block
     private static final int FILTER_ENTRIES_DISTANT = 1 << 11;
     private static final int FILTER_MAX_SIZE = Integer.MAX_VALUE >> 1; // that filter will consume ~3g of mem
-    private QuotientFilter instantiateFilter(int blocksCnt, int entries) {
+    private ConcurrentQuotientFilter instantiateFilter(int blocksCnt, int entries) {
         int size = Math.min(entries * blocksCnt, FILTER_MAX_SIZE);
-        return CountingQuotientFilter.create(size, size);
+        // filter starts with 1/8 of the size and doubles itself when needed,
+        // fingerprint size is the same as if it was allocated with the whole size
+        return ConcurrentQuotientFilter.create(size, Math.max(1, size >> 3));
     }
 
     public boolean init(byte[] ... upcoming) {
@@ -155,6 +187,15 @@ public class Pruner {
             update.getInsertedKeys().forEach(filter::insert);
     }
 
+    /**
+     * Feeds a single key which is about to be inserted to the storage,
+     * should be called under {@link #storageLock}
+     */
+    public void feed(byte[] key) {
+        if (ready)
+            filter.insert(key);
+    }
+
     public void prune(Segment segment) {
         if (!ready) return;
         assert segment.isComplete();
@@ -183,15 +224,15 @@ public class Pruner {
         if (logger.isTraceEnabled()) logger.trace("nodes {}, keys in mem: {}, filter load: {}/{}: {}, distinct collisions: {}",
                 (withSecondStep() ? "postponed: " + nodesPostponed : "deleted: " + pruning.nodesDeleted),
                 pruning.insertedInForks.size() + pruning.insertedInMainChain.size(),
-                ((CountingQuotientFilter) filter).getEntryNumber(), ((CountingQuotientFilter) filter).getMaxInsertions(),
-                String.format("%.4f", (double) ((CountingQuotientFilter) filter).getEntryNumber() /
-                        ((CountingQuotientFilter) filter).getMaxInsertions()),
-                ((CountingQuotientFilter) filter).getCollisionNumber());
+                filter.getEntryNumber(), filter.getMaxInsertions(),
+                String.format("%.4f", (double) filter.getEntryNumber() /
+                        filter.getMaxInsertions()),
+                filter.getCollisionNumber());
 
         if (logger.isDebugEnabled()) {
-            int collisions = ((CountingQuotientFilter) filter).getCollisionNumber();
-            double load = (double) ((CountingQuotientFilter) filter).getEntryNumber() /
-                    ((CountingQuotientFilter) filter).getMaxInsertions();
+            int collisions = filter.getCollisionNumber();
+            double load = (double) filter.getEntryNumber() /
+                    filter.getMaxInsertions();
             if (collisions > maxCollisions.collisions) {
                 maxCollisions.collisions = collisions;
                 maxCollisions.load = load;
@@ -228,11 +269,9 @@ public class Pruner {
 
         // persist deleted keys
         int nodesDeleted = 0;
+        Predicate<byte[]> unused = key -> !filter.maybeContains(key) && !distantFilter.maybeContains(key);
         for (byte[] key : update.getDeletedKeys()) {
-            if (!filter.maybeContains(key) && !distantFilter.maybeContains(key)) {
-                ++nodesDeleted;
-                storage.delete(key);
-            }
+            if (deleteUnused(key, unused)) ++nodesDeleted;
         }
         // clean up filter
         update.getInsertedKeys().forEach(distantFilter::remove);
@@ -240,9 +279,9 @@ public class Pruner {
         journal.delete(hash);
 
         if (logger.isDebugEnabled()) {
-            int collisions = ((CountingQuotientFilter) distantFilter).getCollisionNumber();
-            double load = (double) ((CountingQuotientFilter) distantFilter).getEntryNumber() /
-                    ((CountingQuotientFilter) distantFilter).getMaxInsertions();
+            int collisions = distantFilter.getCollisionNumber();
+            double load = (double) distantFilter.getEntryNumber() /
+                    distantFilter.getMaxInsertions();
             if (collisions > distantMaxCollisions.collisions) {
                 distantMaxCollisions.collisions = collisions;
                 distantMaxCollisions.load = load;
@@ -262,11 +301,11 @@ public class Pruner {
         if (logger.isTraceEnabled()) logger.trace("[{}] persisted in {}ms: {}/{} ({}%) nodes deleted, filter load: {}/{}: {}, distinct collisions: {}",
                 HashUtil.shortHash(hash), System.currentTimeMillis() - t, nodesDeleted, update.getDeletedKeys().size(),
                 nodesDeleted * 100 / update.getDeletedKeys().size(),
-                ((CountingQuotientFilter) distantFilter).getEntryNumber(),
-                ((CountingQuotientFilter) distantFilter).getMaxInsertions(),
-                String.format("%.4f", (double) ((CountingQuotientFilter) distantFilter).getEntryNumber() /
-                        ((CountingQuotientFilter) distantFilter).getMaxInsertions()),
-                ((CountingQuotientFilter) distantFilter).getCollisionNumber());
+                distantFilter.getEntryNumber(),
+                distantFilter.getMaxInsertions(),
+                String.format("%.4f", (double) distantFilter.getEntryNumber() /
+                        distantFilter.getMaxInsertions()),
+                distantFilter.getCollisionNumber());
     }
 
     private int postpone(Chain chain) {
@@ -296,6 +335,7 @@ public class Pruner {
             logger.trace("<~ persisting " + chain + ": " + strSample(chain.getHashes()));
 
         int nodesDeleted = 0;
+        Predicate<byte[]> unused = key -> !filter.maybeContains(key);
         for (byte[] hash : chain.getHashes()) {
             JournalSource.Update update = journal.get(hash);
             if (update == null) {
@@ -304,10 +344,7 @@ public class Pruner {
             }
             // persist deleted keys
             for (byte[] key : update.getDeletedKeys()) {
-                if (!filter.maybeContains(key)) {
-                    ++nodesDeleted;
-                    storage.delete(key);
-                }
+                if (deleteUnused(key, unused)) ++nodesDeleted;
             }
             // clean up filter
             update.getInsertedKeys().forEach(filter::remove);
@@ -316,6 +353,23 @@ public class Pruner {
         return nodesDeleted;
     }
 
+    /**
+     * Deletes the key unless it's used, the check is repeated under {@link #storageLock}
+     * to not interfere with the writer which might be inserting the same key
+     */
+    private boolean deleteUnused(byte[] key, Predicate<byte[]> unused) {
+        if (!unused.test(key)) return false;
+
+        RateLimiter limiter = deleteRate;
+        if (limiter != null) limiter.acquire();
+
+        synchronized (storageLock) {
+            if (!unused.test(key)) return false;
+            storage.delete(key);
+        }
+        return true;
+    }
+
     private String strSample(Collection<byte[]> hashes) {
         String sample = hashes.stream().limit(3)
                 .map(HashUtil::shortHash).collect(Collectors.joining(", "));
@@ -329,8 +383,9 @@ public class Pruner {
 
         // track nodes inserted and deleted in forks
         // to avoid deletion of those nodes which were originally inserted in the main chain
-        Set<byte[]> insertedInMainChain = new ByteArraySet();
-        Set<byte[]> insertedInForks = new ByteArraySet();
+        Set<byte[]> insertedInMainChain = CompactByteArrayMap.newSet();
+        Set<byte[]> insertedInForks = CompactByteArrayMap.newSet();
+        Predicate<byte[]> unused = key -> !filter.maybeContains(key) && !insertedInMainChain.contains(key);
         int nodesDeleted = 0;
 
         private void revert(Chain chain) {
@@ -360,10 +415,7 @@ public class Pruner {
 
                 // revert inserted keys
                 for (byte[] key : update.getInsertedKeys()) {
-                    if (!filter.maybeContains(key) && !insertedInMainChain.contains(key)) {
-                        ++nodesDeleted;
-                        storage.delete(key);
-                    }
+                    if (deleteUnused(key, unused)) ++nodesDeleted;
                 }
             }
         }
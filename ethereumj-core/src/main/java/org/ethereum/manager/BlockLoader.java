@@ -21,6 +21,7 @@ package org.ethereum.manager;
 import org.apache.commons.lang3.ArrayUtils;
 import org.ethereum.core.Block;
 import org.ethereum.core.BlockHeader;
+import org.ethereum.core.BlockSummary;
 import org.ethereum.core.Blockchain;
 import org.ethereum.core.ImportResult;
 import org.ethereum.core.Transaction;
@@ -35,11 +36,15 @@ import org.springframework.stereotype.Component;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
@@ -176,10 +181,267 @@ public class BlockLoader {
         return loadBlocks(HexLineDumpWalker::new, paths);
     }
 
+    /**
+     * Bulk imports the trusted linear chain from specified dumps.
+     *
+     * <p>
+     *     Unlike {@link #loadBlocks(Function, Path...)} the blocks are expected to go one after another
+     *     starting from the block next to the best one (the already imported blocks are skipped),
+     *     they are imported without the fork choice and the import stops on the first invalid block.
+     *     Headers and bodies are validated and tx senders are recovered in parallel ahead of the import,
+     *     receipts are put to the transaction store by a separate stage following the import,
+     *     and the DB is flushed by the write cache size only (see {@link DbFlushManager#setBulkMode}).
+     *
+     * @param walkerFactory {@link DumpWalker} factory, which should instantiate new walker per each dump;
+     * @param paths         list of dumps to import;
+     * @return <code>true</code> if all blocks within all dumps have been successfully imported, <code>false</code> otherwise.
+     */
+    public boolean loadBlocksBulk(Function<Path, DumpWalker> walkerFactory, Path... paths) {
+        if (ArrayUtils.isEmpty(paths)) {
+            logger.warn("There is nothing to import.");
+            return false;
+        }
+
+        BulkImport bulk = new BulkImport(blockchain.getBestBlock().getNumber());
+        dbFlushManager.setBulkMode(true);
+        boolean allBlocksImported;
+        try {
+
+            for (Path dump : paths) {
+                try (DumpWalker walker = walkerFactory.apply(dump)) {
+                    for (byte[] rlp : walker) {
+                        if (bulk.failed) break;
+                        bulk.exec1.push(new Block(rlp));
+                    }
+                }
+            }
+
+            bulk.exec1.join();
+            dbFlushManager.flushSync();
+
+            allBlocksImported = !bulk.failed && bulk.maxBlockNumber.get() == blockchain.getBestBlock().getNumber();
+        } catch (Exception e) {
+            e.printStackTrace();
+            allBlocksImported = false;
+        } finally {
+            dbFlushManager.setBulkMode(false);
+        }
+
+        bulk.printProgress();
+        if (allBlocksImported) {
+            System.out.printf("All of %s blocks was successfully loaded.\n", bulk.maxBlockNumber);
+        } else {
+            System.out.printf("Some blocks have been lost during the loading.");
+        }
+
+        return allBlocksImported;
+    }
+
+    /**
+     * Bulk imports the trusted linear chain from specified binary dumps of concatenated block RLPs.
+     *
+     * @param paths list of dumps to import;
+     * @return <code>true</code> if all blocks within all dumps have been successfully imported, <code>false</code> otherwise.
+     * @see #loadBlocksBulk(Function, Path...)
+     */
+    public boolean loadBlocksBulk(Path... paths) {
+        return loadBlocksBulk(RlpDumpWalker::new, paths);
+    }
+
     private boolean isValid(BlockHeader header) {
         return headerValidator.validateAndLog(header, logger);
     }
 
+    private class BulkImport {
+        private static final long PROGRESS_INTERVAL = 10_000;
+
+        final long startBlockNumber;
+        final AtomicLong maxBlockNumber = new AtomicLong();
+        // number of the first block failed the validation
+        final AtomicLong firstInvalid = new AtomicLong(Long.MAX_VALUE);
+        volatile boolean failed = false;
+
+        final ExecutorPipeline<Block, Block> exec1;
+        final ExecutorPipeline<Block, BlockSummary> exec2;
+        final ExecutorPipeline<BlockSummary, ?> exec3;
+
+        // progress metrics, updated by the import thread
+        final long startTime = System.currentTimeMillis();
+        long lastReportTime = startTime;
+        long importedBlocks = 0, importedGas = 0;
+        long lastReportBlocks = 0, lastReportGas = 0;
+
+        BulkImport(long startBlockNumber) {
+            this.startBlockNumber = startBlockNumber;
+
+            exec1 = new ExecutorPipeline<Block, Block>(Runtime.getRuntime().availableProcessors(), 1000, true, b -> {
+                maxBlockNumber.accumulateAndGet(b.getNumber(), Math::max);
+                if (b.getNumber() > startBlockNumber && !failed) {
+                    if (!isValid(b.getHeader()) || !b.isBodyValid()) {
+                        firstInvalid.accumulateAndGet(b.getNumber(), Math::min);
+                    } else {
+                        for (Transaction tx : b.getTransactionsList()) {
+                            tx.getSender();
+                        }
+                    }
+                }
+                return b;
+            }, this::fail).setThreadPoolName("BulkImportPrework");
+
+            exec2 = exec1.add(1, 1000, false, this::importBlock).setThreadPoolName("BulkImport");
+
+            exec3 = exec2.add(1, 1000, summary -> {
+                if (summary != null) {
+                    blockchain.indexReceipts(summary.getBlock(), summary.getReceipts());
+                }
+            }).setThreadPoolName("BulkImportReceipts");
+        }
+
+        private BlockSummary importBlock(Block block) {
+            if (failed || block.getNumber() <= startBlockNumber) return null;
+
+            if (block.getNumber() >= firstInvalid.get()) {
+                fail(new RuntimeException("Invalid block " + block.getShortDescr()));
+                return null;
+            }
+
+            BlockSummary summary = blockchain.connectTrusted(block, false);
+            if (summary == null) {
+                fail(new RuntimeException("Failed to import block " + block.getShortDescr()));
+                return null;
+            }
+
+            importedBlocks++;
+            importedGas += block.getGasUsed();
+            if (System.currentTimeMillis() - lastReportTime >= PROGRESS_INTERVAL) {
+                printProgress();
+            }
+
+            return summary;
+        }
+
+        private void fail(Throwable t) {
+            logger.error("Bulk import failed: ", t);
+            failed = true;
+        }
+
+        private void printProgress() {
+            long now = System.currentTimeMillis();
+            double intervalSec = Math.max(1, now - lastReportTime) / 1000d;
+            double totalSec = Math.max(1, now - startTime) / 1000d;
+
+            System.out.printf("%s Imported %d blocks (best #%d): %.1f blocks/sec, %.2f Mgas/sec (avg: %.1f blocks/sec, %.2f Mgas/sec), " +
+                            "queued: %d prework, %d import, %d receipts\n",
+                    LocalDateTime.now().format(df),
+                    importedBlocks,
+                    startBlockNumber + importedBlocks,
+                    (importedBlocks - lastReportBlocks) / intervalSec,
+                    (importedGas - lastReportGas) / intervalSec / 1_000_000,
+                    importedBlocks / totalSec,
+                    importedGas / totalSec / 1_000_000,
+                    exec1.getQueue().size(),
+                    exec2.getQueue().size(),
+                    exec3.getQueue().size());
+
+            lastReportTime = now;
+            lastReportBlocks = importedBlocks;
+            lastReportGas = importedGas;
+        }
+    }
+
+    /**
+     * Walks over the binary dump of concatenated block RLPs,
+     * the dump is read through the memory mapped windows
+     */
+    private class RlpDumpWalker implements DumpWalker {
+        // blocks larger than the window are mapped separately
+        private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+        // the longest RLP list prefix
+        private static final int MAX_PREFIX_SIZE = 9;
+
+        private final FileChannel channel;
+        private final long size;
+
+        private MappedByteBuffer window;
+        private long windowPos;
+
+        public RlpDumpWalker(Path path) {
+            try {
+                System.out.println("Loading RLP encoded blocks dump from: " + path);
+                this.channel = FileChannel.open(path, StandardOpenOption.READ);
+                this.size = channel.size();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+
+        /**
+         * Makes the window to cover [pos, pos + len) and returns the pos offset within the window
+         */
+        private int map(long pos, int len) {
+            try {
+                if (window == null || pos < windowPos || pos + len > windowPos + window.limit()) {
+                    windowPos = pos;
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(size - pos, Math.max(len, WINDOW_SIZE)));
+                }
+                return (int) (pos - windowPos);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public Iterator<byte[]> iterator() {
+            return new Iterator<byte[]>() {
+                private long pos = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return pos < size;
+                }
+
+                @Override
+                public byte[] next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+
+                    int offset = map(pos, (int) Math.min(MAX_PREFIX_SIZE, size - pos));
+                    int prefix = window.get(offset) & 0xFF;
+                    long prefixSize, length;
+                    if (prefix < 0xC0) {
+                        throw new RuntimeException("Not a block RLP at position " + pos);
+                    } else if (prefix <= 0xF7) {
+                        prefixSize = 1;
+                        length = prefix - 0xC0;
+                    } else {
+                        int lengthSize = prefix - 0xF7;
+                        prefixSize = 1 + lengthSize;
+                        if (pos + prefixSize > size) throw new RuntimeException("Truncated dump at position " + pos);
+                        length = 0;
+                        for (int i = 1; i <= lengthSize; i++) {
+                            length = (length << 8) | (window.get(offset + i) & 0xFF);
+                        }
+                    }
+                    long total = prefixSize + length;
+                    if (total > Integer.MAX_VALUE || pos + total > size) {
+                        throw new RuntimeException("Truncated dump at position " + pos);
+                    }
+
+                    offset = map(pos, (int) total);
+                    byte[] ret = new byte[(int) total];
+                    window.position(offset);
+                    window.get(ret);
+                    pos += total;
+                    return ret;
+                }
+            };
+        }
+    }
+
     private class HexLineDumpWalker implements DumpWalker {
 
         private final Scanner scanner;
@@ -22,6 +22,7 @@ import org.ethereum.core.*;
 import org.ethereum.db.BlockStore;
 import org.ethereum.db.DbFlushManager;
 import org.ethereum.db.HeaderStore;
+import org.ethereum.db.StateSnapshot;
 import org.ethereum.db.migrate.MigrateHeaderSourceTotalDiff;
 import org.ethereum.listener.CompositeEthereumListener;
 import org.ethereum.listener.EthereumListener;
@@ -90,6 +91,9 @@ public class WorldManager {
     @Autowired
     private DbFlushManager dbFlushManager;
 
+    @Autowired
+    private StateSnapshot stateSnapshot;
+
     @Autowired
     private ApplicationContext ctx;
 
@@ -117,6 +121,7 @@ public class WorldManager {
 
     @PostConstruct
     private void init() {
+        dbFlushManager.replayWriteAheadLog();
         fastSyncDbJobs();
         syncManager.init(channelManager, pool);
     }
@@ -286,6 +291,8 @@ public class WorldManager {
         blockchain.close();
         logger.info("close: closing main repository ...");
         repository.close();
+        logger.info("close: merging state snapshot layers ...");
+        stateSnapshot.close(blockchain.getBestBlock().getStateRoot());
         logger.info("close: database flush manager ...");
         dbFlushManager.close();
     }
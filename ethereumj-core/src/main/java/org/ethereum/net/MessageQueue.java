@@ -17,15 +17,18 @@
  */
 package org.ethereum.net;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import org.ethereum.config.SystemProperties;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.net.eth.message.EthMessage;
 import org.ethereum.net.message.Message;
 import org.ethereum.net.message.ReasonCode;
 import org.ethereum.net.p2p.DisconnectMessage;
 import org.ethereum.net.p2p.PingMessage;
-import org.ethereum.net.p2p.PongMessage;
 import org.ethereum.net.server.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,7 +37,9 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import java.util.Queue;
-import java.util.concurrent.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.ethereum.net.message.StaticMessages.DISCONNECT_MESSAGE;
@@ -44,13 +49,19 @@ import static org.ethereum.net.message.StaticMessages.DISCONNECT_MESSAGE;
  *
  * Messages open by send and answered by receive of appropriate message
  *      PING by PONG
- *      GET_PEERS by PEERS
- *      GET_TRANSACTIONS by TRANSACTIONS
- *      GET_BLOCK_HASHES by BLOCK_HASHES
- *      GET_BLOCKS by BLOCKS
+ *      GET_BLOCK_HEADERS by BLOCK_HEADERS
+ *      GET_BLOCK_BODIES by BLOCK_BODIES
+ *      GET_NODE_DATA by NODE_DATA
+ *      GET_RECEIPTS by RECEIPTS
  *
- * The following messages will not be answered:
- *      PONG, PEERS, HELLO, STATUS, TRANSACTIONS, BLOCKS
+ * The rest of messages are not answered.
+ *
+ * Messages are written to the channel as soon as they are sent, one flush covers
+ * all the messages queued by the time the channel event loop gets to them.
+ * While the channel is not writable (the peer doesn't keep up with reading) the messages
+ * are kept in the queue and are written once the channel becomes writable again.
+ * The peer which lets more than {@link #MAX_QUEUED_MESSAGES} messages pile up is disconnected.
+ * Requests awaiting answers are forgotten after the channel read timeout.
  *
  * @author Roman Mandeleil
  */
@@ -60,22 +71,29 @@ public class MessageQueue {
 
     private static final Logger logger = LoggerFactory.getLogger("net");
 
-    private static final ScheduledExecutorService timer = Executors.newScheduledThreadPool(4, new ThreadFactory() {
-        private AtomicInteger cnt = new AtomicInteger(0);
+    // the timeouts are in seconds, a coarse tick is enough
+    private static final HashedWheelTimer defaultTimer = new HashedWheelTimer(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("MessageQueueTimer-%d").build(),
+            100, TimeUnit.MILLISECONDS);
 
-        public Thread newThread(Runnable r) {
-            return new Thread(r, "MessageQueueTimer-" + cnt.getAndIncrement());
-        }
-    });
+    static final int MAX_QUEUED_MESSAGES = 4096;
+
+    Timer timer = defaultTimer;
 
-    private Queue<MessageRoundtrip> requestQueue = new ConcurrentLinkedQueue<>();
-    private Queue<MessageRoundtrip> respondQueue = new ConcurrentLinkedQueue<>();
-    private ChannelHandlerContext ctx = null;
+    // messages waiting to be written to the channel
+    private final Queue<Message> outboundQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outboundSize = new AtomicInteger();
+    private final AtomicBoolean overflowed = new AtomicBoolean();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    // sent requests awaiting answers in the order they were sent
+    private final Queue<MessageRoundtrip> requestQueue = new ConcurrentLinkedQueue<>();
+    private volatile ChannelHandlerContext ctx = null;
 
     @Autowired
     EthereumListener ethereumListener;
-    boolean hasPing = false;
-    private ScheduledFuture<?> timerTask;
+    @Autowired
+    SystemProperties config;
+    volatile boolean hasPing = false;
     private Channel channel;
 
     public MessageQueue() {
@@ -83,13 +101,7 @@ public class MessageQueue {
 
     public void activate(ChannelHandlerContext ctx) {
         this.ctx = ctx;
-        timerTask = timer.scheduleAtFixedRate(() -> {
-            try {
-                nudgeQueue();
-            } catch (Throwable t) {
-                logger.error("Unhandled exception", t);
-            }
-        }, 10, 10, TimeUnit.MILLISECONDS);
+        scheduleWrite();
     }
 
     public void setChannel(Channel channel) {
@@ -107,10 +119,18 @@ public class MessageQueue {
             hasPing = true;
         }
 
-        if (msg.getAnswerMessage() != null)
-            requestQueue.add(new MessageRoundtrip(msg));
-        else
-            respondQueue.add(new MessageRoundtrip(msg));
+        if (overflowed.get()) return;
+        if (outboundSize.incrementAndGet() > MAX_QUEUED_MESSAGES) {
+            if (overflowed.compareAndSet(false, true)) {
+                logger.warn("{}: more than {} messages are waiting to be sent, dropping the peer", channel, MAX_QUEUED_MESSAGES);
+                outboundQueue.clear();
+                if (ctx != null) disconnect(ReasonCode.USELESS_PEER);
+            }
+            return;
+        }
+
+        outboundQueue.add(msg);
+        scheduleWrite();
     }
 
     public void disconnect() {
@@ -130,57 +150,82 @@ public class MessageQueue {
 
         ethereumListener.trace("[Recv: " + msg + "]");
 
-        if (requestQueue.peek() != null) {
-            MessageRoundtrip messageRoundtrip = requestQueue.peek();
+        // the message answers the earliest request of the matching type
+        for (MessageRoundtrip messageRoundtrip : requestQueue) {
             Message waitingMessage = messageRoundtrip.getMsg();
+            if (msg.getClass() != waitingMessage.getAnswerMessage()) continue;
 
-            if (waitingMessage instanceof PingMessage) hasPing = false;
-
-            if (waitingMessage.getAnswerMessage() != null
-                    && msg.getClass() == waitingMessage.getAnswerMessage()) {
+            if (requestQueue.remove(messageRoundtrip)) {
                 messageRoundtrip.answer();
+                if (waitingMessage instanceof PingMessage) hasPing = false;
                 if (waitingMessage instanceof EthMessage)
                     channel.getPeerStats().pong(messageRoundtrip.lastTimestamp);
                 logger.trace("Message round trip covered: [{}] ",
                         messageRoundtrip.getMsg().getClass());
             }
+            break;
         }
     }
 
-    private void removeAnsweredMessage(MessageRoundtrip messageRoundtrip) {
-        if (messageRoundtrip != null && messageRoundtrip.isAnswered())
-            requestQueue.remove();
+    /**
+     * Should be called on the channel writability change, resumes writing the queued messages
+     */
+    public void channelWritabilityChanged() {
+        if (ctx != null && ctx.channel().isWritable()) {
+            scheduleWrite();
+        }
     }
 
-    private void nudgeQueue() {
-        // remove last answered message on the queue
-        removeAnsweredMessage(requestQueue.peek());
-        // Now send the next message
-        sendToWire(respondQueue.poll());
-        sendToWire(requestQueue.peek());
+    private void scheduleWrite() {
+        ChannelHandlerContext ctx = this.ctx;
+        if (ctx == null || outboundQueue.isEmpty()) return;
+        if (writeScheduled.compareAndSet(false, true)) {
+            ctx.executor().execute(this::writeQueued);
+        }
     }
 
-    private void sendToWire(MessageRoundtrip messageRoundtrip) {
+    // runs in the channel event loop
+    private void writeQueued() {
+        writeScheduled.set(false);
+        boolean written = false;
+        Message msg;
+        while (ctx.channel().isWritable() && (msg = outboundQueue.poll()) != null) {
+            outboundSize.decrementAndGet();
+            sendToWire(msg);
+            written = true;
+        }
+        if (written) {
+            ctx.flush();
+        }
+    }
 
-        if (messageRoundtrip != null && messageRoundtrip.getRetryTimes() == 0) {
-            // TODO: retry logic || messageRoundtrip.hasToRetry()){
+    private void sendToWire(Message msg) {
 
-            Message msg = messageRoundtrip.getMsg();
+        ethereumListener.onSendMessage(channel, msg);
 
-            ethereumListener.onSendMessage(channel, msg);
+        ctx.write(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
 
-            ctx.writeAndFlush(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+        if (msg.getAnswerMessage() != null) {
+            MessageRoundtrip messageRoundtrip = new MessageRoundtrip(msg);
+            requestQueue.add(messageRoundtrip);
+            messageRoundtrip.setTimeout(timer.newTimeout(t -> requestTimedOut(messageRoundtrip),
+                    config.peerChannelReadTimeout(), TimeUnit.SECONDS));
+        }
+    }
 
-            if (msg.getAnswerMessage() != null) {
-                messageRoundtrip.incRetryTimes();
-                messageRoundtrip.saveTime();
-            }
+    private void requestTimedOut(MessageRoundtrip messageRoundtrip) {
+        if (requestQueue.remove(messageRoundtrip)) {
+            if (messageRoundtrip.getMsg() instanceof PingMessage) hasPing = false;
+            logger.debug("{}: [{}] request timed out", channel, messageRoundtrip.getMsg().getCommand().name());
         }
     }
 
     public void close() {
-        if (timerTask != null) {
-            timerTask.cancel(false);
+        MessageRoundtrip messageRoundtrip;
+        while ((messageRoundtrip = requestQueue.poll()) != null) {
+            messageRoundtrip.answer();
         }
+        outboundQueue.clear();
+        outboundSize.set(0);
     }
 }
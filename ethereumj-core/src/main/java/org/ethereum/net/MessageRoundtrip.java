@@ -17,6 +17,7 @@
  */
 package org.ethereum.net;
 
+import io.netty.util.Timeout;
 import org.ethereum.net.message.Message;
 
 /**
@@ -33,6 +34,7 @@ public class MessageRoundtrip {
     long lastTimestamp = 0;
     long retryTimes = 0;
     boolean answered = false;
+    private Timeout timeout;
 
     public MessageRoundtrip(Message msg) {
         this.msg = msg;
@@ -45,6 +47,14 @@ public class MessageRoundtrip {
 
     public void answer() {
         answered = true;
+        if (timeout != null) timeout.cancel();
+    }
+
+    /**
+     * Sets the answer timeout which is cancelled once the message is answered
+     */
+    public void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
     }
 
     public long getRetryTimes() {
@@ -35,6 +35,7 @@ import org.ethereum.sync.SyncManager;
 import org.ethereum.sync.PeerState;
 import org.ethereum.sync.SyncStatistics;
 import org.ethereum.util.ByteUtil;
+import org.ethereum.util.RLP;
 import org.ethereum.validator.BlockHeaderRule;
 import org.ethereum.validator.BlockHeaderValidator;
 import org.slf4j.Logger;
@@ -86,6 +87,12 @@ public class Eth62 extends EthHandler {
     @Autowired
     protected NodeManager nodeManager;
 
+    @Autowired
+    protected EthRequestExecutor requestExecutor;
+
+    @Autowired
+    protected EthResponseCache responseCache;
+
     protected EthState ethState = EthState.INIT;
 
     protected PeerState peerState = IDLE;
@@ -301,6 +308,7 @@ public class Eth62 extends EthHandler {
 
         sendMessage(msg);
         lastReqSentTime = System.currentTimeMillis();
+        channel.getNodeStatistics().ethBodies.requestSent();
 
         futureBlocks = SettableFuture.create();
         return futureBlocks;
@@ -403,6 +411,7 @@ public class Eth62 extends EthHandler {
         }
 
         List<Transaction> txSet = msg.getTransactions();
+        channel.getChannelManager().onTransactionsReceived(txSet, channel);
         List<Transaction> newPending = pendingState.addPendingTransactions(txSet);
         if (!newPending.isEmpty()) {
             TransactionTask transactionTask = new TransactionTask(newPending, channel.getChannelManager(), channel);
@@ -410,19 +419,29 @@ public class Eth62 extends EthHandler {
         }
     }
 
-    protected synchronized void processGetBlockHeaders(GetBlockHeadersMessage msg) {
-        Iterator<BlockHeader> headersIterator = blockchain.getIteratorOfHeadersStartFrom(
-                msg.getBlockIdentifier(),
-                msg.getSkipBlocks(),
-                min(msg.getMaxHeaders(), MAX_HASHES_TO_SEND),
-                msg.isReverse()
-        );
-        List<BlockHeader> blockHeaders = new ArrayList<>();
-        while (headersIterator.hasNext()) {
-            blockHeaders.add(headersIterator.next());
-        }
-        BlockHeadersMessage response = new BlockHeadersMessage(blockHeaders);
-        sendMessage(response);
+    protected void processGetBlockHeaders(GetBlockHeadersMessage msg) {
+        serve(() -> {
+            int limit = min(msg.getMaxHeaders(), MAX_HASHES_TO_SEND);
+            if (responseCache != null) {
+                List<byte[]> headers = responseCache.getHeaders(msg.getBlockIdentifier(), msg.getSkipBlocks(),
+                        limit, msg.isReverse());
+                sendMessage(new BlockHeadersMessage(RLP.encodeList(headers.toArray(new byte[headers.size()][]))));
+                return;
+            }
+
+            Iterator<BlockHeader> headersIterator = blockchain.getIteratorOfHeadersStartFrom(
+                    msg.getBlockIdentifier(),
+                    msg.getSkipBlocks(),
+                    limit,
+                    msg.isReverse()
+            );
+            List<BlockHeader> blockHeaders = new ArrayList<>();
+            while (headersIterator.hasNext()) {
+                blockHeaders.add(headersIterator.next());
+            }
+            BlockHeadersMessage response = new BlockHeadersMessage(blockHeaders);
+            sendMessage(response);
+        });
     }
 
     protected synchronized void processBlockHeaders(BlockHeadersMessage msg) {
@@ -438,11 +457,13 @@ public class Eth62 extends EthHandler {
 
         if (!isValid(msg, request)) {
 
+            channel.getNodeStatistics().ethHeaders.requestFailed();
             dropConnection();
             return;
         }
 
         List<BlockHeader> received = msg.getBlockHeaders();
+        channel.getNodeStatistics().ethHeaders.responseReceived(received.size(), msg.getEncoded().length);
 
         if (ethState == EthState.STATUS_SENT || ethState == EthState.HASH_CONSTRAINTS_CHECK)
             processInitHeaders(received);
@@ -456,18 +477,39 @@ public class Eth62 extends EthHandler {
         peerState = IDLE;
     }
 
-    protected synchronized void processGetBlockBodies(GetBlockBodiesMessage msg) {
-        Iterator<byte[]> bodiesIterator = blockchain.getIteratorOfBodiesByHashes(msg.getBlockHashes());
-        List<byte[]> bodies = new ArrayList<>();
-        int sizeSum = 0;
-        while (bodiesIterator.hasNext()) {
-            byte[] body = bodiesIterator.next();
-            sizeSum += ByteArrayEstimator.estimateSize(body);
-            bodies.add(body);
-            if (sizeSum >= MAX_MESSAGE_SIZE) break;
+    protected void processGetBlockBodies(GetBlockBodiesMessage msg) {
+        serve(() -> {
+            if (responseCache != null) {
+                List<byte[]> bodies = responseCache.getBodies(msg.getBlockHashes(), MAX_MESSAGE_SIZE);
+                sendMessage(new BlockBodiesMessage(bodies));
+                return;
+            }
+
+            Iterator<byte[]> bodiesIterator = blockchain.getIteratorOfBodiesByHashes(msg.getBlockHashes());
+            List<byte[]> bodies = new ArrayList<>();
+            int sizeSum = 0;
+            while (bodiesIterator.hasNext()) {
+                byte[] body = bodiesIterator.next();
+                sizeSum += ByteArrayEstimator.estimateSize(body);
+                bodies.add(body);
+                if (sizeSum >= MAX_MESSAGE_SIZE) break;
+            }
+            BlockBodiesMessage response = new BlockBodiesMessage(bodies);
+            sendMessage(response);
+        });
+    }
+
+    /**
+     * Serves the peer request on the {@link EthRequestExecutor} or right away if there is no executor,
+     * the peer is dropped if it has too many requests waiting
+     */
+    protected void serve(Runnable request) {
+        if (requestExecutor == null) {
+            request.run();
+        } else if (!requestExecutor.execute(this, request)) {
+            loggerNet.info("Peer {}: too many requests waiting to be served", channel.getPeerIdShort());
+            dropConnection();
         }
-        BlockBodiesMessage response = new BlockBodiesMessage(bodies);
-        sendMessage(response);
     }
 
     protected synchronized void processBlockBodies(BlockBodiesMessage msg) {
@@ -480,6 +522,7 @@ public class Eth62 extends EthHandler {
 
         if (!isValid(msg)) {
 
+            channel.getNodeStatistics().ethBodies.requestFailed();
             dropConnection();
             return;
         }
@@ -495,10 +538,12 @@ public class Eth62 extends EthHandler {
 
         if (blocks == null) {
             // headers will be returned by #onShutdown()
+            channel.getNodeStatistics().ethBodies.requestFailed();
             dropConnection();
             return;
         }
 
+        channel.getNodeStatistics().ethBodies.responseReceived(blocks.size(), msg.getEncoded().length);
         futureBlocks.set(blocks);
         futureBlocks = null;
 
@@ -550,6 +595,7 @@ public class Eth62 extends EthHandler {
         wrapper.send();
         sendMessage(wrapper.getMessage());
         lastReqSentTime = System.currentTimeMillis();
+        channel.getNodeStatistics().ethHeaders.requestSent();
     }
 
     protected synchronized void processInitHeaders(List<BlockHeader> received) {
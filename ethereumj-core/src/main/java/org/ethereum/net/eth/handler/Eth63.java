@@ -20,7 +20,6 @@ package org.ethereum.net.eth.handler;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import io.netty.channel.ChannelHandlerContext;
-import org.apache.commons.lang3.tuple.Pair;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.*;
 import org.ethereum.datasource.Source;
@@ -35,18 +34,18 @@ import org.ethereum.net.eth.message.ReceiptsMessage;
 
 import org.ethereum.net.message.ReasonCode;
 import org.ethereum.sync.PeerState;
-import org.ethereum.util.ByteArraySet;
+import org.ethereum.util.RLP;
 import org.ethereum.util.Value;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
-import java.util.Set;
 
-import static org.ethereum.crypto.HashUtil.sha3;
 import static org.ethereum.net.eth.EthVersion.V63;
 import static org.ethereum.util.ByteUtil.toHexString;
 
@@ -59,13 +58,15 @@ public class Eth63 extends Eth62 {
 
     private static final EthVersion version = V63;
 
+    private static final int MAX_PENDING_NODE_REQUESTS = 8;
+
     @Autowired @Qualifier("trieNodeSource")
     private Source<byte[], byte[]> trieNodeSource;
 
     private List<byte[]> requestedReceipts;
     private SettableFuture<List<List<TransactionReceipt>>> requestReceiptsFuture;
-    private Set<byte[]> requestedNodes;
-    private SettableFuture<List<Pair<byte[], byte[]>>> requestNodesFuture;
+    // node requests awaiting responses, the peer replies in the order of requests
+    private final Deque<SettableFuture<List<byte[]>>> requestNodesFutures = new ArrayDeque<>();
 
     public Eth63() {
         super(version);
@@ -101,7 +102,7 @@ public class Eth63 extends Eth62 {
         }
     }
 
-    protected synchronized void processGetNodeData(GetNodeDataMessage msg) {
+    protected void processGetNodeData(GetNodeDataMessage msg) {
 
         if (logger.isTraceEnabled()) logger.trace(
                 "Peer {}: processing GetNodeData, size [{}]",
@@ -109,21 +110,22 @@ public class Eth63 extends Eth62 {
                 msg.getNodeKeys().size()
         );
 
-        List<Value> nodeValues = new ArrayList<>();
-        for (byte[] nodeKey : msg.getNodeKeys()) {
-            byte[] rawNode = trieNodeSource.get(nodeKey);
-            if (rawNode != null) {
-                Value value = new Value(rawNode);
-                nodeValues.add(value);
-                if (nodeValues.size() >= MAX_HASHES_TO_SEND) break;
-                logger.trace("Eth63: " + toHexString(nodeKey).substring(0, 8) + " -> " + value);
+        serve(() -> {
+            List<byte[]> nodes = new ArrayList<>();
+            for (byte[] nodeKey : msg.getNodeKeys()) {
+                byte[] rawNode = trieNodeSource.get(nodeKey);
+                if (rawNode != null) {
+                    nodes.add(RLP.encodeElement(rawNode));
+                    if (nodes.size() >= MAX_HASHES_TO_SEND) break;
+                    if (logger.isTraceEnabled()) logger.trace("Eth63: " + toHexString(nodeKey).substring(0, 8) + " -> " + toHexString(rawNode));
+                }
             }
-        }
 
-        sendMessage(new NodeDataMessage(nodeValues));
+            sendMessage(new NodeDataMessage(RLP.encodeList(nodes.toArray(new byte[nodes.size()][]))));
+        });
     }
 
-    protected synchronized void processGetReceipts(GetReceiptsMessage msg) {
+    protected void processGetReceipts(GetReceiptsMessage msg) {
 
         if (logger.isTraceEnabled()) logger.trace(
                 "Peer {}: processing GetReceipts, size [{}]",
@@ -131,39 +133,59 @@ public class Eth63 extends Eth62 {
                 msg.getBlockHashes().size()
         );
 
-        List<List<TransactionReceipt>> receipts = new ArrayList<>();
-        int sizeSum = 0;
-        for (byte[] blockHash : msg.getBlockHashes()) {
-            Block block = blockchain.getBlockByHash(blockHash);
-            if (block == null) continue;
-
-            List<TransactionReceipt> blockReceipts = new ArrayList<>();
-            for (Transaction transaction : block.getTransactionsList()) {
-                TransactionInfo transactionInfo = blockchain.getTransactionInfo(transaction.getHash());
-                if (transactionInfo == null) break;
-                blockReceipts.add(transactionInfo.getReceipt());
-                sizeSum += TransactionReceipt.MemEstimator.estimateSize(transactionInfo.getReceipt());
+        serve(() -> {
+            if (responseCache != null) {
+                List<byte[]> receipts = responseCache.getReceipts(msg.getBlockHashes(), MAX_MESSAGE_SIZE);
+                sendMessage(new ReceiptsMessage(RLP.encodeList(receipts.toArray(new byte[receipts.size()][]))));
+                return;
+            }
+
+            List<List<TransactionReceipt>> receipts = new ArrayList<>();
+            int sizeSum = 0;
+            for (byte[] blockHash : msg.getBlockHashes()) {
+                Block block = blockchain.getBlockByHash(blockHash);
+                if (block == null) continue;
+
+                List<TransactionReceipt> blockReceipts = new ArrayList<>();
+                for (Transaction transaction : block.getTransactionsList()) {
+                    TransactionInfo transactionInfo = blockchain.getTransactionInfo(transaction.getHash());
+                    if (transactionInfo == null) break;
+                    blockReceipts.add(transactionInfo.getReceipt());
+                    sizeSum += TransactionReceipt.MemEstimator.estimateSize(transactionInfo.getReceipt());
+                }
+                receipts.add(blockReceipts);
+                if (sizeSum >= MAX_MESSAGE_SIZE) break;
             }
-            receipts.add(blockReceipts);
-            if (sizeSum >= MAX_MESSAGE_SIZE) break;
-        }
 
-        sendMessage(new ReceiptsMessage(receipts));
+            sendMessage(new ReceiptsMessage(receipts));
+        });
     }
 
-    public synchronized ListenableFuture<List<Pair<byte[], byte[]>>> requestTrieNodes(List<byte[]> hashes) {
-        if (peerState != PeerState.IDLE) return null;
+    /**
+     * Sends GetNodeData request, up to {@link #MAX_PENDING_NODE_REQUESTS} requests
+     * may be awaiting responses at the same time.
+     *
+     * @return future of the node values in the order they are received,
+     *      the values are not checked against requested hashes.
+     *      null if the peer is busy with other requests
+     */
+    public synchronized ListenableFuture<List<byte[]>> requestTrieNodes(List<byte[]> hashes) {
+        if (peerState != PeerState.IDLE && peerState != PeerState.NODE_RETRIEVING) return null;
+        if (requestNodesFutures.size() >= MAX_PENDING_NODE_REQUESTS) return null;
 
         GetNodeDataMessage msg = new GetNodeDataMessage(hashes);
-        requestedNodes = new ByteArraySet();
-        requestedNodes.addAll(hashes);
 
-        requestNodesFuture = SettableFuture.create();
+        SettableFuture<List<byte[]>> future = SettableFuture.create();
+        requestNodesFutures.add(future);
         sendMessage(msg);
-        lastReqSentTime = System.currentTimeMillis();
+        if (peerState == PeerState.IDLE) lastReqSentTime = System.currentTimeMillis();
 
         peerState = PeerState.NODE_RETRIEVING;
-        return requestNodesFuture;
+        return future;
+    }
+
+    public synchronized int getPendingNodeRequests() {
+        return requestNodesFutures.size();
     }
 
     public synchronized ListenableFuture<List<List<TransactionReceipt>>> requestReceipts(List<byte[]> hashes) {
@@ -176,42 +198,42 @@ public class Eth63 extends Eth62 {
         requestReceiptsFuture = SettableFuture.create();
         sendMessage(msg);
         lastReqSentTime = System.currentTimeMillis();
+        channel.getNodeStatistics().ethReceipts.requestSent();
 
         return requestReceiptsFuture;
     }
 
     protected synchronized void processNodeData(NodeDataMessage msg) {
-        if (requestedNodes == null) {
-            logger.debug("Received NodeDataMessage when requestedNodes == null. Dropping peer " + channel);
+        SettableFuture<List<byte[]>> future = requestNodesFutures.poll();
+        if (future == null) {
+            logger.debug("Received NodeDataMessage when no nodes were requested. Dropping peer " + channel);
             dropConnection();
+            return;
         }
 
-        List<Pair<byte[], byte[]>> ret = new ArrayList<>();
         if(msg.getDataList().isEmpty()) {
             String err = String.format("Received NodeDataMessage contains empty node data. Dropping peer %s", channel);
             logger.debug(err);
-            requestNodesFuture.setException(new RuntimeException(err));
+            future.setException(new RuntimeException(err));
             // Not fatal but let us touch it later
             channel.getChannelManager().disconnect(channel, ReasonCode.TOO_MANY_PEERS);
             return;
         }
 
+        List<byte[]> ret = new ArrayList<>(msg.getDataList().size());
         for (Value nodeVal : msg.getDataList()) {
-            byte[] hash = sha3(nodeVal.asBytes());
-            if (!requestedNodes.contains(hash)) {
-                String err = "Received NodeDataMessage contains non-requested node with hash :" + toHexString(hash) + " . Dropping peer " + channel;
-                dropUselessPeer(err);
-                return;
-            }
-            ret.add(Pair.of(hash, nodeVal.asBytes()));
+            ret.add(nodeVal.asBytes());
         }
-        requestNodesFuture.set(ret);
 
-        requestedNodes = null;
-        requestNodesFuture = null;
-        processingTime += (System.currentTimeMillis() - lastReqSentTime);
-        lastReqSentTime = 0;
-        peerState = PeerState.IDLE;
+        long cur = System.currentTimeMillis();
+        processingTime += (cur - lastReqSentTime);
+        if (requestNodesFutures.isEmpty()) {
+            lastReqSentTime = 0;
+            peerState = PeerState.IDLE;
+        } else {
+            lastReqSentTime = cur;
+        }
+        future.set(ret);
     }
 
     protected synchronized void processReceipts(ReceiptsMessage msg) {
@@ -228,6 +250,7 @@ public class Eth63 extends Eth62 {
         );
 
         List<List<TransactionReceipt>> receipts = msg.getReceipts();
+        channel.getNodeStatistics().ethReceipts.responseReceived(receipts.size(), msg.getEncoded().length);
 
         requestReceiptsFuture.set(receipts);
 
@@ -239,10 +262,13 @@ public class Eth63 extends Eth62 {
     }
 
 
-    private void dropUselessPeer(String err) {
-        logger.debug(err);
-        requestNodesFuture.setException(new RuntimeException(err));
-        dropConnection();
+    @Override
+    public synchronized void onShutdown() {
+        super.onShutdown();
+        SettableFuture<List<byte[]>> future;
+        while ((future = requestNodesFutures.poll()) != null) {
+            future.setException(new RuntimeException("Peer " + channel + " disconnected"));
+        }
     }
 
     @Override
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.eth.handler;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the peers requests (GET_BLOCK_HEADERS, GET_NODE_DATA etc.) off the network threads
+ * so that the DB lookups don't hold the channels event loops.
+ *
+ * <p>
+ *     Requests of a peer are served one by one in the order they are received.
+ *     Peers take turns: after a request is served the peer goes to the end of the line,
+ *     thus a peer with a long queue of heavy requests doesn't delay the others.
+ */
+@Component
+public class EthRequestExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger("net");
+
+    // max number of requests of a single peer waiting to be served
+    static final int MAX_PEER_REQUESTS = 32;
+
+    private final ExecutorService executor;
+    private final Map<Object, PeerRequests> peers = new HashMap<>();
+
+    public EthRequestExecutor() {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("EthRequestExecutor-%d").build());
+    }
+
+    /**
+     * Queues the peer request for serving
+     *
+     * @param peer the key identifying the peer
+     * @return false if too many requests of the peer are waiting already, the request is rejected
+     */
+    public boolean execute(Object peer, Runnable request) {
+        PeerRequests requests;
+        synchronized (peers) {
+            requests = peers.computeIfAbsent(peer, PeerRequests::new);
+            if (requests.queue.size() >= MAX_PEER_REQUESTS) return false;
+            requests.queue.add(request);
+            if (requests.scheduled) return true;
+            requests.scheduled = true;
+        }
+        schedule(requests);
+        return true;
+    }
+
+    private void schedule(PeerRequests requests) {
+        try {
+            executor.execute(requests);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Request executor is shut down, the request is dropped");
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private class PeerRequests implements Runnable {
+        final Object peer;
+        final Deque<Runnable> queue = new ArrayDeque<>();
+        boolean scheduled = false;
+
+        PeerRequests(Object peer) {
+            this.peer = peer;
+        }
+
+        @Override
+        public void run() {
+            Runnable request;
+            synchronized (peers) {
+                request = queue.poll();
+            }
+
+            try {
+                request.run();
+            } catch (Throwable t) {
+                logger.warn("Error serving the peer request", t);
+            }
+
+            synchronized (peers) {
+                if (queue.isEmpty()) {
+                    scheduled = false;
+                    peers.remove(peer);
+                    return;
+                }
+            }
+            // the other peers requests queued meanwhile go first
+            schedule(this);
+        }
+    }
+}
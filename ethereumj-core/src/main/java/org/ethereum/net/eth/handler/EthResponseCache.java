@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.eth.handler;
+
+import org.apache.commons.collections4.map.LRUMap;
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.core.BlockIdentifier;
+import org.ethereum.core.BlockSummary;
+import org.ethereum.core.Blockchain;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionInfo;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.listener.CompositeEthereumListener;
+import org.ethereum.listener.EthereumListenerAdapter;
+import org.ethereum.util.FastByteComparisons;
+import org.ethereum.util.RLP;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * LRU cache of the encoded headers, bodies and receipts served to the peers.
+ *
+ * <p>
+ *     Imported blocks are put to the cache since they are the most requested by the peers
+ *     following the chain, other blocks are cached on the first request which helps
+ *     when several peers are syncing the same range. Headers are cached by the main chain
+ *     block number, the headers cache is cleared when the chain is reorganized.
+ */
+@Component
+public class EthResponseCache {
+
+    private static final int HEADERS_CACHE_SIZE = 8192;
+    private static final int BODIES_CACHE_SIZE = 256;
+    private static final int RECEIPTS_CACHE_SIZE = 256;
+
+    private final Blockchain blockchain;
+
+    private final LRUMap<Long, byte[]> headers = new LRUMap<>(HEADERS_CACHE_SIZE);
+    private final LRUMap<ByteArrayWrapper, byte[]> bodies = new LRUMap<>(BODIES_CACHE_SIZE);
+    private final LRUMap<ByteArrayWrapper, byte[]> receipts = new LRUMap<>(RECEIPTS_CACHE_SIZE);
+    private byte[] lastBestHash;
+    // incremented each time the headers cache is cleared
+    private long headersGeneration;
+
+    @Autowired
+    public EthResponseCache(Blockchain blockchain, CompositeEthereumListener ethereumListener) {
+        this.blockchain = blockchain;
+        ethereumListener.addListener(new EthereumListenerAdapter() {
+            @Override
+            public void onBlock(BlockSummary blockSummary, boolean best) {
+                blockImported(blockSummary, best);
+            }
+        });
+    }
+
+    private synchronized void blockImported(BlockSummary summary, boolean best) {
+        Block block = summary.getBlock();
+        ByteArrayWrapper hash = new ByteArrayWrapper(block.getHash());
+        bodies.put(hash, block.getEncodedBody());
+        receipts.put(hash, encodeReceipts(summary.getReceipts()));
+
+        if (best) {
+            if (lastBestHash == null || !FastByteComparisons.equal(lastBestHash, block.getParentHash())) {
+                // the main chain is changed
+                headers.clear();
+                headersGeneration++;
+            }
+            headers.put(block.getNumber(), block.getHeader().getEncoded());
+            lastBestHash = block.getHash();
+        }
+    }
+
+    /**
+     * @return encoded main chain headers, see {@link Blockchain#getIteratorOfHeadersStartFrom}
+     */
+    public List<byte[]> getHeaders(BlockIdentifier identifier, int skip, int limit, boolean reverse) {
+        List<byte[]> ret = new ArrayList<>();
+        long number;
+        if (identifier.getHash() != null) {
+            Iterator<BlockHeader> it = blockchain.getIteratorOfHeadersStartFrom(identifier, 0, 1, false);
+            if (!it.hasNext()) return ret;
+            number = it.next().getNumber();
+        } else {
+            number = identifier.getNumber();
+        }
+
+        while (ret.size() < limit && number >= 0) {
+            byte[] header = getHeader(number);
+            if (header == null) break;
+            ret.add(header);
+            number = reverse ? number - 1 - skip : number + 1 + skip;
+        }
+
+        return ret;
+    }
+
+    private byte[] getHeader(long number) {
+        long generation;
+        synchronized (this) {
+            byte[] cached = headers.get(number);
+            if (cached != null) return cached;
+            generation = headersGeneration;
+        }
+
+        Iterator<BlockHeader> it = blockchain.getIteratorOfHeadersStartFrom(new BlockIdentifier(null, number), 0, 1, false);
+        if (!it.hasNext()) return null;
+        byte[] header = it.next().getEncoded();
+        synchronized (this) {
+            // the header might have been read from the chain replaced during the lookup
+            if (generation == headersGeneration) {
+                headers.put(number, header);
+            }
+        }
+        return header;
+    }
+
+    /**
+     * @return encoded bodies up to the first unknown block,
+     *      the total size slightly exceeds the limit if the bodies don't fit it
+     */
+    public List<byte[]> getBodies(List<byte[]> hashes, int maxSize) {
+        List<byte[]> ret = new ArrayList<>();
+        int sizeSum = 0;
+        for (byte[] hash : hashes) {
+            ByteArrayWrapper key = new ByteArrayWrapper(hash);
+            byte[] body;
+            synchronized (this) {
+                body = bodies.get(key);
+            }
+            if (body == null) {
+                Block block = blockchain.getBlockByHash(hash);
+                if (block == null) break;
+                body = block.getEncodedBody();
+                synchronized (this) {
+                    bodies.put(key, body);
+                }
+            }
+            ret.add(body);
+            sizeSum += body.length;
+            if (sizeSum >= maxSize) break;
+        }
+        return ret;
+    }
+
+    /**
+     * @return encoded receipt lists of the known blocks,
+     *      the total size slightly exceeds the limit if the receipts don't fit it
+     */
+    public List<byte[]> getReceipts(List<byte[]> hashes, int maxSize) {
+        List<byte[]> ret = new ArrayList<>();
+        int sizeSum = 0;
+        for (byte[] hash : hashes) {
+            ByteArrayWrapper key = new ByteArrayWrapper(hash);
+            byte[] blockReceipts;
+            synchronized (this) {
+                blockReceipts = receipts.get(key);
+            }
+            if (blockReceipts == null) {
+                Block block = blockchain.getBlockByHash(hash);
+                if (block == null) continue;
+
+                List<TransactionReceipt> list = new ArrayList<>();
+                for (Transaction transaction : block.getTransactionsList()) {
+                    TransactionInfo transactionInfo = blockchain.getTransactionInfo(transaction.getHash());
+                    if (transactionInfo == null) break;
+                    list.add(transactionInfo.getReceipt());
+                }
+                blockReceipts = encodeReceipts(list);
+                // the receipts may be not yet indexed
+                if (list.size() == block.getTransactionsList().size()) {
+                    synchronized (this) {
+                        receipts.put(key, blockReceipts);
+                    }
+                }
+            }
+            ret.add(blockReceipts);
+            sizeSum += blockReceipts.length;
+            if (sizeSum >= maxSize) break;
+        }
+        return ret;
+    }
+
+    private static byte[] encodeReceipts(List<TransactionReceipt> receipts) {
+        byte[][] encoded = new byte[receipts.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = receipts.get(i).getEncoded(true);
+        }
+        return RLP.encodeList(encoded);
+    }
+}
@@ -19,7 +19,7 @@ package org.ethereum.net.eth.message;
 
 import org.ethereum.core.BlockHeader;
 import org.ethereum.util.RLP;
-import org.ethereum.util.RLPList;
+import org.ethereum.util.RLPWriter;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -53,22 +53,20 @@ public class BlockHeadersMessage extends EthMessage {
 
     private synchronized void parse() {
         if (parsed) return;
-        RLPList paramsList = (RLPList) RLP.decode2(encoded).get(0);
+        RLP.LList paramsList = RLP.decodeLazyList(encoded);
 
         blockHeaders = new ArrayList<>();
         for (int i = 0; i < paramsList.size(); ++i) {
-            RLPList rlpData = ((RLPList) paramsList.get(i));
-            blockHeaders.add(new BlockHeader(rlpData));
+            blockHeaders.add(new BlockHeader(paramsList.getList(i)));
         }
         parsed = true;
     }
 
     private void encode() {
-        List<byte[]> encodedElements = new ArrayList<>();
+        RLPWriter writer = new RLPWriter().startList();
         for (BlockHeader blockHeader : blockHeaders)
-            encodedElements.add(blockHeader.getEncoded());
-        byte[][] encodedElementArray = encodedElements.toArray(new byte[encodedElements.size()][]);
-        this.encoded = RLP.encodeList(encodedElementArray);
+            blockHeader.encodeTo(writer, true);
+        this.encoded = writer.endList().toByteArray();
     }
 
 
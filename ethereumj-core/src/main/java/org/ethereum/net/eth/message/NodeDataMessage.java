@@ -35,7 +35,6 @@ public class NodeDataMessage extends EthMessage {
 
     public NodeDataMessage(byte[] encoded) {
         super(encoded);
-        parse();
     }
 
     public NodeDataMessage(List<Value> dataList) {
@@ -43,7 +42,8 @@ public class NodeDataMessage extends EthMessage {
         parsed = true;
     }
 
-    private void parse() {
+    private synchronized void parse() {
+        if (parsed) return;
         RLPList paramsList = RLP.unwrapList(encoded);
 
         dataList = new ArrayList<>();
@@ -72,6 +72,7 @@ public class NodeDataMessage extends EthMessage {
     }
 
     public List<Value> getDataList() {
+        parse();
         return dataList;
     }
 
@@ -86,6 +87,7 @@ public class NodeDataMessage extends EthMessage {
     }
 
     public String toString() {
+        parse();
 
         StringBuilder payload = new StringBuilder();
 
@@ -19,8 +19,7 @@ package org.ethereum.net.eth.message;
 
 import org.ethereum.core.Transaction;
 import org.ethereum.util.RLP;
-import org.ethereum.util.RLPElement;
-import org.ethereum.util.RLPList;
+import org.ethereum.util.RLPWriter;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -52,23 +51,21 @@ public class TransactionsMessage extends EthMessage {
 
     private synchronized void parse() {
         if (parsed) return;
-        RLPList paramsList = RLP.unwrapList(encoded);
+        RLP.LList paramsList = RLP.decodeLazyList(encoded);
 
         transactions = new ArrayList<>();
         for (int i = 0; i < paramsList.size(); ++i) {
-            RLPElement rlpTxData = paramsList.get(i);
-            Transaction tx = new Transaction(rlpTxData.getRLPData());
+            Transaction tx = new Transaction(paramsList.getRLPData(i));
             transactions.add(tx);
         }
         parsed = true;
     }
 
     private void encode() {
-        List<byte[]> encodedElements = new ArrayList<>();
+        RLPWriter writer = new RLPWriter().startList();
         for (Transaction tx : transactions)
-            encodedElements.add(tx.getEncoded());
-        byte[][] encodedElementArray = encodedElements.toArray(new byte[encodedElements.size()][]);
-        this.encoded = RLP.encodeList(encodedElementArray);
+            writer.writeEncoded(tx.getEncoded());
+        this.encoded = writer.endList().toByteArray();
     }
 
     @Override
@@ -126,6 +126,12 @@ public class P2pHandler extends SimpleChannelInboundHandler<P2pMessage> {
         startTimers();
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        msgQueue.channelWritabilityChanged();
+        super.channelWritabilityChanged(ctx);
+    }
+
 
     @Override
     public void channelRead0(final ChannelHandlerContext ctx, P2pMessage msg) throws InterruptedException {
@@ -17,9 +17,9 @@
  */
 package org.ethereum.net.rlpx;
 
+import com.google.common.io.ByteStreams;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
-import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
 import org.ethereum.net.swarm.Util;
 import org.ethereum.util.RLP;
 import org.ethereum.util.RLPList;
@@ -42,11 +42,18 @@ import static org.ethereum.util.RLP.decode2OneItem;
  * Created by devrandom on 2015-04-11.
  */
 public class FrameCodec {
+    private static final int MAC_SIZE = 16;
+    private static final int OFFSET_SHORT_ITEM = 0x80;
+    private static final byte[] ZERO_PADDING = new byte[16];
+
     private final StreamCipher enc;
     private final StreamCipher dec;
     private final KeccakDigest egressMac;
     private final KeccakDigest ingressMac;
-    private final byte[] mac;
+    // stateless AES encryption of the MAC seeds
+    private final AESEngine macCipher;
+    // encrypted chunks are written through it when the output buffer is not backed by an array
+    private final byte[] scratch = new byte[8192];
     boolean isHeadRead;
     private int totalBodySize;
     private int contextId = -1;
@@ -54,7 +61,6 @@ public class FrameCodec {
     private int protocol;
 
     public FrameCodec(EncryptionHandshake.Secrets secrets) {
-        this.mac = secrets.mac;
         BlockCipher cipher;
         enc = new SICBlockCipher(cipher = new AESEngine());
         enc.init(true, new ParametersWithIV(new KeyParameter(secrets.aes), new byte[cipher.getBlockSize()]));
@@ -62,19 +68,16 @@ public class FrameCodec {
         dec.init(false, new ParametersWithIV(new KeyParameter(secrets.aes), new byte[cipher.getBlockSize()]));
         egressMac = secrets.egressMac;
         ingressMac = secrets.ingressMac;
-    }
-
-    private AESEngine makeMacCipher() {
-        // Stateless AES encryption
-        AESEngine macc = new AESEngine();
-        macc.init(true, new KeyParameter(mac));
-        return macc;
+        macCipher = new AESEngine();
+        macCipher.init(true, new KeyParameter(secrets.mac));
     }
 
     public static class Frame {
         long type;
         int size;
         InputStream payload;
+        // set when the frame is created from the array or the payload was already read from the stream
+        private byte[] data;
 
         int totalFrameSize = -1;
         int contextId = -1;
@@ -85,9 +88,10 @@ public class FrameCodec {
             this.payload = payload;
         }
 
-        public Frame(int type, byte[] payload) {
+        public Frame(long type, byte[] payload) {
             this.type = type;
             this.size = payload.length;
+            this.data = payload;
             this.payload = new ByteArrayInputStream(payload);
         }
 
@@ -100,20 +104,37 @@ public class FrameCodec {
         public InputStream getStream() {
             return payload;
         }
+
+        /**
+         * @return the payload array without copying when the frame is backed by an array,
+         * otherwise the payload is read from the stream
+         */
+        public byte[] getPayload() throws IOException {
+            if (data == null) {
+                data = new byte[size];
+                ByteStreams.readFully(payload, data);
+            }
+            return data;
+        }
+
         public boolean isChunked() {
             return contextId >= 0;
         }
 
     }
 
+    /**
+     * Encrypts the frame directly into the buffer, the buffer is expanded once to the whole frame size
+     */
     public void writeFrame(Frame frame, ByteBuf buf) throws IOException {
-        writeFrame(frame, new ByteBufOutputStream(buf));
-    }
-
-    public void writeFrame(Frame frame, OutputStream out) throws IOException {
+        byte[] payload = frame.getPayload();
         byte[] headBuffer = new byte[32];
         byte[] ptype = RLP.encodeInt((int) frame.type); // FIXME encodeLong
-        int totalSize = frame.size + ptype.length;
+        int totalSize = payload.length + ptype.length;
+        int padding = 16 - (totalSize % 16);
+        if (padding == 16) padding = 0;
+        buf.ensureWritable(headBuffer.length + totalSize + padding + MAC_SIZE);
+
         headBuffer[0] = (byte)(totalSize >> 16);
         headBuffer[1] = (byte)(totalSize >> 8);
         headBuffer[2] = (byte)(totalSize);
@@ -130,38 +151,55 @@ public class FrameCodec {
 
         // Header MAC
         updateMac(egressMac, headBuffer, 0, headBuffer, 16, true);
+        buf.writeBytes(headBuffer);
 
-        byte[] buff = new byte[256];
-        out.write(headBuffer);
-        enc.processBytes(ptype, 0, ptype.length, buff, 0);
-        out.write(buff, 0, ptype.length);
-        egressMac.update(buff, 0, ptype.length);
-        while (true) {
-            int n = frame.payload.read(buff);
-            if (n <= 0) break;
-            enc.processBytes(buff, 0, n, buff, 0);
-            egressMac.update(buff, 0, n);
-            out.write(buff, 0, n);
-        }
-        int padding = 16 - (totalSize % 16);
-        byte[] pad = new byte[16];
-        if (padding < 16) {
-            enc.processBytes(pad, 0, padding, buff, 0);
-            egressMac.update(buff, 0, padding);
-            out.write(buff, 0, padding);
-        }
+        writeEncrypted(ptype, ptype.length, buf);
+        writeEncrypted(payload, payload.length, buf);
+        writeEncrypted(ZERO_PADDING, padding, buf);
 
         // Frame MAC
         byte[] macBuffer = new byte[egressMac.getDigestSize()];
         doSum(egressMac, macBuffer); // fmacseed
         updateMac(egressMac, macBuffer, 0, macBuffer, 0, true);
-        out.write(macBuffer, 0, 16);
+        buf.writeBytes(macBuffer, 0, MAC_SIZE);
     }
 
+    public void writeFrame(Frame frame, OutputStream out) throws IOException {
+        ByteBuf buf = Unpooled.buffer();
+        writeFrame(frame, buf);
+        buf.readBytes(out, buf.readableBytes());
+    }
+
+    private void writeEncrypted(byte[] src, int len, ByteBuf buf) {
+        if (buf.hasArray()) {
+            byte[] out = buf.array();
+            int outOff = buf.arrayOffset() + buf.writerIndex();
+            enc.processBytes(src, 0, len, out, outOff);
+            egressMac.update(out, outOff, len);
+            buf.writerIndex(buf.writerIndex() + len);
+        } else {
+            for (int off = 0; off < len; off += scratch.length) {
+                int n = Math.min(len - off, scratch.length);
+                enc.processBytes(src, off, n, scratch, 0);
+                egressMac.update(scratch, 0, n);
+                buf.writeBytes(scratch, 0, n);
+            }
+        }
+    }
+
+    /**
+     * Reads the frame if the buffer contains it entirely.
+     * The payload is decrypted into the array of its exact size which is passed further without copying
+     */
     public List<Frame> readFrames(ByteBuf buf) throws IOException {
-        try (ByteBufInputStream bufInputStream = new ByteBufInputStream(buf)) {
-            return readFrames(bufInputStream);
+        if (!isHeadRead) {
+            if (buf.readableBytes() < 32) return null;
+            byte[] headBuffer = new byte[32];
+            buf.readBytes(headBuffer);
+            readHeader(headBuffer);
         }
+        if (buf.readableBytes() < totalBodySize + paddingSize() + MAC_SIZE) return null;
+        return Collections.singletonList(readBody(buf));
     }
 
     public List<Frame> readFrames(DataInput inp) throws IOException {
@@ -172,64 +210,89 @@ public class FrameCodec {
             } catch (EOFException e) {
                 return null;
             }
-
-            // Header MAC
-            updateMac(ingressMac, headBuffer, 0, headBuffer, 16, false);
-
-            dec.processBytes(headBuffer, 0, 16, headBuffer, 0);
-            totalBodySize = headBuffer[0] & 0xFF;
-            totalBodySize = (totalBodySize << 8) + (headBuffer[1] & 0xFF);
-            totalBodySize = (totalBodySize << 8) + (headBuffer[2] & 0xFF);
-
-            RLPList rlpList = (RLPList) decode2OneItem(headBuffer, 3);
-
-            protocol = Util.rlpDecodeInt(rlpList.get(0));
-            contextId = -1;
-            totalFrameSize = -1;
-            if (rlpList.size() > 1) {
-                contextId = Util.rlpDecodeInt(rlpList.get(1));
-                if (rlpList.size() > 2) {
-                    totalFrameSize = Util.rlpDecodeInt(rlpList.get(2));
-                }
-            }
-
-            isHeadRead = true;
+            readHeader(headBuffer);
         }
 
-        int padding = 16 - (totalBodySize % 16);
-        if (padding == 16) padding = 0;
-        int macSize = 16;
-        byte[] buffer = new byte[totalBodySize + padding + macSize];
+        byte[] buffer = new byte[totalBodySize + paddingSize() + MAC_SIZE];
         try {
             inp.readFully(buffer);
         } catch (EOFException e) {
             return null;
         }
-        int frameSize = buffer.length - macSize;
-        ingressMac.update(buffer, 0, frameSize);
-        dec.processBytes(buffer, 0, frameSize, buffer, 0);
-        int pos = 0;
-        long type = RLP.decodeLong(buffer, pos);
-        pos = RLP.getNextElementIndex(buffer, pos);
-        InputStream payload = new ByteArrayInputStream(buffer, pos, totalBodySize - pos);
-        int size = totalBodySize - pos;
-        byte[] macBuffer = new byte[ingressMac.getDigestSize()];
+        return Collections.singletonList(readBody(Unpooled.wrappedBuffer(buffer)));
+    }
+
+    private void readHeader(byte[] headBuffer) throws IOException {
+        // Header MAC
+        updateMac(ingressMac, headBuffer, 0, headBuffer, 16, false);
+
+        dec.processBytes(headBuffer, 0, 16, headBuffer, 0);
+        totalBodySize = headBuffer[0] & 0xFF;
+        totalBodySize = (totalBodySize << 8) + (headBuffer[1] & 0xFF);
+        totalBodySize = (totalBodySize << 8) + (headBuffer[2] & 0xFF);
+
+        RLPList rlpList = (RLPList) decode2OneItem(headBuffer, 3);
+
+        protocol = Util.rlpDecodeInt(rlpList.get(0));
+        contextId = -1;
+        totalFrameSize = -1;
+        if (rlpList.size() > 1) {
+            contextId = Util.rlpDecodeInt(rlpList.get(1));
+            if (rlpList.size() > 2) {
+                totalFrameSize = Util.rlpDecodeInt(rlpList.get(2));
+            }
+        }
+
+        isHeadRead = true;
+    }
+
+    private Frame readBody(ByteBuf buf) throws IOException {
+        // the type is decrypted first to get the payload offset
+        byte[] ptype = new byte[1 + Long.BYTES];
+        readDecrypted(buf, ptype, 0, 1);
+        int typeSize = (ptype[0] & 0xFF) < OFFSET_SHORT_ITEM ? 1 : 1 + (ptype[0] & 0xFF) - OFFSET_SHORT_ITEM;
+        if (typeSize > ptype.length || typeSize > totalBodySize) {
+            throw new IOException("Invalid frame type encoding");
+        }
+        readDecrypted(buf, ptype, 1, typeSize - 1);
+        long type = RLP.decodeLong(ptype, 0);
+
+        byte[] payload = new byte[totalBodySize - typeSize];
+        readDecrypted(buf, payload, 0, payload.length);
+        readDecrypted(buf, new byte[16], 0, paddingSize());
 
         // Frame MAC
+        byte[] frameMac = new byte[MAC_SIZE];
+        buf.readBytes(frameMac);
+        byte[] macBuffer = new byte[ingressMac.getDigestSize()];
         doSum(ingressMac, macBuffer); // fmacseed
-        updateMac(ingressMac, macBuffer, 0, buffer, frameSize, false);
+        updateMac(ingressMac, macBuffer, 0, frameMac, 0, false);
 
         isHeadRead = false;
-        Frame frame = new Frame(type, size, payload);
+        Frame frame = new Frame(type, payload);
         frame.contextId = contextId;
         frame.totalFrameSize = totalFrameSize;
-        return Collections.singletonList(frame);
+        return frame;
+    }
+
+    /**
+     * Reads the encrypted bytes, updates the ingress MAC with them and decrypts in place
+     */
+    private void readDecrypted(ByteBuf buf, byte[] out, int off, int len) {
+        buf.readBytes(out, off, len);
+        ingressMac.update(out, off, len);
+        dec.processBytes(out, off, len, out, off);
+    }
+
+    private int paddingSize() {
+        int padding = 16 - (totalBodySize % 16);
+        return padding == 16 ? 0 : padding;
     }
 
     private byte[] updateMac(KeccakDigest mac, byte[] seed, int offset, byte[] out, int outOffset, boolean egress) throws IOException {
         byte[] aesBlock = new byte[mac.getDigestSize()];
         doSum(mac, aesBlock);
-        makeMacCipher().processBlock(aesBlock, 0, aesBlock, 0);
+        macCipher.processBlock(aesBlock, 0, aesBlock, 0);
         // Note that although the mac digest size is 32 bytes, we only use 16 bytes in the computation
         int length = 16;
         for (int i = 0; i < length; i++) {
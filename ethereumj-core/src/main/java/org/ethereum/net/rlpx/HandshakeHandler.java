@@ -17,7 +17,6 @@
  */
 package org.ethereum.net.rlpx;
 
-import com.google.common.io.ByteStreams;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
@@ -178,7 +177,7 @@ public class HandshakeHandler extends ByteToMessageDecoder {
                 if (frames == null || frames.isEmpty())
                     return;
                 Frame frame = frames.get(0);
-                byte[] payload = ByteStreams.toByteArray(frame.getStream());
+                byte[] payload = frame.getPayload();
                 if (frame.getType() == P2pMessageCodes.HELLO.asByte()) {
                     HelloMessage helloMessage = new HelloMessage(payload);
                     if (loggerNet.isDebugEnabled())
@@ -260,7 +259,7 @@ public class HandshakeHandler extends ByteToMessageDecoder {
                 Frame frame = frames.get(0);
 
                 Message message = new P2pMessageFactory().create((byte) frame.getType(),
-                        ByteStreams.toByteArray(frame.getStream()));
+                        frame.getPayload());
                 loggerNet.debug("From: {}    Recv:  {}", ctx.channel().remoteAddress(), message);
 
                 if (frame.getType() == P2pMessageCodes.DISCONNECT.asByte()) {
@@ -26,7 +26,9 @@ import org.slf4j.LoggerFactory;
 import org.xerial.snappy.Snappy;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Snappy compression codec. <br>
@@ -42,9 +44,17 @@ public class SnappyCodec extends MessageToMessageCodec<FrameCodec.Frame, FrameCo
 
     private final static int SNAPPY_P2P_VERSION = 5;
     private final static int MAX_SIZE = 16 * 1024 * 1024; // 16 mb
+    // larger frames are compressed into a temporary array instead of the scratch one
+    private final static int MAX_SCRATCH_SIZE = 1024 * 1024;
+
+    private final static Stats encodeStats = new Stats();
+    private final static Stats decodeStats = new Stats();
 
     Channel channel;
 
+    // the frames of a channel are encoded in its event loop only
+    private byte[] scratch = new byte[0];
+
     public SnappyCodec(Channel channel) {
         this.channel = channel;
     }
@@ -53,6 +63,20 @@ public class SnappyCodec extends MessageToMessageCodec<FrameCodec.Frame, FrameCo
         return p2pVersion >= SNAPPY_P2P_VERSION;
     }
 
+    /**
+     * @return the counters of the frames compressed by all the channels
+     */
+    public static Stats getEncodeStats() {
+        return encodeStats;
+    }
+
+    /**
+     * @return the counters of the frames uncompressed by all the channels
+     */
+    public static Stats getDecodeStats() {
+        return decodeStats;
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, FrameCodec.Frame msg, List<Object> out) throws Exception {
 
@@ -63,10 +87,18 @@ public class SnappyCodec extends MessageToMessageCodec<FrameCodec.Frame, FrameCo
             return;
         }
 
-        byte[] in = new byte[msg.size];
-        msg.payload.read(in);
+        byte[] in = msg.getPayload();
 
-        byte[] compressed = Snappy.rawCompress(in, in.length);
+        long start = System.nanoTime();
+        int maxLength = Snappy.maxCompressedLength(in.length);
+        byte[] buffer = scratch;
+        if (buffer.length < maxLength) {
+            buffer = new byte[maxLength];
+            if (maxLength <= MAX_SCRATCH_SIZE) scratch = buffer;
+        }
+        int compressedLength = Snappy.rawCompress(in, 0, in.length, buffer, 0);
+        byte[] compressed = Arrays.copyOf(buffer, compressedLength);
+        encodeStats.add(msg.type, in.length, compressedLength, System.nanoTime() - start);
 
         out.add(new FrameCodec.Frame((int) msg.type, compressed));
     }
@@ -74,8 +106,7 @@ public class SnappyCodec extends MessageToMessageCodec<FrameCodec.Frame, FrameCo
     @Override
     protected void decode(ChannelHandlerContext ctx, FrameCodec.Frame msg, List<Object> out) throws Exception {
 
-        byte[] in = new byte[msg.size];
-        msg.payload.read(in);
+        byte[] in = msg.getPayload();
 
         long uncompressedLength = Snappy.uncompressedLength(in) & 0xFFFFFFFFL;
         if (uncompressedLength > MAX_SIZE) {
@@ -84,6 +115,7 @@ public class SnappyCodec extends MessageToMessageCodec<FrameCodec.Frame, FrameCo
             return;
         }
 
+        long start = System.nanoTime();
         byte[] uncompressed = new byte[(int) uncompressedLength];
         try {
             Snappy.rawUncompress(in, 0, in.length, uncompressed, 0);
@@ -99,6 +131,8 @@ public class SnappyCodec extends MessageToMessageCodec<FrameCodec.Frame, FrameCo
             }
         }
 
+        decodeStats.add(msg.type, uncompressed.length, in.length, System.nanoTime() - start);
+
         out.add(new FrameCodec.Frame((int) msg.type, uncompressed));
     }
 
@@ -115,4 +149,56 @@ public class SnappyCodec extends MessageToMessageCodec<FrameCodec.Frame, FrameCo
         }
         ctx.close();
     }
+
+    /**
+     * Frame count, uncompressed and compressed bytes and the time spent by the frame type.
+     * The types above 255 share the last counter
+     */
+    public static class Stats {
+        private static final int TYPES = 256;
+
+        private final AtomicLongArray frames = new AtomicLongArray(TYPES);
+        private final AtomicLongArray uncompressedBytes = new AtomicLongArray(TYPES);
+        private final AtomicLongArray compressedBytes = new AtomicLongArray(TYPES);
+        private final AtomicLongArray nanos = new AtomicLongArray(TYPES);
+
+        void add(long type, int uncompressed, int compressed, long time) {
+            int idx = index(type);
+            frames.incrementAndGet(idx);
+            uncompressedBytes.addAndGet(idx, uncompressed);
+            compressedBytes.addAndGet(idx, compressed);
+            nanos.addAndGet(idx, time);
+        }
+
+        private static int index(long type) {
+            return (int) Math.min(Math.max(type, 0), TYPES - 1);
+        }
+
+        public long getFrames(long type) {
+            return frames.get(index(type));
+        }
+
+        public long getUncompressedBytes(long type) {
+            return uncompressedBytes.get(index(type));
+        }
+
+        public long getCompressedBytes(long type) {
+            return compressedBytes.get(index(type));
+        }
+
+        public long getNanos(long type) {
+            return nanos.get(index(type));
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < TYPES; i++) {
+                if (frames.get(i) == 0) continue;
+                sb.append(String.format("0x%02x: %d frames, %d -> %d bytes, %d ms%n", i, frames.get(i),
+                        uncompressedBytes.get(i), compressedBytes.get(i), nanos.get(i) / 1_000_000));
+            }
+            return sb.toString();
+        }
+    }
 }
@@ -25,6 +25,7 @@ import org.ethereum.net.swarm.Statter;
 import org.ethereum.util.ByteUtil;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -44,6 +45,95 @@ public class NodeStatistics {
     public final static int REPUTATION_AUTH = 1000;
     public final static int REPUTATION_DISCOVER_PING = 1;
 
+    /**
+     * Exponentially weighted moving averages of the peer responses to one type of requests:
+     * response time, items and bytes per second and failure rate.
+     * Used to prefer faster peers and to size the requests so that a response takes
+     * about {@link #TARGET_RESPONSE_TIME}
+     */
+    public static class RequestStat {
+        private static final double ALPHA = 0.25;
+        private static final long TARGET_RESPONSE_TIME = 2000;
+        // samples needed to consider the averages meaningful
+        private static final int MIN_SAMPLES = 3;
+
+        private final String name;
+        private long requestTime = 0;
+        private int samples = 0;
+        private double responseTime;
+        private double itemsPerSec;
+        private double bytesPerSec;
+        private double failureRate;
+
+        public RequestStat(String name) {
+            this.name = name;
+        }
+
+        public synchronized void requestSent() {
+            requestTime = System.currentTimeMillis();
+        }
+
+        public synchronized void responseReceived(int items, long bytes) {
+            if (requestTime == 0) return;
+            long time = Math.max(1, System.currentTimeMillis() - requestTime);
+            requestTime = 0;
+            responseTime = ewma(responseTime, time);
+            itemsPerSec = ewma(itemsPerSec, items * 1000d / time);
+            bytesPerSec = ewma(bytesPerSec, bytes * 1000d / time);
+            failureRate = ewma(failureRate, 0);
+            samples++;
+        }
+
+        public synchronized void requestFailed() {
+            requestTime = 0;
+            failureRate = ewma(failureRate, 1);
+            samples++;
+        }
+
+        private double ewma(double avg, double value) {
+            return samples == 0 ? value : avg + ALPHA * (value - avg);
+        }
+
+        /**
+         * @return milliseconds since the request which is still awaiting the response was sent, 0 if none
+         */
+        public synchronized long getPendingTime() {
+            return requestTime == 0 ? 0 : System.currentTimeMillis() - requestTime;
+        }
+
+        public synchronized boolean isMeasured() {
+            return samples >= MIN_SAMPLES;
+        }
+
+        /**
+         * @return the bytes per second discounted by the failure rate,
+         *      {@link Double#MAX_VALUE} for a peer without responses to give it a chance to be measured
+         */
+        public synchronized double getThroughput() {
+            return samples == 0 ? Double.MAX_VALUE : bytesPerSec * (1 - failureRate);
+        }
+
+        public synchronized double getFailureRate() {
+            return failureRate;
+        }
+
+        /**
+         * @return the number of items the peer is expected to deliver in {@link #TARGET_RESPONSE_TIME}
+         *      within the [min, max] range, max for a peer without responses
+         */
+        public synchronized int getRequestSize(int min, int max) {
+            if (samples == 0 || itemsPerSec == 0) return max;
+            long size = (long) (itemsPerSec * TARGET_RESPONSE_TIME / 1000);
+            return (int) Math.max(min, Math.min(size, max));
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s: %dms %.1f/s %.1fKb/s fail %.2f", name, (long) responseTime,
+                    itemsPerSec, bytesPerSec / 1024, failureRate);
+        }
+    }
+
     public class StatHandler {
         AtomicLong count = new AtomicLong(0);
         public void add() {count.incrementAndGet(); }
@@ -102,6 +192,11 @@ public class NodeStatistics {
     public final StatHandler eth63NodesReceived = new StatHandler();
     public final StatHandler eth63NodesRetrieveTime = new StatHandler();
 
+    // sync requests performance
+    public final RequestStat ethHeaders = new RequestStat("headers");
+    public final RequestStat ethBodies = new RequestStat("bodies");
+    public final RequestStat ethReceipts = new RequestStat("receipts");
+
     public NodeStatistics(Node node) {
         this.node = node;
         discoverMessageLatency = (Statter.SimpleStatter) Statter.create(getStatName() + ".discoverMessageLatency");
@@ -179,6 +274,10 @@ public class NodeStatistics {
         lastDisconnectedTime = System.currentTimeMillis();
     }
 
+    public List<RequestStat> getRequestStats() {
+        return Arrays.asList(ethHeaders, ethBodies, ethReceipts);
+    }
+
     public boolean wasDisconnected() {
         return lastDisconnectedTime > 0;
     }
@@ -79,6 +79,8 @@ public class ChannelManager {
     private Thread blockDistributeThread;
     private Thread txDistributeThread;
 
+    private final TransactionPropagator txPropagator = new TransactionPropagator();
+
     Random rnd = new Random();  // Used for distributing new blocks / hashes logic
 
     @Autowired
@@ -246,17 +248,21 @@ public class ChannelManager {
 
     /**
      * Propagates the transactions message across active peers with exclusion of
-     * 'receivedFrom' peer.
+     * 'receivedFrom' peer. The transactions are batched and sent only to the peers
+     * which don't know them, see {@link TransactionPropagator} for details
      * @param txs  transactions to be sent
      * @param receivedFrom the peer which sent original message or null if
      *                     the transactions were originated by this peer
      */
     public void sendTransaction(List<Transaction> txs, Channel receivedFrom) {
-        for (Channel channel : activePeers.values()) {
-            if (channel != receivedFrom) {
-                channel.sendTransactionsCapped(txs);
-            }
-        }
+        txPropagator.propagate(txs, receivedFrom, activePeers.values());
+    }
+
+    /**
+     * Called on transactions received from the peer, they are not sent back to it
+     */
+    public void onTransactionsReceived(List<Transaction> txs, Channel receivedFrom) {
+        txPropagator.markKnown(receivedFrom, txs);
     }
 
     /**
@@ -353,6 +359,7 @@ public class ChannelManager {
         logger.debug("Peer {}: notifies about disconnect", channel);
         channel.onDisconnect();
         syncPool.onDisconnect(channel);
+        txPropagator.onDisconnect(channel);
         synchronized(this) {
             activePeers.values().remove(channel);
             newPeers.remove(channel);
@@ -390,6 +397,7 @@ public class ChannelManager {
             logger.info("Shutting down block and tx distribute threads...");
             if (blockDistributeThread != null) blockDistributeThread.interrupt();
             if (txDistributeThread != null) txDistributeThread.interrupt();
+            txPropagator.close();
 
             logger.info("Shutting down ChannelManager worker thread...");
             mainWorker.shutdownNow();
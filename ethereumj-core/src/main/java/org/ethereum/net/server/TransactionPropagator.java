@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.server;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.ethereum.core.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relays the transactions to the active peers.
+ *
+ * <p>
+ *     The recent hashes of the transactions each peer has sent us or we have sent to it are remembered
+ *     and the transactions are not sent to the peers which already know them.
+ *     The transactions received from the network are sent to sqrt(n) of the n active peers
+ *     (a random subset for each transaction), the rest are expected to get them from the peers relaying
+ *     them further. The own transactions are sent to every peer.
+ *
+ * <p>
+ *     The transactions are sent in batches per peer. A batch is sent when it reaches {@link #MAX_BATCH_BYTES}
+ *     or {@link Channel#MAX_SAFE_TXS} transactions or gets older than {@link #BATCH_WINDOW_MS}
+ */
+public class TransactionPropagator {
+
+    private static final Logger logger = LoggerFactory.getLogger("net");
+
+    static final int MAX_BATCH_BYTES = 128 * 1024;
+    static final long BATCH_WINDOW_MS = 100;
+    // the size of each of the two generations of the known hashes of a peer
+    static final int KNOWN_TXS_GENERATION = 4096;
+
+    /**
+     * The recent tx hashes known to a peer, the older generation is dropped
+     * when the newer one is full. The hashes are kept as 64 bit prefixes
+     */
+    static class KnownTxs {
+        private Set<Long> current = new HashSet<>();
+        private Set<Long> previous = new HashSet<>();
+
+        /**
+         * @return true if the hash wasn't known
+         */
+        synchronized boolean add(byte[] hash) {
+            Long key = ByteBuffer.wrap(hash).getLong();
+            if (previous.contains(key) || !current.add(key)) return false;
+            if (current.size() >= KNOWN_TXS_GENERATION) {
+                previous = current;
+                current = new HashSet<>();
+            }
+            return true;
+        }
+    }
+
+    static class PeerTxs {
+        final Channel channel;
+        final KnownTxs known = new KnownTxs();
+        private List<Transaction> batch = new ArrayList<>();
+        private int batchBytes = 0;
+        private long batchStarted = 0;
+
+        PeerTxs(Channel channel) {
+            this.channel = channel;
+        }
+
+        synchronized void add(Transaction tx) {
+            if (batch.isEmpty()) batchStarted = System.currentTimeMillis();
+            batch.add(tx);
+            batchBytes += tx.getEncoded().length;
+            if (batchBytes >= MAX_BATCH_BYTES || batch.size() >= Channel.MAX_SAFE_TXS) {
+                flush();
+            }
+        }
+
+        synchronized void flushExpired(long now) {
+            if (!batch.isEmpty() && now - batchStarted >= BATCH_WINDOW_MS) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            channel.sendTransactions(batch);
+            batch = new ArrayList<>();
+            batchBytes = 0;
+        }
+    }
+
+    final Map<Channel, PeerTxs> peers = new ConcurrentHashMap<>();
+    private final Random rnd = new Random();
+
+    private final ScheduledExecutorService flushTimer;
+
+    public TransactionPropagator() {
+        this(true);
+    }
+
+    /**
+     * @param scheduleFlush when false the expired batches are sent by the {@link #flushExpired(long)} calls only
+     */
+    TransactionPropagator(boolean scheduleFlush) {
+        if (!scheduleFlush) {
+            flushTimer = null;
+            return;
+        }
+        flushTimer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("TxPropagator").build());
+        flushTimer.scheduleWithFixedDelay(() -> {
+            try {
+                flushExpired(System.currentTimeMillis());
+            } catch (Throwable t) {
+                logger.error("Error sending transactions", t);
+            }
+        }, BATCH_WINDOW_MS, BATCH_WINDOW_MS / 2, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the batches started at least {@link #BATCH_WINDOW_MS} before the specified time
+     */
+    void flushExpired(long now) {
+        for (PeerTxs peer : peers.values()) {
+            peer.flushExpired(now);
+        }
+    }
+
+    /**
+     * Queues the transactions for sending to the peers which don't know them
+     * @param receivedFrom the peer which sent the transactions or null for the own transactions
+     */
+    public void propagate(List<Transaction> txs, Channel receivedFrom, Collection<Channel> activePeers) {
+        if (receivedFrom != null) markKnown(receivedFrom, txs);
+
+        List<PeerTxs> targets = new ArrayList<>();
+        for (Channel channel : activePeers) {
+            if (channel == receivedFrom) continue;
+            PeerTxs peer = getPeer(channel);
+            if (peer != null) targets.add(peer);
+        }
+        if (targets.isEmpty()) return;
+
+        int fanout = receivedFrom == null ? targets.size() : (int) Math.ceil(Math.sqrt(activePeers.size()));
+        for (Transaction tx : txs) {
+            int start = rnd.nextInt(targets.size());
+            int sent = 0;
+            for (int i = 0; i < targets.size() && sent < fanout; i++) {
+                PeerTxs peer = targets.get((start + i) % targets.size());
+                if (peer.known.add(tx.getHash())) {
+                    peer.add(tx);
+                    sent++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remembers the peer knows the transactions
+     */
+    public void markKnown(Channel peer, List<Transaction> txs) {
+        PeerTxs peerTxs = getPeer(peer);
+        if (peerTxs == null) return;
+        for (Transaction tx : txs) {
+            peerTxs.known.add(tx.getHash());
+        }
+    }
+
+    public void onDisconnect(Channel peer) {
+        peers.remove(peer);
+    }
+
+    public void close() {
+        if (flushTimer != null) flushTimer.shutdownNow();
+    }
+
+    /**
+     * @return the peer state or null if the peer is disconnected
+     */
+    private PeerTxs getPeer(Channel channel) {
+        if (channel.isDisconnected()) return null;
+        PeerTxs ret = peers.computeIfAbsent(channel, PeerTxs::new);
+        // the peer might have been disconnected and removed concurrently
+        if (channel.isDisconnected()) {
+            peers.remove(channel);
+            return null;
+        }
+        return ret;
+    }
+}
@@ -23,6 +23,8 @@ import org.ethereum.crypto.HashUtil;
 import org.ethereum.db.DbFlushManager;
 import org.ethereum.db.HeaderStore;
 import org.ethereum.db.IndexedBlockStore;
+import org.ethereum.net.rlpx.discover.NodeStatistics;
+import org.ethereum.net.rlpx.discover.NodeStatistics.RequestStat;
 import org.ethereum.net.server.Channel;
 import org.ethereum.util.FastByteComparisons;
 import org.ethereum.validator.BlockHeaderValidator;
@@ -36,6 +38,7 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Function;
 
 /**
  * Created by Anton Nashatyrev on 27.10.2016.
@@ -171,8 +174,8 @@ public class BlockBodiesDownloader extends BlockDownloader {
      * Fallbacks to any peer when low number of active peers available
      */
     @Override
-    Channel getAnyPeer() {
-        return syncPool.getActivePeersCount() > 2 ? syncPool.getNotLastIdle() : syncPool.getAnyIdle();
+    Channel getAnyPeer(Function<NodeStatistics, RequestStat> stat) {
+        return syncPool.getActivePeersCount() > 2 ? syncPool.getFastestNotLastIdle(stat) : syncPool.getFastestIdle(stat);
     }
 
     @Override
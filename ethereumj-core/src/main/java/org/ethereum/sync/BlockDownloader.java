@@ -24,6 +24,8 @@ import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.commons.collections4.queue.CircularFifoQueue;
 import org.ethereum.core.*;
 import org.ethereum.crypto.HashUtil;
+import org.ethereum.net.rlpx.discover.NodeStatistics;
+import org.ethereum.net.rlpx.discover.NodeStatistics.RequestStat;
 import org.ethereum.net.server.Channel;
 import org.ethereum.validator.BlockHeaderValidator;
 import org.slf4j.Logger;
@@ -32,6 +34,7 @@ import org.spongycastle.util.encoders.Hex;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Function;
 
 import static java.lang.Math.max;
 import static java.util.Collections.emptyList;
@@ -50,6 +53,8 @@ public abstract class BlockDownloader {
 
     // Max number of Blocks / Headers in one request
     public static int MAX_IN_REQUEST = 192;
+    // the least request size for slow peers
+    private static int MIN_IN_REQUEST = 16;
     private static int REQUESTS = 32;
 
     private BlockHeaderValidator headerValidator;
@@ -175,15 +180,22 @@ public abstract class BlockDownloader {
                     for (Iterator<SyncQueueIfc.HeadersRequest> it = hReq.iterator(); it.hasNext();) {
                         SyncQueueIfc.HeadersRequest headersRequest = it.next();
 
-                        final Channel any = getAnyPeer();
+                        // the sparse headers are the base the others are checked against, so trust the best peer
+                        final Channel any = headersRequest.getStep() > 0 && !headersRequest.isReverse() ?
+                                pool.getBestIdle() : getAnyPeer(s -> s.ethHeaders);
 
                         if (any == null) {
                             logger.debug("{} headerRetrieveLoop: No IDLE peers found", name);
                             break;
                         } else {
                             logger.debug("{} headerRetrieveLoop: request headers (" + headersRequest.toString() + ") from " + any.getNode(), name);
+                            int count = headersRequest.getCount();
+                            if (headersRequest.getHash() == null && !headersRequest.isReverse()) {
+                                // the headers which are not requested now make a gap to be requested later
+                                count = any.getNodeStatistics().ethHeaders.getRequestSize(MIN_IN_REQUEST, count);
+                            }
                             ListenableFuture<List<BlockHeader>> futureHeaders = headersRequest.getHash() == null ?
-                                    any.getEthHandler().sendGetBlockHeaders(headersRequest.getStart(), headersRequest.getCount(), headersRequest.isReverse()) :
+                                    any.getEthHandler().sendGetBlockHeaders(headersRequest.getStart(), count, headersRequest.isReverse()) :
                                     any.getEthHandler().sendGetBlockHeaders(headersRequest.getHash(), headersRequest.getCount(), headersRequest.getStep(), headersRequest.isReverse());
                             if (futureHeaders != null) {
                                 Futures.addCallback(futureHeaders, new FutureCallback<List<BlockHeader>>() {
@@ -277,15 +289,22 @@ public abstract class BlockDownloader {
                     int maxBlocks = MAX_IN_REQUEST * Math.min(maxRequests, REQUESTS);
                     int reqBlocksCounter = 0;
                     int blocksRequested = 0;
-                    Iterator<SyncQueueIfc.BlocksRequest> it = bReqs.iterator();
-                    while (it.hasNext() && blocksRequested < maxBlocks) {
-//                    for (SyncQueueIfc.BlocksRequest blocksRequest : bReq.split(MAX_IN_REQUEST)) {
-                        SyncQueueIfc.BlocksRequest blocksRequest = it.next();
-                        Channel any = getAnyPeer();
+                    int reqIdx = 0;
+                    while (reqIdx < bReqs.size() && blocksRequested < maxBlocks) {
+                        SyncQueueIfc.BlocksRequest blocksRequest = bReqs.get(reqIdx);
+                        Channel any = getAnyPeer(s -> s.ethBodies);
                         if (any == null) {
                             logger.debug("{} blockRetrieveLoop: No IDLE peers found", name);
                             break;
                         } else {
+                            int size = any.getNodeStatistics().ethBodies.getRequestSize(MIN_IN_REQUEST, MAX_IN_REQUEST);
+                            if (size < blocksRequest.getBlockHeaders().size()) {
+                                // the slow peer gets a part of the request, the rest is left for other peers
+                                List<SyncQueueIfc.BlocksRequest> parts = blocksRequest.split(size);
+                                bReqs.remove(reqIdx);
+                                bReqs.addAll(reqIdx, parts);
+                                blocksRequest = parts.get(0);
+                            }
                             logger.debug("{} blockRetrieveLoop: Requesting " + blocksRequest.getBlockHeaders().size() + " blocks from " + any.getNode(), name);
                             ListenableFuture<List<Block>> futureBlocks =
                                     any.getEthHandler().sendGetBlockBodies(blocksRequest.getBlockHeaders());
@@ -294,7 +313,9 @@ public abstract class BlockDownloader {
                                 Futures.addCallback(futureBlocks, new BlocksCallback(any),
                                         MoreExecutors.directExecutor());
                                 reqBlocksCounter++;
-                                it.remove();
+                                bReqs.remove(reqIdx);
+                            } else {
+                                reqIdx++;
                             }
                         }
                     }
@@ -437,8 +458,11 @@ public abstract class BlockDownloader {
         return headerValidator.validateAndLog(header, logger);
     }
 
-    Channel getAnyPeer() {
-        return pool.getAnyIdle();
+    /**
+     * @param stat the statistics of the requests which are going to be sent to the peer
+     */
+    Channel getAnyPeer(Function<NodeStatistics, RequestStat> stat) {
+        return pool.getFastestIdle(stat);
     }
 
     public boolean isSyncDone() {
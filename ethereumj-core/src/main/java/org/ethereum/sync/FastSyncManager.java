@@ -20,6 +20,7 @@ package org.ethereum.sync;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang3.tuple.Pair;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.*;
@@ -27,6 +28,7 @@ import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.DbSource;
 import org.ethereum.datasource.NodeKeyCompositor;
 import org.ethereum.datasource.rocksdb.RocksDbDataSource;
+import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.db.DbFlushManager;
 import org.ethereum.db.HeaderStore;
 import org.ethereum.db.IndexedBlockStore;
@@ -38,6 +40,7 @@ import org.ethereum.listener.EthereumListenerAdapter;
 import org.ethereum.net.client.Capability;
 import org.ethereum.net.eth.handler.Eth63;
 import org.ethereum.net.message.ReasonCode;
+import org.ethereum.net.rlpx.discover.NodeStatistics;
 import org.ethereum.net.server.Channel;
 import org.ethereum.trie.TrieKey;
 import org.ethereum.util.*;
@@ -54,6 +57,10 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.stream.Collectors;
 
 import static org.ethereum.listener.EthereumListener.SyncState.COMPLETE;
@@ -70,13 +77,19 @@ import static org.ethereum.util.ByteUtil.toHexString;
 public class FastSyncManager {
     private final static Logger logger = LoggerFactory.getLogger("sync");
 
-    private final static long REQUEST_TIMEOUT = 5 * 1000;
-    private final static int REQUEST_MAX_NODES = 384;
-    private final static int NODE_QUEUE_BEST_SIZE = 100_000;
+    final static long REQUEST_TIMEOUT = 5 * 1000;
+    final static int REQUEST_MAX_NODES = 384;
+    // requests sent to a peer at once, limited by the peer throughput
+    final static int PEER_MAX_REQUESTS = 4;
+    // the peer is requested for as many nodes as it retrieves in this time
+    private final static long PEER_PIPELINE_TIME = 2 * 1000;
+    private final static int DB_WRITE_BATCH = 1000;
     private final static int MIN_PEERS_FOR_PIVOT_SELECTION = 5;
     private final static int FORCE_SYNC_TIMEOUT = 60 * 1000;
     private final static int PIVOT_DISTANCE_FROM_HEAD = 1024;
     private final static int MSX_DB_QUEUE_SIZE = 20000;
+    // verify the received nodes and create child requests
+    private final static int NODES_PROCESSOR_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
 
     private static final Capability ETH63_CAPABILITY = new Capability(Capability.ETH, (byte) 63);
 
@@ -87,7 +100,7 @@ public class FastSyncManager {
     private SystemProperties config;
 
     @Autowired
-    private SyncPool pool;
+    SyncPool pool;
 
     @Autowired
     private BlockchainImpl blockchain;
@@ -114,11 +127,11 @@ public class FastSyncManager {
     @Autowired
     ApplicationContext applicationContext;
 
-    int nodesInserted = 0;
+    volatile int nodesInserted = 0;
 
     private boolean fastSyncInProgress = false;
 
-    private BlockingQueue<TrieNodeRequest> dbWriteQueue = new LinkedBlockingQueue<>();
+    BlockingQueue<TrieNodeRequest> dbWriteQueue = new LinkedBlockingQueue<>();
     private Thread dbWriterThread;
     private Thread fastSyncThread;
     private int dbQueueSizeMonitor = -1;
@@ -152,11 +165,16 @@ public class FastSyncManager {
                             FastSyncManager.this.notifyAll();
                         }
                     }
-                    TrieNodeRequest request = dbWriteQueue.take();
-                    nodesInserted++;
-                    request.storageHashes().forEach(hash -> stateSource.getNoJournalSource().put(hash, request.response));
+                    List<TrieNodeRequest> batch = new ArrayList<>();
+                    batch.add(dbWriteQueue.take());
+                    dbWriteQueue.drainTo(batch, DB_WRITE_BATCH - 1);
+                    for (TrieNodeRequest request : batch) {
+                        request.storageHashes().forEach(hash -> stateSource.getNoJournalSource().put(hash, request.response));
+                    }
 
-                    if (nodesInserted % 1000 == 0) {
+                    int inserted = nodesInserted;
+                    nodesInserted = inserted + batch.size();
+                    if (inserted / 1000 != nodesInserted / 1000) {
                         dbFlushManager.commit();
                         logger.debug("FastSyncDBWriter: commit: dbWriteQueue.size = " + dbWriteQueue.size());
                     }
@@ -168,6 +186,9 @@ public class FastSyncManager {
         }, "FastSyncDBWriter");
         dbWriterThread.start();
 
+        nodesProcessor = Executors.newFixedThreadPool(NODES_PROCESSOR_THREADS,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("FastSyncNodes-%d").build());
+
         fastSyncThread = new Thread(() -> {
             try {
                 main();
@@ -190,7 +211,7 @@ public class FastSyncManager {
         switch (syncStage) {
             case UNSECURE:
                 return new SyncStatus(SyncStatus.SyncStage.StateNodes, nodesInserted,
-                        nodesQueue.size() + pendingNodes.size() + nodesInserted);
+                        pendingNodes.size() + nodesInserted);
             case SECURE:
                 if (headersDownloader != null) {
                     return new SyncStatus(SyncStatus.SyncStage.Headers, headersDownloader.getHeadersLoaded(),
@@ -218,37 +239,42 @@ public class FastSyncManager {
         CODE
     }
 
-    int stateNodesCnt = 0;
-    int codeNodesCnt = 0;
-    int storageNodesCnt = 0;
+    final AtomicInteger stateNodesCnt = new AtomicInteger();
+    final AtomicInteger codeNodesCnt = new AtomicInteger();
+    final AtomicInteger storageNodesCnt = new AtomicInteger();
 
-    private class TrieNodeRequest {
+    class TrieNodeRequest {
         TrieNodeType type;
         byte[] nodeHash;
         byte[] response;
-        final Map<Long, Long> requestSent = new HashMap<>();
         TrieKey nodePath = TrieKey.empty(false);
+        // number of nodes from the state root, the deeper nodes are requested first
+        final int depth;
+        final long seq = requestSeq.getAndIncrement();
+        // prevents the same request from being queued twice after timeouts
+        final AtomicBoolean queued = new AtomicBoolean();
 
         private final Set<byte[]> accounts = new ByteArraySet();
 
-        TrieNodeRequest(TrieNodeType type, byte[] nodeHash) {
+        TrieNodeRequest(TrieNodeType type, byte[] nodeHash, int depth) {
             this.type = type;
             this.nodeHash = nodeHash;
+            this.depth = depth;
 
             switch (type) {
-                case STATE: stateNodesCnt++; break;
-                case CODE: codeNodesCnt++; break;
-                case STORAGE: storageNodesCnt++; break;
+                case STATE: stateNodesCnt.incrementAndGet(); break;
+                case CODE: codeNodesCnt.incrementAndGet(); break;
+                case STORAGE: storageNodesCnt.incrementAndGet(); break;
             }
         }
 
-        TrieNodeRequest(TrieNodeType type, byte[] nodeHash, byte[] accountKey) {
-            this(type, nodeHash);
+        TrieNodeRequest(TrieNodeType type, byte[] nodeHash, int depth, byte[] accountKey) {
+            this(type, nodeHash, depth);
             this.accounts.add(accountKey);
         }
 
-        TrieNodeRequest(TrieNodeType type, byte[] nodeHash, TrieKey nodePath, Set<byte[]> accounts) {
-            this(type, nodeHash);
+        TrieNodeRequest(TrieNodeType type, byte[] nodeHash, int depth, TrieKey nodePath, Set<byte[]> accounts) {
+            this(type, nodeHash, depth);
             this.nodePath = nodePath;
             this.accounts.addAll(accounts);
         }
@@ -268,10 +294,10 @@ public class FastSyncManager {
                     TrieKey accountKey = nodePath.concat(fromPacked((byte[]) node.get(0)));
 
                     if (!FastByteComparisons.equal(HashUtil.EMPTY_DATA_HASH, state.getCodeHash())) {
-                        ret.add(new TrieNodeRequest(TrieNodeType.CODE, state.getCodeHash(), accountKey.toNormal()));
+                        ret.add(new TrieNodeRequest(TrieNodeType.CODE, state.getCodeHash(), depth + 1, accountKey.toNormal()));
                     }
                     if (!FastByteComparisons.equal(HashUtil.EMPTY_TRIE_HASH, state.getStateRoot())) {
-                        ret.add(new TrieNodeRequest(TrieNodeType.STORAGE, state.getStateRoot(), accountKey.toNormal()));
+                        ret.add(new TrieNodeRequest(TrieNodeType.STORAGE, state.getStateRoot(), depth + 1, accountKey.toNormal()));
                     }
                     return ret;
                 }
@@ -281,14 +307,15 @@ public class FastSyncManager {
                 Value val = new Value(node.get(1));
                 if (val.isHashCode() && !hasTerminator((byte[]) node.get(0))) {
                     TrieKey childPath = nodePath.concat(fromPacked((byte[]) node.get(0)));
-                    ret.add(new TrieNodeRequest(type, val.asBytes(), childPath, accountsSnapshot()));
+                    ret.add(new TrieNodeRequest(type, val.asBytes(), depth + 1, childPath, accountsSnapshot()));
                 }
             } else {
+                Set<byte[]> accounts = accountsSnapshot();
                 for (int j = 0; j < 16; ++j) {
                     Value val = new Value(node.get(j));
                     if (val.isHashCode()) {
                         TrieKey childPath = nodePath.concat(TrieKey.singleHex(j));
-                        ret.add(new TrieNodeRequest(type, val.asBytes(), childPath, accountsSnapshot()));
+                        ret.add(new TrieNodeRequest(type, val.asBytes(), depth + 1, childPath, accounts));
                     }
                 }
             }
@@ -296,19 +323,6 @@ public class FastSyncManager {
             return ret;
         }
 
-        public void reqSent(Long requestId) {
-            synchronized (FastSyncManager.this) {
-                Long timestamp = System.currentTimeMillis();
-                requestSent.put(requestId, timestamp);
-            }
-        }
-
-        public Set<Long> requestIdsSnapshot() {
-            synchronized (FastSyncManager.this) {
-                return new HashSet<Long>(requestSent.keySet());
-            }
-        }
-
         public List<byte[]> storageHashes() {
             if (type == TrieNodeType.STATE) {
                 return Collections.singletonList(nodeHash);
@@ -318,16 +332,12 @@ public class FastSyncManager {
             }
         }
 
-        public Set<byte[]> accountsSnapshot() {
-            synchronized (FastSyncManager.this) {
-                return new HashSet<>(accounts);
-            }
+        public synchronized Set<byte[]> accountsSnapshot() {
+            return new HashSet<>(accounts);
         }
 
-        public void merge(TrieNodeRequest other) {
-            synchronized (FastSyncManager.this) {
-                accounts.addAll(other.accounts);
-            }
+        public synchronized void merge(TrieNodeRequest other) {
+            accounts.addAll(other.accounts);
         }
 
         @Override
@@ -340,152 +350,227 @@ public class FastSyncManager {
         }
     }
 
-    Deque<TrieNodeRequest> nodesQueue = new LinkedBlockingDeque<>();
-    ByteArrayMap<TrieNodeRequest> pendingNodes = new ByteArrayMap<>();
-    Long requestId = 0L;
+    /**
+     * GetNodeData request sent to a peer
+     */
+    private class NodesBatch {
+        final Channel peer;
+        final List<TrieNodeRequest> requests;
+        final Set<byte[]> hashes = new ByteArraySet();
+        final AtomicInteger peerPendingNodes;
+        final long sentTime = System.currentTimeMillis();
+        // set once either the response, the failure or the timeout is handled
+        final AtomicBoolean answered = new AtomicBoolean();
+
+        NodesBatch(Channel peer, List<TrieNodeRequest> requests, AtomicInteger peerPendingNodes) {
+            this.peer = peer;
+            this.requests = requests;
+            this.peerPendingNodes = peerPendingNodes;
+            for (TrieNodeRequest request : requests) {
+                hashes.add(request.nodeHash);
+            }
+        }
 
-    private synchronized void purgePending(byte[] hash) {
-        TrieNodeRequest request = pendingNodes.get(hash);
-        if (request.requestSent.isEmpty()) pendingNodes.remove(hash);
+        /**
+         * @return false if the batch was already answered or timed out
+         */
+        boolean answer() {
+            if (!answered.compareAndSet(false, true)) return false;
+            peerPendingNodes.addAndGet(-requests.size());
+            sentBatches.remove(this);
+            return true;
+        }
     }
 
-    synchronized void processTimeouts() {
-        long cur = System.currentTimeMillis();
-        for (TrieNodeRequest request : new ArrayList<>(pendingNodes.values())) {
-            Iterator<Map.Entry<Long, Long>> reqIterator = request.requestSent.entrySet().iterator();
-            while (reqIterator.hasNext()) {
-                Map.Entry<Long, Long> requestEntry = reqIterator.next();
-                if (cur - requestEntry.getValue() > REQUEST_TIMEOUT) {
-                    reqIterator.remove();
-                    purgePending(request.nodeHash);
-                    nodesQueue.addFirst(request);
-                }
+    private final AtomicLong requestSeq = new AtomicLong();
+
+    // requests which are either queued or sent and not yet received, keyed by the node hash
+    // to merge requests for the same node (e.g. the same storage trie of different contracts)
+    final ConcurrentMap<ByteArrayWrapper, TrieNodeRequest> pendingNodes = new ConcurrentHashMap<>();
+    // depth-first traversal to complete subtries early and keep the queue reasonably small
+    final BlockingQueue<TrieNodeRequest> nodesQueue = new PriorityBlockingQueue<>(1024,
+            Comparator.<TrieNodeRequest>comparingInt(r -> -r.depth).thenComparingLong(r -> r.seq));
+    private final Set<NodesBatch> sentBatches = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<Channel, AtomicInteger> peerPendingNodes = new ConcurrentHashMap<>();
+    // the responses which are being processed, their children are not yet in pendingNodes
+    private final AtomicInteger responsesInProcess = new AtomicInteger();
+    ExecutorService nodesProcessor;
+    private volatile Thread retrieveThread;
+
+    private void queueRequest(TrieNodeRequest request) {
+        if (pendingNodes.get(new ByteArrayWrapper(request.nodeHash)) == request &&
+                request.queued.compareAndSet(false, true)) {
+            nodesQueue.add(request);
+        }
+    }
+
+    void addRequest(TrieNodeRequest request) {
+        TrieNodeRequest pending = pendingNodes.compute(new ByteArrayWrapper(request.nodeHash), (hash, existing) -> {
+            if (existing == null) return request;
+            // merging within compute() so the accounts are not added after the existing request is received
+            existing.merge(request);
+            return existing;
+        });
+        if (pending == request) queueRequest(request);
+    }
+
+    List<TrieNodeRequest> pollRequests(int cnt) {
+        List<TrieNodeRequest> ret = new ArrayList<>();
+        TrieNodeRequest request;
+        while (ret.size() < cnt && (request = nodesQueue.poll()) != null) {
+            request.queued.set(false);
+            // skipping requests received while waiting in the queue
+            if (pendingNodes.get(new ByteArrayWrapper(request.nodeHash)) == request) {
+                ret.add(request);
             }
         }
+        return ret;
     }
 
-    synchronized void processResponse(TrieNodeRequest req) {
+    void processTimeouts() {
+        processTimeouts(System.currentTimeMillis());
+    }
+
+    void processTimeouts(long cur) {
+        for (NodesBatch batch : sentBatches) {
+            if (cur - batch.sentTime > REQUEST_TIMEOUT && batch.answer()) {
+                logger.debug("Trie nodes request timed out, peer: " + batch.peer);
+                batch.requests.forEach(this::queueRequest);
+            }
+        }
+    }
+
+    void processResponse(TrieNodeRequest req) {
         dbWriteQueue.add(req);
         for (TrieNodeRequest childRequest : req.createChildRequests()) {
-            if (nodesQueue.size() > NODE_QUEUE_BEST_SIZE) {
-                // reducing queue by traversing tree depth-first
-                nodesQueue.addFirst(childRequest);
-            } else {
-                // enlarging queue by traversing tree breadth-first
-                nodesQueue.add(childRequest);
+            addRequest(childRequest);
+        }
+    }
+
+    /**
+     * Number of nodes to keep requested from the peer.
+     * The peer throughput is measured as nodes per millisecond of the requests retrieve time, so
+     * a busy peer with slow responses has its limit decreased
+     */
+    private int peerNodesLimit(Channel peer) {
+        long retrieveTime = peer.getNodeStatistics().eth63NodesRetrieveTime.get();
+        if (retrieveTime == 0) return REQUEST_MAX_NODES;
+        long nodes = peer.getNodeStatistics().eth63NodesReceived.get() * PEER_PIPELINE_TIME / retrieveTime;
+        return (int) Math.max(REQUEST_MAX_NODES, Math.min(nodes, PEER_MAX_REQUESTS * REQUEST_MAX_NODES));
+    }
+
+    void requestNodes() {
+        List<Channel> peers = pool.getActivePeers();
+        peerPendingNodes.keySet().retainAll(peers);
+        // the fastest peers first
+        Map<Channel, Integer> limits = new HashMap<>();
+        peers.forEach(peer -> limits.put(peer, peerNodesLimit(peer)));
+        peers.sort(Comparator.comparingInt(limits::get).reversed());
+
+        for (Channel peer : peers) {
+            if (nodesQueue.isEmpty()) return;
+            if (!(peer.getEthHandler() instanceof Eth63)) continue;
+
+            AtomicInteger pending = peerPendingNodes.computeIfAbsent(peer, p -> new AtomicInteger());
+            int limit = limits.get(peer);
+            while (pending.get() < limit) {
+                List<TrieNodeRequest> requests = pollRequests(Math.min(REQUEST_MAX_NODES, limit - pending.get()));
+                if (requests.isEmpty()) return;
+                if (!sendRequest(peer, requests, pending)) {
+                    requests.forEach(this::queueRequest);
+                    break;
+                }
             }
         }
     }
 
-    boolean requestNextNodes(int cnt) {
-        final Channel idle = pool.getAnyIdle();
+    private boolean sendRequest(Channel peer, List<TrieNodeRequest> requests, AtomicInteger pending) {
+        List<byte[]> hashes = requests.stream().map(r -> r.nodeHash).collect(Collectors.toList());
+        ListenableFuture<List<byte[]>> future = ((Eth63) peer.getEthHandler()).requestTrieNodes(hashes);
+        if (future == null) return false;
 
-        if (idle != null) {
-            final List<byte[]> hashes = new ArrayList<>();
-            final List<TrieNodeRequest> requestsSent = new ArrayList<>();
-            final Set<Long> sentRequestIds = new HashSet<>();
-            synchronized (this) {
-                for (int i = 0; i < cnt && !nodesQueue.isEmpty(); i++) {
-                    TrieNodeRequest req = nodesQueue.poll();
+        logger.trace("Requesting " + hashes.size() + " nodes from peer: " + peer);
+        pending.addAndGet(requests.size());
+        NodesBatch batch = new NodesBatch(peer, requests, pending);
+        sentBatches.add(batch);
 
-                    hashes.add(req.nodeHash);
-                    TrieNodeRequest request = pendingNodes.get(req.nodeHash);
-                    if (request == null) {
-                        pendingNodes.put(req.nodeHash, req);
-                        request = req;
-                    } else {
-                        request.merge(req);
-                    }
-                    sentRequestIds.add(requestId);
-                    request.reqSent(requestId);
-                    requestId++;
-                    requestsSent.add(request);
+        Futures.addCallback(future, new FutureCallback<List<byte[]>>() {
+            @Override
+            public void onSuccess(List<byte[]> result) {
+                responsesInProcess.incrementAndGet();
+                try {
+                    processNodes(batch, result);
+                } catch (Exception e) {
+                    logger.error("Unexpected error processing nodes", e);
+                } finally {
+                    responsesInProcess.decrementAndGet();
+                    wakeUpRetrieveLoop();
                 }
             }
-            if (hashes.size() > 0) {
-                logger.trace("Requesting " + hashes.size() + " nodes from peer: " + idle);
-                ListenableFuture<List<Pair<byte[], byte[]>>> nodes = ((Eth63) idle.getEthHandler()).requestTrieNodes(hashes);
-                final long reqTime = System.currentTimeMillis();
-                Futures.addCallback(nodes, new FutureCallback<List<Pair<byte[], byte[]>>>() {
-                    @Override
-                    public void onSuccess(List<Pair<byte[], byte[]>> result) {
-                        try {
-                            synchronized (FastSyncManager.this) {
-                                logger.trace("Received " + result.size() + " nodes (of " + hashes.size() + ") from peer: " + idle);
-                                idle.getNodeStatistics().eth63NodesRequested.add(hashes.size());
-                                idle.getNodeStatistics().eth63NodesRetrieveTime.add(System.currentTimeMillis() - reqTime);
-                                for (Pair<byte[], byte[]> pair : result) {
-                                    TrieNodeRequest request = pendingNodes.get(pair.getKey());
-                                    if (request == null) {
-                                        long t = System.currentTimeMillis();
-                                        logger.debug("Received node which was not requested: " + toHexString(pair.getKey()) + " from " + idle);
-                                        idle.disconnect(ReasonCode.TOO_MANY_PEERS); // We need better peers for this stage
-                                        return;
-                                    }
-                                    Set<Long> intersection = request.requestIdsSnapshot();
-                                    intersection.retainAll(sentRequestIds);
-                                    if (!intersection.isEmpty()) {
-                                        Long inter = intersection.iterator().next();
-                                        request.requestSent.remove(inter);
-                                        purgePending(pair.getKey());
-                                        request.response = pair.getValue();
-                                        processResponse(request);
-                                    }
-                                }
-
-                                FastSyncManager.this.notifyAll();
-                                idle.getNodeStatistics().eth63NodesReceived.add(result.size());
-                            }
-                        } catch (Exception e) {
-                            logger.error("Unexpected error processing nodes", e);
-                        }
-                    }
 
-                    @Override
-                    public void onFailure(Throwable t) {
-                        logger.warn("Error with Trie Node request: " + t);
-                        idle.getNodeStatistics().eth63NodesRequested.add(hashes.size());
-                        idle.getNodeStatistics().eth63NodesRetrieveTime.add(System.currentTimeMillis() - reqTime);
-                        synchronized (FastSyncManager.this) {
-                            for (byte[] hash : hashes) {
-                                final TrieNodeRequest request = pendingNodes.get(hash);
-                                if (request == null) continue;
-                                Set<Long> intersection = request.requestIdsSnapshot();
-                                intersection.retainAll(sentRequestIds);
-                                if (!intersection.isEmpty()) {
-                                    Long inter = intersection.iterator().next();
-                                    request.requestSent.remove(inter);
-                                    nodesQueue.addFirst(request);
-                                    purgePending(hash);
-                                }
-                            }
-                            FastSyncManager.this.notifyAll();
-                        }
-                    }
-                });
-                return true;
-            } else {
-//                idle.getEthHandler().setStatus(SyncState.IDLE);
-                return false;
+            @Override
+            public void onFailure(Throwable t) {
+                logger.warn("Error with Trie Node request: " + t);
+                peer.getNodeStatistics().eth63NodesRequested.add(requests.size());
+                peer.getNodeStatistics().eth63NodesRetrieveTime.add(System.currentTimeMillis() - batch.sentTime);
+                if (batch.answer()) {
+                    requests.forEach(FastSyncManager.this::queueRequest);
+                }
+                wakeUpRetrieveLoop();
             }
-        } else {
-            return false;
+        }, nodesProcessor);
+        return true;
+    }
+
+    private void processNodes(NodesBatch batch, List<byte[]> nodes) {
+        logger.trace("Received " + nodes.size() + " nodes (of " + batch.requests.size() + ") from peer: " + batch.peer);
+        NodeStatistics stat = batch.peer.getNodeStatistics();
+        stat.eth63NodesRequested.add(batch.requests.size());
+        stat.eth63NodesRetrieveTime.add(System.currentTimeMillis() - batch.sentTime);
+        // a late response after the timeout is still useful though the requests are queued again
+        boolean inTime = batch.answer();
+
+        for (byte[] node : nodes) {
+            byte[] hash = HashUtil.sha3(node);
+            if (!batch.hashes.contains(hash)) {
+                logger.debug("Received node which was not requested: " + toHexString(hash) + " from " + batch.peer);
+                batch.peer.disconnect(ReasonCode.USELESS_PEER);
+                break;
+            }
+            // any request for the node is satisfied with the verified response
+            TrieNodeRequest request = pendingNodes.remove(new ByteArrayWrapper(hash));
+            if (request != null) {
+                request.response = node;
+                processResponse(request);
+            }
+        }
+        stat.eth63NodesReceived.add(nodes.size());
+
+        if (inTime) {
+            // requeueing the nodes missing in the response
+            batch.requests.forEach(this::queueRequest);
         }
     }
 
+    private void wakeUpRetrieveLoop() {
+        Thread thread = retrieveThread;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
     void retrieveLoop() {
+        retrieveThread = Thread.currentThread();
         try {
-            while (!nodesQueue.isEmpty() || !pendingNodes.isEmpty()) {
+            // pendingNodes is checked first since responses in process are counted before their nodes are removed
+            while (!pendingNodes.isEmpty() || responsesInProcess.get() > 0) {
                 try {
                     processTimeouts();
 
-                    while (requestNextNodes(REQUEST_MAX_NODES)) ;
-
-                    synchronized (this) {
-                        wait(10);
+                    if (dbWriteQueue.size() < MSX_DB_QUEUE_SIZE) {
+                        requestNodes();
                     }
 
-                    waitDbQueueSizeBelow(MSX_DB_QUEUE_SIZE);
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                    if (Thread.interrupted()) throw new InterruptedException();
 
                     logStat();
                 } catch (InterruptedException e) {
@@ -499,6 +584,8 @@ public class FastSyncManager {
             dbWriterThread.interrupt();
         } catch (InterruptedException e) {
             logger.warn("Main fast sync loop was interrupted", e);
+        } finally {
+            retrieveThread = null;
         }
     }
 
@@ -532,15 +619,14 @@ public class FastSyncManager {
 
     private void syncUnsecure(BlockHeader pivot) {
         byte[] pivotStateRoot = pivot.getStateRoot();
-        TrieNodeRequest request = new TrieNodeRequest(TrieNodeType.STATE, pivotStateRoot);
-        nodesQueue.add(request);
+        addRequest(new TrieNodeRequest(TrieNodeType.STATE, pivotStateRoot, 0));
         logger.info("FastSync: downloading state trie at pivot block: " + pivot.getShortDescr());
 
         setSyncStage(UNSECURE);
 
         retrieveLoop();
 
-        logger.info("FastSync: state trie download complete! (Nodes count: state: " + stateNodesCnt + ", storage: " +storageNodesCnt + ", code: " +codeNodesCnt + ")");
+        logger.info("FastSync: state trie download complete! (Nodes count: state: " + stateNodesCnt.get() + ", storage: " + storageNodesCnt.get() + ", code: " + codeNodesCnt.get() + ")");
         last = 0;
         logStat();
 
@@ -942,6 +1028,7 @@ public class FastSyncManager {
             fastSyncThread.interrupt();
             fastSyncInProgress = false;
             dbWriterThread.interrupt();
+            if (nodesProcessor != null) nodesProcessor.shutdownNow();
             dbFlushManager.commit();
             dbFlushManager.flushSync();
             fastSyncThread.join(10 * 1000);
@@ -25,6 +25,8 @@ import org.ethereum.core.Blockchain;
 import org.ethereum.db.DbFlushManager;
 import org.ethereum.db.HeaderStore;
 import org.ethereum.db.IndexedBlockStore;
+import org.ethereum.net.rlpx.discover.NodeStatistics;
+import org.ethereum.net.rlpx.discover.NodeStatistics.RequestStat;
 import org.ethereum.net.server.Channel;
 import org.ethereum.net.server.ChannelManager;
 import org.ethereum.validator.BlockHeaderValidator;
@@ -36,6 +38,7 @@ import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.function.Function;
 
 import static org.ethereum.util.ByteUtil.toHexString;
 
@@ -112,8 +115,8 @@ public class HeadersDownloader extends BlockDownloader {
      * Fallbacks to any peer when low number of active peers available
      */
     @Override
-    Channel getAnyPeer() {
-        return syncPool.getActivePeersCount() > 2 ? syncPool.getNotLastIdle() : syncPool.getAnyIdle();
+    Channel getAnyPeer(Function<NodeStatistics, RequestStat> stat) {
+        return syncPool.getActivePeersCount() > 2 ? syncPool.getFastestNotLastIdle(stat) : syncPool.getFastestIdle(stat);
     }
 
     @Override
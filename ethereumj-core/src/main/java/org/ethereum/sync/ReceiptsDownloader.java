@@ -176,7 +176,14 @@ public class ReceiptsDownloader {
 
                 Channel idle = getAnyPeer();
                 if (idle != null && !toDownload.isEmpty()) {
-                    List<byte[]> list = toDownload.remove(0);
+                    List<byte[]> req = toDownload.remove(0);
+                    int size = idle.getNodeStatistics().ethReceipts.getRequestSize(MIN_IN_REQUEST, MAX_IN_REQUEST);
+                    if (size < req.size()) {
+                        // the slow peer gets a part of the request, the rest is left for other peers
+                        toDownload.add(0, new ArrayList<>(req.subList(size, req.size())));
+                        req = new ArrayList<>(req.subList(0, size));
+                    }
+                    List<byte[]> list = req;
                     ListenableFuture<List<List<TransactionReceipt>>> future =
                             ((Eth63) idle.getEthHandler()).requestReceipts(list);
                     if (future != null) {
@@ -274,7 +281,8 @@ public class ReceiptsDownloader {
      * Fallbacks to any peer when low number of active peers available
      */
     Channel getAnyPeer() {
-        return syncPool.getActivePeersCount() > 2 ? syncPool.getNotLastIdle() : syncPool.getAnyIdle();
+        return syncPool.getActivePeersCount() > 2 ?
+                syncPool.getFastestNotLastIdle(s -> s.ethReceipts) : syncPool.getFastestIdle(s -> s.ethReceipts);
     }
 
     public int getDownloadedBlocksCount() {
@@ -60,13 +60,17 @@ public class SyncManager extends BlockDownloader {
 
     private final static Logger logger = LoggerFactory.getLogger("sync");
 
-    // Transaction.getSender() is quite heavy operation so we are prefetching this value on several threads
-    // to unload the main block importing cycle
+    private final static int VALIDATION_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() / 2);
+
+    // Transaction.getSender() and the body roots check are quite heavy operations which don't depend on the state,
+    // so they are done ahead on several threads to unload the main block importing cycle,
+    // the results are cached in the block and transactions
     private ExecutorPipeline<BlockWrapper,BlockWrapper> exec1 = new ExecutorPipeline<>
-            (4, 1000, true, blockWrapper -> {
+            (VALIDATION_THREADS, 1000, true, blockWrapper -> {
                 for (Transaction tx : blockWrapper.getBlock().getTransactionsList()) {
                     tx.getSender();
                 }
+                blockWrapper.getBlock().isBodyValid();
                 return blockWrapper;
             }, throwable -> logger.error("Unexpected exception: ", throwable));
 
@@ -95,6 +99,9 @@ public class SyncManager extends BlockDownloader {
     @Autowired
     private DependentBlockHeaderRule parentHeaderValidator;
 
+    @Autowired
+    private StatePrefetcher statePrefetcher;
+
     ChannelManager channelManager;
 
     private SystemProperties config;
@@ -166,7 +173,8 @@ public class SyncManager extends BlockDownloader {
         this.syncDoneType = syncDoneType;
 
         syncQueue = new SyncQueueImpl(blockchain)
-                .withParentHeaderValidator(parentHeaderValidator);
+                .withParentHeaderValidator(parentHeaderValidator)
+                .withBestKnownNumber(this::getLastKnownBlockNumber);
         super.init(syncQueue, pool, "RegularSync");
 
         Runnable queueProducer = this::produceQueue;
@@ -259,6 +267,16 @@ public class SyncManager extends BlockDownloader {
         return Math.min(slotsLeft + 2 * MAX_IN_REQUEST, getHeaderQueueLimit());
     }
 
+    /**
+     * Warms up the state for the block being imported and for the next queued one
+     */
+    private void prefetchState(BlockWrapper wrapper) {
+        if (statePrefetcher == null) return;
+        statePrefetcher.prefetch(wrapper.getBlock());
+        BlockWrapper next = blockQueue.peek();
+        if (next != null) statePrefetcher.prefetch(next.getBlock());
+    }
+
     /**
      * Processing the queue adding blocks to the chain.
      */
@@ -274,6 +292,7 @@ public class SyncManager extends BlockDownloader {
 
                 long stale = !isSyncDone() && importStart > 0 && blockQueue.isEmpty() ? System.nanoTime() : 0;
                 wrapper = blockQueue.take();
+                prefetchState(wrapper);
 
                 blocksInMem.decrementAndGet();
 
@@ -24,6 +24,8 @@ import org.ethereum.net.message.ReasonCode;
 import org.ethereum.net.rlpx.Node;
 import org.ethereum.net.rlpx.discover.NodeHandler;
 import org.ethereum.net.rlpx.discover.NodeManager;
+import org.ethereum.net.rlpx.discover.NodeStatistics;
+import org.ethereum.net.rlpx.discover.NodeStatistics.RequestStat;
 import org.ethereum.net.server.Channel;
 import org.ethereum.net.server.ChannelManager;
 import org.ethereum.util.Utils;
@@ -40,6 +42,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 import static java.lang.Math.max;
@@ -65,6 +68,11 @@ public class SyncPool {
 
     private static final long WORKER_TIMEOUT = 3; // 3 seconds
 
+    // laggards are dropped only when there are enough peers to choose from
+    private static final int MIN_PEERS_TO_DROP_LAGGARDS = 4;
+    private static final double LAGGARD_THROUGHPUT_RATIO = 0.1;
+    private static final double LAGGARD_FAILURE_RATE = 0.5;
+
     private final List<Channel> activePeers = Collections.synchronizedList(new ArrayList<Channel>());
 
     private BigInteger lowerUsefulDifficulty = BigInteger.ZERO;
@@ -171,6 +179,45 @@ public class SyncPool {
         return null;
     }
 
+    /**
+     * @param stat the statistics of the requests which are going to be sent
+     * @return the idle peer with the highest throughput for the requests,
+     *      peers without any responses yet are preferred to get them measured
+     */
+    @Nullable
+    public synchronized Channel getFastestIdle(Function<NodeStatistics, RequestStat> stat) {
+        return getFastestIdle(stat, 1);
+    }
+
+    /**
+     * Same as {@link #getFastestIdle(Function)} but leaves one idle peer
+     * like {@link #getNotLastIdle()}
+     */
+    @Nullable
+    public synchronized Channel getFastestNotLastIdle(Function<NodeStatistics, RequestStat> stat) {
+        return getFastestIdle(stat, 2);
+    }
+
+    private Channel getFastestIdle(Function<NodeStatistics, RequestStat> stat, int minIdle) {
+        ArrayList<Channel> channels = new ArrayList<>(activePeers);
+        // random choice among equally scored (e.g. not yet measured) peers
+        Collections.shuffle(channels);
+        Channel best = null;
+        double bestThroughput = -1;
+        int idle = 0;
+        for (Channel peer : channels) {
+            if (peer.isIdle()) {
+                idle++;
+                double throughput = stat.apply(peer.getNodeStatistics()).getThroughput();
+                if (throughput > bestThroughput) {
+                    best = peer;
+                    bestThroughput = throughput;
+                }
+            }
+        }
+        return idle >= minIdle ? best : null;
+    }
+
     public synchronized List<Channel> getAllIdle() {
         List<Channel> ret = new ArrayList<>();
         for (Channel peer : activePeers) {
@@ -388,11 +435,47 @@ public class SyncPool {
     }
 
     private void heartBeat() {
-//        for (Channel peer : channelManager.getActivePeers()) {
-//            if (!peer.isIdle() && peer.getSyncStats().secondsSinceLastUpdate() > config.peerChannelReadTimeout()) {
-//                logger.info("Peer {}: no response after {} seconds", peer.getPeerIdShort(), config.peerChannelReadTimeout());
-//                peer.dropConnection();
-//            }
-//        }
+        List<Channel> peers = getActivePeers();
+        for (Channel peer : peers) {
+            for (RequestStat stat : peer.getNodeStatistics().getRequestStats()) {
+                if (stat.getPendingTime() > config.peerChannelReadTimeout() * 1000L) {
+                    logger.info("Peer {}: no response after {} seconds", peer.getPeerIdShort(), config.peerChannelReadTimeout());
+                    stat.requestFailed();
+                    peer.getEthHandler().dropConnection();
+                    break;
+                }
+            }
+        }
+
+        if (!channelManager.getSyncManager().isSyncDone() && peers.size() >= MIN_PEERS_TO_DROP_LAGGARDS) {
+            dropLaggard(peers, s -> s.ethHeaders);
+            dropLaggard(peers, s -> s.ethBodies);
+            dropLaggard(peers, s -> s.ethReceipts);
+        }
+    }
+
+    /**
+     * Disconnects the slowest peer if its throughput is far behind the fastest peer
+     * or it fails most of the requests, the slot is then filled up with another peer
+     */
+    private void dropLaggard(List<Channel> peers, Function<NodeStatistics, RequestStat> statGetter) {
+        Channel slowest = null;
+        RequestStat slowestStat = null;
+        double fastestThroughput = 0;
+        for (Channel peer : peers) {
+            RequestStat stat = statGetter.apply(peer.getNodeStatistics());
+            if (!stat.isMeasured() || peer.isDisconnected()) continue;
+            fastestThroughput = max(fastestThroughput, stat.getThroughput());
+            if (slowestStat == null || stat.getThroughput() < slowestStat.getThroughput()) {
+                slowest = peer;
+                slowestStat = stat;
+            }
+        }
+
+        if (slowest != null && (slowestStat.getFailureRate() > LAGGARD_FAILURE_RATE ||
+                slowestStat.getThroughput() < fastestThroughput * LAGGARD_THROUGHPUT_RATIO)) {
+            logger.info("Peer {}: dropping laggard, {}", slowest.getPeerIdShort(), slowestStat);
+            channelManager.disconnect(slowest, ReasonCode.TOO_MANY_PEERS);
+        }
     }
 }
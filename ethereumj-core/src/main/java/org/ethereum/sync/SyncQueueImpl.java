@@ -27,16 +27,33 @@ import org.ethereum.validator.DependentBlockHeaderRule;
 
 import java.util.*;
 import java.util.function.Function;
+import java.util.function.LongSupplier;
 
+import static java.lang.Math.max;
 import static java.lang.Math.min;
+import static java.util.Collections.singletonList;
 import static org.ethereum.sync.BlockDownloader.MAX_IN_REQUEST;
 import static org.ethereum.util.ByteUtil.toHexString;
 
 /**
  * Created by Anton Nashatyrev on 27.05.2016.
+ *
+ * <p>
+ *     When the peers are far ahead the headers are downloaded by the skeleton: every
+ *     {@link #SKELETON_STEP}th header is requested from the best peer in a single sparse request
+ *     anchored to the chain head and the gaps between the skeleton headers are then filled
+ *     from many peers in parallel. Each gap is requested downwards starting from the hash of its upper
+ *     skeleton header so every received header is checked to be the parent of the previous one
+ *     and the filled gap is checked to connect to the lower skeleton header
+ *     before its headers are added to the queue.
  */
 public class SyncQueueImpl implements SyncQueueIfc {
     static int MAX_CHAIN_LEN = MAX_IN_REQUEST;
+    // distance between the skeleton headers
+    static int SKELETON_STEP = MAX_IN_REQUEST;
+    static int MAX_SKELETON_SIZE = 128;
+    // a gap request which is not answered in this time is sent again
+    static long GAP_REQUEST_TIMEOUT = 10_000;
 
     static class HeadersRequestImpl implements HeadersRequest {
         public HeadersRequestImpl(long start, int count, boolean reverse) {
@@ -175,7 +192,93 @@ public class SyncQueueImpl implements SyncQueueIfc {
         }
     }
 
-    Map<Long, Map<ByteArrayWrapper, HeaderElement>> headers = new HashMap<>();
+    /**
+     * Header generations in an array indexed by the block number offset.
+     * The array is used as a ring buffer which covers the range of the stored numbers
+     * and grows when the range doesn't fit it
+     */
+    static class Generations<V> {
+        private Object[] gens = new Object[256];
+        // the range of the stored numbers, -1 when empty
+        private long low = -1;
+        private long high = -1;
+
+        @SuppressWarnings("unchecked")
+        V get(long num) {
+            if (low < 0 || num < low || num > high) return null;
+            return (V) gens[slot(num)];
+        }
+
+        boolean containsKey(long num) {
+            return get(num) != null;
+        }
+
+        void put(long num, V gen) {
+            if (low < 0) {
+                low = high = num;
+            } else {
+                long newLow = min(low, num);
+                long newHigh = max(high, num);
+                if (newHigh - newLow >= gens.length) {
+                    grow(newHigh - newLow + 1);
+                }
+                low = newLow;
+                high = newHigh;
+            }
+            gens[slot(num)] = gen;
+        }
+
+        void remove(long num) {
+            if (get(num) == null) return;
+            gens[slot(num)] = null;
+            while (low <= high && gens[slot(low)] == null) low++;
+            while (high >= low && gens[slot(high)] == null) high--;
+            if (low > high) low = high = -1;
+        }
+
+        private int slot(long num) {
+            return (int) (num & (gens.length - 1));
+        }
+
+        private void grow(long size) {
+            int length = gens.length;
+            while (length < size) length <<= 1;
+            Object[] newGens = new Object[length];
+            for (long num = low; num <= high; num++) {
+                newGens[(int) (num & (length - 1))] = gens[slot(num)];
+            }
+            gens = newGens;
+        }
+    }
+
+    /**
+     * The chain part between two skeleton headers, filled downwards from the upper one
+     */
+    static class SkeletonGap {
+        // the lower skeleton header
+        final BlockHeaderWrapper bottom;
+        // the headers chained to the upper skeleton header, in descending order
+        final List<BlockHeaderWrapper> headers = new ArrayList<>();
+        long requestedAt = 0;
+
+        SkeletonGap(BlockHeaderWrapper bottom, BlockHeaderWrapper top) {
+            this.bottom = bottom;
+            headers.add(top);
+        }
+
+        BlockHeaderWrapper getTop() {
+            return headers.get(headers.size() - 1);
+        }
+
+        boolean isFilled() {
+            return getTop().getNumber() == bottom.getNumber() + 1;
+        }
+    }
+
+    Generations<Map<ByteArrayWrapper, HeaderElement>> headers = new Generations<>();
+    // skeleton gaps by the number of the upper skeleton header
+    TreeMap<Long, SkeletonGap> skeleton = new TreeMap<>();
+    long lastSkeletonAnchor = -1;
 
     long minNum = Integer.MAX_VALUE;
     long maxNum = 0;
@@ -185,6 +288,7 @@ public class SyncQueueImpl implements SyncQueueIfc {
     Random rnd = new Random(); // ;)
 
     DependentBlockHeaderRule parentHeaderValidator = null;
+    LongSupplier bestKnownNumber = null;
 
     public SyncQueueImpl(List<Block> initBlocks) {
         init(initBlocks);
@@ -260,11 +364,6 @@ public class SyncQueueImpl implements SyncQueueIfc {
         return ret;
     }
 
-    private boolean hasGaps() {
-        List<HeaderElement> longestChain = getLongestChain();
-        return longestChain.get(longestChain.size() - 1).header.getNumber() < maxNum;
-    }
-
     private void trimChain() {
         List<HeaderElement> longestChain = getLongestChain();
         trimChainImpl(longestChain);
@@ -272,7 +371,7 @@ public class SyncQueueImpl implements SyncQueueIfc {
 
     private void trimChainImpl(List<HeaderElement> longestChain) {
         if (longestChain.size() > MAX_CHAIN_LEN) {
-            long newTrimNum = getLongestChain().get(longestChain.size() - MAX_CHAIN_LEN).header.getNumber();
+            long newTrimNum = longestChain.get(longestChain.size() - MAX_CHAIN_LEN).header.getNumber();
             for (int i = 0; darkZoneNum < newTrimNum; darkZoneNum++, i++) {
                 ByteArrayWrapper wHash = new ByteArrayWrapper(longestChain.get(i).header.getHash());
                 putGenHeaders(darkZoneNum, Collections.singletonMap(wHash, longestChain.get(i)));
@@ -328,10 +427,24 @@ public class SyncQueueImpl implements SyncQueueIfc {
     private List<HeadersRequest> requestHeadersImpl(int count, int maxRequests, int maxTotHeaderCount) {
         List<HeadersRequest> ret = new ArrayList<>();
 
+        List<HeaderElement> longestChain = getLongestChain();
+        BlockHeaderWrapper head = longestChain.get(longestChain.size() - 1).header;
+
+        // the gaps below the chain head are done
+        skeleton.headMap(head.getNumber(), true).clear();
+        if (!skeleton.isEmpty()) {
+            return requestSkeletonGaps(maxRequests);
+        }
+
+        HeadersRequest skeletonRequest = getSkeletonRequest(head, maxTotHeaderCount);
+        if (skeletonRequest != null) {
+            ret.add(skeletonRequest);
+            return ret;
+        }
+
         long startNumber;
-        if (hasGaps()) {
-            List<HeaderElement> longestChain = getLongestChain();
-            startNumber = longestChain.get(longestChain.size() - 1).header.getNumber();
+        if (head.getNumber() < maxNum) {
+            startNumber = head.getNumber();
             boolean reverse = rnd.nextBoolean();
             ret.add(new HeadersRequestImpl(startNumber, MAX_CHAIN_LEN, reverse));
             startNumber += reverse ? 1 : MAX_CHAIN_LEN;
@@ -350,6 +463,36 @@ public class SyncQueueImpl implements SyncQueueIfc {
         return ret;
     }
 
+    /**
+     * Returns the sparse request for the skeleton anchored to the chain head
+     * if the best known block is far enough, each chain head is tried once
+     */
+    private HeadersRequest getSkeletonRequest(BlockHeaderWrapper head, int maxTotHeaderCount) {
+        if (bestKnownNumber == null || head.getNumber() <= lastSkeletonAnchor) return null;
+
+        long end = min(bestKnownNumber.getAsLong(), minNum + (long) maxTotHeaderCount);
+        if (endBlockNumber != null) end = min(end, endBlockNumber);
+        long size = min(MAX_SKELETON_SIZE, (end - head.getNumber()) / SKELETON_STEP);
+        if (size < 2) return null;
+
+        lastSkeletonAnchor = head.getNumber();
+        return new HeadersRequestImpl(head.getHash(), (int) size + 1, false, SKELETON_STEP - 1);
+    }
+
+    private List<HeadersRequest> requestSkeletonGaps(int maxRequests) {
+        List<HeadersRequest> ret = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (SkeletonGap gap : skeleton.values()) {
+            if (ret.size() >= maxRequests) break;
+            if (gap.isFilled() || now - gap.requestedAt < GAP_REQUEST_TIMEOUT) continue;
+
+            gap.requestedAt = now;
+            BlockHeaderWrapper top = gap.getTop();
+            ret.add(new HeadersRequestImpl(top.getHash(), (int) (top.getNumber() - gap.bottom.getNumber()), true));
+        }
+        return ret;
+    }
+
     private HeadersRequestImpl getNextReq(long startFrom, int maxCount) {
         while(headers.containsKey(startFrom)) startFrom++;
         if (endBlockNumber != null && maxCount > endBlockNumber - startFrom + 1) {
@@ -360,18 +503,15 @@ public class SyncQueueImpl implements SyncQueueIfc {
 
     @Override
     public synchronized List<BlockHeaderWrapper> addHeaders(Collection<BlockHeaderWrapper> headers) {
-        for (BlockHeaderWrapper header : headers) {
-            addHeader(header);
-        }
+        addHeadersImpl(headers);
         trimChain();
         return null;
     }
 
     @Override
     public synchronized ValidatedHeaders addHeadersAndValidate(Collection<BlockHeaderWrapper> headers) {
-        for (BlockHeaderWrapper header : headers) {
-            addHeader(header);
-        }
+        ValidatedHeaders skeletonResult = addHeadersImpl(headers);
+        if (skeletonResult != null) return skeletonResult;
 
         List<HeaderElement> longestChain = getLongestChain();
 
@@ -391,6 +531,76 @@ public class SyncQueueImpl implements SyncQueueIfc {
         return ValidatedHeaders.Empty;
     }
 
+    /**
+     * Adds the skeleton, the skeleton gap part or the regular headers
+     * @return the invalid result if the headers don't match the skeleton, null otherwise
+     */
+    private ValidatedHeaders addHeadersImpl(Collection<BlockHeaderWrapper> headers) {
+        List<BlockHeaderWrapper> list = new ArrayList<>(headers);
+        if (list.size() > 1 && list.get(1).getNumber() - list.get(0).getNumber() == SKELETON_STEP) {
+            addSkeleton(list);
+            return null;
+        }
+
+        if (!list.isEmpty()) {
+            Map.Entry<Long, SkeletonGap> gap = skeleton.ceilingEntry(list.get(0).getNumber());
+            if (gap != null && list.get(0).getNumber() > gap.getValue().bottom.getNumber()) {
+                return fillSkeletonGap(gap.getValue(), list);
+            }
+        }
+
+        for (BlockHeaderWrapper header : list) {
+            addHeader(header);
+        }
+        return null;
+    }
+
+    private void addSkeleton(List<BlockHeaderWrapper> list) {
+        // the anchor must be on the chain, the skeleton may come after the head has moved
+        BlockHeaderWrapper anchor = list.get(0);
+        HeaderElement anchorElement = findHeaderElement(anchor.getHeader());
+        if (!skeleton.isEmpty() || anchorElement == null || !getLongestChain().contains(anchorElement)) return;
+
+        BlockHeaderWrapper bottom = anchor;
+        for (BlockHeaderWrapper top : list.subList(1, list.size())) {
+            if (top.getNumber() != bottom.getNumber() + SKELETON_STEP) break;
+            skeleton.put(top.getNumber(), new SkeletonGap(bottom, top));
+            bottom = top;
+        }
+    }
+
+    /**
+     * The headers are expected in descending order starting from the gap part which is already chained
+     * to the upper skeleton header. The filled gap is added to the queue
+     */
+    private ValidatedHeaders fillSkeletonGap(SkeletonGap gap, List<BlockHeaderWrapper> list) {
+        int idx = (int) (list.get(0).getNumber() - gap.getTop().getNumber());
+        // the response doesn't reach the top of the filled part
+        if (idx < 0 || idx >= list.size() || !Arrays.equals(list.get(idx).getHash(), gap.getTop().getHash())) return null;
+
+        for (BlockHeaderWrapper header : list.subList(idx + 1, list.size())) {
+            if (gap.isFilled()) break;
+            BlockHeaderWrapper child = gap.getTop();
+            if (header.getNumber() != child.getNumber() - 1 ||
+                    !Arrays.equals(child.getHeader().getParentHash(), header.getHash())) {
+                return new ValidatedHeaders(singletonList(header), false, "Header doesn't match the skeleton");
+            }
+            gap.headers.add(header);
+        }
+
+        if (gap.isFilled()) {
+            if (!Arrays.equals(gap.getTop().getHeader().getParentHash(), gap.bottom.getHash())) {
+                // the skeleton headers are not from the same chain
+                skeleton.clear();
+                return new ValidatedHeaders(singletonList(gap.bottom), false, "Skeleton is not a chain");
+            }
+            for (BlockHeaderWrapper header : gap.headers) {
+                addHeaderPriv(header);
+            }
+        }
+        return null;
+    }
+
     /**
      * Runs parent header validation and returns after first occurrence of invalid header
      */
@@ -530,6 +740,14 @@ public class SyncQueueImpl implements SyncQueueIfc {
         return this;
     }
 
+    /**
+     * Enables the skeleton download when the supplied best known block number is far ahead
+     */
+    public SyncQueueImpl withBestKnownNumber(LongSupplier bestKnownNumber) {
+        this.bestKnownNumber = bestKnownNumber;
+        return this;
+    }
+
 
     interface Visitor<T> {
         T visit(HeaderElement el, List<T> childrenRes);
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.trie;
+
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPWriter;
+
+import java.util.Arrays;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+
+/**
+ * Computes the root hash of the trie which maps RLP encoded list index to the list item
+ * (the block transactions and receipts tries) without building the trie nodes.
+ *
+ * <p>
+ *     Items are added in the list order. The trie keys are then inserted in the ascending order
+ *     (the item #0 which key {@code 0x80} goes after the keys of the items #1..#127 is postponed),
+ *     so only the path of the last inserted key is kept on a stack: a subtree is encoded
+ *     and hashed as soon as a key outside of it is inserted. Thus most of the work is done
+ *     while the items are added and {@link #getRootHash()} only completes the last path.
+ *
+ * <p>
+ *     Produces the same hash as {@link TrieImpl} with the same entries. The class is not thread safe
+ */
+public class ListTrieRoot {
+
+    private static final byte[] EMPTY_ELEMENT_RLP = RLP.encodeElement(null);
+    private static final int ITEM_ZERO_POSTPONED_TILL = 128;
+
+    private int size;
+    private byte[] itemZero;
+    private byte[] rootHash;
+
+    // the last inserted key (in nibbles) and value which leaf isn't encoded yet
+    private byte[] lastKey;
+    private byte[] lastValue;
+
+    // branches on the path of the last key: the nibble index and the children references
+    // (embedded node RLP or hash element RLP)
+    private int[] branchDepths = new int[8];
+    private byte[][][] branchChildren = new byte[8][][];
+    private int branches;
+
+    // the subtree which is being attached to the parent branch:
+    // the leaf of the last key if null or the branch RLP ending at the carriedDepth nibble
+    private byte[] carried;
+    private int carriedDepth;
+
+    public void add(byte[] item) {
+        if (rootHash != null) throw new IllegalStateException("Root hash is already calculated");
+        int idx = size++;
+        if (idx == 0) {
+            itemZero = item;
+            return;
+        }
+        if (idx == ITEM_ZERO_POSTPONED_TILL) {
+            insertItemZero();
+        }
+        insert(toNibbles(RLP.encodeInt(idx)), item);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Completes the calculation, no items can be added after this call
+     */
+    public byte[] getRootHash() {
+        if (rootHash == null) {
+            if (size == 0) {
+                rootHash = EMPTY_TRIE_HASH;
+            } else {
+                if (itemZero != null) insertItemZero();
+                carried = null;
+                while (branches > 0) {
+                    attachToTop();
+                }
+                rootHash = HashUtil.sha3(encodeCarried(-1));
+                lastKey = lastValue = carried = null;
+                branchChildren = null;
+            }
+        }
+        return rootHash;
+    }
+
+    private void insertItemZero() {
+        insert(toNibbles(RLP.encodeInt(0)), itemZero);
+        itemZero = null;
+    }
+
+    private void insert(byte[] key, byte[] value) {
+        if (lastKey != null) {
+            int common = 0;
+            while (common < lastKey.length && common < key.length && lastKey[common] == key[common]) common++;
+            if (common == lastKey.length || common == key.length || lastKey[common] > key[common]) {
+                throw new IllegalArgumentException("Keys should be inserted in the ascending order without prefixes");
+            }
+
+            // the subtrees below the divergence nibble are complete
+            carried = null;
+            while (branches > 0 && branchDepths[branches - 1] > common) {
+                attachToTop();
+            }
+            if (branches == 0 || branchDepths[branches - 1] < common) {
+                pushBranch(common);
+            }
+            branchChildren[branches - 1][lastKey[common]] = ref(encodeCarried(common));
+        }
+        lastKey = key;
+        lastValue = value;
+    }
+
+    /**
+     * Puts the carried subtree to the top branch and carries this branch further up
+     */
+    private void attachToTop() {
+        int depth = branchDepths[branches - 1];
+        byte[][] children = branchChildren[branches - 1];
+        children[lastKey[depth]] = ref(encodeCarried(depth));
+
+        RLPWriter writer = new RLPWriter().startList();
+        for (int i = 0; i < 16; i++) {
+            writer.writeEncoded(children[i] == null ? EMPTY_ELEMENT_RLP : children[i]);
+        }
+        carried = writer.writeElement(null).endList().toByteArray();
+        carriedDepth = depth;
+        branches--;
+    }
+
+    private void pushBranch(int depth) {
+        if (branches == branchDepths.length) {
+            branchDepths = Arrays.copyOf(branchDepths, branches * 2);
+            branchChildren = Arrays.copyOf(branchChildren, branches * 2);
+        }
+        if (branchChildren[branches] == null) {
+            branchChildren[branches] = new byte[16][];
+        } else {
+            Arrays.fill(branchChildren[branches], null);
+        }
+        branchDepths[branches++] = depth;
+    }
+
+    /**
+     * @return the RLP of the carried node which is the child of the branch at the parentDepth nibble
+     */
+    private byte[] encodeCarried(int parentDepth) {
+        if (carried == null) {
+            return new RLPWriter().startList()
+                    .writeElement(packNibbles(lastKey, parentDepth + 1, lastKey.length, true))
+                    .writeElement(lastValue)
+                    .endList().toByteArray();
+        }
+        if (carriedDepth == parentDepth + 1) {
+            return carried;
+        }
+        return new RLPWriter().startList()
+                .writeElement(packNibbles(lastKey, parentDepth + 1, carriedDepth, false))
+                .writeEncoded(ref(carried))
+                .endList().toByteArray();
+    }
+
+    private static byte[] ref(byte[] nodeRlp) {
+        return nodeRlp.length < 32 ? nodeRlp : RLP.encodeElement(HashUtil.sha3(nodeRlp));
+    }
+
+    /**
+     * Hex prefix encoding of the nibbles range, same as {@link TrieKey#toPacked()}
+     */
+    private static byte[] packNibbles(byte[] nibbles, int from, int to, boolean terminal) {
+        int len = to - from;
+        boolean odd = (len & 1) != 0;
+        byte[] ret = new byte[len / 2 + 1];
+        int flags = (odd ? TrieKey.ODD_OFFSET_FLAG : 0) | (terminal ? TrieKey.TERMINATOR_FLAG : 0);
+        ret[0] = (byte) (flags << 4);
+        if (odd) ret[0] |= nibbles[from++];
+        for (int i = 1; i < ret.length; i++, from += 2) {
+            ret[i] = (byte) ((nibbles[from] << 4) | nibbles[from + 1]);
+        }
+        return ret;
+    }
+
+    private static byte[] toNibbles(byte[] key) {
+        byte[] ret = new byte[key.length * 2];
+        for (int i = 0; i < key.length; i++) {
+            ret[i * 2] = (byte) ((key[i] >> 4) & 0xF);
+            ret[i * 2 + 1] = (byte) (key[i] & 0xF);
+        }
+        return ret;
+    }
+}
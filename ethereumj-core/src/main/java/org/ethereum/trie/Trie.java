@@ -17,12 +17,14 @@
  */
 package org.ethereum.trie;
 
-import org.ethereum.datasource.Source;
+import org.ethereum.datasource.BatchSource;
+
+import java.util.Map;
 
 /**
  * Created by Anton Nashatyrev on 05.10.2016.
  */
-public interface Trie<V> extends Source<byte[], V> {
+public interface Trie<V> extends BatchSource<byte[], V> {
 
     byte[] getRootHash();
 
@@ -32,4 +34,14 @@ public interface Trie<V> extends Source<byte[], V> {
      * Recursively delete all nodes from root
      */
     void clear();
+
+    /**
+     * Applies all the puts and deletes in one pass over the trie instead of
+     * descending from the root for every key. The result is the same as applying
+     * them one by one with {@link #put(Object, Object)}
+     * @param rows key-value pairs to update, the null or empty value deletes the key.
+     *             Any Map is accepted, the keys are sorted by implementation
+     */
+    @Override
+    void updateBatch(Map<byte[], V> rows);
 }
@@ -17,7 +17,6 @@
  */
 package org.ethereum.trie;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang3.text.StrBuilder;
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.Source;
@@ -26,21 +25,22 @@ import org.ethereum.datasource.inmem.HashMapDBSimple;
 import org.ethereum.net.swarm.Key;
 import org.ethereum.util.FastByteComparisons;
 import org.ethereum.util.RLP;
+import org.ethereum.util.RLPWriter;
 import org.ethereum.util.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 
-import static org.apache.commons.lang3.concurrent.ConcurrentUtils.constantFuture;
 import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
 import static org.ethereum.util.RLP.EMPTY_ELEMENT_RLP;
 import static org.ethereum.util.RLP.encodeElement;
-import static org.ethereum.util.RLP.encodeList;
 import static org.ethereum.util.ByteUtil.toHexString;
 
 /**
@@ -48,15 +48,32 @@ import static org.ethereum.util.ByteUtil.toHexString;
  */
 public class TrieImpl implements Trie<byte[]> {
     private final static Object NULL_NODE = new Object();
-    private final static int MIN_BRANCHES_CONCURRENTLY = 3;
-    private static ExecutorService executor;
+    // a branch node subtrees are encoded concurrently if at least this number of them are modified
+    private final static int MIN_BRANCHES_CONCURRENTLY = 2;
+    // subtrees are not forked while the current worker has enough queued tasks to be stolen
+    private final static int MAX_SURPLUS_TASKS = 3;
+    // a subtree is updated concurrently by the batch update if it has at least this number of keys
+    private final static int MIN_BATCH_CONCURRENTLY = 64;
+    private static volatile ForkJoinPool executor;
 
     private static final Logger logger = LoggerFactory.getLogger("state");
 
-    public static ExecutorService getExecutor() {
+    /**
+     * Fork/join pool shared by all the tries (state and contract storages)
+     * for the concurrent encoding, sized to the number of available processors
+     */
+    public static ForkJoinPool getExecutor() {
         if (executor == null) {
-            executor = Executors.newFixedThreadPool(4,
-                    new ThreadFactoryBuilder().setNameFormat("trie-calc-thread-%d").build());
+            synchronized (TrieImpl.class) {
+                if (executor == null) {
+                    executor = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("trie-calc-thread-" + thread.getPoolIndex());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, null, false);
+                }
+            }
         }
         return executor;
     }
@@ -119,90 +136,128 @@ public class TrieImpl implements Trie<byte[]> {
         }
 
         public byte[] encode() {
+            if (async && dirty && !ForkJoinTask.inForkJoinPool()) {
+                return getExecutor().invoke(ForkJoinTask.adapt(() -> encode(1, true)));
+            }
             return encode(1, true);
         }
         private byte[] encode(final int depth, boolean forceHash) {
             if (!dirty) {
                 return hash != null ? encodeElement(hash) : rlp;
             } else {
-                NodeType type = getType();
-                byte[] ret;
-                if (type == NodeType.BranchNode) {
-                    if (depth == 1 && async) {
-                        // parallelize encode() on the first trie level only and if there are at least
-                        // MIN_BRANCHES_CONCURRENTLY branches are modified
-                        final Object[] encoded = new Object[17];
-                        int encodeCnt = 0;
-                        for (int i = 0; i < 16; i++) {
-                            final Node child = branchNodeGetChild(i);
-                            if (child == null) {
-                                encoded[i] = EMPTY_ELEMENT_RLP;
-                            } else if (!child.dirty) {
-                                encoded[i] = child.encode(depth + 1, false);
-                            } else {
-                                encodeCnt++;
-                            }
-                        }
-                        for (int i = 0; i < 16; i++) {
-                            if (encoded[i] == null) {
-                                final Node child = branchNodeGetChild(i);
-                                if (encodeCnt >= MIN_BRANCHES_CONCURRENTLY) {
-                                    encoded[i] = getExecutor().submit(() -> child.encode(depth + 1, false));
-                                } else {
-                                    encoded[i] = child.encode(depth + 1, false);
-                                }
-                            }
-                        }
-                        byte[] value = branchNodeGetValue();
-                        encoded[16] = constantFuture(encodeElement(value));
-                        try {
-                            ret = encodeRlpListFutures(encoded);
-                        } catch (Exception e) {
-                            throw new RuntimeException(e);
+                return encodeDirty(depth, forceHash) ? rlp : encodeElement(hash);
+            }
+        }
+
+        /**
+         * Writes the reference to this node (embedded node RLP or node hash) to the parent node writer
+         * Does the same as {@link #encode(int, boolean)} without the intermediate hash element encoding
+         */
+        private void encodeRef(RLPWriter writer, final int depth) {
+            boolean embedded = dirty ? encodeDirty(depth, false) : hash == null;
+            if (embedded) {
+                writer.writeEncoded(rlp);
+            } else {
+                writer.writeElement(hash);
+            }
+        }
+
+        /**
+         * Encodes the modified node storing it to the cache when it's not embedded into the parent
+         * @return true if the node should be embedded into the parent as {@link #rlp}, false
+         * if it should be referenced by the {@link #hash}
+         */
+        private boolean encodeDirty(final int depth, boolean forceHash) {
+            NodeType type = getType();
+            byte[] ret;
+            if (type == NodeType.BranchNode) {
+                Node[] children = new Node[16];
+                for (int i = 0; i < 16; i++) {
+                    children[i] = branchNodeGetChild(i);
+                }
+                List<ForkJoinTask<Boolean>> forked = async ? forkDirtyChildren(children, depth) : null;
+
+                RLPWriter writer = new RLPWriter().startList();
+                for (int i = 0; i < 16; i++) {
+                    Node child = children[i];
+                    if (child == null) {
+                        writer.writeEncoded(EMPTY_ELEMENT_RLP);
+                    } else if (forked != null && forked.get(i) != null) {
+                        if (forked.get(i).join()) {
+                            writer.writeEncoded(child.rlp);
+                        } else {
+                            writer.writeElement(child.hash);
                         }
                     } else {
-                        byte[][] encoded = new byte[17][];
-                        for (int i = 0; i < 16; i++) {
-                            Node child = branchNodeGetChild(i);
-                            encoded[i] = child == null ? EMPTY_ELEMENT_RLP : child.encode(depth + 1, false);
-                        }
-                        byte[] value = branchNodeGetValue();
-                        encoded[16] = encodeElement(value);
-                        ret = encodeList(encoded);
+                        child.encodeRef(writer, depth + 1);
                     }
-                } else if (type == NodeType.KVNodeNode) {
-                    ret = encodeList(encodeElement(kvNodeGetKey().toPacked()), kvNodeGetChildNode().encode(depth + 1, false));
-                } else {
-                    byte[] value = kvNodeGetValue();
-                    ret = encodeList(encodeElement(kvNodeGetKey().toPacked()),
-                                    encodeElement(value == null ? EMPTY_BYTE_ARRAY : value));
-                }
-                if (hash != null) {
-                    deleteHash(hash);
-                }
-                dirty = false;
-                if (ret.length < 32 && !forceHash) {
-                    rlp = ret;
-                    return ret;
-                } else {
-                    hash = HashUtil.sha3(ret);
-                    addHash(hash, ret);
-                    return encodeElement(hash);
                 }
+                ret = writer.writeElement(branchNodeGetValue()).endList().toByteArray();
+            } else if (type == NodeType.KVNodeNode) {
+                RLPWriter writer = new RLPWriter().startList().writeElement(kvNodeGetKey().toPacked());
+                kvNodeGetChildNode().encodeRef(writer, depth + 1);
+                ret = writer.endList().toByteArray();
+            } else {
+                byte[] value = kvNodeGetValue();
+                ret = new RLPWriter().startList()
+                        .writeElement(kvNodeGetKey().toPacked())
+                        .writeElement(value == null ? EMPTY_BYTE_ARRAY : value)
+                        .endList().toByteArray();
+            }
+            if (hash != null) {
+                deleteHash(hash);
+            }
+            dirty = false;
+            if (ret.length < 32 && !forceHash) {
+                rlp = ret;
+                return true;
+            } else {
+                hash = HashUtil.sha3(ret);
+                addHash(hash, ret);
+                return false;
             }
         }
 
-        @SafeVarargs
-        private final byte[] encodeRlpListFutures(Object... list) throws ExecutionException, InterruptedException {
-            byte[][] vals = new byte[list.length][];
-            for (int i = 0; i < list.length; i++) {
-                if (list[i] instanceof Future) {
-                    vals[i] = ((Future<byte[]>) list[i]).get();
-                } else {
-                    vals[i] = (byte[]) list[i];
+        /**
+         * Forks the encoding of the modified child subtrees when running in the fork/join pool
+         * and there is enough work: at least {@link #MIN_BRANCHES_CONCURRENTLY} non-leaf children
+         * are modified and the current worker doesn't have much queued work yet.
+         * The last of such subtrees is encoded by the current thread.
+         * @return the tasks by child index or null if nothing forked
+         */
+        private List<ForkJoinTask<Boolean>> forkDirtyChildren(Node[] children, final int depth) {
+            if (!ForkJoinTask.inForkJoinPool() || ForkJoinTask.getSurplusQueuedTaskCount() > MAX_SURPLUS_TASKS) {
+                return null;
+            }
+            int dirtyCnt = 0;
+            int last = -1;
+            for (int i = 0; i < 16; i++) {
+                if (isHeavyDirty(children[i])) {
+                    dirtyCnt++;
+                    last = i;
                 }
             }
-            return encodeList(vals);
+            if (dirtyCnt < MIN_BRANCHES_CONCURRENTLY) return null;
+
+            List<ForkJoinTask<Boolean>> ret = new ArrayList<>(Collections.nCopies(16, null));
+            for (int i = 0; i < 16; i++) {
+                final Node child = children[i];
+                if (isHeavyDirty(child)) {
+                    ForkJoinTask<Boolean> task = ForkJoinTask.adapt(() -> child.encodeDirty(depth + 1, false));
+                    ret.set(i, task);
+                    if (i < last) {
+                        task.fork();
+                    } else {
+                        task.invoke();
+                    }
+                }
+            }
+            return ret;
+        }
+
+        private boolean isHeavyDirty(Node node) {
+            // modified leaf is just a single node to encode and not worth a separate task
+            return node != null && node.dirty && node.getType() != NodeType.KVNodeValue;
         }
 
         private void parse() {
@@ -290,7 +345,9 @@ public class TrieImpl implements Trie<byte[]> {
                     if (cnt > 1) return -1;
                 }
             }
-            return cnt > 0 ? idx : (branchNodeGetValue() == null ? -1 : 16);
+            // a single child can't be compacted while the node holds a value
+            if (cnt > 0) return branchNodeGetValue() == null ? idx : -1;
+            return branchNodeGetValue() == null ? -1 : 16;
         }
         public boolean branchNodeCanCompact() {
             parse();
@@ -587,7 +644,6 @@ public class TrieImpl implements Trie<byte[]> {
 
     private Node delete(Node n, TrieKey k) {
         NodeType type = n.getType();
-        Node newKvNode;
         if (type == NodeType.BranchNode) {
             if (k.isEmpty())  {
                 n.branchNodeSetValue(null);
@@ -602,16 +658,7 @@ public class TrieImpl implements Trie<byte[]> {
             }
 
             // child node or value was deleted and the branch node may need to be compacted
-            int compactIdx = n.branchNodeCompactIdx();
-            if (compactIdx < 0) return n; // no compaction is required
-
-            // only value or a single child left - compact branch node to kvNode
-            n.dispose();
-            if (compactIdx == 16) { // only value left
-                return new Node(TrieKey.empty(true), n.branchNodeGetValue());
-            } else { // only single child left
-                newKvNode = new Node(TrieKey.singleHex(compactIdx), n.branchNodeGetChild(compactIdx));
-            }
+            return compactBranch(n);
         } else { // n - kvNode
             TrieKey k1 = k.matchAndShift(n.kvNodeGetKey());
             if (k1 == null) {
@@ -629,11 +676,26 @@ public class TrieImpl implements Trie<byte[]> {
             } else {
                 Node newChild = delete(n.kvNodeGetChildNode(), k1);
                 if (newChild == null) throw new RuntimeException("Shouldn't happen");
-                newKvNode = n.kvNodeSetValueOrNode(newChild);
+                return compactKvNode(n.kvNodeSetValueOrNode(newChild));
             }
         }
+    }
+
+    private Node compactBranch(Node n) {
+        int compactIdx = n.branchNodeCompactIdx();
+        if (compactIdx < 0) return n; // no compaction is required
+
+        // only value or a single child left - compact branch node to kvNode
+        n.dispose();
+        if (compactIdx == 16) { // only value left
+            return new Node(TrieKey.empty(true), n.branchNodeGetValue());
+        } else { // only single child left
+            return compactKvNode(new Node(TrieKey.singleHex(compactIdx), n.branchNodeGetChild(compactIdx)));
+        }
+    }
 
-        // if we get here a new kvNode was created, now need to check
+    private Node compactKvNode(Node newKvNode) {
+        // a new kvNode was created, now need to check
         // if it should be compacted with child kvNode
         Node newChild = newKvNode.kvNodeGetChildNode();
         if (newChild.getType() != NodeType.BranchNode) {
@@ -649,6 +711,149 @@ public class TrieImpl implements Trie<byte[]> {
         }
     }
 
+    @Override
+    public void updateBatch(Map<byte[], byte[]> rows) {
+        if (rows.isEmpty()) return;
+
+        List<Map.Entry<byte[], byte[]>> entries = new ArrayList<>(rows.size());
+        for (Map.Entry<byte[], byte[]> entry : rows.entrySet()) {
+            entries.add(entry);
+        }
+        entries.sort((e1, e2) -> FastByteComparisons.compareTo(
+                e1.getKey(), 0, e1.getKey().length, e2.getKey(), 0, e2.getKey().length));
+
+        final TrieKey[] keys = new TrieKey[entries.size()];
+        final byte[][] values = new byte[entries.size()][];
+        int cnt = 0;
+        byte[] prevKey = null;
+        for (Map.Entry<byte[], byte[]> entry : entries) {
+            // the same key could be passed twice in a non byte[] aware Map, the later wins
+            if (prevKey != null && FastByteComparisons.equal(prevKey, entry.getKey())) cnt--;
+            prevKey = entry.getKey();
+            byte[] value = entry.getValue();
+            keys[cnt] = TrieKey.fromNormal(prevKey);
+            values[cnt++] = value == null || value.length == 0 ? null : value;
+        }
+
+        final int size = cnt;
+        final Node n = root;
+        if (async && size >= MIN_BATCH_CONCURRENTLY && !ForkJoinTask.inForkJoinPool()) {
+            root = getExecutor().invoke(ForkJoinTask.adapt(() -> update(n, keys, values, 0, size)));
+        } else {
+            root = update(n, keys, values, 0, size);
+        }
+    }
+
+    /**
+     * Applies the sorted updates [from, to) to the subtree. The keys are shifted
+     * in place while descending, so the ranges of different subtrees
+     * can be updated concurrently
+     */
+    private Node update(Node n, TrieKey[] keys, byte[][] values, int from, int to) {
+        // until the node covers the whole range (i.e. the updates don't change its
+        // structure above the children) the updates are applied one by one
+        while (from < to && !coversRange(n, keys, from, to)) {
+            n = update(n, keys[from], values[from]);
+            from++;
+        }
+        if (from == to) return n;
+
+        if (n.getType() == NodeType.BranchNode) {
+            return updateBranch(n, keys, values, from, to);
+        } else {
+            TrieKey nodeKey = n.kvNodeGetKey();
+            for (int i = from; i < to; i++) {
+                keys[i] = keys[i].shift(nodeKey.getLength());
+            }
+            Node newChild = update(n.kvNodeGetChildNode(), keys, values, from, to);
+            if (newChild == null) {
+                n.dispose();
+                return null;
+            }
+            return compactKvNode(n.kvNodeSetValueOrNode(newChild));
+        }
+    }
+
+    private Node update(Node n, TrieKey k, byte[] value) {
+        if (n == null) {
+            return value == null ? null : new Node(k, value);
+        } else {
+            return value == null ? delete(n, k) : insert(n, k, value);
+        }
+    }
+
+    private boolean coversRange(Node n, TrieKey[] keys, int from, int to) {
+        if (n == null || to - from < 2) return false;
+        NodeType type = n.getType();
+        if (type == NodeType.BranchNode) return true;
+        if (type == NodeType.KVNodeValue) return false; // the keys are distinct, so at most one matches
+        // the keys are sorted, so all of them have the same prefix if the first and the last have
+        TrieKey nodeKey = n.kvNodeGetKey();
+        return keys[from].matchAndShift(nodeKey) != null && keys[to - 1].matchAndShift(nodeKey) != null;
+    }
+
+    /**
+     * Updates the children of the branch node with the adjacent ranges of keys
+     * starting with the same hex. When running in the fork/join pool the ranges
+     * of at least {@link #MIN_BATCH_CONCURRENTLY} keys are updated concurrently
+     */
+    private Node updateBranch(Node n, TrieKey[] keys, byte[][] values, int from, int to) {
+        boolean hasDeletes = false;
+        for (int i = from; i < to; i++) {
+            hasDeletes |= values[i] == null;
+        }
+
+        if (keys[from].isEmpty()) {
+            n.branchNodeSetValue(values[from]);
+            from++;
+        }
+
+        int[] hexes = new int[16];
+        int[] starts = new int[17];
+        int groups = 0;
+        int lastHeavy = -1;
+        for (int i = from; i < to; groups++) {
+            hexes[groups] = keys[i].getHex(0);
+            starts[groups] = i;
+            do {
+                keys[i] = keys[i].shift(1);
+                i++;
+            } while (i < to && keys[i].getHex(0) == hexes[groups]);
+            if (i - starts[groups] >= MIN_BATCH_CONCURRENTLY) lastHeavy = groups;
+        }
+        starts[groups] = to;
+
+        boolean fork = async && ForkJoinTask.inForkJoinPool() &&
+                ForkJoinTask.getSurplusQueuedTaskCount() <= MAX_SURPLUS_TASKS;
+        Node[] newChildren = new Node[groups];
+        List<ForkJoinTask<Node>> forked = new ArrayList<>(Collections.nCopies(groups, null));
+        for (int g = 0; g < groups; g++) {
+            final Node child = n.branchNodeGetChild(hexes[g]);
+            final int start = starts[g], end = starts[g + 1];
+            if (fork && g < lastHeavy && end - start >= MIN_BATCH_CONCURRENTLY) {
+                forked.set(g, ForkJoinTask.adapt(() -> update(child, keys, values, start, end)).fork());
+            } else {
+                newChildren[g] = update(child, keys, values, start, end);
+            }
+        }
+        for (int g = 0; g < groups; g++) {
+            n.branchNodeSetChild(hexes[g], forked.get(g) != null ? forked.get(g).join() : newChildren[g]);
+        }
+
+        if (!hasDeletes) return n;
+
+        // unlike a single delete several children can be removed and the node may become empty
+        boolean empty = n.branchNodeGetValue() == null;
+        for (int i = 0; i < 16 && empty; i++) {
+            empty = n.branchNodeGetChild(i) == null;
+        }
+        if (empty) {
+            n.dispose();
+            return null;
+        }
+        return compactBranch(n);
+    }
+
     @Override
     public byte[] getRootHash() {
         encode();
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.util;
+
+import java.util.*;
+
+/**
+ * Open addressing {@code byte[]} keyed map which stores fixed length keys inline
+ * in a single {@code byte[]} slab instead of wrapping each key into
+ * {@link org.ethereum.db.ByteArrayWrapper} and {@link HashMap} entry.
+ *
+ * <p>
+ *     The key length is fixed on creation: 32 bytes for hashes by default or 20 bytes
+ *     for addresses. Keys of any other length are stored to the backing {@link ByteArrayMap}
+ *     so any key is still accepted.
+ *
+ * <p>
+ *     The slot index is derived from the leading and trailing 8 bytes of the key
+ *     without scanning the whole key: these are uniformly distributed for Keccak hashes
+ *     and addresses while the trailing bytes cover numeric keys
+ *     (like {@link org.ethereum.datasource.XorDataSource} right aligned indexes)
+ *
+ * <p>
+ *     Like {@link HashMap} the class is not thread safe.
+ *     Iterators return copies of the keys and support {@link Iterator#remove()}
+ */
+public class CompactByteArrayMap<V> extends AbstractMap<byte[], V> {
+
+    private static final Object NULL_VALUE = new Object();
+    private static final Object REMOVED = new Object();
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_LOAD_PERCENT = 60;
+
+    public static final int HASH_KEY_LENGTH = 32;
+    public static final int ADDRESS_KEY_LENGTH = 20;
+
+    private final int keyLength;
+    private byte[] keys;
+    // null - free slot, REMOVED - removed entry, NULL_VALUE - entry with null value
+    private Object[] values;
+    private int size;
+    // live + removed slots
+    private int used;
+    private int mask;
+    private int modCount;
+
+    private ByteArrayMap<V> otherKeys;
+
+    public CompactByteArrayMap() {
+        this(HASH_KEY_LENGTH);
+    }
+
+    public CompactByteArrayMap(int keyLength) {
+        this(keyLength, MIN_CAPACITY);
+    }
+
+    public CompactByteArrayMap(int keyLength, int expectedSize) {
+        this.keyLength = keyLength;
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD_PERCENT / 100 < expectedSize) capacity <<= 1;
+        keys = new byte[capacity * keyLength];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Creates the set of 32 bytes hashes backed by a {@link CompactByteArrayMap}
+     */
+    public static Set<byte[]> newSet() {
+        return newSet(HASH_KEY_LENGTH);
+    }
+
+    public static Set<byte[]> newSet(int keyLength) {
+        return Collections.newSetFromMap(new CompactByteArrayMap<Boolean>(keyLength));
+    }
+
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    @Override
+    public int size() {
+        return size + (otherKeys == null ? 0 : otherKeys.size());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        byte[] k = (byte[]) key;
+        if (k.length != keyLength) return otherKeys != null && otherKeys.containsKey(k);
+        return find(k) >= 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        byte[] k = (byte[]) key;
+        if (k.length != keyLength) return otherKeys == null ? null : otherKeys.get(k);
+        int idx = find(k);
+        return idx < 0 ? null : unmask(values[idx]);
+    }
+
+    @Override
+    public V put(byte[] key, V value) {
+        if (key.length != keyLength) {
+            if (otherKeys == null) otherKeys = new ByteArrayMap<>();
+            return otherKeys.put(key, value);
+        }
+
+        int idx = find(key);
+        if (idx >= 0) {
+            V old = unmask(values[idx]);
+            values[idx] = mask(value);
+            return old;
+        }
+
+        if ((used + 1) * 100 > values.length * MAX_LOAD_PERCENT) {
+            // grow only if live entries take the space, otherwise just purge removed slots
+            rehash(size * 2 * 100 > values.length * MAX_LOAD_PERCENT ? values.length << 1 : values.length);
+        }
+        idx = freeSlot(key);
+        if (values[idx] == null) used++;
+        System.arraycopy(key, 0, keys, idx * keyLength, keyLength);
+        values[idx] = mask(value);
+        size++;
+        modCount++;
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        byte[] k = (byte[]) key;
+        if (k.length != keyLength) return otherKeys == null ? null : otherKeys.remove(k);
+        int idx = find(k);
+        if (idx < 0) return null;
+        return removeAt(idx);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+        used = 0;
+        otherKeys = null;
+        modCount++;
+    }
+
+    @Override
+    public Set<Entry<byte[], V>> entrySet() {
+        return new AbstractSet<Entry<byte[], V>>() {
+            @Override
+            public Iterator<Entry<byte[], V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return CompactByteArrayMap.this.size();
+            }
+
+            @Override
+            public void clear() {
+                CompactByteArrayMap.this.clear();
+            }
+        };
+    }
+
+    private V removeAt(int idx) {
+        V old = unmask(values[idx]);
+        // the slot can be freed if it terminates the probe chain
+        if (values[(idx + 1) & mask] == null) {
+            values[idx] = null;
+            used--;
+        } else {
+            values[idx] = REMOVED;
+        }
+        size--;
+        modCount++;
+        return old;
+    }
+
+    private int find(byte[] key) {
+        int idx = slot(key);
+        while (true) {
+            Object v = values[idx];
+            if (v == null) return -1;
+            if (v != REMOVED && keyEquals(idx, key)) return idx;
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    private int freeSlot(byte[] key) {
+        int idx = slot(key);
+        while (values[idx] != null && values[idx] != REMOVED) {
+            idx = (idx + 1) & mask;
+        }
+        return idx;
+    }
+
+    private void rehash(int newCapacity) {
+        byte[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new byte[newCapacity * keyLength];
+        values = new Object[newCapacity];
+        mask = newCapacity - 1;
+        used = size;
+        byte[] key = new byte[keyLength];
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null && oldValues[i] != REMOVED) {
+                System.arraycopy(oldKeys, i * keyLength, key, 0, keyLength);
+                int idx = freeSlot(key);
+                System.arraycopy(key, 0, keys, idx * keyLength, keyLength);
+                values[idx] = oldValues[i];
+            }
+        }
+    }
+
+    private boolean keyEquals(int idx, byte[] key) {
+        return FastByteComparisons.compareTo(keys, idx * keyLength, keyLength, key, 0, keyLength) == 0;
+    }
+
+    private int slot(byte[] key) {
+        long h;
+        if (key.length >= 8) {
+            h = readLong(key, 0) * 0x9E3779B97F4A7C15L + readLong(key, key.length - 8);
+        } else {
+            h = Arrays.hashCode(key);
+        }
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static long readLong(byte[] b, int off) {
+        return  ((long) b[off] << 56) |
+                ((long) (b[off + 1] & 0xFF) << 48) |
+                ((long) (b[off + 2] & 0xFF) << 40) |
+                ((long) (b[off + 3] & 0xFF) << 32) |
+                ((long) (b[off + 4] & 0xFF) << 24) |
+                ((long) (b[off + 5] & 0xFF) << 16) |
+                ((long) (b[off + 6] & 0xFF) << 8) |
+                ((long) (b[off + 7] & 0xFF));
+    }
+
+    private static Object mask(Object value) {
+        return value == null ? NULL_VALUE : value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V unmask(Object value) {
+        return value == NULL_VALUE ? null : (V) value;
+    }
+
+    private class EntryIterator implements Iterator<Entry<byte[], V>> {
+        private final Iterator<Entry<byte[], V>> otherIt =
+                otherKeys == null ? Collections.<Entry<byte[], V>>emptyIterator() : otherKeys.entrySet().iterator();
+        private int expectedModCount = modCount;
+        private int next = advance(0);
+        private int current = -1;
+        private boolean otherCurrent;
+
+        private int advance(int from) {
+            while (from < values.length && (values[from] == null || values[from] == REMOVED)) from++;
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < values.length || otherIt.hasNext();
+        }
+
+        @Override
+        public Entry<byte[], V> next() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (next < values.length) {
+                current = next;
+                otherCurrent = false;
+                next = advance(next + 1);
+                byte[] key = Arrays.copyOfRange(keys, current * keyLength, (current + 1) * keyLength);
+                return new SimpleImmutableEntry<>(key, CompactByteArrayMap.<V>unmask(values[current]));
+            }
+            otherCurrent = true;
+            return otherIt.next();
+        }
+
+        @Override
+        public void remove() {
+            if (otherCurrent) {
+                otherIt.remove();
+                return;
+            }
+            if (current < 0) throw new IllegalStateException();
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            removeAt(current);
+            expectedModCount = modCount;
+            current = -1;
+        }
+    }
+}
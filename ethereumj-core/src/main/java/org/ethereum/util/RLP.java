@@ -500,7 +500,9 @@ public class RLP {
 
             while (pos < endPos) {
 
-                logger.debug("fullTraverse: level: " + level + " startPos: " + pos + " endPos: " + endPos);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("fullTraverse: level: " + level + " startPos: " + pos + " endPos: " + endPos);
+                }
 
 
                 // It's a list with a payload more than 55 bytes
@@ -686,10 +688,19 @@ public class RLP {
         }
     }
 
+    /**
+     * Flyweight RLP list: keeps the offsets of the list elements within the original
+     * RLP buffer and materializes the element bytes only on demand.
+     * Nested lists are parsed only when requested via {@link #getList(int)}
+     */
     public static final class LList {
         private final byte[] rlp;
-        private final int[] offsets = new int[32];
-        private final int[] lens = new int[32];
+        // start of the element encoding (including prefix)
+        private int[] starts = new int[16];
+        // start of the element payload
+        private int[] offsets = new int[16];
+        // payload length (encoded as -1 - len for lists)
+        private int[] lens = new int[16];
         private int cnt;
 
         public LList(byte[] rlp) {
@@ -705,30 +716,141 @@ public class RLP {
         }
 
         public void add(int off, int len, boolean isList) {
+            add(off, off, len, isList);
+        }
+
+        void add(int start, int off, int len, boolean isList) {
+            if (cnt == offsets.length) {
+                starts = Arrays.copyOf(starts, cnt * 2);
+                offsets = Arrays.copyOf(offsets, cnt * 2);
+                lens = Arrays.copyOf(lens, cnt * 2);
+            }
+            starts[cnt] = start;
             offsets[cnt] = off;
             lens[cnt] = isList ? (-1 - len) : len;
             cnt++;
         }
 
+        /**
+         * @return the copy of the item payload, empty array for empty item
+         */
         public byte[] getBytes(int idx) {
-            int len = lens[idx];
-            len = len < 0 ? (-len - 1) : len;
+            int len = getLength(idx);
             byte[] ret = new byte[len];
             System.arraycopy(rlp, offsets[idx], ret, 0, len);
             return ret;
         }
 
+        /**
+         * Same as {@link RLPElement#getRLPData()} for the corresponding element of {@link #decode2(byte[])}:
+         * the item payload or null if the item is empty,
+         * the whole element encoding for a list
+         */
+        public byte[] getRLPData(int idx) {
+            checkIndex(idx);
+            if (isList(idx)) {
+                return copyOfRange(rlp, starts[idx], offsets[idx] + getLength(idx));
+            }
+            return lens[idx] == 0 ? null : getBytes(idx);
+        }
+
         public LList getList(int idx) {
-            return decodeLazyList(rlp, offsets[idx], -lens[idx] - 1);
+            if (!isList(idx)) throw new RuntimeException("RLP element #" + idx + " is not a list");
+            return decodeLazyList(rlp, offsets[idx], getLength(idx));
         }
 
         public boolean isList(int idx) {
+            checkIndex(idx);
             return lens[idx] < 0;
         }
 
+        public boolean isEmpty(int idx) {
+            return getLength(idx) == 0;
+        }
+
+        public int getInt(int idx) {
+            return (int) getLong(idx);
+        }
+
+        /**
+         * @return the lowest 64 bits of the item value same as {@link ByteUtil#byteArrayToLong(byte[])}
+         */
+        public long getLong(int idx) {
+            int len = getLength(idx);
+            long ret = 0;
+            for (int i = 0; i < len; i++) {
+                ret = (ret << 8) | (rlp[offsets[idx] + i] & 0xFF);
+            }
+            return ret;
+        }
+
+        public BigInteger getBigInteger(int idx) {
+            int len = getLength(idx);
+            return len == 0 ? BigInteger.ZERO : new BigInteger(1, copyOfRange(rlp, offsets[idx], offsets[idx] + len));
+        }
+
+        /**
+         * @return the underlying RLP buffer, use with {@link #getOffset(int)} and {@link #getLength(int)}
+         * to access the element payload without copying
+         */
+        public byte[] getData() {
+            return rlp;
+        }
+
+        public int getOffset(int idx) {
+            checkIndex(idx);
+            return offsets[idx];
+        }
+
+        public int getLength(int idx) {
+            checkIndex(idx);
+            int len = lens[idx];
+            return len < 0 ? (-len - 1) : len;
+        }
+
         public int size() {
             return cnt;
         }
+
+        private void checkIndex(int idx) {
+            if (idx >= cnt) throw new IndexOutOfBoundsException("Index: " + idx + ", size: " + cnt);
+        }
+    }
+
+    /**
+     * Receives the RLP elements while {@link #traverse(byte[], Visitor)} walks over the RLP buffer.
+     * Element payloads are passed as offset and length within the buffer without copying
+     */
+    public interface Visitor {
+
+        /**
+         * @return true to visit the elements of this list
+         */
+        boolean visitList(byte[] data, int offset, int length);
+
+        void visitItem(byte[] data, int offset, int length);
+    }
+
+    /**
+     * Walks over all the RLP elements in the buffer without building intermediate objects
+     */
+    public static void traverse(byte[] data, Visitor visitor) {
+        traverse(data, 0, data.length, visitor, 0);
+    }
+
+    private static void traverse(byte[] data, int pos, int length, Visitor visitor, int level) {
+        if (level > MAX_DEPTH) {
+            throw new RuntimeException(String.format("Error: Traversing over max RLP depth (%s)", MAX_DEPTH));
+        }
+        parseElements(data, pos, length, (start, off, len, isList) -> {
+            if (isList) {
+                if (visitor.visitList(data, off, len)) {
+                    traverse(data, off, len, visitor, level + 1);
+                }
+            } else {
+                visitor.visitItem(data, off, len);
+            }
+        });
     }
 
     public static LList decodeLazyList(byte[] data) {
@@ -740,43 +862,66 @@ public class RLP {
             return null;
         }
         LList ret = new LList(data);
+        parseElements(data, pos, length, ret::add);
+        return ret;
+    }
+
+    private interface ElementConsumer {
+        void accept(int start, int off, int len, boolean isList);
+    }
+
+    /**
+     * Parses the elements of a single RLP level checking they are canonically encoded
+     * and fit into the [pos, pos + length) range
+     */
+    private static void parseElements(byte[] data, int pos, int length, ElementConsumer consumer) {
         int end = pos + length;
 
         while(pos < end) {
             int prefix = data[pos] & 0xFF;
             if (prefix == OFFSET_SHORT_ITEM) {  // 0x80
-                ret.add(pos, 0, false); // means no length or 0
+                consumer.accept(pos, pos + 1, 0, false); // means no length or 0
                 pos++;
             } else if (prefix < OFFSET_SHORT_ITEM) {  // [0x00, 0x7f]
-                ret.add(pos, 1, false); // means no length or 0
+                consumer.accept(pos, pos, 1, false); // byte is its own RLP encoding
                 pos++;
             } else if (prefix <= OFFSET_LONG_ITEM) {  // [0x81, 0xb7]
                 int len = prefix - OFFSET_SHORT_ITEM; // length of the encoded bytes
-                ret.add(pos + 1, len, false);
+                verifyLength(len, end - pos - 1);
+                if (len == 1 && (data[pos + 1] & 0xFF) < OFFSET_SHORT_ITEM) {
+                    throw new RuntimeException("Single byte has been encoded as byte string");
+                }
+                consumer.accept(pos, pos + 1, len, false);
                 pos += len + 1;
             } else if (prefix < OFFSET_SHORT_LIST) {  // [0xb8, 0xbf]
                 int lenlen = prefix - OFFSET_LONG_ITEM; // length of length the encoded bytes
-                int lenbytes = byteArrayToInt(copyOfRange(data, pos + 1, pos + 1 + lenlen)); // length of encoded bytes
+                verifyLength(lenlen, end - pos - 1);
+                int lenbytes = calcLength(lenlen, data, pos); // length of encoded bytes
+                if (lenbytes < SIZE_THRESHOLD) {
+                    throw new RuntimeException("Short item has been encoded as long item");
+                }
                 // check that length is in payload bounds
-                verifyLength(lenbytes, data.length - pos - 1 - lenlen);
-                ret.add(pos + 1 + lenlen, lenbytes, false);
+                verifyLength(lenbytes, end - pos - 1 - lenlen);
+                consumer.accept(pos, pos + 1 + lenlen, lenbytes, false);
                 pos += 1 + lenlen + lenbytes;
             } else if (prefix <= OFFSET_LONG_LIST) {  // [0xc0, 0xf7]
                 int len = prefix - OFFSET_SHORT_LIST; // length of the encoded list
-                ret.add(pos + 1, len, true);
+                verifyLength(len, end - pos - 1);
+                consumer.accept(pos, pos + 1, len, true);
                 pos += 1 + len;
-            } else if (prefix <= 0xFF) {  // [0xf8, 0xff]
+            } else {  // [0xf8, 0xff]
                 int lenlen = prefix - OFFSET_LONG_LIST; // length of length the encoded list
-                int lenlist = byteArrayToInt(copyOfRange(data, pos + 1, pos + 1 + lenlen)); // length of encoded bytes
+                verifyLength(lenlen, end - pos - 1);
+                int lenlist = calcLength(lenlen, data, pos); // length of encoded bytes
+                if (lenlist < SIZE_THRESHOLD) {
+                    throw new RuntimeException("Short list has been encoded as long list");
+                }
                 // check that length is in payload bounds
-                verifyLength(lenlist, data.length - pos - 1 - lenlen);
-                ret.add(pos + 1 + lenlen, lenlist, true);
+                verifyLength(lenlist, end - pos - 1 - lenlen);
+                consumer.accept(pos, pos + 1 + lenlen, lenlist, true);
                 pos += 1 + lenlen + lenlist; // start at position of first element in list
-            } else {
-                throw new RuntimeException("Only byte values between 0x00 and 0xFF are supported, but got: " + prefix);
             }
         }
-        return ret;
     }
 
 
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.util;
+
+import io.netty.buffer.ByteBuf;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.spongycastle.util.BigIntegers.asUnsignedByteArray;
+
+/**
+ * RLP builder which writes the whole structure with a single allocation.
+ *
+ * <p>
+ *     The writer only records the elements (keeping the references to the passed arrays)
+ *     and the lengths of the lists while they are added, the output is written
+ *     in one pass when the exact size is already known. Thus the passed arrays
+ *     shouldn't be modified until the output is written.
+ *
+ * <p>
+ *     The encoding is the same as produced by {@link RLP#encodeElement(byte[])},
+ *     {@link RLP#encodeBigInteger(BigInteger)} and {@link RLP#encodeList(byte[]...)}
+ *
+ * <p>
+ *     Usage:
+ *     <pre>
+ *     byte[] encoded = new RLPWriter()
+ *          .startList()
+ *              .writeElement(hash)
+ *              .writeLong(number)
+ *              .writeEncoded(txRlp)
+ *          .endList()
+ *          .toByteArray();
+ *     </pre>
+ *
+ * The writer can be reused after {@link #reset()}. The class is not thread safe
+ */
+public class RLPWriter {
+
+    private static final int OFFSET_SHORT_ITEM = 0x80;
+    private static final int OFFSET_SHORT_LIST = 0xc0;
+    private static final int SIZE_THRESHOLD = 56;
+
+    private static final byte ELEMENT = 0;
+    private static final byte ENCODED = 1;
+    private static final byte NUMBER = 2;
+    private static final byte LIST = 3;
+
+    private byte[] kinds = new byte[16];
+    private Object[] refs = new Object[16];
+    private long[] numbers = new long[16];
+    // encoded size of items, payload size of lists
+    private int[] sizes = new int[16];
+    private int cnt;
+
+    private int[] openLists = new int[8];
+    private int depth;
+
+    private int totalSize;
+
+    public RLPWriter startList() {
+        int idx = add(LIST, null, 0, 0);
+        if (depth == openLists.length) openLists = Arrays.copyOf(openLists, depth * 2);
+        openLists[depth++] = idx;
+        return this;
+    }
+
+    public RLPWriter endList() {
+        if (depth == 0) throw new IllegalStateException("No list started");
+        int idx = openLists[--depth];
+        addSize(headerSize(sizes[idx]) + sizes[idx]);
+        return this;
+    }
+
+    /**
+     * Same as {@link RLP#encodeElement(byte[])}
+     */
+    public RLPWriter writeElement(byte[] data) {
+        int size;
+        if (data == null || data.length == 0 || (data.length == 1 && (data[0] & 0xFF) < OFFSET_SHORT_ITEM)) {
+            size = 1;
+        } else {
+            size = headerSize(data.length) + data.length;
+        }
+        add(ELEMENT, data, 0, size);
+        addSize(size);
+        return this;
+    }
+
+    /**
+     * Writes the already RLP encoded element
+     */
+    public RLPWriter writeEncoded(byte[] rlp) {
+        add(ENCODED, rlp, 0, rlp.length);
+        addSize(rlp.length);
+        return this;
+    }
+
+    /**
+     * Same as {@link RLP#encodeBigInteger(BigInteger)} for the long value
+     */
+    public RLPWriter writeLong(long value) {
+        if (value < 0) throw new RuntimeException("negative numbers are not allowed");
+        int len = numberLength(value);
+        int size = len == 1 && value < OFFSET_SHORT_ITEM ? 1 : 1 + len;
+        add(NUMBER, null, value, size);
+        addSize(size);
+        return this;
+    }
+
+    public RLPWriter writeInt(int value) {
+        return writeLong(value);
+    }
+
+    /**
+     * Same as {@link RLP#encodeBigInteger(BigInteger)}
+     */
+    public RLPWriter writeBigInteger(BigInteger value) {
+        if (value.signum() < 0) throw new RuntimeException("negative numbers are not allowed");
+        if (value.bitLength() < 64) {
+            return writeLong(value.longValue());
+        }
+        return writeElement(asUnsignedByteArray(value));
+    }
+
+    /**
+     * @return the size of the encoded output, all the lists should be ended
+     */
+    public int getEncodedSize() {
+        checkComplete();
+        return totalSize;
+    }
+
+    public byte[] toByteArray() {
+        byte[] ret = new byte[getEncodedSize()];
+        writeTo(ByteBuffer.wrap(ret));
+        return ret;
+    }
+
+    /**
+     * Writes the encoded output to the heap or direct buffer
+     * which should have at least {@link #getEncodedSize()} bytes remaining
+     */
+    public void writeTo(ByteBuffer buf) {
+        checkComplete();
+        for (int i = 0; i < cnt; i++) {
+            switch (kinds[i]) {
+                case LIST:
+                    writeHeader(buf, sizes[i], OFFSET_SHORT_LIST);
+                    break;
+                case ENCODED:
+                    buf.put((byte[]) refs[i]);
+                    break;
+                case NUMBER:
+                    writeNumber(buf, numbers[i]);
+                    break;
+                default:
+                    byte[] data = (byte[]) refs[i];
+                    if (data == null || data.length == 0) {
+                        buf.put((byte) OFFSET_SHORT_ITEM);
+                    } else if (sizes[i] == 1) {
+                        buf.put(data[0]);
+                    } else {
+                        writeHeader(buf, data.length, OFFSET_SHORT_ITEM);
+                        buf.put(data);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Writes the encoded output directly to the buffer memory when possible
+     */
+    public void writeTo(ByteBuf buf) {
+        int size = getEncodedSize();
+        buf.ensureWritable(size);
+        if (buf.nioBufferCount() == 1) {
+            writeTo(buf.nioBuffer(buf.writerIndex(), size));
+            buf.writerIndex(buf.writerIndex() + size);
+        } else {
+            buf.writeBytes(toByteArray());
+        }
+    }
+
+    /**
+     * Clears the writer keeping the allocated space
+     */
+    public RLPWriter reset() {
+        Arrays.fill(refs, 0, cnt, null);
+        cnt = 0;
+        depth = 0;
+        totalSize = 0;
+        return this;
+    }
+
+    private int add(byte kind, Object ref, long number, int size) {
+        if (cnt == kinds.length) {
+            int newLen = cnt * 2;
+            kinds = Arrays.copyOf(kinds, newLen);
+            refs = Arrays.copyOf(refs, newLen);
+            numbers = Arrays.copyOf(numbers, newLen);
+            sizes = Arrays.copyOf(sizes, newLen);
+        }
+        kinds[cnt] = kind;
+        refs[cnt] = ref;
+        numbers[cnt] = number;
+        sizes[cnt] = size;
+        return cnt++;
+    }
+
+    private void addSize(int size) {
+        if (depth > 0) {
+            sizes[openLists[depth - 1]] += size;
+        } else {
+            totalSize += size;
+        }
+    }
+
+    private void checkComplete() {
+        if (depth > 0) throw new IllegalStateException(depth + " list(s) not ended");
+    }
+
+    private static int headerSize(int payloadLength) {
+        return payloadLength < SIZE_THRESHOLD ? 1 : 1 + numberLength(payloadLength);
+    }
+
+    private static int numberLength(long value) {
+        return value == 0 ? 0 : (64 - Long.numberOfLeadingZeros(value) + 7) / 8;
+    }
+
+    private static void writeHeader(ByteBuffer buf, int payloadLength, int offset) {
+        if (payloadLength < SIZE_THRESHOLD) {
+            buf.put((byte) (offset + payloadLength));
+        } else {
+            int lenLen = numberLength(payloadLength);
+            buf.put((byte) (offset + SIZE_THRESHOLD - 1 + lenLen));
+            writeBytes(buf, payloadLength, lenLen);
+        }
+    }
+
+    private static void writeNumber(ByteBuffer buf, long value) {
+        if (value == 0) {
+            buf.put((byte) OFFSET_SHORT_ITEM);
+        } else if (value < OFFSET_SHORT_ITEM) {
+            buf.put((byte) value);
+        } else {
+            int len = numberLength(value);
+            buf.put((byte) (OFFSET_SHORT_ITEM + len));
+            writeBytes(buf, value, len);
+        }
+    }
+
+    private static void writeBytes(ByteBuffer buf, long value, int len) {
+        for (int i = len - 1; i >= 0; i--) {
+            buf.put((byte) (value >>> (8 * i)));
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.ethereum.datasource.*;
 import org.ethereum.datasource.inmem.HashMapDB;
 import org.ethereum.db.PruneManager;
 import org.ethereum.db.RepositoryRoot;
+import org.ethereum.db.StateSnapshot;
 import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.db.IndexedBlockStore;
 import org.ethereum.listener.CompositeEthereumListener;
@@ -491,7 +492,9 @@ public class StandaloneBlockchain implements LocalBlockchain {
         pruneManager = new PruneManager(blockStore, pruningStateDS,
                 stateDS, SystemProperties.getDefault().databasePruneDepth());
 
-        final RepositoryRoot repository = new RepositoryRoot(pruningStateDS);
+        StateSnapshot snapshot = new StateSnapshot(new HashMapDB<byte[]>(), pruningStateDS,
+                SystemProperties.getDefault().databaseSnapshotLayers());
+        final RepositoryRoot repository = new RepositoryRoot(pruningStateDS, null, snapshot);
 
         ProgramInvokeFactoryImpl programInvokeFactory = new ProgramInvokeFactoryImpl();
         listener = new CompositeEthereumListener();
@@ -130,8 +130,7 @@ public class InternalTransaction extends Transaction {
     }
 
     @Override
-    public synchronized void rlpParse() {
-        if (parsed) return;
+    protected void parseRLP() {
         RLPList decodedTxList = RLP.decode2(rlpEncoded);
         RLPList transaction = (RLPList) decodedTxList.get(0);
 
@@ -147,8 +146,6 @@ public class InternalTransaction extends Transaction {
         this.deep = decodeInt(transaction.get(9).getRLPData());
         this.index = decodeInt(transaction.get(10).getRLPData());
         this.rejected = decodeInt(transaction.get(11).getRLPData()) == 1;
-
-        this.parsed = true;
     }
 
 
@@ -642,6 +642,7 @@ public class Program {
         BigInteger endowment = msg.getEndowment().value();
         BigInteger senderBalance = track.getBalance(senderAddress);
         if (isNotCovers(senderBalance, endowment)) {
+            track.rollback();
             stackPushZero();
             refundGas(msg.getGas().longValue(), "refund gas from message call");
             return;
@@ -1252,6 +1253,7 @@ public class Program {
         BigInteger endowment = msg.getEndowment().value();
         BigInteger senderBalance = track.getBalance(senderAddress);
         if (senderBalance.compareTo(endowment) < 0) {
+            track.rollback();
             stackPushZero();
             this.refundGas(msg.getGas().longValue(), "refund gas from message call");
             return;
@@ -1270,6 +1272,7 @@ public class Program {
                     msg.getGas().getNoLeadZeroesData(),
                     msg.getEndowment().getNoLeadZeroesData());
 
+            track.rollback();
             stackPushOne();
             return;
         }
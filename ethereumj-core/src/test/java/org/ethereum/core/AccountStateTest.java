@@ -17,13 +17,17 @@
  */
 package org.ethereum.core;
 
+import org.ethereum.util.RLP;
 import org.junit.Test;
 
 import org.spongycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
 
-import static org.junit.Assert.assertEquals;
+import static org.ethereum.crypto.HashUtil.EMPTY_DATA_HASH;
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.junit.Assert.*;
 
 public class AccountStateTest {
 
@@ -37,4 +41,52 @@ public class AccountStateTest {
         assertEquals(expected, Hex.toHexString(acct.getEncoded()));
     }
 
+    @Test
+    public void testEncodeDecode() {
+        BigInteger[] values = {BigInteger.ZERO, BigInteger.ONE, BigInteger.valueOf(0x7F), BigInteger.valueOf(0x80),
+                BigInteger.valueOf(Long.MAX_VALUE), BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE),
+                BigInteger.valueOf(2).pow(200)};
+        byte[] stateRoot = sha3(new byte[] {1});
+        byte[] codeHash = sha3(new byte[] {2});
+        for (BigInteger nonce : values) {
+            for (BigInteger balance : values) {
+                AccountState acct = new AccountState(nonce, balance, stateRoot, codeHash);
+                byte[] expected = RLP.encodeList(RLP.encodeBigInteger(nonce), RLP.encodeBigInteger(balance),
+                        RLP.encodeElement(stateRoot), RLP.encodeElement(codeHash));
+                assertArrayEquals(expected, acct.getEncoded());
+
+                AccountState decoded = new AccountState(expected);
+                assertEquals(nonce, decoded.getNonce());
+                assertEquals(balance, decoded.getBalance());
+                assertArrayEquals(stateRoot, decoded.getStateRoot());
+                assertArrayEquals(codeHash, decoded.getCodeHash());
+                assertArrayEquals(expected, decoded.getEncoded());
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyHashesInterned() {
+        byte[] encoded = new AccountState(BigInteger.ONE, BigInteger.TEN).getEncoded();
+        AccountState acct = new AccountState(encoded);
+        assertSame(EMPTY_TRIE_HASH, acct.getStateRoot());
+        assertSame(EMPTY_DATA_HASH, acct.getCodeHash());
+        assertSame(EMPTY_TRIE_HASH, acct.withStateRoot(EMPTY_TRIE_HASH.clone()).getStateRoot());
+    }
+
+    @Test
+    public void testIncrements() {
+        BigInteger max = BigInteger.valueOf(Long.MAX_VALUE);
+        AccountState acct = new AccountState(max, max);
+        assertEquals(max.add(BigInteger.ONE), acct.withIncrementedNonce().getNonce());
+        assertEquals(max.add(BigInteger.ONE), acct.withBalanceIncrement(BigInteger.ONE).getBalance());
+        assertEquals(max.add(max), acct.withBalanceIncrement(max).getBalance());
+
+        AccountState big = acct.withBalanceIncrement(BigInteger.ONE);
+        assertEquals(BigInteger.ONE, big.withBalanceIncrement(max.negate()).getBalance());
+        assertEquals(BigInteger.valueOf(-1), new AccountState(BigInteger.ZERO, BigInteger.ZERO)
+                .withBalanceIncrement(BigInteger.valueOf(-1)).getBalance());
+        assertTrue(new AccountState(BigInteger.ZERO, BigInteger.ONE).withBalanceIncrement(BigInteger.ONE.negate()).isEmpty());
+    }
+
 }
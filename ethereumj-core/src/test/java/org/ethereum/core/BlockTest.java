@@ -19,8 +19,10 @@ package org.ethereum.core;
 
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.genesis.GenesisLoader;
+import org.ethereum.crypto.HashUtil;
 import org.ethereum.trie.SecureTrie;
 import org.ethereum.trie.Trie;
+import org.ethereum.util.RLP;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
@@ -32,9 +34,11 @@ import org.spongycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 
@@ -211,4 +215,29 @@ public class BlockTest {
         b.getTransactionsList().forEach(Transaction::getSender);
         System.out.println("Size of parsed block with parsed txes: " + Block.MemEstimator.estimateSize(b));
     }
+
+    @Test
+    public void testBodyValid() {
+        Block genesis = new Block(Hex.decode(GENESIS_RLP));
+        assertTrue(genesis.isBodyValid());
+
+        // an uncle not matching the header uncles hash
+        Block tampered = new Block(genesis.getHeader(), genesis.getTransactionsList(),
+                Collections.singletonList(genesis.getHeader()));
+        assertFalse(tampered.isBodyValid());
+
+        // an uncle with the empty tx trie root which is parsed as the empty trie hash,
+        // the uncles hash is checked against the list as it was received
+        RLP.LList fields = RLP.decodeLazyList(genesis.getHeader().getEncoded());
+        byte[][] uncleFields = new byte[fields.size()][];
+        for (int i = 0; i < uncleFields.length; i++) {
+            uncleFields[i] = RLP.encodeElement(i == 4 ? null : fields.getRLPData(i));
+        }
+        byte[] uncles = RLP.encodeList(RLP.encodeList(uncleFields));
+        BlockHeader header = new BlockHeader(genesis.getHeader().getEncoded());
+        header.setUnclesHash(HashUtil.sha3(uncles));
+        Block withUncle = new Block(RLP.encodeList(header.getEncoded(), RLP.encodeList(), uncles));
+        assertEquals(1, withUncle.getUncleList().size());
+        assertTrue(withUncle.isBodyValid());
+    }
 }
\ No newline at end of file
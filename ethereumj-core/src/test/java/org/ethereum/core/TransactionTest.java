@@ -241,6 +241,23 @@ public class TransactionTest {
         assertEquals("14a569d327dcda4b29f74f93c0e9729d2f49ad726e703f9cd90dbb0fbf6649f1", Hex.toHexString(BigIntegers.asUnsignedByteArray(txNew.getSignature().s)));
     }
 
+    @Test
+    public void testHashAfterSign() {
+        ECKey key = ECKey.fromPrivate(Hex.decode(KEY));
+        Transaction tx = new Transaction(testNonce, testGasPrice, testGasLimit, testReceiveAddress, testValue, testData);
+        byte[] unsignedHash = tx.getHash();
+        assertNull(tx.getSender());
+
+        tx.sign(key);
+        assertArrayEquals(HashUtil.sha3(tx.getEncoded()), tx.getHash());
+        Assert.assertFalse(Arrays.equals(unsignedHash, tx.getHash()));
+        assertArrayEquals(key.getAddress(), tx.getSender());
+
+        Transaction parsed = new Transaction(tx.getEncoded());
+        assertArrayEquals(tx.getHash(), parsed.getHash());
+        assertArrayEquals(tx.getSender(), parsed.getSender());
+    }
+
     @Ignore
     @Test
     public void testTransactionFromNew2() throws MissingPrivateKeyException {
@@ -1,9 +1,12 @@
 package org.ethereum.datasource;
 
+import org.ethereum.datasource.inmem.HashMapDB;
 import org.junit.Test;
 
 import java.math.BigInteger;
 
+import static org.ethereum.util.ByteUtil.intToBytes;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -35,4 +38,23 @@ public class BatchSourceWriterTest {
         });
 
     }
+
+    @Test
+    public void testBoundedBatches() {
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        BatchSourceWriter<byte[], byte[]> bsw = new BatchSourceWriter<>(db).withMaxBatchSize(10);
+        WriteCache<byte[], byte[]> cache = new WriteCache.BytesKey<>(bsw, WriteCache.CacheType.SIMPLE);
+        cache.setFlushSource(true);
+
+        for (int i = 0; i < 105; i++) {
+            cache.put(intToBytes(i), intToBytes(i));
+        }
+        assertTrue(cache.flush());
+
+        assertEquals(11, bsw.getBatchesWritten());
+        assertEquals(105, bsw.getEntriesWritten());
+        for (int i = 0; i < 105; i++) {
+            assertArrayEquals(intToBytes(i), db.get(intToBytes(i)));
+        }
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.datasource;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.util.ByteUtil.intToBytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentQuotientFilterTest {
+
+    @Test
+    public void simpleTest() {
+        ConcurrentQuotientFilter f = ConcurrentQuotientFilter.create(1_000_000, 1_000);
+
+        for (int i = 0; i < 100_000; i++) {
+            f.insert(sha3(intToBytes(i)));
+        }
+        f.insert(sha3(intToBytes(0)));
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(f.maybeContains(sha3(intToBytes(i))));
+        }
+
+        for (int i = 0; i < 100_000; i++) {
+            f.remove(sha3(intToBytes(i)));
+        }
+        assertTrue(f.maybeContains(sha3(intToBytes(0))));
+        f.remove(sha3(intToBytes(0)));
+        assertEquals(0, f.getEntryNumber());
+    }
+
+    @Test
+    public void concurrentTest() throws Exception {
+        ConcurrentQuotientFilter f = ConcurrentQuotientFilter.create(1_000_000, 1_000);
+
+        List<Thread> threads = new ArrayList<>();
+        Throwable[] error = new Throwable[1];
+        for (int t = 0; t < 4; t++) {
+            final int from = t * 50_000;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = from; i < from + 50_000; i++) {
+                        f.insert(sha3(intToBytes(i)));
+                        assertTrue(f.maybeContains(sha3(intToBytes(i))));
+                        if (i % 2 == 0) f.remove(sha3(intToBytes(i)));
+                    }
+                } catch (Throwable e) {
+                    error[0] = e;
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) thread.join();
+        if (error[0] != null) throw new AssertionError(error[0]);
+
+        for (int i = 1; i < 200_000; i += 2) {
+            assertTrue(f.maybeContains(sha3(intToBytes(i))));
+        }
+    }
+
+    @Test
+    public void checkpointTest() throws Exception {
+        ConcurrentQuotientFilter f = ConcurrentQuotientFilter.create(1_000_000, 1_000);
+        for (int i = 0; i < 10_000; i++) {
+            f.insert(sha3(intToBytes(i)));
+        }
+        f.insert(Long.MAX_VALUE);
+        f.insert(Long.MAX_VALUE);
+
+        Path file = Files.createTempFile("qf", ".bin");
+        try {
+            f.writeTo(file);
+            ConcurrentQuotientFilter f1 = ConcurrentQuotientFilter.readFrom(file);
+
+            assertEquals(f.getEntryNumber(), f1.getEntryNumber());
+            assertEquals(f.getCollisionNumber(), f1.getCollisionNumber());
+            for (int i = 0; i < 10_000; i++) {
+                assertTrue(f1.maybeContains(sha3(intToBytes(i))));
+            }
+            f1.remove(Long.MAX_VALUE);
+            assertTrue(f1.maybeContains(Long.MAX_VALUE));
+            f1.remove(Long.MAX_VALUE);
+            assertFalse(f1.maybeContains(Long.MAX_VALUE));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
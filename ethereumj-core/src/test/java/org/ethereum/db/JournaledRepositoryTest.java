@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import org.ethereum.core.Repository;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class JournaledRepositoryTest {
+
+    private static final byte[][] ADDRESSES = new byte[8][];
+    static {
+        for (int i = 0; i < ADDRESSES.length; i++) {
+            ADDRESSES[i] = new byte[20];
+            ADDRESSES[i][19] = (byte) (i + 1);
+        }
+    }
+
+    @Test
+    public void testNestedTracks() {
+        RepositoryRoot root = new RepositoryRoot(new HashMapDB<>());
+        byte[] addr = ADDRESSES[0];
+        root.addBalance(addr, BigInteger.TEN);
+        root.addStorageRow(addr, DataWord.ONE, DataWord.ONE);
+
+        JournaledRepository track = new JournaledRepository(root);
+        Repository call1 = track.startTracking();
+        call1.addBalance(addr, BigInteger.ONE);
+        Repository call2 = call1.startTracking();
+        call2.addStorageRow(addr, DataWord.ONE, DataWord.of(2));
+        assertEquals(DataWord.of(2), call2.getStorageValue(addr, DataWord.ONE));
+        // parent tracks see the state as of their level
+        assertEquals(DataWord.ONE, call1.getStorageValue(addr, DataWord.ONE));
+        assertEquals(BigInteger.TEN, track.getBalance(addr));
+
+        call2.rollback();
+        assertEquals(DataWord.ONE, call1.getStorageValue(addr, DataWord.ONE));
+        call1.commit();
+        assertEquals(BigInteger.valueOf(11), track.getBalance(addr));
+        assertEquals(BigInteger.TEN, root.getBalance(addr));
+
+        try {
+            call1.addBalance(addr, BigInteger.ONE);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        track.commit();
+        assertEquals(BigInteger.valueOf(11), root.getBalance(addr));
+        assertEquals(DataWord.ONE, root.getStorageValue(addr, DataWord.ONE));
+    }
+
+    @Test
+    public void testAbandonedNestedTrack() {
+        RepositoryRoot root = new RepositoryRoot(new HashMapDB<>());
+        byte[] addr = ADDRESSES[0];
+        JournaledRepository track = new JournaledRepository(root);
+        Repository abandoned = track.startTracking();
+        abandoned.addBalance(addr, BigInteger.ONE);
+        Repository abandonedNested = abandoned.startTracking();
+        abandonedNested.addBalance(addr, BigInteger.ONE);
+
+        // neither committed nor rolled back
+        try {
+            track.startTracking();
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        try {
+            abandoned.startTracking();
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        abandoned.rollback();
+        Repository call = track.startTracking();
+        assertEquals(BigInteger.ZERO, call.getBalance(addr));
+        call.addBalance(addr, BigInteger.TEN);
+        call.commit();
+
+        track.commit();
+        assertEquals(BigInteger.TEN, root.getBalance(addr));
+    }
+
+    @Test
+    public void testParentWriteWhileNestedOpen() {
+        RepositoryRoot root = new RepositoryRoot(new HashMapDB<>());
+        byte[] addr = ADDRESSES[0];
+        JournaledRepository track = new JournaledRepository(root);
+        Repository nested = track.startTracking();
+        nested.addBalance(addr, BigInteger.ONE);
+        track.addBalance(addr, BigInteger.TEN);
+        assertEquals(BigInteger.ONE, nested.getBalance(addr));
+        assertEquals(BigInteger.TEN, track.getBalance(addr));
+
+        nested.rollback();
+        assertEquals(BigInteger.TEN, track.getBalance(addr));
+        track.commit();
+        assertEquals(BigInteger.TEN, root.getBalance(addr));
+    }
+
+    @Test
+    public void testSameAsLayered() {
+        Random rnd = new Random(1);
+        for (int iteration = 0; iteration < 200; iteration++) {
+            RepositoryRoot layeredRoot = new RepositoryRoot(new HashMapDB<>());
+            RepositoryRoot journaledRoot = new RepositoryRoot(new HashMapDB<>());
+            for (byte[] addr : ADDRESSES) {
+                layeredRoot.addBalance(addr, BigInteger.ONE);
+                journaledRoot.addBalance(addr, BigInteger.ONE);
+                layeredRoot.addStorageRow(addr, DataWord.ONE, DataWord.ONE);
+                journaledRoot.addStorageRow(addr, DataWord.ONE, DataWord.ONE);
+            }
+            layeredRoot.commit();
+            journaledRoot.commit();
+
+            for (int tx = 0; tx < 5; tx++) {
+                List<Repository> layered = new ArrayList<>();
+                List<Repository> journaled = new ArrayList<>();
+                layered.add(layeredRoot.startTracking());
+                journaled.add(new JournaledRepository(journaledRoot));
+                // the layered tracks don't support the storage access after the contract is deleted
+                Set<Integer> deleted = new HashSet<>();
+
+                for (int op = 0; op < 100; op++) {
+                    int top = layered.size() - 1;
+                    // mostly the innermost track is used
+                    int idx = rnd.nextInt(4) == 0 ? rnd.nextInt(layered.size()) : top;
+                    Repository l = layered.get(idx);
+                    Repository j = journaled.get(idx);
+                    int addrIdx = rnd.nextInt(ADDRESSES.length);
+                    byte[] addr = ADDRESSES[addrIdx];
+                    DataWord key = DataWord.of(rnd.nextInt(4));
+
+                    switch (rnd.nextInt(10)) {
+                        case 0:
+                            if (layered.size() < 6) {
+                                layered.add(layered.get(top).startTracking());
+                                journaled.add(journaled.get(top).startTracking());
+                            }
+                            break;
+                        case 1:
+                            if (top > 0) {
+                                if (rnd.nextBoolean()) {
+                                    layered.remove(top).commit();
+                                    journaled.remove(top).commit();
+                                } else {
+                                    layered.remove(top).rollback();
+                                    journaled.remove(top).rollback();
+                                }
+                            }
+                            break;
+                        case 2:
+                            BigInteger value = BigInteger.valueOf(rnd.nextInt(1000));
+                            assertEquals(l.addBalance(addr, value), j.addBalance(addr, value));
+                            break;
+                        case 3:
+                            assertEquals(l.increaseNonce(addr), j.increaseNonce(addr));
+                            break;
+                        case 4:
+                        case 5:
+                            if (!deleted.contains(addrIdx)) {
+                                DataWord val = DataWord.of(rnd.nextInt(3));
+                                l.addStorageRow(addr, key, val);
+                                j.addStorageRow(addr, key, val);
+                            }
+                            break;
+                        case 6:
+                            byte[] code = new byte[] {(byte) rnd.nextInt(3)};
+                            l.saveCode(addr, code);
+                            j.saveCode(addr, code);
+                            break;
+                        case 7:
+                            // the layered nested track keeps the storage cache of the deleted contract
+                            if (idx == top) {
+                                l.delete(addr);
+                                j.delete(addr);
+                                deleted.add(addrIdx);
+                            }
+                            break;
+                        default:
+                            assertEquals(l.getAccountState(addr) == null, j.getAccountState(addr) == null);
+                            assertEquals(l.getBalance(addr), j.getBalance(addr));
+                            assertEquals(l.getNonce(addr), j.getNonce(addr));
+                            assertArrayEquals(l.getCode(addr), j.getCode(addr));
+                            if (!deleted.contains(addrIdx)) {
+                                assertEquals(l.getStorageValue(addr, key), j.getStorageValue(addr, key));
+                            }
+                    }
+                }
+
+                layered.get(0).commit();
+                journaled.get(0).commit();
+                layeredRoot.commit();
+                journaledRoot.commit();
+                assertArrayEquals("iteration " + iteration, layeredRoot.getRoot(), journaledRoot.getRoot());
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import org.ethereum.core.Block;
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.datasource.JournalSource;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class PruneManagerTest {
+
+    private static final int PRUNE_DEPTH = 4;
+
+    @Test
+    public void testBackgroundWorkerWithConcurrentImport() {
+        IndexedBlockStore blockStore = new IndexedBlockStore();
+        blockStore.init(new HashMapDB<byte[]>(), new HashMapDB<byte[]>());
+        HashMapDB<byte[]> storage = new HashMapDB<>();
+        JournalSource<byte[]> journalSource = new JournalSource<>(storage);
+        PruneManager pruneManager = new PruneManager(blockStore, journalSource, storage, PRUNE_DEPTH)
+                .withBackgroundWorker(PRUNE_DEPTH, 5000);
+
+        Random rnd = new Random(0);
+        List<byte[]> live = new ArrayList<>();
+        Deque<List<byte[]>> deletedByBlock = new ArrayDeque<>();
+
+        Block parent = importBlock(blockStore, pruneManager, null);
+        for (int i = 0; i < 500; i++) {
+            for (int j = 0; j < 10; j++) {
+                byte[] key = HashUtil.randomHash();
+                journalSource.put(key, key);
+                live.add(key);
+            }
+
+            List<byte[]> deleted = new ArrayList<>();
+            for (int j = 0; j < 10; j++) {
+                byte[] key = live.remove(rnd.nextInt(live.size()));
+                journalSource.delete(key);
+                deleted.add(key);
+            }
+            deletedByBlock.addLast(deleted);
+
+            // insert again a half of nodes deleted by the block which the worker is pruning right now
+            if (deletedByBlock.size() > PRUNE_DEPTH + 1) {
+                List<byte[]> revived = deletedByBlock.removeFirst().subList(0, 5);
+                for (byte[] key : revived) {
+                    journalSource.put(key, key);
+                    live.add(key);
+                    Thread.yield();
+                }
+            }
+
+            parent = importBlock(blockStore, pruneManager, parent);
+        }
+        pruneManager.close();
+
+        assertTrue(pruneManager.getNodesDeleted() > 0);
+        for (byte[] key : live) {
+            assertNotNull(storage.get(key));
+        }
+    }
+
+    @Test
+    public void testFlushLock() throws InterruptedException {
+        IndexedBlockStore blockStore = new IndexedBlockStore();
+        blockStore.init(new HashMapDB<byte[]>(), new HashMapDB<byte[]>());
+        HashMapDB<byte[]> storage = new HashMapDB<>();
+        JournalSource<byte[]> journalSource = new JournalSource<>(storage);
+        Object flushLock = new Object();
+        PruneManager pruneManager = new PruneManager(blockStore, journalSource, storage, PRUNE_DEPTH)
+                .withFlushLock(flushLock)
+                .withBackgroundWorker(64, 0);
+
+        synchronized (flushLock) {
+            Block parent = importBlock(blockStore, pruneManager, null);
+            byte[] prevKey = null;
+            for (int i = 0; i < 20; i++) {
+                byte[] key = HashUtil.randomHash();
+                journalSource.put(key, key);
+                if (prevKey != null) journalSource.delete(prevKey);
+                prevKey = key;
+                parent = importBlock(blockStore, pruneManager, parent);
+            }
+
+            // the worker waits for the flush to complete before it deletes anything
+            while (!isWorkerBlocked()) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, pruneManager.getNodesDeleted());
+        }
+        pruneManager.close();
+
+        assertTrue(pruneManager.getNodesDeleted() > 0);
+    }
+
+    private static boolean isWorkerBlocked() {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith("PruneManagerThread") && t.getState() == Thread.State.BLOCKED) return true;
+        }
+        return false;
+    }
+
+    private Block importBlock(IndexedBlockStore blockStore, PruneManager pruneManager, Block parent) {
+        Block block = new Block(parent == null ? new byte[32] : parent.getHash(), HashUtil.EMPTY_LIST_HASH,
+                new byte[20], new byte[256], new byte[] {1}, parent == null ? 0 : parent.getNumber() + 1,
+                new byte[] {0}, 0, 0, new byte[0], new byte[0], new byte[0], null, null);
+        blockStore.saveBlock(block, BigInteger.valueOf(block.getNumber()), true);
+        pruneManager.blockCommitted(block.getHeader());
+        return block;
+    }
+}
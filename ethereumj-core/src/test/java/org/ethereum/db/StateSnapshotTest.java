@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import org.ethereum.core.AccountState;
+import org.ethereum.core.Repository;
+import org.ethereum.datasource.NoDeleteSource;
+import org.ethereum.datasource.Source;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.util.ByteUtil.intToBytes;
+import static org.junit.Assert.*;
+
+public class StateSnapshotTest {
+
+    // old states are read from the trie to compare with
+    private final Source<byte[], byte[]> stateDS = new NoDeleteSource<>(new HashMapDB<byte[]>());
+    private final HashMapDB<byte[]> snapshotDS = new HashMapDB<>();
+
+    private final byte[][] addresses = new byte[10][];
+    private final DataWord[] keys = new DataWord[8];
+
+    {
+        for (int i = 0; i < addresses.length; i++) addresses[i] = Arrays.copyOf(sha3(intToBytes(i)), 20);
+        for (int i = 0; i < keys.length; i++) keys[i] = DataWord.of(i * 0x100);
+    }
+
+    @Test
+    public void testSameAsTrie() {
+        StateSnapshot snapshot = new StateSnapshot(snapshotDS, stateDS, 3);
+        Random rnd = new Random(1);
+        List<byte[]> roots = new ArrayList<>();
+        roots.add(EMPTY_TRIE_HASH);
+
+        for (int block = 0; block < 100; block++) {
+            // the block is imported on top of the best one or forks the chain replacing the best block
+            int parentIdx = Math.max(0, roots.size() - 1 - rnd.nextInt(2));
+            byte[] parentRoot = roots.get(parentIdx);
+            roots = new ArrayList<>(roots.subList(0, parentIdx + 1));
+            RepositoryRoot repo = new RepositoryRoot(stateDS, parentRoot, snapshot);
+            for (int tx = 0; tx < 3; tx++) {
+                Repository track = repo.startTracking();
+                for (int i = 0; i < 5; i++) {
+                    byte[] addr = addresses[rnd.nextInt(addresses.length)];
+                    int op = rnd.nextInt(10);
+                    if (op == 0) {
+                        // as suicided accounts are deleted after the tx execution
+                        track.delete(addr);
+                        break;
+                    } else if (op < 4) {
+                        track.addBalance(addr, BigInteger.valueOf(rnd.nextInt(100)));
+                    } else {
+                        track.addStorageRow(addr, keys[rnd.nextInt(keys.length)], DataWord.of(rnd.nextInt(3)));
+                    }
+                }
+                track.commit();
+                // intermediate root as for the pre-Byzantium receipts
+                repo.getRoot();
+            }
+            repo.commit();
+            byte[] root = repo.getRoot();
+            roots.add(root);
+
+            assertNotNull(snapshot.getAccount(root, sha3(addresses[0])));
+            assertSameState(root, snapshot);
+            assertSameState(roots.get(Math.max(0, roots.size() - 3)), snapshot);
+        }
+
+        // the base covers the last state after restart
+        byte[] lastRoot = roots.get(roots.size() - 1);
+        snapshot.close(lastRoot);
+        StateSnapshot restored = new StateSnapshot(snapshotDS, stateDS, 3);
+        assertNotNull(restored.getAccount(lastRoot, sha3(addresses[0])));
+        assertNull(restored.getAccount(roots.get(roots.size() - 2), sha3(addresses[0])));
+        assertSameState(lastRoot, restored);
+    }
+
+    @Test
+    public void testWipedStorage() {
+        StateSnapshot snapshot = new StateSnapshot(snapshotDS, stateDS, 0);
+        byte[] addr = addresses[0];
+
+        RepositoryRoot repo = new RepositoryRoot(stateDS, null, snapshot);
+        repo.addStorageRow(addr, keys[1], DataWord.ONE);
+        repo.addStorageRow(addr, keys[2], DataWord.ONE);
+        repo.commit();
+
+        repo = new RepositoryRoot(stateDS, repo.getRoot(), snapshot);
+        repo.delete(addr);
+        repo.commit();
+
+        repo = new RepositoryRoot(stateDS, repo.getRoot(), snapshot);
+        repo.addStorageRow(addr, keys[2], DataWord.of(2));
+        repo.commit();
+
+        // all the layers are merged into the base right away
+        byte[] root = repo.getRoot();
+        assertArrayEquals(new byte[0], snapshot.getStorage(root, sha3(addr), sha3(keys[1].getData())));
+        assertSameState(root, snapshot);
+        assertNull(new RepositoryRoot(stateDS, root, snapshot).getStorageValue(addr, keys[1]));
+    }
+
+    private void assertSameState(byte[] root, StateSnapshot snapshot) {
+        Repository expected = new RepositoryRoot(stateDS, root);
+        Repository actual = new RepositoryRoot(stateDS, root, snapshot);
+        for (byte[] addr : addresses) {
+            AccountState state = expected.getAccountState(addr);
+            AccountState snapshotState = actual.getAccountState(addr);
+            assertArrayEquals(state == null ? null : state.getEncoded(),
+                    snapshotState == null ? null : snapshotState.getEncoded());
+            for (DataWord key : keys) {
+                assertEquals(expected.getStorageValue(addr, key), actual.getStorageValue(addr, key));
+            }
+        }
+    }
+}
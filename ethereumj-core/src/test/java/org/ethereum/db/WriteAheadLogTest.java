@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import org.ethereum.datasource.Source;
+import org.ethereum.datasource.WriteCache;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.util.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.ethereum.util.ByteUtil.intToBytes;
+import static org.junit.Assert.*;
+
+public class WriteAheadLogTest {
+
+    private String dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("wal-test").toString();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.recursiveDelete(dir);
+    }
+
+    @Test
+    public void testReplay() {
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        WriteCache<byte[], byte[]> cache = new WriteCache.BytesKey<>(db, WriteCache.CacheType.SIMPLE);
+
+        WriteAheadLog wal = new WriteAheadLog(dir, 1);
+        Source<byte[], byte[]> src = wal.wrap("test", cache);
+        src.put(intToBytes(1), intToBytes(1));
+        src.put(intToBytes(2), intToBytes(2));
+        wal.commit();
+        src.delete(intToBytes(1));
+        src.put(intToBytes(3), intToBytes(3));
+        wal.commit();
+        src.put(intToBytes(4), intToBytes(4)); // not committed
+        wal.close();
+
+        // emulate crash: cache content is lost
+        WriteCache<byte[], byte[]> recovered = new WriteCache.BytesKey<>(db, WriteCache.CacheType.SIMPLE);
+        WriteAheadLog wal1 = new WriteAheadLog(dir, 1);
+        wal1.wrap("test", recovered);
+
+        assertNull(recovered.get(intToBytes(1)));
+        assertArrayEquals(intToBytes(2), recovered.get(intToBytes(2)));
+        assertArrayEquals(intToBytes(3), recovered.get(intToBytes(3)));
+        wal1.close();
+    }
+
+    @Test
+    public void testSegmentsRemovedAfterFlush() {
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        WriteCache<byte[], byte[]> cache = new WriteCache.BytesKey<>(db, WriteCache.CacheType.SIMPLE);
+
+        WriteAheadLog wal = new WriteAheadLog(dir, 10);
+        Source<byte[], byte[]> src = wal.wrap("test", cache);
+        src.put(intToBytes(1), intToBytes(1));
+        wal.commit();
+
+        wal.flushStarted();
+        cache.flush();
+        src.put(intToBytes(2), intToBytes(2));
+        wal.commit();
+        wal.flushCompleted();
+
+        assertEquals(1, new File(dir).list().length);
+        wal.close();
+
+        WriteCache<byte[], byte[]> recovered = new WriteCache.BytesKey<>(db, WriteCache.CacheType.SIMPLE);
+        new WriteAheadLog(dir, 1).wrap("test", recovered);
+        assertEquals(1, recovered.getModified().size());
+        assertArrayEquals(intToBytes(2), recovered.get(intToBytes(2)));
+    }
+
+    @Test
+    public void testUnwrappedNameKept() {
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        WriteAheadLog wal = new WriteAheadLog(dir, 1);
+        Source<byte[], byte[]> a = wal.wrap("a", new WriteCache.BytesKey<>(db, WriteCache.CacheType.SIMPLE));
+        Source<byte[], byte[]> b = wal.wrap("b", new WriteCache.BytesKey<>(db, WriteCache.CacheType.SIMPLE));
+        a.put(intToBytes(1), intToBytes(1));
+        b.put(intToBytes(2), intToBytes(2));
+        wal.commit();
+        wal.close();
+
+        // 1st restart: 'b' is never wrapped
+        WriteCache<byte[], byte[]> a1 = new WriteCache.BytesKey<>(db, WriteCache.CacheType.COUNTING);
+        WriteAheadLog wal1 = new WriteAheadLog(dir, 1);
+        wal1.wrap("a", a1);
+        assertEquals(1, a1.getModified().size());
+        wal1.flushStarted();
+        a1.flush();
+        wal1.flushCompleted();
+        wal1.close();
+
+        // 2nd restart: 'a' changes are in the DB and are not replayed again
+        WriteCache<byte[], byte[]> a2 = new WriteCache.BytesKey<>(db, WriteCache.CacheType.COUNTING);
+        WriteCache<byte[], byte[]> b2 = new WriteCache.BytesKey<>(db, WriteCache.CacheType.SIMPLE);
+        WriteAheadLog wal2 = new WriteAheadLog(dir, 1);
+        wal2.wrap("a", a2);
+        wal2.wrap("b", b2);
+        assertTrue(a2.getModified().isEmpty());
+        assertEquals(1, b2.getModified().size());
+        assertArrayEquals(intToBytes(2), b2.get(intToBytes(2)));
+        wal2.close();
+    }
+
+    @Test
+    public void testReplayUnwrapped() {
+        HashMapDB<byte[]> dbA = new HashMapDB<>();
+        HashMapDB<byte[]> dbB = new HashMapDB<>();
+        WriteAheadLog wal = new WriteAheadLog(dir, 1);
+        Source<byte[], byte[]> a = wal.wrap("a", new WriteCache.BytesKey<>(dbA, WriteCache.CacheType.SIMPLE));
+        Source<byte[], byte[]> b = wal.wrap("b", new WriteCache.BytesKey<>(dbB, WriteCache.CacheType.SIMPLE));
+        Source<byte[], byte[]> c = wal.wrap("c", new WriteCache.BytesKey<>(dbB, WriteCache.CacheType.SIMPLE));
+        a.put(intToBytes(1), intToBytes(1));
+        b.put(intToBytes(2), intToBytes(2));
+        c.put(intToBytes(3), intToBytes(3));
+        wal.commit();
+        wal.close();
+
+        // 1st restart: 'b' is not wrapped and replayed to its DB, 'c' has no source anymore
+        WriteCache<byte[], byte[]> a1 = new WriteCache.BytesKey<>(dbA, WriteCache.CacheType.SIMPLE);
+        WriteAheadLog wal1 = new WriteAheadLog(dir, 1);
+        wal1.wrap("a", a1);
+        wal1.replayUnwrapped(name -> "b".equals(name) ? dbB : null);
+        assertArrayEquals(intToBytes(2), dbB.get(intToBytes(2)));
+        assertNull(dbB.get(intToBytes(3)));
+        wal1.flushStarted();
+        a1.flush();
+        wal1.flushCompleted();
+        wal1.close();
+
+        // 2nd restart: nothing to replay
+        assertEquals(1, new File(dir).list().length);
+        WriteCache<byte[], byte[]> a2 = new WriteCache.BytesKey<>(dbA, WriteCache.CacheType.SIMPLE);
+        WriteCache<byte[], byte[]> b2 = new WriteCache.BytesKey<>(dbB, WriteCache.CacheType.SIMPLE);
+        WriteAheadLog wal2 = new WriteAheadLog(dir, 1);
+        wal2.wrap("a", a2);
+        wal2.wrap("b", b2);
+        assertTrue(a2.getModified().isEmpty());
+        assertTrue(b2.getModified().isEmpty());
+        wal2.close();
+    }
+}
@@ -1,6 +1,7 @@
 package org.ethereum.manager;
 
 import org.ethereum.core.Block;
+import org.ethereum.core.BlockSummary;
 import org.ethereum.core.Blockchain;
 import org.ethereum.core.EventDispatchThread;
 import org.ethereum.core.Genesis;
@@ -12,6 +13,7 @@ import org.ethereum.validator.BlockHeaderValidator;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
+import org.spongycastle.util.encoders.Hex;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -21,6 +23,8 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -34,6 +38,7 @@ import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.Mockito.when;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -83,6 +88,11 @@ public class BlockLoaderTest {
                 lastBlockHolder.set(invocation.getArgument(0));
                 return ImportResult.IMPORTED_BEST;
             });
+            when(blockchain.connectTrusted(any(Block.class), anyBoolean())).thenAnswer(invocation -> {
+                Block block = invocation.getArgument(0);
+                lastBlockHolder.set(block);
+                return new BlockSummary(block, Collections.emptyMap(), Collections.emptyList(), Collections.emptyList());
+            });
             return blockchain;
         }
 
@@ -140,6 +150,37 @@ public class BlockLoaderTest {
         assertFalse(loaded);
     }
 
+    @Test
+    public void testBulkLoading() throws IOException {
+        Path[] paths = toRlpDumps(dumps).toArray(new Path[]{});
+        boolean loaded = blockLoader.loadBlocksBulk(paths);
+        assertTrue(loaded);
+    }
+
+    @Test
+    public void testInconsistentBulkLoading() throws IOException {
+        List<Path> reversed = toRlpDumps(dumps);
+        Collections.reverse(reversed);
+        Path[] paths = reversed.toArray(new Path[]{});
+        boolean loaded = blockLoader.loadBlocksBulk(paths);
+        assertFalse(loaded);
+    }
+
+    private static List<Path> toRlpDumps(List<Path> hexDumps) throws IOException {
+        List<Path> ret = new ArrayList<>();
+        for (Path hexDump : hexDumps) {
+            Path rlpDump = Files.createTempFile("blocks", ".rlp");
+            rlpDump.toFile().deleteOnExit();
+            try (OutputStream out = Files.newOutputStream(rlpDump)) {
+                for (String line : Files.readAllLines(hexDump)) {
+                    out.write(Hex.decode(line));
+                }
+            }
+            ret.add(rlpDump);
+        }
+        return ret;
+    }
+
     @Test
     public void testNoDumpsLoading() {
         assertFalse(blockLoader.loadBlocks());
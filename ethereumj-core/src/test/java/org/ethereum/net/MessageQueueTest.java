@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import org.ethereum.config.SystemProperties;
+import org.ethereum.listener.EthereumListener;
+import org.ethereum.net.eth.message.BlockHeadersMessage;
+import org.ethereum.net.eth.message.GetBlockHeadersMessage;
+import org.ethereum.net.message.Message;
+import org.ethereum.net.message.ReasonCode;
+import org.ethereum.net.p2p.DisconnectMessage;
+import org.ethereum.net.p2p.PingMessage;
+import org.ethereum.net.p2p.PongMessage;
+import org.ethereum.net.server.Channel;
+import org.ethereum.net.server.PeerStatistics;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MessageQueueTest {
+
+    private MessageQueue messageQueue;
+    private EmbeddedChannel embeddedChannel;
+    private final List<TimerTask> timerTasks = new ArrayList<>();
+    private final List<Timeout> timeouts = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Timer timer = mock(Timer.class);
+        when(timer.newTimeout(any(TimerTask.class), anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> {
+            Timeout timeout = mock(Timeout.class);
+            timerTasks.add(invocation.getArgument(0));
+            timeouts.add(timeout);
+            return timeout;
+        });
+        Channel channel = mock(Channel.class);
+        when(channel.getPeerStats()).thenReturn(new PeerStatistics());
+
+        messageQueue = new MessageQueue();
+        messageQueue.ethereumListener = mock(EthereumListener.class);
+        messageQueue.config = SystemProperties.getDefault();
+        messageQueue.timer = timer;
+        messageQueue.setChannel(channel);
+
+        embeddedChannel = new EmbeddedChannel(new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelActive(ChannelHandlerContext ctx) throws Exception {
+                messageQueue.activate(ctx);
+                super.channelActive(ctx);
+            }
+
+            @Override
+            public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+                messageQueue.channelWritabilityChanged();
+                super.channelWritabilityChanged(ctx);
+            }
+        });
+    }
+
+    @Test
+    public void testSendWhileNotWritable() {
+        Message first = new PongMessage();
+        messageQueue.sendMessage(first);
+        embeddedChannel.runPendingTasks();
+        assertSame(first, embeddedChannel.readOutbound());
+
+        setWritable(false);
+        Message second = new PongMessage();
+        Message third = new PongMessage();
+        messageQueue.sendMessage(second);
+        messageQueue.sendMessage(third);
+        embeddedChannel.runPendingTasks();
+        assertNull(embeddedChannel.readOutbound());
+
+        setWritable(true);
+        assertSame(second, embeddedChannel.readOutbound());
+        assertSame(third, embeddedChannel.readOutbound());
+        assertNull(embeddedChannel.readOutbound());
+    }
+
+    @Test
+    public void testAnswersMatchEarliestRequests() throws Exception {
+        messageQueue.sendMessage(new GetBlockHeadersMessage(1, 10));
+        messageQueue.sendMessage(new GetBlockHeadersMessage(11, 10));
+        messageQueue.sendMessage(new PingMessage());
+        embeddedChannel.runPendingTasks();
+        assertEquals(3, timeouts.size());
+
+        messageQueue.receivedMessage(new BlockHeadersMessage(Collections.emptyList()));
+        verify(timeouts.get(0)).cancel();
+        verify(timeouts.get(1), never()).cancel();
+
+        messageQueue.receivedMessage(new PongMessage());
+        verify(timeouts.get(2)).cancel();
+        verify(timeouts.get(1), never()).cancel();
+
+        messageQueue.receivedMessage(new BlockHeadersMessage(Collections.emptyList()));
+        verify(timeouts.get(1)).cancel();
+    }
+
+    @Test
+    public void testRequestTimeout() throws Exception {
+        messageQueue.sendMessage(new PingMessage());
+        embeddedChannel.runPendingTasks();
+        assertTrue(embeddedChannel.readOutbound() instanceof PingMessage);
+
+        // a single ping awaits the answer at a time
+        messageQueue.sendMessage(new PingMessage());
+        embeddedChannel.runPendingTasks();
+        assertNull(embeddedChannel.readOutbound());
+
+        timerTasks.get(0).run(timeouts.get(0));
+        messageQueue.sendMessage(new PingMessage());
+        embeddedChannel.runPendingTasks();
+        assertTrue(embeddedChannel.readOutbound() instanceof PingMessage);
+
+        // the late answer doesn't match the timed out request
+        messageQueue.receivedMessage(new PongMessage());
+        verify(timeouts.get(0), never()).cancel();
+        verify(timeouts.get(1)).cancel();
+    }
+
+    @Test
+    public void testDisconnectOnOverflow() {
+        setWritable(false);
+        for (int i = 0; i < MessageQueue.MAX_QUEUED_MESSAGES; i++) {
+            messageQueue.sendMessage(new PongMessage());
+        }
+        embeddedChannel.runPendingTasks();
+        assertTrue(embeddedChannel.isOpen());
+        assertNull(embeddedChannel.readOutbound());
+
+        messageQueue.sendMessage(new PongMessage());
+        embeddedChannel.runPendingTasks();
+        Object disconnect = embeddedChannel.readOutbound();
+        assertTrue(disconnect instanceof DisconnectMessage);
+        assertEquals(ReasonCode.USELESS_PEER, ((DisconnectMessage) disconnect).getReason());
+        assertFalse(embeddedChannel.isOpen());
+    }
+
+    private void setWritable(boolean writable) {
+        embeddedChannel.unsafe().outboundBuffer().setUserDefinedWritability(1, writable);
+        embeddedChannel.runPendingTasks();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.eth.handler;
+
+import org.ethereum.core.Block;
+import org.ethereum.core.Blockchain;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.core.BlockIdentifier;
+import org.ethereum.core.BlockSummary;
+import org.ethereum.core.BlockchainImpl;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.crypto.ECKey;
+import org.ethereum.listener.CompositeEthereumListener;
+import org.ethereum.listener.EthereumListener;
+import org.ethereum.net.eth.message.ReceiptsMessage;
+import org.ethereum.util.RLP;
+import org.ethereum.util.blockchain.StandaloneBlockchain;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EthResponseCacheTest {
+
+    private final List<EthereumListener> cacheListeners = new ArrayList<>();
+    private final CompositeEthereumListener listener = new CompositeEthereumListener() {
+        @Override
+        public void addListener(EthereumListener listener) {
+            cacheListeners.add(listener);
+        }
+    };
+
+    @Test
+    public void testSameAsBlockchain() {
+        StandaloneBlockchain sb = new StandaloneBlockchain();
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            sb.sendEther(new ECKey().getAddress(), BigInteger.valueOf(1000 + i));
+            sb.sendEther(new ECKey().getAddress(), BigInteger.valueOf(2000 + i));
+            blocks.add(sb.createBlock());
+        }
+        BlockchainImpl blockchain = sb.getBlockchain();
+        EthResponseCache cache = new EthResponseCache(blockchain, listener);
+
+        // twice to check the cached values as well
+        for (int i = 0; i < 2; i++) {
+            checkHeaders(blockchain, cache, new BlockIdentifier(null, 0), 0, 10, false);
+            checkHeaders(blockchain, cache, new BlockIdentifier(null, 5), 1, 3, true);
+            checkHeaders(blockchain, cache, new BlockIdentifier(blocks.get(1).getHash(), 0), 2, 10, false);
+            checkHeaders(blockchain, cache, new BlockIdentifier(new byte[32], 0), 0, 10, false);
+
+            List<byte[]> hashes = new ArrayList<>();
+            for (Block block : blocks) {
+                hashes.add(block.getHash());
+            }
+            hashes.add(new byte[32]);
+            assertEquals(toString(blockchain.getListOfBodiesByHashes(hashes)),
+                    toString(cache.getBodies(hashes, Integer.MAX_VALUE)));
+            assertEquals(1, cache.getBodies(hashes, 1).size());
+
+            List<List<TransactionReceipt>> receipts = new ArrayList<>();
+            for (Block block : blocks) {
+                List<TransactionReceipt> blockReceipts = new ArrayList<>();
+                for (Transaction tx : block.getTransactionsList()) {
+                    blockReceipts.add(blockchain.getTransactionInfo(tx.getHash()).getReceipt());
+                }
+                receipts.add(blockReceipts);
+            }
+            List<byte[]> cached = cache.getReceipts(hashes, Integer.MAX_VALUE);
+            assertArrayEquals(new ReceiptsMessage(receipts).getEncoded(),
+                    new ReceiptsMessage(RLP.encodeList(cached.toArray(new byte[0][]))).getEncoded());
+        }
+    }
+
+    @Test
+    public void testReorg() {
+        StandaloneBlockchain sb = new StandaloneBlockchain();
+        Block a1 = sb.createBlock();
+        Block a2 = sb.createBlock();
+        EthResponseCache cache = new EthResponseCache(sb.getBlockchain(), listener);
+        cacheListeners.get(0).onBlock(new BlockSummary(a2, Collections.emptyMap(), Collections.emptyList(),
+                Collections.emptyList()), true);
+        assertArrayEquals(a2.getHeader().getEncoded(), cache.getHeaders(new BlockIdentifier(null, 2), 0, 1, false).get(0));
+
+        Block b2 = sb.createForkBlock(a1);
+        Block b3 = sb.createForkBlock(b2);
+        assertArrayEquals(b3.getHash(), sb.getBlockchain().getBestBlock().getHash());
+
+        cacheListeners.get(0).onBlock(new BlockSummary(b3, Collections.emptyMap(), Collections.emptyList(),
+                Collections.emptyList()), true);
+        List<byte[]> headers = cache.getHeaders(new BlockIdentifier(null, 1), 0, 10, false);
+        assertEquals(3, headers.size());
+        assertArrayEquals(b2.getHeader().getEncoded(), headers.get(1));
+        assertArrayEquals(b3.getHeader().getEncoded(), headers.get(2));
+    }
+
+    @Test
+    public void testReorgDuringLookup() {
+        StandaloneBlockchain sb = new StandaloneBlockchain();
+        Block a1 = sb.createBlock();
+        Block a2 = sb.createBlock();
+        Block b2 = sb.createForkBlock(a1);
+        Block b3 = sb.createForkBlock(b2);
+
+        Blockchain blockchain = mock(Blockchain.class);
+        EthResponseCache cache = new EthResponseCache(blockchain, listener);
+        when(blockchain.getIteratorOfHeadersStartFrom(any(BlockIdentifier.class), anyInt(), anyInt(), anyBoolean()))
+                .thenAnswer(invocation -> {
+                    // the chain is reorganized while the header of the old chain is being read
+                    cacheListeners.get(0).onBlock(new BlockSummary(b3, Collections.emptyMap(), Collections.emptyList(),
+                            Collections.emptyList()), true);
+                    return Collections.singletonList(a2.getHeader()).iterator();
+                })
+                .thenReturn(Collections.singletonList(b2.getHeader()).iterator());
+
+        assertArrayEquals(a2.getHeader().getEncoded(), cache.getHeaders(new BlockIdentifier(null, 2), 0, 1, false).get(0));
+        assertArrayEquals(b2.getHeader().getEncoded(), cache.getHeaders(new BlockIdentifier(null, 2), 0, 1, false).get(0));
+    }
+
+    private void checkHeaders(BlockchainImpl blockchain, EthResponseCache cache, BlockIdentifier identifier,
+                              int skip, int limit, boolean reverse) {
+        List<byte[]> expected = new ArrayList<>();
+        for (BlockHeader header : blockchain.getListOfHeadersStartFrom(identifier, skip, limit, reverse)) {
+            expected.add(header.getEncoded());
+        }
+        assertEquals(toString(expected), toString(cache.getHeaders(identifier, skip, limit, reverse)));
+    }
+
+    private static List<String> toString(List<byte[]> list) {
+        List<String> ret = new ArrayList<>();
+        for (byte[] bytes : list) {
+            ret.add(Arrays.toString(bytes));
+        }
+        return ret;
+    }
+}
@@ -18,6 +18,8 @@
 package org.ethereum.net.rlpx;
 
 import com.google.common.collect.Lists;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import org.ethereum.crypto.ECKey;
 import org.ethereum.net.client.Capability;
 import org.junit.Before;
@@ -85,6 +87,31 @@ public class RlpxConnectionTest {
         assertEquals(frame.type, frame1.type);
     }
 
+    @Test
+    public void testFrameByteBuf() throws Exception {
+        SecureRandom rnd = new SecureRandom();
+        ByteBuf wire = Unpooled.buffer();
+        for (int size : new int[] {0, 1, 15, 16, 17, 100, 10000}) {
+            byte[] payload = new byte[size];
+            rnd.nextBytes(payload);
+            // both the array backed and direct output buffers
+            ByteBuf out = size % 2 == 0 ? Unpooled.buffer(1) : Unpooled.directBuffer(1);
+            iCodec.writeFrame(new FrameCodec.Frame(size * 1000, payload), out);
+            wire.writeBytes(out);
+
+            // the body is read only when it is received entirely, the header is read already
+            ByteBuf partial = wire.slice(wire.readerIndex(), wire.readableBytes() - 1);
+            assertNull(rCodec.readFrames(partial));
+            assertEquals(wire.readableBytes() - 1 - 32, partial.readableBytes());
+
+            wire.skipBytes(32);
+            FrameCodec.Frame frame = rCodec.readFrames(wire).get(0);
+            assertEquals(size * 1000, frame.getType());
+            assertArrayEquals(payload, frame.getPayload());
+            assertEquals(0, wire.readableBytes());
+        }
+    }
+
     @Test
     public void testMessageEncoding() throws IOException {
         byte[] wire = iMessage.encode();
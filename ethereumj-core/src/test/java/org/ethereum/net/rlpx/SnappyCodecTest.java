@@ -77,6 +77,30 @@ public class SnappyCodecTest {
         assertTrue(stats.contains(BAD_PROTOCOL.toString()));
     }
 
+    @Test
+    public void testEncodeDecode() throws Exception {
+        SnappyCodec codec = new SnappyCodec(new Channel());
+        long frames = SnappyCodec.getEncodeStats().getFrames(0x13);
+        // the scratch buffer is reused for the smaller frames
+        for (int size : new int[] {10000, 100, 0, 5000}) {
+            byte[] payload = new byte[size];
+            for (int i = 0; i < size; i++) payload[i] = (byte) (i % 7);
+
+            List<Object> encoded = newArrayList();
+            codec.encode(null, new FrameCodec.Frame(0x13, payload), encoded);
+            FrameCodec.Frame compressed = (FrameCodec.Frame) encoded.get(0);
+            if (size > 100) assertTrue(compressed.getSize() < size);
+
+            List<Object> decoded = newArrayList();
+            codec.decode(null, compressed, decoded);
+            FrameCodec.Frame frame = (FrameCodec.Frame) decoded.get(0);
+            assertEquals(0x13, frame.getType());
+            assertArrayEquals(payload, frame.getPayload());
+        }
+        assertEquals(frames + 4, SnappyCodec.getEncodeStats().getFrames(0x13));
+        assertTrue(SnappyCodec.getDecodeStats().getUncompressedBytes(0x13) >= 15100);
+    }
+
     private void snappyDecode(byte[] payload, Channel channel) throws Exception {
         SnappyCodec codec = new SnappyCodec(channel);
 
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.rlpx.discover;
+
+import org.ethereum.net.rlpx.discover.NodeStatistics.RequestStat;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NodeStatisticsTest {
+
+    @Test
+    public void testRequestStat() throws InterruptedException {
+        RequestStat stat = new RequestStat("test");
+        // not measured peers are tried first with the full requests
+        assertEquals(Double.MAX_VALUE, stat.getThroughput(), 0);
+        assertEquals(192, stat.getRequestSize(16, 192));
+        assertFalse(stat.isMeasured());
+
+        for (int i = 0; i < 3; i++) {
+            stat.requestSent();
+            Thread.sleep(100);
+            assertTrue(stat.getPendingTime() > 0);
+            stat.responseReceived(2, 1000);
+            assertEquals(0, stat.getPendingTime());
+        }
+        assertTrue(stat.isMeasured());
+        // ~20 items/sec
+        int size = stat.getRequestSize(16, 192);
+        assertTrue(size >= 16 && size < 192);
+        assertTrue(stat.getThroughput() <= 10_000);
+
+        double throughput = stat.getThroughput();
+        stat.requestSent();
+        stat.requestFailed();
+        assertTrue(stat.getFailureRate() > 0);
+        assertTrue(stat.getThroughput() < throughput);
+
+        // a response without request is ignored
+        stat.responseReceived(1000, 1000);
+        assertEquals(size, stat.getRequestSize(16, 192));
+    }
+}
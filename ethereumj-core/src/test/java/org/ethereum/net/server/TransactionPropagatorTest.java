@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.server;
+
+import org.ethereum.core.Transaction;
+import org.junit.After;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TransactionPropagatorTest {
+
+    private TransactionPropagator propagator = new TransactionPropagator(false);
+    // transactions sent to each peer
+    private Map<Channel, List<Transaction>> sent = Collections.synchronizedMap(new HashMap<>());
+
+    @After
+    public void tearDown() {
+        propagator.close();
+    }
+
+    @Test
+    public void testOwnTransactions() {
+        List<Channel> peers = createPeers(4);
+        List<Transaction> txs = createTxs(3);
+        long started = System.currentTimeMillis();
+        propagator.propagate(txs, null, peers);
+        // the known transactions are not sent again
+        propagator.propagate(txs, null, peers);
+
+        // the batches are waiting for the window to expire
+        propagator.flushExpired(started);
+        for (Channel peer : peers) {
+            assertTrue(sent.get(peer).isEmpty());
+        }
+
+        flushBatches();
+
+        for (Channel peer : peers) {
+            assertEquals(txs, sent.get(peer));
+        }
+    }
+
+    @Test
+    public void testRelayedTransactions() {
+        List<Channel> peers = createPeers(9);
+        List<Transaction> txs = createTxs(10);
+        propagator.propagate(txs, peers.get(0), peers);
+        flushBatches();
+
+        assertTrue(sent.get(peers.get(0)).isEmpty());
+        for (Transaction tx : txs) {
+            int receivers = 0;
+            for (Channel peer : peers) {
+                if (sent.get(peer).contains(tx)) receivers++;
+            }
+            assertEquals(3, receivers);
+        }
+    }
+
+    @Test
+    public void testMarkKnown() {
+        List<Channel> peers = createPeers(2);
+        List<Transaction> txs = createTxs(2);
+        propagator.markKnown(peers.get(1), txs.subList(0, 1));
+        propagator.propagate(txs, null, peers);
+        flushBatches();
+
+        assertEquals(txs, sent.get(peers.get(0)));
+        assertEquals(txs.subList(1, 2), sent.get(peers.get(1)));
+    }
+
+    @Test
+    public void testDisconnectedPeer() {
+        List<Channel> peers = createPeers(2);
+        Channel disconnected = peers.get(1);
+        when(disconnected.isDisconnected()).thenReturn(true);
+        List<Transaction> txs = createTxs(2);
+
+        // the transactions received from the peer which is already gone
+        propagator.markKnown(disconnected, txs);
+        assertFalse(propagator.peers.containsKey(disconnected));
+
+        propagator.propagate(txs, null, peers);
+        flushBatches();
+        assertEquals(txs, sent.get(peers.get(0)));
+        assertTrue(sent.get(disconnected).isEmpty());
+        assertFalse(propagator.peers.containsKey(disconnected));
+    }
+
+    @Test
+    public void testBatchSize() {
+        List<Channel> peers = createPeers(1);
+        propagator.propagate(createTxs(Channel.MAX_SAFE_TXS), null, peers);
+        // the full batch is sent without waiting
+        assertEquals(Channel.MAX_SAFE_TXS, sent.get(peers.get(0)).size());
+    }
+
+    private void flushBatches() {
+        propagator.flushExpired(System.currentTimeMillis() + TransactionPropagator.BATCH_WINDOW_MS);
+    }
+
+    private List<Channel> createPeers(int count) {
+        List<Channel> ret = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Channel peer = mock(Channel.class);
+            sent.put(peer, new ArrayList<>());
+            doAnswer(invocation -> {
+                List<Transaction> txs = invocation.getArgument(0);
+                sent.get(peer).addAll(txs);
+                return null;
+            }).when(peer).sendTransactions(anyList());
+            ret.add(peer);
+        }
+        return ret;
+    }
+
+    private List<Transaction> createTxs(int count) {
+        List<Transaction> ret = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ret.add(Transaction.createDefault("0000000000000000000000000000000000000001",
+                    BigInteger.ONE, BigInteger.valueOf(i)));
+        }
+        return ret;
+    }
+}
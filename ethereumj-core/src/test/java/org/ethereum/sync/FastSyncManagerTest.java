@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.sync;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.ethereum.core.AccountState;
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.net.eth.handler.Eth63;
+import org.ethereum.net.message.ReasonCode;
+import org.ethereum.net.rlpx.Node;
+import org.ethereum.net.rlpx.discover.NodeStatistics;
+import org.ethereum.net.server.Channel;
+import org.ethereum.sync.FastSyncManager.TrieNodeRequest;
+import org.ethereum.sync.FastSyncManager.TrieNodeType;
+import org.ethereum.trie.TrieImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.ethereum.crypto.HashUtil.randomPeerId;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.sync.FastSyncManager.PEER_MAX_REQUESTS;
+import static org.ethereum.sync.FastSyncManager.REQUEST_MAX_NODES;
+import static org.ethereum.sync.FastSyncManager.REQUEST_TIMEOUT;
+import static org.ethereum.util.ByteUtil.intToBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FastSyncManagerTest {
+
+    private static class SentRequest {
+        final Channel peer;
+        final List<byte[]> hashes;
+        final SettableFuture<List<byte[]>> future = SettableFuture.create();
+
+        SentRequest(Channel peer, List<byte[]> hashes) {
+            this.peer = peer;
+            this.hashes = hashes;
+        }
+    }
+
+    private FastSyncManager manager;
+    private final List<Channel> peers = new ArrayList<>();
+    private final List<SentRequest> sent = new ArrayList<>();
+    private final Map<ByteArrayWrapper, byte[]> nodes = new HashMap<>();
+
+    @Before
+    public void setUp() {
+        manager = new FastSyncManager();
+        manager.pool = mock(SyncPool.class);
+        when(manager.pool.getActivePeers()).thenAnswer(invocation -> new ArrayList<>(peers));
+        // the responses are processed right when the futures are completed
+        manager.nodesProcessor = MoreExecutors.newDirectExecutorService();
+    }
+
+    @Test
+    public void testMergeRequests() {
+        byte[] hash = HashUtil.randomHash();
+        TrieNodeRequest r1 = manager.new TrieNodeRequest(TrieNodeType.STORAGE, hash, 1, HashUtil.randomHash());
+        TrieNodeRequest r2 = manager.new TrieNodeRequest(TrieNodeType.STORAGE, hash, 1, HashUtil.randomHash());
+        manager.addRequest(r1);
+        manager.addRequest(r2);
+
+        assertEquals(1, manager.pendingNodes.size());
+        assertEquals(1, manager.nodesQueue.size());
+        assertSame(r1, manager.pendingNodes.get(new ByteArrayWrapper(hash)));
+        assertEquals(2, r1.storageHashes().size());
+
+        // the request for the node which is already sent is merged but not queued again
+        assertEquals(Collections.singletonList(r1), manager.pollRequests(10));
+        manager.addRequest(manager.new TrieNodeRequest(TrieNodeType.STORAGE, hash, 1, HashUtil.randomHash()));
+        assertEquals(1, manager.pendingNodes.size());
+        assertTrue(manager.nodesQueue.isEmpty());
+        assertEquals(3, r1.storageHashes().size());
+    }
+
+    @Test
+    public void testDepthPriority() {
+        TrieNodeRequest r0 = codeRequest(0);
+        TrieNodeRequest r2 = codeRequest(2);
+        TrieNodeRequest r1 = codeRequest(1);
+        TrieNodeRequest r2a = codeRequest(2);
+        for (TrieNodeRequest r : new TrieNodeRequest[] {r0, r2, r1, r2a}) {
+            manager.addRequest(r);
+        }
+
+        // the deepest first, in the order of creation within the same depth
+        assertEquals(asList(r2, r2a, r1, r0), manager.pollRequests(10));
+    }
+
+    @Test
+    public void testPeerLimits() {
+        Channel slow = createPeer(0, 0);
+        // retrieves 10 nodes per millisecond which is above the max limit
+        Channel fast = createPeer(10_000, 1_000);
+        addCodeRequests(3000);
+
+        manager.requestNodes();
+        assertEquals(PEER_MAX_REQUESTS, sentTo(fast).size());
+        assertEquals(1, sentTo(slow).size());
+        for (SentRequest request : sent) {
+            assertEquals(REQUEST_MAX_NODES, request.hashes.size());
+        }
+
+        // both peers have reached their limits
+        manager.requestNodes();
+        assertEquals(PEER_MAX_REQUESTS + 1, sent.size());
+
+        respond(sentTo(fast).get(0), sentTo(fast).get(0).hashes);
+        manager.requestNodes();
+        assertEquals(PEER_MAX_REQUESTS + 1, sentTo(fast).size());
+        assertEquals(1, sentTo(slow).size());
+        assertEquals(3000 - (PEER_MAX_REQUESTS + 2) * REQUEST_MAX_NODES, manager.nodesQueue.size());
+    }
+
+    @Test
+    public void testMissingNodesRequeued() {
+        createPeer(0, 0);
+        List<TrieNodeRequest> requests = addCodeRequests(10);
+
+        manager.requestNodes();
+        assertEquals(1, sent.size());
+        SentRequest request = sent.get(0);
+        respond(request, request.hashes.subList(0, 5));
+
+        assertEquals(5, manager.dbWriteQueue.size());
+        assertEquals(5, manager.pendingNodes.size());
+        assertEquals(5, manager.nodesQueue.size());
+
+        manager.requestNodes();
+        assertEquals(2, sent.size());
+        assertEquals(hashes(requests.subList(5, 10)), toWrappers(sent.get(1).hashes));
+    }
+
+    @Test
+    public void testTimeoutAnsweredOnce() {
+        Channel peer = createPeer(0, 0);
+        addCodeRequests(1000);
+
+        manager.requestNodes();
+        SentRequest first = sent.get(0);
+        manager.processTimeouts(System.currentTimeMillis() + REQUEST_TIMEOUT + 1);
+        assertEquals(1000, manager.nodesQueue.size());
+
+        // the failure of the timed out request neither releases the peer nor queues the nodes again
+        first.future.setException(new RuntimeException());
+        manager.processTimeouts(System.currentTimeMillis() + REQUEST_TIMEOUT + 1);
+        assertEquals(1000, manager.nodesQueue.size());
+        manager.requestNodes();
+        assertEquals(2, sent.size());
+        assertEquals(REQUEST_MAX_NODES, sent.get(1).hashes.size());
+
+        // the late response is still accepted
+        SentRequest second = sent.get(1);
+        manager.processTimeouts(System.currentTimeMillis() + REQUEST_TIMEOUT + 1);
+        respond(second, second.hashes);
+        assertEquals(REQUEST_MAX_NODES, manager.dbWriteQueue.size());
+        assertEquals(1000 - REQUEST_MAX_NODES, manager.pendingNodes.size());
+        // the received nodes queued again on the timeout are skipped
+        assertEquals(1000 - REQUEST_MAX_NODES, manager.pollRequests(1000).size());
+        verify(peer, never()).disconnect(ReasonCode.USELESS_PEER);
+    }
+
+    @Test
+    public void testUnrequestedNode() {
+        Channel peer = createPeer(0, 0);
+        addCodeRequests(10);
+        manager.requestNodes();
+
+        respondNodes(sent.get(0), Collections.singletonList(new byte[] {1, 2, 3}));
+        verify(peer).disconnect(ReasonCode.USELESS_PEER);
+        assertTrue(manager.dbWriteQueue.isEmpty());
+        assertEquals(10, manager.pendingNodes.size());
+    }
+
+    @Test
+    public void testChildRequests() {
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        TrieImpl trie = new TrieImpl(db);
+        byte[] account = new AccountState(BigInteger.ZERO, BigInteger.ONE).getEncoded();
+        for (int i = 0; i < 100; i++) {
+            trie.put(sha3(intToBytes(i)), account);
+        }
+        trie.flush();
+        byte[] root = trie.getRootHash();
+        for (byte[] key : db.keys()) {
+            nodes.put(new ByteArrayWrapper(key), db.get(key));
+        }
+
+        createPeer(0, 0);
+        manager.addRequest(manager.new TrieNodeRequest(TrieNodeType.STATE, root, 0));
+        manager.requestNodes();
+        respond(sent.get(0), sent.get(0).hashes);
+
+        // the root is a full branch node
+        assertEquals(16, manager.pendingNodes.size());
+        for (TrieNodeRequest child : manager.pendingNodes.values()) {
+            assertEquals(1, child.depth);
+            assertNotNull(db.get(child.nodeHash));
+        }
+        assertArrayEquals(db.get(root), manager.dbWriteQueue.peek().response);
+    }
+
+    private Channel createPeer(long nodesReceived, long retrieveTime) {
+        Channel peer = mock(Channel.class);
+        NodeStatistics stat = new NodeStatistics(new Node(randomPeerId(), "127.0.0.1", 30303));
+        stat.eth63NodesReceived.add(nodesReceived);
+        stat.eth63NodesRetrieveTime.add(retrieveTime);
+        when(peer.getNodeStatistics()).thenReturn(stat);
+
+        Eth63 eth = mock(Eth63.class);
+        when(eth.requestTrieNodes(anyList())).thenAnswer(invocation -> {
+            SentRequest request = new SentRequest(peer, new ArrayList<>(invocation.getArgument(0)));
+            sent.add(request);
+            return request.future;
+        });
+        when(peer.getEthHandler()).thenReturn(eth);
+        peers.add(peer);
+        return peer;
+    }
+
+    private TrieNodeRequest codeRequest(int depth) {
+        byte[] code = HashUtil.randomHash();
+        byte[] hash = sha3(code);
+        nodes.put(new ByteArrayWrapper(hash), code);
+        return manager.new TrieNodeRequest(TrieNodeType.CODE, hash, depth, HashUtil.randomHash());
+    }
+
+    private List<TrieNodeRequest> addCodeRequests(int cnt) {
+        List<TrieNodeRequest> ret = new ArrayList<>();
+        for (int i = 0; i < cnt; i++) {
+            TrieNodeRequest request = codeRequest(0);
+            manager.addRequest(request);
+            ret.add(request);
+        }
+        return ret;
+    }
+
+    private void respond(SentRequest request, List<byte[]> hashes) {
+        respondNodes(request, hashes.stream().map(h -> nodes.get(new ByteArrayWrapper(h))).collect(Collectors.toList()));
+    }
+
+    private void respondNodes(SentRequest request, List<byte[]> response) {
+        request.future.set(response);
+    }
+
+    private List<SentRequest> sentTo(Channel peer) {
+        return sent.stream().filter(r -> r.peer == peer).collect(Collectors.toList());
+    }
+
+    private static List<ByteArrayWrapper> hashes(List<TrieNodeRequest> requests) {
+        return requests.stream().map(r -> new ByteArrayWrapper(r.nodeHash)).collect(Collectors.toList());
+    }
+
+    private static List<ByteArrayWrapper> toWrappers(List<byte[]> hashes) {
+        return hashes.stream().map(ByteArrayWrapper::new).collect(Collectors.toList());
+    }
+
+    private static List<TrieNodeRequest> asList(TrieNodeRequest... requests) {
+        List<TrieNodeRequest> ret = new ArrayList<>();
+        Collections.addAll(ret, requests);
+        return ret;
+    }
+}
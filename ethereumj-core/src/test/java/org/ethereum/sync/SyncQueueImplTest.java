@@ -35,6 +35,8 @@ import static org.ethereum.crypto.HashUtil.randomPeerId;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by Anton Nashatyrev on 30.05.2016.
@@ -365,6 +367,91 @@ public class SyncQueueImplTest {
                 longestChain.get(longestChain.size() - 1).header.getHeader());
     }
 
+    @Test
+    public void testSkeleton() {
+        List<Block> randomChain = TestUtils.getRandomChain(new byte[32], 0, 3000);
+        Peer peer = new Peer(randomChain);
+        long best = randomChain.get(randomChain.size() - 1).getNumber();
+        SyncQueueImpl queue = new SyncQueueImpl(randomChain.subList(0, 32))
+                .withBestKnownNumber(() -> best);
+
+        List<SyncQueueIfc.HeadersRequest> requests = queue.requestHeaders(DEFAULT_REQUEST_LEN, 16, Integer.MAX_VALUE);
+        assertEquals(1, requests.size());
+        assertEquals(SyncQueueImpl.SKELETON_STEP - 1, requests.get(0).getStep());
+
+        List<SyncQueueImpl.HeaderElement> longestChain = queue.getLongestChain();
+        int cnt = 0;
+        while (longestChain.get(longestChain.size() - 1).header.getNumber() < best && cnt++ < 100) {
+            // the gaps are filled in the reverse order
+            Collections.reverse(requests);
+            for (SyncQueueIfc.HeadersRequest request : requests) {
+                SyncQueueIfc.ValidatedHeaders ret = queue.addHeadersAndValidate(
+                        createHeadersFromHeaders(getHeaders(peer, request), peer0));
+                assert ret.isValid();
+            }
+            requests = queue.requestHeaders(DEFAULT_REQUEST_LEN, 16, Integer.MAX_VALUE);
+            longestChain = queue.getLongestChain();
+        }
+        assert cnt < 100;
+        for (int i = 1; i < longestChain.size(); i++) {
+            assertArrayEquals(longestChain.get(i - 1).header.getHash(), longestChain.get(i).header.getHeader().getParentHash());
+        }
+    }
+
+    @Test
+    public void testSkeletonGapMismatch() {
+        List<Block> randomChain = TestUtils.getRandomChain(new byte[32], 0, 1000);
+        Peer peer = new Peer(randomChain);
+        SyncQueueImpl queue = new SyncQueueImpl(randomChain.subList(0, 32))
+                .withBestKnownNumber(() -> 999);
+
+        SyncQueueIfc.HeadersRequest skeletonRequest = queue.requestHeaders(DEFAULT_REQUEST_LEN, 16, Integer.MAX_VALUE).get(0);
+        queue.addHeadersAndValidate(createHeadersFromHeaders(getHeaders(peer, skeletonRequest), peer0));
+        SyncQueueIfc.HeadersRequest gapRequest = queue.requestHeaders(DEFAULT_REQUEST_LEN, 16, Integer.MAX_VALUE).get(0);
+        assertTrue(gapRequest.isReverse());
+
+        // the top header is right while the rest is from another chain
+        List<BlockHeader> headers = getHeaders(peer, gapRequest);
+        BlockHeader top = headers.get(0);
+        List<Block> fake = TestUtils.getRandomChain(TestUtils.randomBytes(32),
+                top.getNumber() - headers.size() + 1, headers.size() - 1);
+        headers = headers.subList(0, 1);
+        for (int i = fake.size() - 1; i >= 0; i--) {
+            headers.add(fake.get(i).getHeader());
+        }
+        byte[] nodeId = randomPeerId();
+        SyncQueueIfc.ValidatedHeaders ret = queue.addHeadersAndValidate(createHeadersFromHeaders(headers, nodeId));
+        assertFalse(ret.isValid());
+        assertArrayEquals(nodeId, ret.getNodeId());
+        assertEquals(31, queue.getLongestChain().get(queue.getLongestChain().size() - 1).header.getNumber());
+    }
+
+    @Test
+    public void testGenerations() {
+        SyncQueueImpl.Generations<Long> gens = new SyncQueueImpl.Generations<>();
+        for (long i = 100; i < 1100; i++) {
+            gens.put(i, i);
+        }
+        gens.put(5000, 5000L);
+        for (long i = 100; i < 1000; i++) {
+            gens.remove(i);
+        }
+        assertNull(gens.get(999));
+        assertEquals(Long.valueOf(1000), gens.get(1000));
+        assertEquals(Long.valueOf(5000), gens.get(5000));
+        assertFalse(gens.containsKey(4999));
+        gens.put(10, 10L);
+        assertEquals(Long.valueOf(10), gens.get(10));
+        assertEquals(Long.valueOf(1099), gens.get(1099));
+    }
+
+    private List<BlockHeader> getHeaders(Peer peer, SyncQueueIfc.HeadersRequest request) {
+        // the request step is the number of skipped headers
+        long start = request.getHash() == null ? request.getStart() :
+                peer.blocks.get(new ByteArrayWrapper(request.getHash())).getNumber();
+        return peer.getHeaders(start, request.getCount(), request.isReverse(), request.getStep() + 1);
+    }
+
     public void test2Impl(List<Block> mainChain, List<Block> initChain, Peer[] peers) {
         List<Block> randomChain = TestUtils.getRandomChain(new byte[32], 0, 1024);
         final Block[] maxExportedBlock = new Block[] {randomChain.get(31)};
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.trie;
+
+import org.ethereum.util.RLP;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.junit.Assert.assertArrayEquals;
+
+public class ListTrieRootTest {
+
+    @Test
+    public void testSameAsTrie() {
+        Random rnd = new Random(1);
+        int[] sizes = {0, 1, 2, 3, 16, 17, 127, 128, 129, 255, 256, 257, 1000};
+        for (int size : sizes) {
+            // short items produce nodes embedded into the parents
+            for (int maxItemLen : new int[] {1, 4, 100}) {
+                TrieImpl trie = new TrieImpl();
+                ListTrieRoot root = new ListTrieRoot();
+                for (int i = 0; i < size; i++) {
+                    byte[] item = new byte[1 + rnd.nextInt(maxItemLen)];
+                    rnd.nextBytes(item);
+                    trie.put(RLP.encodeInt(i), item);
+                    root.add(item);
+                }
+                assertArrayEquals("size " + size, trie.getRootHash(), root.getRootHash());
+            }
+        }
+        assertArrayEquals(EMPTY_TRIE_HASH, new ListTrieRoot().getRootHash());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddAfterRoot() {
+        ListTrieRoot root = new ListTrieRoot();
+        root.add(new byte[] {1});
+        root.getRootHash();
+        root.add(new byte[] {2});
+    }
+}
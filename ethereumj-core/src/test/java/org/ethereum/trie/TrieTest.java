@@ -22,6 +22,7 @@ import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.*;
 import org.ethereum.datasource.inmem.HashMapDB;
 import org.ethereum.datasource.inmem.HashMapDBSimple;
+import org.ethereum.util.ByteArrayMap;
 import org.ethereum.util.Value;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -1194,4 +1195,109 @@ public class TrieTest {
             System.out.println((System.nanoTime() - s) / 1_000_000 + " ms, root: " + (System.nanoTime() - s1) / 1_000_000 + " ms");
         }
     }
+
+    @Test
+    public void testAsyncRootSameAsSync() {
+        HashMapDB<byte[]> asyncDb = new HashMapDB<>();
+        HashMapDB<byte[]> syncDb = new HashMapDB<>();
+        TrieImpl asyncTrie = new TrieImpl(asyncDb, null);
+        TrieImpl syncTrie = new TrieImpl(syncDb, null);
+        syncTrie.setAsync(false);
+
+        Random rnd = new Random(1);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 20_000; i++) {
+                byte[] k = sha3(intToBytes(rnd.nextInt(50_000)));
+                if (rnd.nextInt(5) == 0) {
+                    asyncTrie.delete(k);
+                    syncTrie.delete(k);
+                } else {
+                    byte[] v = new byte[rnd.nextInt(64) + 1];
+                    rnd.nextBytes(v);
+                    asyncTrie.put(k, v);
+                    syncTrie.put(k, v);
+                }
+            }
+            assertArrayEquals(syncTrie.getRootHash(), asyncTrie.getRootHash());
+            asyncTrie.flush();
+            syncTrie.flush();
+            assertEquals(syncDb.keys().size(), asyncDb.keys().size());
+        }
+    }
+
+    @Test
+    public void testBatchUpdateSameAsSequential() {
+        HashMapDB<byte[]> batchDb = new HashMapDB<>();
+        HashMapDB<byte[]> seqDb = new HashMapDB<>();
+        TrieImpl batchTrie = new SecureTrie(batchDb);
+        TrieImpl seqTrie = new SecureTrie(seqDb);
+
+        Random rnd = new Random(1);
+        for (int round = 0; round < 5; round++) {
+            // same keys can be passed twice, the later value should win
+            Map<byte[], byte[]> batch = new LinkedHashMap<>();
+            for (int i = 0; i < 5_000; i++) {
+                byte[] k = intToBytes(rnd.nextInt(20_000));
+                byte[] v = null;
+                if (rnd.nextInt(4) != 0) {
+                    v = new byte[rnd.nextInt(64) + 1];
+                    rnd.nextBytes(v);
+                }
+                batch.put(k, v);
+                if (v == null) {
+                    seqTrie.delete(k);
+                } else {
+                    seqTrie.put(k, v);
+                }
+            }
+            batchTrie.updateBatch(batch);
+            assertArrayEquals(seqTrie.getRootHash(), batchTrie.getRootHash());
+            batchTrie.flush();
+            seqTrie.flush();
+            assertEquals(seqDb.keys().size(), batchDb.keys().size());
+        }
+    }
+
+    @Test
+    public void testBatchUpdateShortKeys() {
+        // short keys of different length to get the values in the branch nodes and lots of compactions
+        Random rnd = new Random(1);
+        for (int round = 0; round < 200; round++) {
+            TrieImpl batchTrie = new TrieImpl();
+            TrieImpl seqTrie = new TrieImpl();
+            batchTrie.setAsync(false);
+            List<byte[]> keys = new ArrayList<>();
+            for (int i = 0; i < 1 + rnd.nextInt(50); i++) {
+                byte[] k = new byte[1 + rnd.nextInt(3)];
+                for (int j = 0; j < k.length; j++) k[j] = (byte) (rnd.nextInt(3) * 0x11);
+                keys.add(k);
+                seqTrie.put(k, k);
+            }
+            batchTrie.updateBatch(toBatch(keys, true));
+            assertArrayEquals(seqTrie.getRootHash(), batchTrie.getRootHash());
+
+            Collections.shuffle(keys, rnd);
+            List<byte[]> deleted = keys.subList(0, rnd.nextInt(keys.size() + 1));
+            for (byte[] k : deleted) seqTrie.delete(k);
+            Map<byte[], byte[]> deletes = new ByteArrayMap<>();
+            for (byte[] k : deleted) deletes.put(k, null);
+            batchTrie.updateBatch(deletes);
+            assertArrayEquals(seqTrie.getRootHash(), batchTrie.getRootHash());
+            for (byte[] k : keys) {
+                assertArrayEquals(seqTrie.get(k), batchTrie.get(k));
+            }
+        }
+
+        TrieImpl trie = new TrieImpl();
+        trie.updateBatch(toBatch(Arrays.asList(new byte[] {1}, new byte[] {1, 2}, new byte[] {2}), true));
+        trie.getRootHash();
+        trie.updateBatch(toBatch(Arrays.asList(new byte[] {1}, new byte[] {1, 2}, new byte[] {2}), false));
+        assertArrayEquals(EMPTY_TRIE_HASH, trie.getRootHash());
+    }
+
+    private static Map<byte[], byte[]> toBatch(List<byte[]> keys, boolean put) {
+        Map<byte[], byte[]> ret = new ByteArrayMap<>();
+        for (byte[] k : keys) ret.put(k, put ? k : null);
+        return ret;
+    }
 }
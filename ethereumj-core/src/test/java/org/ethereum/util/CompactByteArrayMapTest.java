@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.util;
+
+import org.ethereum.db.ByteArrayWrapper;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.util.ByteUtil.intToBytes;
+import static org.junit.Assert.*;
+
+public class CompactByteArrayMapTest {
+
+    @Test
+    public void testRandomOps() {
+        CompactByteArrayMap<Integer> map = new CompactByteArrayMap<>();
+        Map<ByteArrayWrapper, Integer> expected = new HashMap<>();
+        Random rnd = new Random(1);
+
+        for (int i = 0; i < 100_000; i++) {
+            // small key space to get a lot of overwrites and removals
+            byte[] key = sha3(intToBytes(rnd.nextInt(5_000)));
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(expected.remove(new ByteArrayWrapper(key)), map.remove(key));
+            } else {
+                assertEquals(expected.put(new ByteArrayWrapper(key), i), map.put(key, i));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (Map.Entry<ByteArrayWrapper, Integer> e : expected.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey().getData()));
+            assertTrue(map.containsKey(e.getKey().getData()));
+        }
+        Map<ByteArrayWrapper, Integer> iterated = new HashMap<>();
+        for (Map.Entry<byte[], Integer> e : map.entrySet()) {
+            iterated.put(new ByteArrayWrapper(e.getKey()), e.getValue());
+        }
+        assertEquals(expected, iterated);
+    }
+
+    @Test
+    public void testNullValuesAndOtherKeys() {
+        CompactByteArrayMap<String> map = new CompactByteArrayMap<>(CompactByteArrayMap.ADDRESS_KEY_LENGTH);
+        byte[] addr = new byte[20];
+        byte[] hash = sha3(addr);
+        byte[] shortKey = new byte[] {1, 2};
+
+        map.put(addr, null);
+        assertTrue(map.containsKey(addr));
+        assertNull(map.get(addr));
+
+        map.put(hash, "hash");
+        map.put(shortKey, "short");
+        assertEquals(3, map.size());
+        assertEquals("hash", map.get(hash));
+        assertEquals("short", map.get(shortKey.clone()));
+        assertNull(map.get(new byte[32]));
+
+        Set<ByteArrayWrapper> keys = new HashSet<>();
+        for (byte[] k : map.keySet()) keys.add(new ByteArrayWrapper(k));
+        assertEquals(new HashSet<>(Arrays.asList(new ByteArrayWrapper(addr),
+                new ByteArrayWrapper(hash), new ByteArrayWrapper(shortKey))), keys);
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(hash));
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        CompactByteArrayMap<Integer> map = new CompactByteArrayMap<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(sha3(intToBytes(i)), i);
+        }
+        for (Iterator<Map.Entry<byte[], Integer>> it = map.entrySet().iterator(); it.hasNext(); ) {
+            if (it.next().getValue() % 2 == 0) it.remove();
+        }
+        assertEquals(500, map.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 0 ? null : i, map.get(sha3(intToBytes(i))));
+        }
+    }
+
+    @Test
+    public void testNumericKeys() {
+        // keys with the constant leading bytes should still be spread over the table
+        Set<byte[]> set = CompactByteArrayMap.newSet();
+        for (int i = 0; i < 100_000; i++) {
+            byte[] key = new byte[32];
+            System.arraycopy(intToBytes(i), 0, key, 28, 4);
+            assertTrue(set.add(key));
+        }
+        assertEquals(100_000, set.size());
+        byte[] key = new byte[32];
+        System.arraycopy(intToBytes(99_999), 0, key, 28, 4);
+        assertTrue(set.contains(key));
+        assertFalse(set.add(key));
+    }
+}
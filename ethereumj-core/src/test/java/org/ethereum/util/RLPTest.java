@@ -1803,4 +1803,61 @@ public class RLPTest {
         assertArrayEquals(shortItemData, decoded.get(7).getRLPData());
         assertArrayEquals(longItemData, decoded.get(8).getRLPData());
     }
+
+    @Test
+    public void testLazyList() {
+        byte[] longItemData = new byte[57]; new Random().nextBytes(longItemData);
+        byte[] shortList = RLP.encodeList(RLP.encodeElement(new byte[] {1, 2}));
+
+        byte[] encoded = RLP.encodeList(RLP.encodeElement(new byte[] {}), RLP.encodeElement(new byte[] {0x7f}),
+                RLP.encodeBigInteger(BigInteger.valueOf(0x1234567890L)), RLP.encodeElement(longItemData), shortList);
+
+        RLP.LList lList = RLP.decodeLazyList(encoded);
+        RLPList rlpList = (RLPList) RLP.decode2(encoded).get(0);
+        assertEquals(rlpList.size(), lList.size());
+        for (int i = 0; i < lList.size(); i++) {
+            assertArrayEquals(rlpList.get(i).getRLPData(), lList.getRLPData(i));
+        }
+        assertTrue(lList.isEmpty(0));
+        assertEquals(0x7f, lList.getInt(1));
+        assertEquals(0x1234567890L, lList.getLong(2));
+        assertEquals(BigInteger.valueOf(0x1234567890L), lList.getBigInteger(2));
+        assertArrayEquals(longItemData, lList.getBytes(3));
+        assertTrue(lList.isList(4));
+        assertArrayEquals(new byte[] {1, 2}, lList.getList(4).getBytes(0));
+    }
+
+    @Test
+    public void testTraverse() {
+        byte[] encoded = RLP.encodeList(RLP.encodeElement(new byte[] {1}),
+                RLP.encodeList(RLP.encodeElement(new byte[] {2}), RLP.encodeList(RLP.encodeElement(new byte[] {3}))));
+
+        List<Integer> items = new ArrayList<>();
+        int[] lists = new int[1];
+        RLP.traverse(encoded, new RLP.Visitor() {
+            @Override
+            public boolean visitList(byte[] data, int offset, int length) {
+                lists[0]++;
+                return true;
+            }
+
+            @Override
+            public void visitItem(byte[] data, int offset, int length) {
+                items.add((int) data[offset]);
+            }
+        });
+        assertEquals(3, lists[0]);
+        assertEquals(Arrays.asList(1, 2, 3), items);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testLazyListNonCanonical() {
+        // single byte encoded as byte string
+        RLP.decodeLazyList(Hex.decode("c28101"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testLazyListWrongLength() {
+        RLP.decodeLazyList(Hex.decode("c4820101"));
+    }
 }
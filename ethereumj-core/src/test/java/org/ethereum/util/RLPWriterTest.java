@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RLPWriterTest {
+
+    @Test
+    public void testSameAsRLP() {
+        Random rnd = new Random(1);
+        byte[] longItem = new byte[1000]; rnd.nextBytes(longItem);
+        byte[] shortItem = new byte[20]; rnd.nextBytes(shortItem);
+        long[] numbers = {0, 1, 0x7f, 0x80, 0xff, 0x100, 0xffffff, Long.MAX_VALUE};
+        BigInteger big = BigInteger.ONE.shiftLeft(100);
+
+        RLPWriter writer = new RLPWriter().startList();
+        byte[][] expected = new byte[8 + numbers.length][];
+        int i = 0;
+        writer.writeElement(null); expected[i++] = RLP.encodeElement(null);
+        writer.writeElement(new byte[] {0}); expected[i++] = RLP.encodeElement(new byte[] {0});
+        writer.writeElement(new byte[] {(byte) 0x80}); expected[i++] = RLP.encodeElement(new byte[] {(byte) 0x80});
+        writer.writeElement(shortItem); expected[i++] = RLP.encodeElement(shortItem);
+        writer.writeElement(longItem); expected[i++] = RLP.encodeElement(longItem);
+        writer.writeBigInteger(big); expected[i++] = RLP.encodeBigInteger(big);
+        for (long n : numbers) {
+            writer.writeLong(n);
+            expected[i++] = RLP.encodeBigInteger(BigInteger.valueOf(n));
+        }
+        writer.startList().endList(); expected[i++] = RLP.encodeList();
+        writer.startList().writeEncoded(RLP.encodeElement(longItem)).endList();
+        expected[i++] = RLP.encodeList(RLP.encodeElement(longItem));
+        writer.endList();
+
+        byte[] encoded = RLP.encodeList(expected);
+        assertEquals(encoded.length, writer.getEncodedSize());
+        assertArrayEquals(encoded, writer.toByteArray());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length);
+        writer.writeTo(direct);
+        direct.flip();
+        byte[] fromDirect = new byte[encoded.length];
+        direct.get(fromDirect);
+        assertArrayEquals(encoded, fromDirect);
+
+        ByteBuf buf = Unpooled.buffer(1);
+        buf.writeByte(0x42);
+        writer.writeTo(buf);
+        assertEquals(encoded.length + 1, buf.readableBytes());
+        assertEquals(0x42, buf.readByte());
+        byte[] fromBuf = new byte[encoded.length];
+        buf.readBytes(fromBuf);
+        assertArrayEquals(encoded, fromBuf);
+    }
+
+    @Test
+    public void testReset() {
+        RLPWriter writer = new RLPWriter();
+        for (int i = 0; i < 100; i++) {
+            writer.startList().writeInt(i);
+        }
+        for (int i = 0; i < 100; i++) {
+            writer.endList();
+        }
+        writer.toByteArray();
+
+        writer.reset().startList().writeLong(1).writeLong(2).endList();
+        assertArrayEquals(RLP.encodeList(RLP.encodeInt(1), RLP.encodeInt(2)), writer.toByteArray());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testListNotEnded() {
+        new RLPWriter().startList().writeLong(1).toByteArray();
+    }
+}
@@ -21,6 +21,8 @@ import org.ethereum.config.SystemProperties;
 import org.ethereum.core.AccountState;
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.core.Repository;
+import org.ethereum.db.JournaledRepository;
+import org.ethereum.db.RepositoryImpl;
 
 import org.ethereum.vm.program.Program;
 import org.ethereum.vm.program.invoke.ProgramInvokeMockImpl;
@@ -36,6 +38,7 @@ import org.spongycastle.util.encoders.Hex;
 import java.math.BigInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 /**
  * @author Roman Mandeleil
@@ -362,6 +365,48 @@ public class VMComplexTest {
         repository.close();
     }
 
+    @Test // CALL with insufficient balance followed by another CALL on journaled tracks
+    public void test7() {
+
+        /**
+         *       #The code will run
+         *       ------------------
+
+                 a = call(0xffff, 0xaaaa...aa, 1000)
+                 contract.storage[1] = call(0xffff, 0xbbbb...bb, 1)
+                 contract.storage[0] = a + 2
+         */
+
+        byte[] ownerAddr = Hex.decode("cd2a3d9f938e13cd947ec05abc7fe734df8dd826");
+        byte[] addrA = Hex.decode("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+        byte[] addrB = Hex.decode("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+        byte[] code = Hex.decode("60006000600060006103e873" + Hex.toHexString(addrA) + "61fffff1" +
+                "6000600060006000600173" + Hex.toHexString(addrB) + "61fffff1" +
+                "600155600201600055" + "00");
+
+        ProgramInvokeMockImpl pi = new ProgramInvokeMockImpl();
+        JournaledRepository track = new JournaledRepository((RepositoryImpl) pi.getRepository());
+        pi.setRepository(track);
+        track.addBalance(ownerAddr, BigInteger.TEN);
+
+        VM vm = new VM();
+        Program program = new Program(code, pi);
+
+        try {
+            while (!program.isStopped())
+                vm.step(program);
+        } catch (RuntimeException e) {
+            program.setRuntimeFailure(e);
+        }
+
+        assertNull(program.getResult().getException());
+        assertEquals(DataWord.of(2), track.getStorageValue(ownerAddr, DataWord.ZERO));
+        assertEquals(DataWord.ONE, track.getStorageValue(ownerAddr, DataWord.ONE));
+        assertEquals(BigInteger.valueOf(9), track.getBalance(ownerAddr));
+        assertEquals(BigInteger.ZERO, track.getBalance(addrA));
+        assertEquals(BigInteger.ONE, track.getBalance(addrB));
+    }
+
     @Test // CALL contract with too much gas
     @Ignore
     public void test5() {